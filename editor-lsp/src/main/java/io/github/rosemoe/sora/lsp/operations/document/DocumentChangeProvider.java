@@ -27,6 +27,7 @@ import org.eclipse.lsp4j.DidChangeTextDocumentParams;
 import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 import org.eclipse.lsp4j.TextDocumentSyncKind;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -36,6 +37,7 @@ import io.github.rosemoe.sora.event.ContentChangeEvent;
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.operations.RunOnlyProvider;
 import io.github.rosemoe.sora.lsp.utils.LspUtils;
+import io.github.rosemoe.sora.text.Content;
 
 public class DocumentChangeProvider extends RunOnlyProvider<ContentChangeEvent> {
 
@@ -64,10 +66,19 @@ public class DocumentChangeProvider extends RunOnlyProvider<ContentChangeEvent>
     @Override
     public void run(ContentChangeEvent data) {
 
-        var params = createDidChangeTextDocumentParams(data);
+        var kind = editor.getSyncOptions();
+        var isFullSync = kind == TextDocumentSyncKind.None || kind == TextDocumentSyncKind.Full;
+        var params = createDidChangeTextDocumentParams(data, isFullSync);
+        // Full text is built in background from an immutable snapshot
+        var snapshot = isFullSync ? data.getEditor().getText().snapshot() : null;
 
         editor.getRequestManagerOfOptional().ifPresent(requestManager -> {
-            future = CompletableFuture.runAsync(() -> requestManager.didChange(params));
+            future = CompletableFuture.runAsync(() -> {
+                if (snapshot != null) {
+                    params.setContentChanges(createFullTextDocumentContentChangeEvent(snapshot));
+                }
+                requestManager.didChange(params);
+            });
             ForkJoinPool.commonPool().execute(() -> {
                 future.join();
             });
@@ -77,8 +88,8 @@ public class DocumentChangeProvider extends RunOnlyProvider<ContentChangeEvent>
 
     }
 
-    private List<TextDocumentContentChangeEvent> createFullTextDocumentContentChangeEvent() {
-        return List.of(LspUtils.createTextDocumentContentChangeEvent(editor.getEditorContent()));
+    private List<TextDocumentContentChangeEvent> createFullTextDocumentContentChangeEvent(Content text) {
+        return List.of(LspUtils.createTextDocumentContentChangeEvent(text.toString()));
     }
 
     private List<TextDocumentContentChangeEvent> createIncrementTextDocumentContentChangeEvent(ContentChangeEvent data) {
@@ -87,11 +98,8 @@ public class DocumentChangeProvider extends RunOnlyProvider<ContentChangeEvent>
     }
 
 
-    private DidChangeTextDocumentParams createDidChangeTextDocumentParams(ContentChangeEvent data) {
-        var kind = editor.getSyncOptions();
-
-        var isFullSync = kind == TextDocumentSyncKind.None || kind == TextDocumentSyncKind.Full;
-
-        return LspUtils.createDidChangeTextDocumentParams(editor.getCurrentFileUri(), isFullSync ? createFullTextDocumentContentChangeEvent() : createIncrementTextDocumentContentChangeEvent(data));
+    private DidChangeTextDocumentParams createDidChangeTextDocumentParams(ContentChangeEvent data, boolean isFullSync) {
+        // The full text is filled later, see run()
+        return LspUtils.createDidChangeTextDocumentParams(editor.getCurrentFileUri(), isFullSync ? new ArrayList<>() : createIncrementTextDocumentContentChangeEvent(data));
     }
 }
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.analysis
+
+import android.os.Message
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class AnalysisSchedulerTest {
+
+    companion object {
+        private const val TIMEOUT = 10000L
+    }
+
+    /**
+     * Run the handler for each message, and count the background steps
+     */
+    private class TestTask(scheduler: AnalysisScheduler, private val backgroundSteps: Int = 0, private val handler: (Message) -> Unit = {}) :
+        AnalysisScheduler.Task(scheduler) {
+
+        val handled = AtomicInteger()
+        val steps = AtomicInteger()
+
+        override fun handleMessage(msg: Message): Boolean {
+            handler(msg)
+            handled.incrementAndGet()
+            return true
+        }
+
+        override fun hasBackgroundWork() = steps.get() < backgroundSteps
+
+        override fun runBackgroundWork(): Boolean {
+            steps.incrementAndGet()
+            return true
+        }
+    }
+
+    private fun awaitCondition(condition: () -> Boolean) {
+        val startTime = System.currentTimeMillis()
+        while (!condition()) {
+            assertTrue("timeout", System.currentTimeMillis() - startTime < TIMEOUT)
+            Thread.sleep(1)
+        }
+    }
+
+    @Test
+    fun testTimeSlicing() {
+        val scheduler = AnalysisScheduler(1)
+        val started = CountDownLatch(1)
+        val long = TestTask(scheduler) {
+            started.countDown()
+            Thread.sleep(10)
+        }
+        for (i in 0 until 50) {
+            long.offerMessage(0, null)
+        }
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS))
+        // Handled after the current slice of the long task, instead of after all its messages
+        var handledOfLong = -1
+        val short = TestTask(scheduler) {
+            handledOfLong = long.handled.get()
+        }
+        short.offerMessage(0, null)
+        awaitCondition { long.handled.get() == 50 && short.handled.get() == 1 }
+        assertTrue("short task waited for $handledOfLong messages", handledOfLong in 1 until 20)
+    }
+
+    @Test
+    fun testInvisibleTaskNeverBlocksVisibleOne() {
+        val scheduler = AnalysisScheduler(1)
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        // For example, parsing a large file opened in background
+        val invisible = TestTask(scheduler) {
+            started.countDown()
+            release.await()
+        }
+        invisible.setForeground(false)
+        invisible.offerMessage(0, null)
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS))
+        try {
+            val visible = TestTask(scheduler)
+            visible.offerMessage(0, null)
+            awaitCondition { visible.handled.get() == 1 }
+            assertEquals(0, invisible.handled.get())
+        } finally {
+            release.countDown()
+        }
+        awaitCondition { invisible.handled.get() == 1 }
+    }
+
+    @Test
+    fun testQueuedSliceMovesToForeground() {
+        val scheduler = AnalysisScheduler(1)
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val blocker = TestTask(scheduler) {
+            started.countDown()
+            release.await()
+        }
+        blocker.setForeground(false)
+        blocker.offerMessage(0, null)
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS))
+        try {
+            // Queued behind the blocker in the pool of invisible editors
+            val task = TestTask(scheduler)
+            task.setForeground(false)
+            task.offerMessage(0, null)
+            Thread.sleep(50)
+            assertEquals(0, task.handled.get())
+            // Run in the pool of visible editors as soon as the editor becomes visible
+            task.setForeground(true)
+            awaitCondition { task.handled.get() == 1 }
+            assertEquals(0, blocker.handled.get())
+        } finally {
+            release.countDown()
+        }
+        awaitCondition { blocker.handled.get() == 1 }
+    }
+
+    @Test
+    fun testBackgroundWorkOnlyForVisibleTasks() {
+        val scheduler = AnalysisScheduler(1)
+        val task = TestTask(scheduler, backgroundSteps = 5)
+        task.setForeground(false)
+        task.offerMessage(0, null)
+        awaitCondition { task.handled.get() == 1 }
+        Thread.sleep(100)
+        assertEquals("background work of invisible task is run", 0, task.steps.get())
+        task.setForeground(true)
+        awaitCondition { task.steps.get() == 5 }
+        assertFalse(task.isAborted)
+    }
+
+    @Test
+    fun testAbortReleasesTask() {
+        val scheduler = AnalysisScheduler(1)
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val released = CountDownLatch(1)
+        val task = object : AnalysisScheduler.Task(scheduler) {
+            val handled = AtomicInteger()
+
+            override fun handleMessage(msg: Message): Boolean {
+                started.countDown()
+                release.await()
+                handled.incrementAndGet()
+                return true
+            }
+
+            override fun releaseResources() {
+                released.countDown()
+            }
+        }
+        for (i in 0 until 10) {
+            task.offerMessage(0, null)
+        }
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS))
+        task.abort()
+        release.countDown()
+        assertTrue(released.await(TIMEOUT, TimeUnit.MILLISECONDS))
+        // Queued messages are discarded
+        assertEquals(1, task.handled.get())
+    }
+
+}
@@ -0,0 +1,396 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.analysis
+
+import android.os.Bundle
+import android.util.Log
+import io.github.rosemoe.sora.lang.brackets.BracketsProvider
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer
+import io.github.rosemoe.sora.lang.styling.CodeBlock
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.lang.styling.Styles
+import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentReference
+import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import kotlin.random.Random
+
+class AsyncIncrementalAnalyzeManagerTest {
+
+    companion object {
+        private const val TIMEOUT = 10000L
+        private const val NORMAL = 0L
+        private const val COMMENT = 1L
+    }
+
+    /**
+     * Block comments between '/ *' and '* /', so that states are kept across lines. Braces form code blocks.
+     */
+    private class CommentManager : AsyncIncrementalAnalyzeManager<Int, Unit>() {
+
+        /**
+         * If set, tokenizing [blockedLine], or any line if it is -1, waits for the gate
+         */
+        @Volatile
+        var gate: CountDownLatch? = null
+
+        @Volatile
+        var blockedLine = -1
+
+        override fun getInitialState() = 0
+
+        override fun stateEquals(state: Int, another: Int) = state == another
+
+        override fun tokenizeLine(line: CharSequence, state: Int, lineIndex: Int): IncrementalAnalyzeManager.LineTokenizeResult<Int, Unit> {
+            val gate = gate
+            if (gate != null && (blockedLine == -1 || lineIndex == blockedLine)) {
+                gate.await()
+            }
+            val spans = ArrayList<Span>()
+            var st = state
+            spans.add(Span.obtain(0, if (st == 1) COMMENT else NORMAL))
+            var i = 0
+            while (i < line.length) {
+                if (st == 0 && line.startsWith("/*", i)) {
+                    st = 1
+                    if (i > 0) spans.add(Span.obtain(i, COMMENT))
+                    i += 2
+                } else if (st == 1 && line.startsWith("*/", i)) {
+                    st = 0
+                    i += 2
+                    if (i < line.length) spans.add(Span.obtain(i, NORMAL))
+                } else {
+                    i++
+                }
+            }
+            return IncrementalAnalyzeManager.LineTokenizeResult(st, null, spans)
+        }
+
+        override fun generateSpansForLine(tokens: IncrementalAnalyzeManager.LineTokenizeResult<Int, Unit>): List<Span> {
+            throw UnsupportedOperationException()
+        }
+
+        override fun computeBlocks(text: Content, delegate: AsyncIncrementalAnalyzeManager<Int, Unit>.CodeBlockAnalyzeDelegate): List<CodeBlock> {
+            val blocks = ArrayList<CodeBlock>()
+            val stack = ArrayDeque<CharPosition>()
+            for (line in 0 until text.lineCount) {
+                val str = text.getLine(line)
+                for (column in str.indices) {
+                    if (str[column] == '{') {
+                        stack.addLast(CharPosition(line, column))
+                    } else if (str[column] == '}' && stack.isNotEmpty()) {
+                        val start = stack.removeLast()
+                        blocks.add(CodeBlock().also {
+                            it.startLine = start.line
+                            it.startColumn = start.column
+                            it.endLine = line
+                            it.endColumn = column
+                        })
+                    }
+                }
+            }
+            return blocks
+        }
+    }
+
+    /**
+     * Results of an analyzer, recorded on the analysis thread when styles are sent
+     */
+    private class Receiver(private val manager: AsyncIncrementalAnalyzeManager<*, *>) : StyleReceiver {
+
+        class Result(val styles: Styles, val processed: Long, val tokenizedLines: Int, val blocks: String?)
+
+        @Volatile
+        var result: Result? = null
+
+        val styles get() = result?.styles
+
+        val blocks get() = result?.blocks
+
+        override fun setStyles(sourceManager: AnalyzeManager, styles: Styles?) {
+            if (styles != null) {
+                val blocks = styles.blocks?.joinToString(" ") { "${it.startLine}:${it.startColumn}-${it.endLine}:${it.endColumn}" }
+                result = Result(styles, manager.processedModificationCount, styles.spans.lineCount, blocks)
+            }
+        }
+
+        override fun setStyles(sourceManager: AnalyzeManager, styles: Styles?, action: Runnable?) {
+            setStyles(sourceManager, styles)
+            action?.run()
+        }
+
+        override fun updateStyles(sourceManager: AnalyzeManager, styles: Styles, range: StyleUpdateRange) {
+            setStyles(sourceManager, styles)
+        }
+
+        override fun setDiagnostics(sourceManager: AnalyzeManager, diagnostics: DiagnosticsContainer?) {}
+
+        override fun updateBracketProvider(sourceManager: AnalyzeManager, provider: BracketsProvider?) {}
+
+        /**
+         * Wait until the given count of modifications are processed and all the given lines are tokenized
+         */
+        fun await(modifications: Long, lineCount: Int) {
+            val startTime = System.currentTimeMillis()
+            while (result.let { it == null || it.processed != modifications || it.tokenizedLines != lineCount }) {
+                assertTrue("analysis timeout", System.currentTimeMillis() - startTime < TIMEOUT)
+                Thread.sleep(1)
+            }
+        }
+
+        fun spansToString(lineCount: Int) = buildString {
+            val reader = styles!!.spans.read()
+            for (line in 0 until lineCount) {
+                append(line).append(':')
+                for (span in reader.getSpansOnLine(line)) {
+                    append(' ').append(span.column).append('/').append(span.style)
+                }
+                append('\n')
+            }
+        }
+    }
+
+    private fun CommentManager.start(text: Content): Receiver {
+        val receiver = Receiver(this)
+        setReceiver(receiver)
+        reset(ContentReference(text), Bundle())
+        return receiver
+    }
+
+    private fun CommentManager.insert(text: Content, line: Int, column: Int, str: String) {
+        text.insert(line, column, str)
+        val end = text.indexer.getCharPosition(text.getCharIndex(line, column) + str.length)
+        insert(CharPosition(line, column), end, str)
+    }
+
+    private fun CommentManager.delete(text: Content, startIndex: Int, endIndex: Int) {
+        val start = text.indexer.getCharPosition(startIndex)
+        val end = text.indexer.getCharPosition(endIndex)
+        val deleted = text.subSequence(startIndex, endIndex)
+        text.delete(startIndex, endIndex)
+        delete(start, end, deleted)
+    }
+
+    private fun CommentManager.modify(text: Content, modification: Triple<Int, Int, String?>) {
+        val (start, end, str) = modification
+        if (str == null) {
+            delete(text, start, end)
+        } else {
+            val pos = text.indexer.getCharPosition(start)
+            insert(text, pos.line, pos.column, str)
+        }
+    }
+
+    /**
+     * Assert that the analyzer has the same results as a new analyzer of the text
+     */
+    private fun assertSameAsNewAnalysis(text: Content, receiver: Receiver, message: String = "") {
+        val manager = CommentManager()
+        val expected = manager.start(text)
+        expected.await(0, text.lineCount)
+        manager.destroy()
+        assertEquals(message, expected.spansToString(text.lineCount), receiver.spansToString(text.lineCount))
+        assertEquals(message, expected.blocks, receiver.blocks)
+    }
+
+    @Test
+    fun testDeletionAcrossLinesRetokenizesFollowingLines() {
+        val text = Content("/* a\nb */\nc\nd {\n}")
+        val manager = CommentManager()
+        val receiver = manager.start(text)
+        receiver.await(0, 5)
+        // Line 0 ends in a comment, and line 1 does not. After deleting the end of comment, the merged
+        // line ends in a comment, the same as old state of line 0. Following lines are in the comment now
+        manager.delete(text, text.getCharIndex(0, 4), text.getCharIndex(1, 4))
+        assertEquals("/* a\nc\nd {\n}", text.toString())
+        receiver.await(1, 4)
+        assertEquals(listOf(Span.obtain(0, COMMENT)), receiver.styles!!.spans.read().getSpansOnLine(1))
+        assertSameAsNewAnalysis(text, receiver)
+
+        // And the other way around
+        manager.delete(text, 0, text.getCharIndex(1, 0))
+        receiver.await(2, 3)
+        assertEquals(listOf(Span.obtain(0, NORMAL)), receiver.styles!!.spans.read().getSpansOnLine(1))
+        assertSameAsNewAnalysis(text, receiver)
+        manager.destroy()
+    }
+
+    @Test
+    fun testLazyTokenizationConvergesToEager() {
+        val text = Content(buildString {
+            for (i in 0 until 5000) {
+                when (i % 97) {
+                    0 -> append("fun f$i() { /* begin\n")
+                    5 -> append("end */ }\n")
+                    else -> append("val x = $i\n")
+                }
+            }
+        })
+        val manager = CommentManager()
+        manager.isLazyTokenizationEnabled = true
+        manager.onVisibleLineRangeChanged(3000, 3050)
+        val receiver = manager.start(text)
+        // Modify tokenized lines and lines that are not tokenized yet, while lines are tokenized in background
+        manager.insert(text, 10, 0, "/*")
+        manager.insert(text, 4000, 0, "{ */\n")
+        manager.delete(text, text.getCharIndex(2000, 0), text.getCharIndex(2100, 0))
+        manager.insert(text, 2, 0, "*/")
+        receiver.await(4, text.lineCount)
+        assertSameAsNewAnalysis(text, receiver)
+        manager.destroy()
+    }
+
+    @Test
+    fun testProvisionalSpansOfVisibleLines() {
+        val text = Content(buildString {
+            for (i in 0 until 5000) {
+                when (i) {
+                    2900 -> append("/* begin\n")
+                    3010 -> append("end */\n")
+                    else -> append("val x = $i\n")
+                }
+            }
+        })
+        val manager = CommentManager()
+        manager.isLazyTokenizationEnabled = true
+        // Stop lazy tokenization at its second step
+        val gate = CountDownLatch(1)
+        manager.gate = gate
+        manager.blockedLine = 1000
+        manager.onVisibleLineRangeChanged(3000, 3050)
+        val receiver = manager.start(text)
+        try {
+            // Visible lines and a margin around them are tokenized from the initial state, so line 3000
+            // is not known to be in the comment yet. Lines out of the range are plain text
+            val startTime = System.currentTimeMillis()
+            while (receiver.styles?.spans?.read()?.getSpansOnLine(3000) != listOf(Span.obtain(0, NORMAL))) {
+                assertTrue("analysis timeout", System.currentTimeMillis() - startTime < TIMEOUT)
+                Thread.sleep(1)
+            }
+            val reader = receiver.styles!!.spans.read()
+            assertEquals(1000, receiver.styles!!.spans.lineCount)
+            assertEquals(listOf(Span.obtain(0, NORMAL)), reader.getSpansOnLine(2950))
+            assertEquals(listOf(Span.obtain(0, NORMAL)), reader.getSpansOnLine(3100))
+            assertEquals(listOf(Span.obtain(0, EditorColorScheme.TEXT_NORMAL.toLong())), reader.getSpansOnLine(2949))
+            assertEquals(listOf(Span.obtain(0, EditorColorScheme.TEXT_NORMAL.toLong())), reader.getSpansOnLine(3101))
+        } finally {
+            gate.countDown()
+        }
+        receiver.await(0, text.lineCount)
+        assertEquals(listOf(Span.obtain(0, COMMENT)), receiver.styles!!.spans.read().getSpansOnLine(3000))
+        assertSameAsNewAnalysis(text, receiver)
+        manager.destroy()
+    }
+
+    @Test
+    fun testMergedModificationsGiveSameResults() {
+        val seed = System.currentTimeMillis()
+        val random = Random(seed)
+        Log.v(javaClass.simpleName, "testMergedModificationsGiveSameResults: Random object is initialized with seed $seed")
+        val pieces = arrayOf("/*", "*/", "{", "}", "\n", "a", " ", "{\n", "*/\n", "\n\n")
+        val initial = buildString {
+            for (i in 0 until 200) {
+                append(pieces.random(random))
+            }
+        }
+        val mergedText = Content(initial)
+        val merged = CommentManager()
+        val mergedReceiver = merged.start(mergedText)
+        val singleText = Content(initial)
+        val single = CommentManager()
+        val singleReceiver = single.start(singleText)
+        var modifications = 0L
+        var burstSizes = 0L
+        for (round in 0 until 100) {
+            // Generate a burst of modifications as (start, end, inserted text)
+            val burst = ArrayList<Triple<Int, Int, String?>>()
+            val count = random.nextInt(2, 6)
+            for (i in 0 until count) {
+                val length = singleText.length
+                val modification = if (length > 0 && random.nextInt(3) == 0) {
+                    val start = random.nextInt(length)
+                    Triple(start, minOf(length, start + 1 + random.nextInt(10)), null)
+                } else {
+                    val start = random.nextInt(length + 1)
+                    Triple(start, start, pieces.random(random))
+                }
+                burst.add(modification)
+                // Handled one by one
+                single.modify(singleText, modification)
+                singleReceiver.await(modifications + i + 1, singleText.lineCount)
+            }
+            // Block the analyzer, so that the modifications are queued and handled together
+            val gate = CountDownLatch(1)
+            merged.gate = gate
+            for (modification in burst) {
+                merged.modify(mergedText, modification)
+            }
+            merged.gate = null
+            gate.countDown()
+            modifications += count
+            burstSizes += count - 1
+            mergedReceiver.await(modifications, mergedText.lineCount)
+
+            val message = "round $round, text:\n$mergedText"
+            assertEquals(message, singleReceiver.spansToString(singleText.lineCount), mergedReceiver.spansToString(mergedText.lineCount))
+            assertEquals(message, singleReceiver.blocks, mergedReceiver.blocks)
+        }
+        // The first modification of a burst may be taken before the others are queued
+        assertTrue(merged.mergedModificationCount >= burstSizes - 100)
+        assertTrue(merged.mergedModificationCount > 0)
+        assertEquals(0, single.mergedModificationCount)
+        assertSameAsNewAnalysis(mergedText, mergedReceiver)
+        merged.destroy()
+        single.destroy()
+    }
+
+    @Test
+    fun testReleaseWhenInvisible() {
+        val text = Content("/* a\nb */\nc {\n}")
+        val manager = CommentManager()
+        manager.isReleaseWhenInvisible = true
+        val receiver = manager.start(text)
+        receiver.await(0, 4)
+        val oldResult = receiver.result
+
+        manager.onEditorVisibilityChanged(false)
+        // The released analyzer ignores modifications, and keeps the old styles in the editor
+        manager.insert(text, 0, 0, "x\n*/ {")
+        Thread.sleep(50)
+        assertSame(oldResult, receiver.result)
+
+        // The text is analyzed again
+        manager.onEditorVisibilityChanged(true)
+        receiver.await(0, 5)
+        assertSameAsNewAnalysis(text, receiver)
+        manager.destroy()
+    }
+
+}
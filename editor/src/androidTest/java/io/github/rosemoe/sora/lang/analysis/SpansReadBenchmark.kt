@@ -0,0 +1,162 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.analysis
+
+import android.os.Bundle
+import android.util.Log
+import io.github.rosemoe.sora.lang.brackets.BracketsProvider
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer
+import io.github.rosemoe.sora.lang.styling.CodeBlock
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.lang.styling.Styles
+import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentReference
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.concurrent.thread
+
+/**
+ * Measure the time of reading spans of visible lines for each frame, while text is typed
+ * continuously and re-tokenized by [AsyncIncrementalAnalyzeManager].
+ */
+class SpansReadBenchmark {
+
+    companion object {
+        private const val TAG = "SpansReadBenchmark"
+        private const val LINE_COUNT = 20000
+        private const val VISIBLE_LINES = 60
+        private const val DURATION_MS = 5000L
+        private const val TYPING_INTERVAL_MS = 2L
+    }
+
+    /**
+     * Mark words and keep the comment state across lines, so that typing re-tokenizes many lines
+     */
+    private class Manager : AsyncIncrementalAnalyzeManager<Int, Unit>() {
+
+        override fun getInitialState() = 0
+
+        override fun stateEquals(state: Int, another: Int) = state == another
+
+        override fun tokenizeLine(line: CharSequence, state: Int, lineIndex: Int): IncrementalAnalyzeManager.LineTokenizeResult<Int, Unit> {
+            val spans = ArrayList<Span>()
+            var st = state
+            spans.add(Span.obtain(0, st.toLong()))
+            var i = 0
+            while (i < line.length) {
+                if (line[i] == '#') {
+                    st = 1 - st
+                    spans.add(Span.obtain(i, st.toLong()))
+                } else if (line[i] == ' ' && i + 1 < line.length) {
+                    spans.add(Span.obtain(i + 1, (2 + st).toLong()))
+                }
+                i++
+            }
+            return IncrementalAnalyzeManager.LineTokenizeResult(st, null, spans)
+        }
+
+        override fun generateSpansForLine(tokens: IncrementalAnalyzeManager.LineTokenizeResult<Int, Unit>): List<Span> {
+            throw UnsupportedOperationException()
+        }
+
+        override fun computeBlocks(text: Content, delegate: AsyncIncrementalAnalyzeManager<Int, Unit>.CodeBlockAnalyzeDelegate): List<CodeBlock> = emptyList()
+    }
+
+    @Test
+    fun benchmarkFrameTimeWhileTyping() {
+        val text = Content(buildString {
+            for (i in 0 until LINE_COUNT) {
+                append("val text").append(i).append(" = \"quick brown fox jumps over the lazy dog\"\n")
+            }
+        })
+        val manager = Manager()
+        val styles = AtomicReference<Styles?>()
+        manager.setReceiver(object : StyleReceiver {
+            override fun setStyles(sourceManager: AnalyzeManager, newStyles: Styles?) {
+                styles.set(newStyles)
+            }
+
+            override fun setStyles(sourceManager: AnalyzeManager, newStyles: Styles?, action: Runnable?) {
+                styles.set(newStyles)
+                action?.run()
+            }
+
+            override fun setDiagnostics(sourceManager: AnalyzeManager, diagnostics: DiagnosticsContainer?) {}
+
+            override fun updateBracketProvider(sourceManager: AnalyzeManager, provider: BracketsProvider?) {}
+        })
+        manager.reset(ContentReference(text), Bundle())
+        val firstLine = LINE_COUNT / 2
+        manager.onVisibleLineRangeChanged(firstLine, firstLine + VISIBLE_LINES - 1)
+        while (styles.get() == null) {
+            Thread.sleep(10)
+        }
+
+        // Type at the first visible line. '#' toggles the state of all the following lines
+        val typing = AtomicBoolean(true)
+        var typed = 0
+        val typist = thread {
+            val chars = "ab #"
+            while (typing.get()) {
+                val column = text.getColumnCount(firstLine)
+                val str = chars[typed % chars.length].toString()
+                text.insert(firstLine, column, str)
+                manager.insert(CharPosition(firstLine, column), CharPosition(firstLine, column + 1), str)
+                typed++
+                Thread.sleep(TYPING_INTERVAL_MS)
+            }
+        }
+
+        val frameTimes = ArrayList<Long>()
+        var checksum = 0L
+        val end = System.currentTimeMillis() + DURATION_MS
+        while (System.currentTimeMillis() < end) {
+            val start = System.nanoTime()
+            val reader = styles.get()!!.spans.read()
+            for (line in firstLine until firstLine + VISIBLE_LINES) {
+                reader.moveToLine(line)
+                for (i in 0 until reader.spanCount) {
+                    checksum += reader.getSpanColumn(i) + reader.getSpanStyle(i)
+                }
+            }
+            reader.moveToLine(-1)
+            frameTimes.add(System.nanoTime() - start)
+        }
+        typing.set(false)
+        typist.join()
+        manager.destroy()
+
+        assertTrue(frameTimes.isNotEmpty())
+        frameTimes.sort()
+        val average = frameTimes.average() / 1000
+        val p99 = frameTimes[(frameTimes.size * 99 / 100).coerceAtMost(frameTimes.size - 1)] / 1000
+        val max = frameTimes.last() / 1000
+        Log.i(TAG, "${frameTimes.size} frames of $VISIBLE_LINES lines while typing $typed chars: average ${"%.1f".format(average)}us, p99 ${p99}us, max ${max}us (checksum $checksum)")
+    }
+
+}
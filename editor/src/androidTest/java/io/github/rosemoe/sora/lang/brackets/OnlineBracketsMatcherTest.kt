@@ -0,0 +1,200 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.brackets
+
+import io.github.rosemoe.sora.lang.styling.MappedSpans
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.lang.styling.Spans
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentLine
+import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
+import org.junit.Assert.*
+import org.junit.Test
+
+class OnlineBracketsMatcherTest {
+
+    /**
+     * Skips brackets in spans of [EditorColorScheme.LITERAL] and [EditorColorScheme.COMMENT]
+     */
+    private class CodeMatcher(limit: Int = 10000) : OnlineBracketsMatcher(charArrayOf('(', ')', '{', '}'), limit) {
+
+        override fun isCodeSpan(reader: Spans.Reader, index: Int): Boolean {
+            val style = reader.getSpanAt(index).style
+            return style != EditorColorScheme.LITERAL.toLong() && style != EditorColorScheme.COMMENT.toLong()
+        }
+
+    }
+
+    /**
+     * Counts the lines read from the text
+     */
+    private class CountingContent(text: CharSequence) : Content(text) {
+
+        var lineReads = 0
+
+        override fun getLine(line: Int): ContentLine {
+            lineReads++
+            return super.getLine(line)
+        }
+
+    }
+
+    /**
+     * Build spans from (line, column, style) triples, ordered by position
+     */
+    private fun spansOf(lastLine: Int, vararg spans: Triple<Int, Int, Int>): Spans {
+        val builder = MappedSpans.Builder()
+        for ((line, column, style) in spans) {
+            builder.add(line, Span.obtain(column, style.toLong()))
+        }
+        builder.determine(lastLine)
+        return builder.build()
+    }
+
+    private fun assertPair(expectedLeft: Int, expectedRight: Int, result: PairedBracket?) {
+        assertNotNull(result)
+        assertEquals(expectedLeft, result!!.leftIndex)
+        assertEquals(expectedRight, result.rightIndex)
+    }
+
+    @Test
+    fun testLineSeparators() {
+        for (separator in listOf("\n", "\r", "\r\n")) {
+            val str = "a(b${separator}c${separator}${separator}d)e${separator}{${separator}}"
+            val text = Content(str)
+            val matcher = CodeMatcher()
+            val open = str.indexOf('(')
+            val close = str.indexOf(')')
+            // Cursor after the bracket
+            assertPair(open, close, matcher.getPairedBracketAt(text, open + 1))
+            // Cursor before the bracket
+            assertPair(open, close, matcher.getPairedBracketAt(text, close))
+            // Brackets separated by a single line separator, in both directions
+            val braceOpen = str.indexOf('{')
+            val braceClose = str.indexOf('}')
+            assertPair(braceOpen, braceClose, CodeMatcher().getPairedBracketAt(text, braceOpen))
+            assertPair(braceOpen, braceClose, CodeMatcher().getPairedBracketAt(text, braceClose))
+            // Positions inside the line separators
+            for (i in str.indices) {
+                if (str[i] == '\r' || str[i] == '\n') {
+                    val result = CodeMatcher().getPairedBracketAt(text, i + 1)
+                    if (result != null) {
+                        assertTrue(result.leftIndex == i + 1 || result.rightIndex == i + 1)
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testBracketsInStringsAndComments() {
+        // f(")", x) // {
+        // }
+        val str = "f(\")\", x) // {\n}"
+        val text = Content(str)
+        val spans = spansOf(1,
+            Triple(0, 0, EditorColorScheme.TEXT_NORMAL),
+            Triple(0, 2, EditorColorScheme.LITERAL),
+            Triple(0, 5, EditorColorScheme.TEXT_NORMAL),
+            Triple(0, 10, EditorColorScheme.COMMENT),
+            Triple(1, 0, EditorColorScheme.TEXT_NORMAL)
+        )
+        val matcher = CodeMatcher()
+        assertPair(1, 3, matcher.getPairedBracketAt(text, 1))
+        matcher.setSpans(spans)
+        assertPair(1, 8, matcher.getPairedBracketAt(text, 1))
+        assertPair(1, 8, matcher.getPairedBracketAt(text, 8))
+        // The bracket in string has no pair in strings
+        assertNull(matcher.getPairedBracketAt(text, 3))
+        // The brace in comment is not paired with the one in code
+        assertNull(matcher.getPairedBracketAt(text, str.length))
+        matcher.setSpans(null)
+        assertPair(str.indexOf('{'), str.length - 1, matcher.getPairedBracketAt(text, str.length))
+    }
+
+    @Test
+    fun testSpansBehindText() {
+        // Spans are computed for the first line only, and the rest lines are inserted later
+        val str = "(\")\"\n)\n\")\""
+        val text = Content(str)
+        val matcher = CodeMatcher()
+        matcher.setSpans(spansOf(0,
+            Triple(0, 0, EditorColorScheme.TEXT_NORMAL),
+            Triple(0, 1, EditorColorScheme.LITERAL)
+        ))
+        // The string literal span is extended to the end of line 0 only, so the bracket on line 1 is code
+        assertPair(0, 5, matcher.getPairedBracketAt(text, 0))
+        assertPair(0, 5, matcher.getPairedBracketAt(text, 5))
+        // Brackets on lines without spans are all regarded as code
+        assertNull(matcher.getPairedBracketAt(text, str.length - 2))
+    }
+
+    @Test
+    fun testCacheInvalidation() {
+        val text = Content("(a)")
+        val matcher = CodeMatcher()
+        assertPair(0, 2, matcher.getPairedBracketAt(text, 1))
+        // Document version changed
+        text.insert(0, 0, "(")
+        assertPair(1, 3, matcher.getPairedBracketAt(text, 1))
+        text.delete(0, 0, 0, 1)
+        assertPair(0, 2, matcher.getPairedBracketAt(text, 1))
+
+        // (")")
+        val text2 = Content("(\")\")")
+        assertPair(0, 2, matcher.getPairedBracketAt(text2, 1))
+        matcher.setSpans(spansOf(0,
+            Triple(0, 0, EditorColorScheme.TEXT_NORMAL),
+            Triple(0, 1, EditorColorScheme.LITERAL),
+            Triple(0, 4, EditorColorScheme.TEXT_NORMAL)
+        ))
+        assertPair(0, 4, matcher.getPairedBracketAt(text2, 1))
+        matcher.setSpans(null)
+        assertPair(0, 2, matcher.getPairedBracketAt(text2, 1))
+    }
+
+    @Test
+    fun testLimitOnEmptyLines() {
+        val lines = 100000
+        for (separator in listOf("\n", "\r\n")) {
+            val str = "(" + separator.repeat(lines) + ")"
+            val text = CountingContent(str)
+            val matcher = CodeMatcher(100)
+            text.lineReads = 0
+            assertNull(matcher.getPairedBracketAt(text, 0))
+            assertTrue("${text.lineReads} lines read", text.lineReads < 1000)
+            text.lineReads = 0
+            assertNull(matcher.getPairedBracketAt(text, str.length - 1))
+            assertTrue("${text.lineReads} lines read", text.lineReads < 1000)
+
+            // Within the limit
+            val shortStr = "(" + separator.repeat(20) + ")"
+            assertPair(0, shortStr.length - 1, CodeMatcher(100).getPairedBracketAt(Content(shortStr), 0))
+            assertNull(CodeMatcher(10).getPairedBracketAt(Content(shortStr), 0))
+            assertNull(CodeMatcher(10).getPairedBracketAt(Content(shortStr), shortStr.length - 1))
+        }
+    }
+
+}
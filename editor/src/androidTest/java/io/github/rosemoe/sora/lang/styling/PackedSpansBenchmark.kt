@@ -0,0 +1,133 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.styling
+
+import android.util.Log
+import io.github.rosemoe.sora.text.CharPosition
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Compare building, reading, adjusting and memory of [PackedSpans] and [MappedSpans] on a
+ * 100k-line text.
+ */
+class PackedSpansBenchmark {
+
+    companion object {
+        private const val TAG = "PackedSpansBenchmark"
+        private const val LINE_COUNT = 100000
+        private const val SPANS_PER_LINE = 12
+        private const val EDIT_COUNT = 2000
+    }
+
+    private class Result(val spans: Spans, val buildTime: Long, val readTime: Long, val editTime: Long, val memory: Long, val checksum: Long)
+
+    private fun usedMemory(): Long {
+        val runtime = Runtime.getRuntime()
+        for (i in 0 until 3) {
+            System.gc()
+            Thread.sleep(50)
+        }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    private fun measure(build: () -> Spans): Result {
+        val memoryBefore = usedMemory()
+        var start = System.nanoTime()
+        val spans = build()
+        val buildTime = (System.nanoTime() - start) / 1000000
+        val memory = usedMemory() - memoryBefore
+
+        var checksum = 0L
+        start = System.nanoTime()
+        val reader = spans.read()
+        for (line in 0 until spans.lineCount) {
+            reader.moveToLine(line)
+            for (i in 0 until reader.spanCount) {
+                checksum += reader.getSpanColumn(i) + reader.getSpanStyle(i) + reader.getSpanUnderlineColor(i)
+            }
+        }
+        reader.moveToLine(-1)
+        val readTime = (System.nanoTime() - start) / 1000000
+
+        // Type and delete at the middle of lines, and add and remove lines
+        start = System.nanoTime()
+        for (i in 0 until EDIT_COUNT) {
+            val line = (i * 31) % (LINE_COUNT - 1)
+            spans.adjustOnInsert(CharPosition(line, 20), CharPosition(line, 21))
+            spans.adjustOnDelete(CharPosition(line, 20), CharPosition(line, 21))
+            spans.adjustOnInsert(CharPosition(line, 20), CharPosition(line + 1, 0))
+            spans.adjustOnDelete(CharPosition(line, 20), CharPosition(line + 1, 0))
+        }
+        val editTime = (System.nanoTime() - start) / 1000000
+        return Result(spans, buildTime, readTime, editTime, memory, checksum)
+    }
+
+    private inline fun addSpans(add: (Int, Int, Long, Int) -> Unit) {
+        for (line in 0 until LINE_COUNT) {
+            for (i in 0 until SPANS_PER_LINE) {
+                val underline = if ((line + i) % 50 == 0) 0xff0000 else 0
+                add(line, i * 5, (i % 4 + 1).toLong(), underline)
+            }
+        }
+    }
+
+    private fun buildPacked(): Spans {
+        val builder = PackedSpans.Builder(LINE_COUNT)
+        addSpans { line, column, style, underline ->
+            if (underline == 0) {
+                builder.add(line, column, style)
+            } else {
+                builder.add(line, Span.obtain(column, style).setUnderlineColor(underline))
+            }
+        }
+        builder.determine(LINE_COUNT - 1)
+        return builder.build()
+    }
+
+    private fun buildMapped(): Spans {
+        val builder = MappedSpans.Builder(LINE_COUNT)
+        addSpans { line, column, style, underline ->
+            builder.add(line, Span.obtain(column, style).setUnderlineColor(underline))
+        }
+        builder.determine(LINE_COUNT - 1)
+        return builder.build()
+    }
+
+    @Test
+    fun benchmarkPackedAndMappedSpans() {
+        // Warm up
+        measure { buildPacked() }
+        measure { buildMapped() }
+        val packed = measure { buildPacked() }
+        val mapped = measure { buildMapped() }
+        assertEquals(mapped.checksum, packed.checksum)
+        assertEquals(mapped.spans.lineCount, packed.spans.lineCount)
+        Log.i(TAG, "$LINE_COUNT lines, $SPANS_PER_LINE spans per line")
+        Log.i(TAG, "PackedSpans: build ${packed.buildTime}ms, read ${packed.readTime}ms, $EDIT_COUNT edits ${packed.editTime}ms, memory ${packed.memory / 1024}KB")
+        Log.i(TAG, "MappedSpans: build ${mapped.buildTime}ms, read ${mapped.readTime}ms, $EDIT_COUNT edits ${mapped.editTime}ms, memory ${mapped.memory / 1024}KB")
+    }
+
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.text
+
+import android.util.Log
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+import java.io.FileInputStream
+import java.io.InputStreamReader
+
+/**
+ * Compare load time of [ContentIO.createFrom] (bulk path) with the old insertion-based path
+ * on generated files of 10MB, 100MB and 500MB. Sizes that can not fit in the heap are skipped.
+ */
+class ContentIOBenchmark {
+
+    companion object {
+        private const val TAG = "ContentIOBenchmark"
+        private const val MB = 1024 * 1024L
+    }
+
+    private fun generateFile(sizeInBytes: Long): File {
+        val file = File.createTempFile("content_io_benchmark", ".txt")
+        file.deleteOnExit()
+        val line = "    val text = \"The quick brown fox jumps over the lazy dog\" // 0123456789\n".toByteArray()
+        file.outputStream().buffered(1 shl 16).use { out ->
+            var written = 0L
+            while (written < sizeInBytes) {
+                out.write(line)
+                written += line.size
+            }
+        }
+        return file
+    }
+
+    private inline fun measure(block: () -> Content): Pair<Long, Content> {
+        val start = System.nanoTime()
+        val content = block()
+        return Pair((System.nanoTime() - start) / 1000000, content)
+    }
+
+    @Test
+    fun benchmarkLoad() {
+        for (size in listOf(10 * MB, 100 * MB, 500 * MB)) {
+            // Both the chars and the line objects live on heap during the test
+            if (Runtime.getRuntime().maxMemory() < size * 4) {
+                Log.w(TAG, "skip ${size / MB}MB: max heap is ${Runtime.getRuntime().maxMemory() / MB}MB")
+                continue
+            }
+            val file = generateFile(size)
+            for (storage in Content.LineStorage.values()) {
+                if (storage == Content.LineStorage.MAPPED) {
+                    continue
+                }
+                val (bulkTime, bulk) = measure {
+                    ContentIO.createFrom(InputStreamReader(FileInputStream(file)), storage)
+                }
+                val lineCount = bulk.lineCount
+                val length = bulk.length
+                System.gc()
+                val (insertionTime, insertion) = measure {
+                    ContentIO.createFromByInsertion(InputStreamReader(FileInputStream(file)), storage)
+                }
+                assertEquals(lineCount, insertion.lineCount)
+                assertEquals(length, insertion.length)
+                System.gc()
+                Log.i(TAG, "${size / MB}MB, $storage: bulk ${bulkTime}ms, insertion ${insertionTime}ms")
+            }
+            file.delete()
+        }
+    }
+
+}
@@ -0,0 +1,301 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.text
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.File
+import java.io.InterruptedIOException
+import java.io.StringReader
+import java.nio.charset.Charset
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+class ContentIOTest {
+
+    private fun createFile(bytes: ByteArray): File {
+        val file = File.createTempFile("content_io_test", ".txt")
+        file.deleteOnExit()
+        file.writeBytes(bytes)
+        return file
+    }
+
+    private fun assertSameText(expected: Content, actual: Content) {
+        assertEquals("line count is invalid", expected.lineCount, actual.lineCount)
+        assertEquals("text length is invalid", expected.length, actual.length)
+        for (i in 0 until expected.lineCount) {
+            assertEquals("text of line $i is invalid", expected.getLineString(i), actual.getLineString(i))
+            assertEquals("column count of line $i is invalid", expected.getColumnCount(i), actual.getColumnCount(i))
+            assertEquals("separator of line $i is invalid", expected.getLine(i).lineSeparator, actual.getLine(i).lineSeparator)
+        }
+        assertEquals(expected.toString(), actual.toString())
+    }
+
+    private fun assertBulkBuildMatches(text: String) {
+        for (storage in Content.LineStorage.values()) {
+            if (storage == Content.LineStorage.MAPPED) {
+                continue
+            }
+            val expected = ContentIO.createFromByInsertion(StringReader(text), storage)
+            val actual = ContentIO.createFrom(StringReader(text), storage)
+            assertSameText(expected, actual)
+            assertEquals(text, actual.toString())
+        }
+    }
+
+    @Test
+    fun testBulkBuildEdgeCases() {
+        assertBulkBuildMatches("")
+        assertBulkBuildMatches("no trailing newline")
+        assertBulkBuildMatches("trailing newline\n")
+        assertBulkBuildMatches("lone CR at EOF\r")
+        assertBulkBuildMatches("\r")
+        assertBulkBuildMatches("\r\n")
+        assertBulkBuildMatches("\n\r\r\n\n\r")
+    }
+
+    @Test
+    fun testBulkBuildChunkBoundaries() {
+        val chunkSize = 65536
+        val windowSize = chunkSize * 32
+        // Separators across chunk boundaries and window boundaries
+        for (boundary in listOf(chunkSize, chunkSize * 3, windowSize, windowSize + chunkSize)) {
+            for (offset in -2..1) {
+                for (separator in listOf("\r\n", "\r", "\n", "\r\r", "\n\r")) {
+                    val text = buildString {
+                        append("a".repeat(boundary + offset))
+                        append(separator)
+                        append("b")
+                    }
+                    assertBulkBuildMatches(text)
+                    // Lone CR at EOF exactly at the boundary
+                    assertBulkBuildMatches("a".repeat(boundary + offset) + separator)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testBulkBuildRandomText() {
+        val random = Random(System.currentTimeMillis())
+        val text = buildString {
+            while (length < 3 * 1024 * 1024) {
+                repeat(random.nextInt(0, 200)) {
+                    append(listOf("a", "b", " ", "中", "😀").random(random))
+                }
+                append(listOf("\n", "\r\n", "\r").random(random))
+            }
+        }
+        assertBulkBuildMatches(text)
+    }
+
+    private fun createLargeText(length: Int) = buildString {
+        val random = Random(System.currentTimeMillis())
+        while (this.length < length) {
+            repeat(random.nextInt(0, 100)) {
+                append(listOf("a", "b", " ", "中", "😀").random(random))
+            }
+            append(listOf("\n", "\r\n", "\r").random(random))
+        }
+    }
+
+    @Test
+    fun testChunkedWriteProgress() {
+        val text = createLargeText(1024 * 1024)
+        val content = Content(text)
+        val file = createFile(byteArrayOf())
+        var lastProcessed = 0L
+        var calls = 0
+        ContentIO.writeTo(content, file, Charsets.UTF_8) { processed, total ->
+            assertEquals(text.length.toLong(), total)
+            assertTrue("progress goes backwards", processed > lastProcessed || processed == total)
+            assertTrue(processed <= total)
+            lastProcessed = processed
+            calls++
+            true
+        }
+        assertEquals(text.length.toLong(), lastProcessed)
+        assertTrue("progress is not reported by chunks", calls > 1)
+        // Surrogate pairs across chunk boundaries are encoded correctly
+        assertEquals(text, file.readText(Charsets.UTF_8))
+    }
+
+    @Test
+    fun testChunkedWriteCancellation() {
+        val content = Content(createLargeText(1024 * 1024))
+        val file = createFile(byteArrayOf())
+        var calls = 0
+        try {
+            ContentIO.writeTo(content, file, Charsets.UTF_8) { _, _ ->
+                ++calls < 3
+            }
+            fail("writing is not cancelled")
+        } catch (e: InterruptedIOException) {
+            // expected
+        }
+        assertEquals(3, calls)
+        assertTrue(file.length() < content.length)
+    }
+
+    @Test
+    fun testChunkedWriteConcurrentEdits() {
+        val text = createLargeText(1024 * 1024)
+        for (storage in listOf(Content.LineStorage.ARRAY, Content.LineStorage.TREE)) {
+            val content = ContentIO.createFrom(StringReader(text), storage)
+            val file = createFile(byteArrayOf())
+            val editor = Thread {
+                repeat(2000) {
+                    content.insert(0, 0, "edit\n")
+                    content.delete(0, 0, 1, 0)
+                }
+            }
+            var started = false
+            ContentIO.writeTo(content, file, Charsets.UTF_8) { _, _ ->
+                if (!started) {
+                    started = true
+                    editor.start()
+                }
+                // Modifications made during writing are not saved
+                content.insert(0, 0, "x")
+                true
+            }
+            editor.join()
+            assertEquals(text, file.readText(Charsets.UTF_8))
+        }
+    }
+
+    @Test
+    fun testMappedLineBoundaries() {
+        val texts = listOf(
+            "", "a", "\n", "\r", "\r\n", "\n\n\n", "\r\r\n\n", "a\nb", "a\r\nb\r\n", "a\rb\r",
+            "line1\nline2\r\nline3\rline4", "no trailing separator\nlast line"
+        )
+        for (text in texts) {
+            val mapped = ContentIO.createMapped(createFile(text.toByteArray()), Charsets.UTF_8)
+            assertEquals(Content.LineStorage.MAPPED, mapped.lineStorage)
+            assertSameText(Content(text), mapped)
+        }
+    }
+
+    @Test
+    fun testMappedMultiByteChars() {
+        val text = "中文\r\n第二行\nemoji 😀 and 👍\réèê\n\n😀\n一丁"
+        val utf8 = ContentIO.createMapped(createFile(text.toByteArray()), Charsets.UTF_8)
+        assertSameText(Content(text), utf8)
+        // Lengths of lines are computed by decoding in other multibyte charsets
+        val gbkText = "中文\r\n第二行\né\n\n一丁"
+        val gbk = Charset.forName("GBK")
+        assertSameText(Content(gbkText), ContentIO.createMapped(createFile(gbkText.toByteArray(gbk)), gbk))
+        // Every byte is a char in single byte charsets
+        val latinText = "café\r\nÿþ\n"
+        val latin = ContentIO.createMapped(createFile(latinText.toByteArray(Charsets.ISO_8859_1)), Charsets.ISO_8859_1)
+        assertSameText(Content(latinText), latin)
+    }
+
+    @Test
+    fun testMappedMalformedBytes() {
+        // Truncated sequences, stray continuation bytes, overlong forms and surrogates
+        val bytes = byteArrayOf(
+            'a'.code.toByte(), 0xe4.toByte(), 0xb8.toByte(), '\n'.code.toByte(),
+            0x80.toByte(), 'b'.code.toByte(), '\r'.code.toByte(), '\n'.code.toByte(),
+            0xc0.toByte(), 0xaf.toByte(), 0xed.toByte(), 0xa0.toByte(), 0x80.toByte(), '\n'.code.toByte(),
+            0xf0.toByte(), 0x9f.toByte(), 0x98.toByte(), 0x80.toByte(), 0xf0.toByte()
+        )
+        val mapped = ContentIO.createMapped(createFile(bytes), Charsets.UTF_8)
+        assertSameText(Content(String(bytes, Charsets.UTF_8)), mapped)
+    }
+
+    @Test
+    fun testMappedContentIsReadOnly() {
+        val mapped = ContentIO.createMapped(createFile("text\nline".toByteArray()), Charsets.UTF_8)
+        assertTrue(mapped.isReadOnly)
+        assertFalse(mapped.canUndo())
+        for (action in listOf<() -> Unit>(
+            { mapped.insert(0, 0, "a") },
+            { mapped.delete(0, 1) },
+            { mapped.replace(0, 1, "b") }
+        )) {
+            try {
+                action()
+                fail("read-only content is modified")
+            } catch (e: UnsupportedOperationException) {
+                // Expected
+            }
+        }
+        assertEquals("text\nline", mapped.toString())
+        assertTrue(mapped.snapshot() === mapped)
+    }
+
+    @Test
+    fun testMappedBackgroundIndexing() {
+        val random = Random(System.currentTimeMillis())
+        val text = buildString {
+            while (length < 12 * 1024 * 1024) {
+                repeat(random.nextInt(0, 120)) {
+                    append(listOf("a", "b", "c", " ", "中", "文", "😀").random(random))
+                }
+                append(listOf("\n", "\r\n", "\r").random(random))
+            }
+            append("last line")
+        }
+        val tasks = LinkedBlockingQueue<Runnable>()
+        val mapped = ContentIO.createMapped(createFile(text.toByteArray()), Charsets.UTF_8) { tasks.put(it) }
+        val initialText = mapped.toString()
+        assertTrue("the whole file is indexed in advance", initialText.length < text.length)
+        assertTrue(text.startsWith(initialText))
+        val snapshot = mapped.snapshot()
+        val listener = object : ContentListener {
+            var expectedEnd = mapped.length
+
+            override fun beforeReplace(content: Content) {
+                fail("lines are only appended")
+            }
+
+            override fun afterInsert(content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, insertedContent: CharSequence) {
+                assertEquals(content.lineCount - 1, endLine)
+                assertEquals(expectedEnd, content.getCharIndex(startLine, startColumn))
+                assertEquals(content.length, content.getCharIndex(endLine, endColumn))
+                assertEquals(content.length - expectedEnd, insertedContent.length)
+                expectedEnd = content.length
+            }
+
+            override fun afterDelete(content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, deletedContent: CharSequence) {
+                fail("lines are only appended")
+            }
+        }
+        mapped.addContentListener(listener)
+        while (mapped.length < text.length) {
+            val task = tasks.poll(30, TimeUnit.SECONDS) ?: throw AssertionError("indexing timeout")
+            task.run()
+        }
+        assertSameText(Content(text), mapped)
+        assertEquals("snapshot text is changed", initialText, snapshot.toString())
+    }
+
+}
@@ -125,4 +125,220 @@ class ContentTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    fun testTreeLineStorageRandomEdits() {
+        val content = Content(null, true, Content.LineStorage.TREE)
+        val reference = Content(null, true, Content.LineStorage.ARRAY)
+        val seed = System.currentTimeMillis()
+        val random = Random(seed)
+        val charset = "asdfghjkl0123456789\n\n\r\n"
+
+        Log.v(this.javaClass.simpleName, "testTreeLineStorageRandomEdits: Random object is initialized with seed $seed")
+
+        for (i in 0 until 1000) {
+            if (random.nextInt(3) > 0 || reference.length == 0) {
+                val text = buildString {
+                    for (j in 1..200) {
+                        append(charset.random(random))
+                    }
+                }
+                val pos = reference.indexer.getCharPosition(random.nextInt(0..reference.length))
+                content.insert(pos.line, pos.column, text)
+                reference.insert(pos.line, pos.column, text)
+            } else {
+                val start = random.nextInt(0 until reference.length)
+                val end = minOf(reference.length, start + random.nextInt(0..300))
+                content.delete(start, end)
+                reference.delete(start, end)
+            }
+            assertEquals("line count is invalid", reference.lineCount, content.lineCount)
+            assertEquals("text length is invalid", reference.length, content.length)
+        }
+        assertEquals("text content is invalid", reference.toString(), content.toString())
+    }
+
+    @Test
+    fun testLineBlockTreeRandomOperations() {
+        val seed = System.currentTimeMillis()
+        val random = Random(seed)
+        Log.v(this.javaClass.simpleName, "testLineBlockTreeRandomOperations: Random object is initialized with seed $seed")
+
+        val tree = LineBlockTree<String>(true, true)
+        val items = ArrayList<String>()
+        val weights = ArrayList<Int>()
+        val snapshots = ArrayList<Triple<LineBlockTree<String>, List<String>, List<Int>>>()
+        for (i in 0 until 20000) {
+            val op = random.nextInt(10)
+            when {
+                op < 5 || items.isEmpty() -> {
+                    val index = random.nextInt(0..items.size)
+                    val weight = random.nextInt(0..100)
+                    tree.insert(index, "line$i", weight)
+                    items.add(index, "line$i")
+                    weights.add(index, weight)
+                }
+                op < 8 -> {
+                    val index = random.nextInt(items.indices)
+                    assertEquals(items.removeAt(index), tree.remove(index))
+                    weights.removeAt(index)
+                }
+                op < 9 -> {
+                    val index = random.nextInt(items.indices)
+                    val weight = random.nextInt(0..100)
+                    tree.setWeight(index, weight)
+                    weights[index] = weight
+                }
+                else -> {
+                    val index = random.nextInt(items.indices)
+                    assertEquals(items[index], tree.set(index, "set$i"))
+                    items[index] = "set$i"
+                }
+            }
+            if (i % 2000 == 0) {
+                snapshots.add(Triple(tree.snapshot(), ArrayList(items), ArrayList(weights)))
+            }
+        }
+        snapshots.add(Triple(tree, items, weights))
+        for ((snapshot, expectedItems, expectedWeights) in snapshots) {
+            assertEquals(expectedItems.size, snapshot.size())
+            assertEquals(expectedWeights.sum(), snapshot.total())
+            assertEquals(expectedItems, snapshot.iterator().asSequence().toList())
+            var sum = 0
+            val found = IntArray(2)
+            for (j in expectedItems.indices) {
+                assertEquals(expectedItems[j], snapshot.get(j))
+                assertEquals(expectedWeights[j], snapshot.getWeight(j))
+                assertEquals(sum, snapshot.prefixSum(j))
+                if (expectedWeights[j] > 0) {
+                    snapshot.findByOffset(sum, found)
+                    assertEquals(j, found[0])
+                    assertEquals(sum, found[1])
+                }
+                sum += expectedWeights[j]
+            }
+        }
+    }
+
+    @Test
+    fun testDeprecatedCursorIndexer() {
+        val content = Content("a\nbc\n", true, Content.LineStorage.TREE)
+        val cursor = content.cursor
+        @Suppress("DEPRECATION")
+        val cachedIndexer = cursor.indexer
+        content.insert(0, 0, "xyz\n")
+        assertEquals(content.getCharIndex(2, 1), cachedIndexer.getCharIndex(2, 1))
+        assertEquals(content.indexer.getCharPosition(7), cachedIndexer.getCharPosition(7))
+        assertSame(content.indexer, cursor.charIndexer)
+    }
+
+    @Test
+    fun testPrefixSumIndexerQueries() {
+        val content = Content(null, true, Content.LineStorage.TREE)
+        val reference = Content(null, true, Content.LineStorage.ARRAY)
+        assertTrue(content.indexer is PrefixSumIndexer)
+        val seed = System.currentTimeMillis()
+        val random = Random(seed)
+        val charset = "asdfghjkl0123456789\n\n\r\n"
+
+        Log.v(this.javaClass.simpleName, "testPrefixSumIndexerQueries: Random object is initialized with seed $seed")
+
+        for (i in 0 until 500) {
+            if (random.nextInt(3) > 0 || reference.length == 0) {
+                val text = buildString {
+                    for (j in 1..100) {
+                        append(charset.random(random))
+                    }
+                }
+                val pos = reference.indexer.getCharPosition(random.nextInt(0..reference.length))
+                content.insert(pos.line, pos.column, text)
+                reference.insert(pos.line, pos.column, text)
+            } else {
+                val start = random.nextInt(0 until reference.length)
+                val end = minOf(reference.length, start + random.nextInt(0..150))
+                content.delete(start, end)
+                reference.delete(start, end)
+            }
+            for (j in 0 until 10) {
+                val index = random.nextInt(0..reference.length)
+                assertEquals(reference.indexer.getCharPosition(index), content.indexer.getCharPosition(index))
+                val line = random.nextInt(0 until reference.lineCount)
+                val column = random.nextInt(0..reference.getColumnCount(line))
+                assertEquals(reference.getCharIndex(line, column), content.getCharIndex(line, column))
+            }
+        }
+    }
+
+    @Test
+    fun testContentSnapshot() {
+        for (storage in arrayOf(Content.LineStorage.ARRAY, Content.LineStorage.TREE)) {
+            val content = Content(null, true, storage)
+            val seed = System.currentTimeMillis()
+            val random = Random(seed)
+            val charset = "asdfghjkl0123456789\n\n\r\n"
+            val snapshots = mutableListOf<Triple<Content, String, Content>>()
+
+            Log.v(this.javaClass.simpleName, "testContentSnapshot: Random object is initialized with seed $seed")
+
+            for (i in 0 until 500) {
+                if (random.nextInt(3) > 0 || content.length == 0) {
+                    val text = buildString {
+                        for (j in 1..100) {
+                            append(charset.random(random))
+                        }
+                    }
+                    val pos = content.indexer.getCharPosition(random.nextInt(0..content.length))
+                    content.insert(pos.line, pos.column, text)
+                } else {
+                    val start = random.nextInt(0 until content.length)
+                    val end = minOf(content.length, start + random.nextInt(0..150))
+                    content.delete(start, end)
+                }
+                if (random.nextInt(10) == 0) {
+                    val snapshot = content.snapshot()
+                    assertTrue(snapshot.isReadOnly)
+                    assertEquals(content.documentVersion, snapshot.documentVersion)
+                    snapshots.add(Triple(snapshot, content.toString(), content.copyText(false)))
+                }
+            }
+            for ((snapshot, text, reference) in snapshots) {
+                assertEquals("snapshot text is changed", text, snapshot.toString())
+                // Indexers of snapshots are not affected by later modifications either
+                for (j in 0 until 50) {
+                    val index = random.nextInt(0..text.length)
+                    assertEquals(reference.indexer.getCharPosition(index), snapshot.indexer.getCharPosition(index))
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testArraySnapshotSwitchesStorage() {
+        // Enough lines to fill several levels of the tree
+        val text = buildString {
+            for (i in 0 until 100_000) {
+                append("line ").append(i).append(if (i % 3 == 0) "\r\n" else "\n")
+            }
+        }
+        val content = Content(text)
+        assertEquals(Content.LineStorage.ARRAY, content.lineStorage)
+        val snapshot = content.snapshot()
+        assertEquals(Content.LineStorage.TREE, content.lineStorage)
+        assertEquals(text, snapshot.toString())
+        assertEquals(text, content.toString())
+
+        // Edits spread over the bulk-loaded tree
+        val reference = StringBuilder(text)
+        for (line in listOf(99_999, 70_000, 4096, 64, 63, 0)) {
+            val index = content.getCharIndex(line, 0)
+            content.insert(line, 0, "x\n")
+            reference.insert(index, "x\n")
+        }
+        val start = content.getCharIndex(10, 0)
+        val end = content.getCharIndex(5000, 2)
+        content.delete(start, end)
+        reference.delete(start, end)
+        assertEquals(reference.toString(), content.toString())
+        assertEquals(text, snapshot.toString())
+    }
+
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.text
+
+import android.util.Log
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.StringReader
+import kotlin.random.Random
+
+/**
+ * Compare random index conversions of [PrefixSumIndexer] and [CachedIndexer] on a 1M-line text.
+ */
+class IndexerBenchmark {
+
+    companion object {
+        private const val TAG = "IndexerBenchmark"
+        private const val LINE_COUNT = 1000000
+        private const val QUERY_COUNT = 100000
+    }
+
+    private fun measure(content: Content): Pair<Long, Long> {
+        val random = Random(0)
+        val indexer = content.indexer
+        val pos = CharPosition()
+        var checksum = 0L
+        val start = System.nanoTime()
+        for (i in 0 until QUERY_COUNT) {
+            indexer.getCharPosition(random.nextInt(content.length), pos)
+            checksum += pos.line
+            checksum += indexer.getCharIndex(random.nextInt(content.lineCount), 0)
+        }
+        return Pair((System.nanoTime() - start) / 1000000, checksum)
+    }
+
+    @Test
+    fun benchmarkRandomQueries() {
+        val text = buildString {
+            for (i in 0 until LINE_COUNT) {
+                append("line ").append(i).append('\n')
+            }
+        }
+        val tree = ContentIO.createFrom(StringReader(text), Content.LineStorage.TREE)
+        val array = ContentIO.createFrom(StringReader(text), Content.LineStorage.ARRAY)
+        assertTrue(tree.indexer is PrefixSumIndexer)
+        assertTrue(array.indexer is CachedIndexer)
+        // Warm up
+        measure(tree)
+        val (treeTime, treeChecksum) = measure(tree)
+        val (cachedTime, cachedChecksum) = measure(array)
+        assertEquals(cachedChecksum, treeChecksum)
+        Log.i(TAG, "$QUERY_COUNT random queries on $LINE_COUNT lines: PrefixSumIndexer ${treeTime}ms, CachedIndexer ${cachedTime}ms")
+    }
+
+}
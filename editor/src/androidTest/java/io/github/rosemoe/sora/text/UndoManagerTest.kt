@@ -0,0 +1,222 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.text
+
+import android.os.Parcel
+import org.junit.Assert.*
+import org.junit.Test
+
+class UndoManagerTest {
+
+    private fun textOf(length: Int, seed: Int) = buildString {
+        for (i in 0 until length) {
+            append(if (i % 50 == 49) '\n' else 'a' + (i + seed) % 26)
+        }
+    }
+
+    /**
+     * Estimated memory of an action inserting or deleting a plain text
+     */
+    private fun usageOf(text: String) = UndoManager.estimateMemoryUsage(UndoManager.InsertAction().also { it.text = text })
+
+    @Test
+    fun testMemoryBudgetEviction() {
+        val content = Content()
+        val texts = (0 until 10).map { textOf(1000, it) }
+        val budget = 4 * usageOf(texts[0]) + 100
+        content.maxUndoMemoryUsage = budget
+        val states = mutableListOf(content.toString())
+        for (text in texts) {
+            // Insert at the start, so that actions are not merged
+            content.insert(0, 0, text)
+            states.add(content.toString())
+            assertTrue(content.undoManager.memoryUsage <= budget)
+        }
+        assertEquals(4 * usageOf(texts[0]), content.undoManager.memoryUsage)
+        // Only the last 4 actions are kept
+        for (i in 0 until 4) {
+            assertTrue(content.canUndo())
+            content.undo()
+            assertEquals(states[states.size - 2 - i], content.toString())
+        }
+        assertFalse(content.canUndo())
+
+        // The latest action is kept even if it exceeds the budget alone
+        content.maxUndoMemoryUsage = 10
+        content.insert(0, 0, texts[0])
+        assertTrue(content.canUndo())
+        content.undo()
+        assertFalse(content.canUndo())
+        assertEquals(states[states.size - 5], content.toString())
+    }
+
+    @Test
+    fun testMultiActionMemoryUsage() {
+        val content = Content()
+        val texts = (0 until 3).map { textOf(500, it) }
+        content.beginBatchEdit()
+        for (text in texts) {
+            content.insert(0, 0, text)
+        }
+        content.endBatchEdit()
+        val expected = UndoManager.estimateMemoryUsage(UndoManager.MultiAction()) + texts.sumOf { usageOf(it) }
+        assertEquals(expected, content.undoManager.memoryUsage)
+
+        // Undone actions are removed by next action
+        content.undo()
+        assertEquals("", content.toString())
+        content.insert(0, 0, "abc")
+        assertEquals(usageOf("abc"), content.undoManager.memoryUsage)
+
+        // Batch edit with single action is stored as that action
+        content.beginBatchEdit()
+        content.insert(0, 0, texts[0])
+        content.endBatchEdit()
+        assertEquals(usageOf("abc") + usageOf(texts[0]), content.undoManager.memoryUsage)
+    }
+
+    @Test
+    fun testForwardDeleteMergeSingleLine() {
+        val text = "abcdef\nxyz"
+        val content = Content(text)
+        for (i in 0 until 3) {
+            // Delete key at the same position
+            content.delete(0, 1, 0, 2)
+        }
+        assertEquals("aef\nxyz", content.toString())
+        content.undo()
+        assertEquals(text, content.toString())
+        assertFalse("forward deletions are not merged", content.canUndo())
+        content.redo()
+        assertEquals("aef\nxyz", content.toString())
+    }
+
+    @Test
+    fun testForwardDeleteMergeMultiLine() {
+        val text = "ab\ncd\r\nef\ngh"
+        val content = Content(text)
+        // Delete 'b', LF, 'c', 'd', CRLF and 'e' at the same position
+        content.delete(0, 1, 0, 2)
+        content.delete(0, 1, 1, 0)
+        content.delete(0, 1, 0, 2)
+        content.delete(0, 1, 0, 2)
+        content.delete(0, 1, 1, 0)
+        content.delete(0, 1, 0, 2)
+        assertEquals("af\ngh", content.toString())
+        content.undo()
+        assertEquals(text, content.toString())
+        assertFalse("forward deletions are not merged", content.canUndo())
+        content.redo()
+        assertEquals("af\ngh", content.toString())
+        content.undo()
+        assertEquals(text, content.toString())
+
+        // Starting with a line separator
+        content.delete(0, 2, 1, 0)
+        content.delete(0, 2, 0, 3)
+        assertEquals("abd\r\nef\ngh", content.toString())
+        content.undo()
+        assertEquals(text, content.toString())
+        content.redo()
+        assertEquals("abd\r\nef\ngh", content.toString())
+    }
+
+    @Test
+    fun testBackwardDeleteMerge() {
+        val text = "ab\ncd"
+        val content = Content(text)
+        content.delete(1, 1, 1, 2)
+        content.delete(1, 0, 1, 1)
+        content.delete(0, 2, 1, 0)
+        content.delete(0, 1, 0, 2)
+        assertEquals("a", content.toString())
+        content.undo()
+        assertEquals(text, content.toString())
+        assertFalse(content.canUndo())
+    }
+
+    @Test
+    fun testCompressedActions() {
+        val content = Content("hello")
+        assertFalse(content.undoManager.isCompressionEnabled)
+        content.undoManager.isCompressionEnabled = true
+        val text = textOf(40000, 0)
+        content.insert(0, 2, text)
+        val inserted = content.toString()
+        assertTrue(content.undoManager.memoryUsage < text.length / 4)
+
+        content.delete(0, 1, content.lineCount - 1, content.getColumnCount(content.lineCount - 1))
+        assertEquals("h", content.toString())
+        assertTrue(content.undoManager.memoryUsage < text.length / 2)
+
+        content.undo()
+        assertEquals(inserted, content.toString())
+        content.undo()
+        assertEquals("hello", content.toString())
+        content.redo()
+        assertEquals(inserted, content.toString())
+        content.redo()
+        assertEquals("h", content.toString())
+        content.undo()
+        content.undo()
+        assertEquals("hello", content.toString())
+    }
+
+    @Test
+    fun testParcelRestoresBudget() {
+        val content = Content()
+        content.undoManager.isCompressionEnabled = true
+        val texts = (0 until 3).map { textOf(20000, it) }
+        val budget = 2 * usageOf(texts[0]) + 1000
+        content.maxUndoMemoryUsage = budget
+        for (text in texts) {
+            content.insert(0, 0, text)
+        }
+        // Compressed texts are small
+        assertTrue(content.undoManager.memoryUsage < budget / 4)
+
+        val parcel = Parcel.obtain()
+        try {
+            content.undoManager.writeToParcel(parcel, 0)
+            parcel.setDataPosition(0)
+            val restored = UndoManager.CREATOR.createFromParcel(parcel)
+            // Texts are restored uncompressed, and the oldest one is removed for budget
+            assertTrue(restored.memoryUsage <= budget)
+            assertEquals(2 * usageOf(texts[0]), restored.memoryUsage)
+            content.undoManager = restored
+            val expected = content.toString()
+            content.undo()
+            content.undo()
+            assertFalse(content.canUndo())
+            assertEquals(texts[0], content.toString())
+            content.redo()
+            content.redo()
+            assertEquals(expected, content.toString())
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+}
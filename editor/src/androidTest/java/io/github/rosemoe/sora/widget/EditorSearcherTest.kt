@@ -0,0 +1,269 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget
+
+import android.util.Log
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.util.LongArrayList
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.regex.Pattern
+import kotlin.random.Random
+import kotlin.random.nextInt
+
+class EditorSearcherTest {
+
+    private fun findAll(text: CharSequence, pattern: String, regex: Pattern?): LongArrayList {
+        val results = LongArrayList()
+        EditorSearcher.findMatches(text, 0, pattern, regex, false, results, null)
+        return results
+    }
+
+    private fun insert(content: Content, results: LongArrayList, index: Int, text: String, pattern: String, regex: Pattern?) {
+        val start = content.indexer.getCharPosition(index)
+        content.insert(start.line, start.column, text)
+        val end = content.indexer.getCharPosition(index + text.length)
+        EditorSearcher.updateResults(results, content, start.line, end.line, text.length, pattern, regex, false)
+    }
+
+    private fun delete(content: Content, results: LongArrayList, start: Int, end: Int, pattern: String, regex: Pattern?) {
+        val line = content.indexer.getCharLine(start)
+        content.delete(start, end)
+        EditorSearcher.updateResults(results, content, line, line, start - end, pattern, regex, false)
+    }
+
+    private fun assertResults(content: Content, results: LongArrayList, pattern: String, regex: Pattern?) {
+        assertArrayEquals("results are invalid for text: $content", findAll(content, pattern, regex).toArray(), results.toArray())
+    }
+
+    @Test
+    fun testUpdateResultsAtLineBoundaries() {
+        for (regex in listOf(null, Pattern.compile("ab", Pattern.MULTILINE))) {
+            val content = Content("ab\nab\r\nxab")
+            val results = findAll(content, "ab", regex)
+            // Split a match into two lines
+            insert(content, results, 1, "\n", "ab", regex)
+            assertResults(content, results, "ab", regex)
+            // Join them again
+            delete(content, results, 1, 2, "ab", regex)
+            assertResults(content, results, "ab", regex)
+            // Remove a CRLF separator, so that a new match is created across the old line boundary
+            insert(content, results, content.length, "a\r\nb", "ab", regex)
+            assertResults(content, results, "ab", regex)
+            delete(content, results, content.length - 3, content.length - 1, "ab", regex)
+            assertResults(content, results, "ab", regex)
+            // Insert lines containing matches before other matches
+            insert(content, results, 0, "ab\n\nabab\r", "ab", regex)
+            assertResults(content, results, "ab", regex)
+            // Delete several lines
+            delete(content, results, 1, 12, "ab", regex)
+            assertResults(content, results, "ab", regex)
+        }
+    }
+
+    @Test
+    fun testUpdateResultsRandomEdits() {
+        val seed = System.currentTimeMillis()
+        val random = Random(seed)
+        Log.v(this.javaClass.simpleName, "testUpdateResultsRandomEdits: Random object is initialized with seed $seed")
+
+        val charset = "aabbc \n\n\r\n"
+        for ((pattern, regex) in listOf("ab" to null, "a+b" to Pattern.compile("a+b", Pattern.MULTILINE),
+            "^b|c$" to Pattern.compile("^b|c$", Pattern.MULTILINE))) {
+            val content = Content()
+            val results = findAll(content, pattern, regex)
+            for (i in 0 until 2000) {
+                if (random.nextInt(3) > 0 || content.length == 0) {
+                    val text = buildString {
+                        repeat(random.nextInt(1..20)) {
+                            append(charset.random(random))
+                        }
+                    }
+                    insert(content, results, random.nextInt(0..content.length), text, pattern, regex)
+                } else {
+                    val start = random.nextInt(0 until content.length)
+                    val end = minOf(content.length, start + random.nextInt(1..20))
+                    // Do not split a CRLF separator
+                    if (start > 0 && content[start - 1] == '\r' && content[start] == '\n' ||
+                        end < content.length && content[end - 1] == '\r' && content[end] == '\n') {
+                        continue
+                    }
+                    delete(content, results, start, end, pattern, regex)
+                }
+                assertResults(content, results, pattern, regex)
+            }
+        }
+    }
+
+    private fun createText(random: Random, length: Int) = buildString {
+        while (this.length < length) {
+            repeat(random.nextInt(0..80)) {
+                append("aabbc ".random(random))
+            }
+            append(listOf("\n", "\r\n", "\r").random(random))
+        }
+    }
+
+    @Test
+    fun testParallelMatchingEqualsSequential() {
+        val seed = System.currentTimeMillis()
+        val random = Random(seed)
+        Log.v(this.javaClass.simpleName, "testParallelMatchingEqualsSequential: Random object is initialized with seed $seed")
+
+        val text = createText(random, 512 * 1024)
+        for ((pattern, regex) in listOf("ab" to null, "a+b" to Pattern.compile("a+b", Pattern.MULTILINE),
+            "^b|c$" to Pattern.compile("^b|c$", Pattern.MULTILINE), "a\\b" to Pattern.compile("a\\b", Pattern.MULTILINE))) {
+            val expected = findAll(text, pattern, regex).toArray()
+            // Small segments so that there are a lot of segment boundaries
+            for (segmentSize in listOf(1, 7, 1000, 64 * 1024)) {
+                val actual = EditorSearcher.ParallelMatcher(text, pattern, regex, false, segmentSize, Long.MAX_VALUE).run()
+                assertArrayEquals("results of /$pattern/ with segment size $segmentSize are invalid", expected, actual.toArray())
+            }
+        }
+    }
+
+    @Test
+    fun testParallelMatchingAtSegmentBoundaries() {
+        // Segments end right after line separators, including CRLF
+        assertEquals(3, EditorSearcher.ParallelMatcher.nextSegmentEnd("ab\ncd", 0))
+        assertEquals(4, EditorSearcher.ParallelMatcher.nextSegmentEnd("ab\r\ncd", 2))
+        assertEquals(4, EditorSearcher.ParallelMatcher.nextSegmentEnd("ab\r\ncd", 3))
+        assertEquals(3, EditorSearcher.ParallelMatcher.nextSegmentEnd("ab\rcd", 1))
+        assertEquals(6, EditorSearcher.ParallelMatcher.nextSegmentEnd("ab\r\ncd", 5))
+        // Matches around every boundary
+        val text = "ab\r\nab\nab\rab\r\n\nab"
+        for (segmentSize in 1..text.length) {
+            val actual = EditorSearcher.ParallelMatcher(text, "ab", null, false, segmentSize, Long.MAX_VALUE).run()
+            assertArrayEquals(findAll(text, "ab", null).toArray(), actual.toArray())
+        }
+    }
+
+    @Test
+    fun testLineSpanningRegexFallback() {
+        for (regex in listOf("a\\sb", "a[^c]b", "(?s)a.b", "a\nb", "a\\nb", "a\\Rb", "a\\r?\\nb", "a\\Sb|\\s")) {
+            assertFalse("/$regex/ may match line separators", EditorSearcher.isLineLocalRegex(regex))
+        }
+        for (regex in listOf("ab", "a+b", "^a.b$", "a[bc]", "\\w+\\d")) {
+            assertTrue("/$regex/ never matches line separators", EditorSearcher.isLineLocalRegex(regex))
+        }
+        // Such patterns are searched in the whole text
+        val results = findAll("xa\nb", "a\\sb", Pattern.compile("a\\sb", Pattern.MULTILINE))
+        assertEquals(1, results.size())
+    }
+
+    @Test
+    fun testParallelMatchingPartialResults() {
+        val text = createText(Random(0), 256 * 1024)
+        val partials = mutableListOf<Pair<LongArrayList, Int>>()
+        val matcher = object : EditorSearcher.ParallelMatcher(text, "ab", null, false, 1024, 0) {
+            override fun onPartialResults(results: LongArrayList) {
+                partials.add(results to results.size())
+            }
+        }
+        val results = matcher.run().toArray()
+        assertArrayEquals(findAll(text, "ab", null).toArray(), results)
+        assertTrue("partial results are not published", partials.size > 1)
+        var lastSize = 0
+        for ((partial, size) in partials) {
+            // Published lists are not modified by the matcher later
+            assertEquals(size, partial.size())
+            assertTrue(size >= lastSize)
+            assertArrayEquals("partial results are not a prefix of final results", results.copyOf(size), partial.toArray())
+            lastSize = size
+        }
+    }
+
+    @Test
+    fun testParallelMatchingCancellation() {
+        val text = createText(Random(0), 256 * 1024)
+        var checks = 0
+        val matcher = object : EditorSearcher.ParallelMatcher(text, "ab", null, false, 1024, Long.MAX_VALUE) {
+            override fun checkNotCancelled() = synchronized(this) { ++checks < 50 }
+        }
+        val results = matcher.run()
+        assertTrue(results.size() < findAll(text, "ab", null).size())
+    }
+
+    @Test
+    fun testReplaceAllStepsCreateOneUndoEntry() {
+        val original = "ab x ab\nabab\r\nyab\n"
+        val content = Content(original)
+        content.insert(0, 0, "z")
+        val textBefore = content.toString()
+        val regions = findAll(content, "ab", null)
+        val steps = EditorSearcher.ReplaceSteps(content, regions, "replacement")
+        // Replace one region in each step
+        var stepCount = 0
+        while (!steps.step(0)) {
+            stepCount++
+            assertFalse(steps.isTextModified())
+        }
+        steps.finish(true)
+        assertEquals(regions.size(), stepCount + 1)
+        assertEquals(regions.size(), steps.replacedCount)
+        assertEquals(textBefore.replace("ab", "replacement"), content.toString())
+        assertFalse(content.isInBatchEdit)
+        // All the replacements are undone at once, and the edit before is kept
+        content.undo()
+        assertEquals(textBefore, content.toString())
+        content.undo()
+        assertEquals(original, content.toString())
+        assertFalse(content.canUndo())
+    }
+
+    @Test
+    fun testReplaceAllStepsRollbackOnAbort() {
+        val original = "ab x ab\nabab\r\nyab\n"
+        val content = Content(original)
+        val steps = EditorSearcher.ReplaceSteps(content, findAll(content, "ab", null), "r")
+        steps.step(0)
+        steps.step(0)
+        assertEquals(2, steps.replacedCount)
+        assertTrue(content.toString() != original)
+        // Aborted tasks do not leave the text half-replaced
+        steps.finish(false)
+        assertEquals(original, content.toString())
+        assertFalse(content.isInBatchEdit)
+        assertFalse(content.canUndo())
+    }
+
+    @Test
+    fun testReplaceAllStepsDetectModification() {
+        val content = Content("ab ab ab")
+        val steps = EditorSearcher.ReplaceSteps(content, findAll(content, "ab", null), "r")
+        steps.step(0)
+        // Modified by others between steps
+        content.insert(0, 0, "x")
+        assertTrue(steps.isTextModified())
+        // Modifications of others are never undone by the task
+        steps.finish(false)
+        assertEquals("xab ab r", content.toString())
+        assertFalse(content.isInBatchEdit)
+    }
+
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget
+
+import android.os.Build
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Check the line index and LRU order of [RenderNodeHolder] against a [LinkedHashMap] in access order
+ */
+class RenderNodeHolderTest {
+
+    private lateinit var holder: RenderNodeHolder
+
+    @Before
+    fun setUp() {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+        val instrumentation = InstrumentationRegistry.getInstrumentation()
+        instrumentation.runOnMainSync {
+            holder = RenderNodeHolder(CodeEditor(instrumentation.targetContext))
+        }
+    }
+
+    private fun newModel() = LinkedHashMap<Int, RenderNodeHolder.TextRenderNode>(16, 0.75f, true)
+
+    private fun assertHolder(model: Map<Int, RenderNodeHolder.TextRenderNode>) {
+        assertEquals(model.size, holder.size())
+        for ((line, node) in model) {
+            assertEquals(line, node.line)
+        }
+    }
+
+    /**
+     * Get the node of the line from both the holder and the model, and check they are the same
+     */
+    private fun getNode(model: MutableMap<Int, RenderNodeHolder.TextRenderNode>, line: Int) {
+        val hits = holder.hitCount
+        val node = holder.getNode(line)
+        assertEquals(line, node.line)
+        val expected = model[line]
+        if (expected != null) {
+            assertSame(expected, node)
+            assertEquals(hits + 1, holder.hitCount)
+        } else {
+            assertEquals(hits, holder.hitCount)
+            model[line] = node
+        }
+    }
+
+    private fun remap(model: LinkedHashMap<Int, RenderNodeHolder.TextRenderNode>, transform: (Int) -> Int?): LinkedHashMap<Int, RenderNodeHolder.TextRenderNode> {
+        val result = newModel()
+        // Iterating does not change the access order
+        for ((line, node) in model) {
+            val newLine = transform(line) ?: continue
+            result[newLine] = node
+        }
+        return result
+    }
+
+    @Test
+    fun testGetNode() {
+        val model = newModel()
+        // Grow the table several times
+        for (line in 0 until 1000) {
+            getNode(model, line * 7)
+        }
+        for (line in 999 downTo 0) {
+            getNode(model, line * 7)
+        }
+        assertEquals(1000L, holder.hitCount)
+        assertEquals(1000L, holder.missCount)
+        assertHolder(model)
+    }
+
+    @Test
+    fun testTrimReleasesLeastRecentlyUsed() {
+        val model = newModel()
+        for (line in 0 until 10) {
+            getNode(model, line)
+        }
+        // Use some old nodes again
+        getNode(model, 2)
+        getNode(model, 0)
+        holder.trimToSize(4)
+        val iterator = model.keys.iterator()
+        while (model.size > 4) {
+            iterator.next()
+            iterator.remove()
+        }
+        assertEquals(listOf(8, 9, 2, 0), model.keys.toList())
+        assertHolder(model)
+        for (line in model.keys.toList()) {
+            getNode(model, line)
+        }
+        // Released nodes are created again
+        val misses = holder.missCount
+        holder.getNode(7)
+        assertEquals(misses + 1, holder.missCount)
+    }
+
+    @Test
+    fun testRandomOperations() {
+        for (seed in 0 until 10) {
+            val random = Random(seed)
+            holder.invalidateInRegion(0, Int.MAX_VALUE)
+            var model = newModel()
+            for (round in 0 until 2000) {
+                when (random.nextInt(10)) {
+                    in 0..5 -> getNode(model, random.nextInt(300))
+                    6 -> {
+                        val maxSize = random.nextInt(1, 200)
+                        holder.trimToSize(maxSize)
+                        val iterator = model.keys.iterator()
+                        while (model.size > maxSize) {
+                            iterator.next()
+                            iterator.remove()
+                        }
+                    }
+                    7 -> {
+                        val start = random.nextInt(300)
+                        val end = start + random.nextInt(20)
+                        holder.invalidateInRegion(start, end)
+                        model = remap(model) { if (it in start..end) null else it }
+                    }
+                    8 -> {
+                        val start = random.nextInt(300)
+                        val end = start + random.nextInt(5)
+                        holder.afterInsert(start, end)
+                        model = remap(model) { if (it > start) it + end - start else it }
+                    }
+                    else -> {
+                        val start = random.nextInt(300)
+                        val end = start + random.nextInt(5)
+                        holder.afterDelete(start, end)
+                        model = remap(model) {
+                            when {
+                                it > end -> it - (end - start)
+                                it > start -> null
+                                else -> it
+                            }
+                        }
+                    }
+                }
+                assertHolder(model)
+            }
+            // Every node is still found
+            for (line in model.keys.toList()) {
+                getNode(model, line)
+            }
+            assertHolder(model)
+        }
+    }
+
+}
@@ -28,7 +28,8 @@ import io.github.rosemoe.sora.widget.CodeEditor
 
 /**
  * Event when search result is available in main thread.
- * Note that this is also triggered when query is changed to null.
+ * Note that this is also triggered when query is changed to null, and when partial results are
+ * published during a parallel search (see [io.github.rosemoe.sora.widget.EditorSearcher.isResultPartial]).
  *
  * @author Rosemoe
  */
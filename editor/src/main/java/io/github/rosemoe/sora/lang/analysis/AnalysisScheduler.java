@@ -0,0 +1,369 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.analysis;
+
+import android.os.Message;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared scheduler for analysis work of {@link AnalyzeManager}s.
+ * <p>
+ * Instead of keeping a thread for each manager, managers submit {@link Task}s to the scheduler, and
+ * the tasks are run on bounded thread pools. A task handles its queued messages in time slices, so
+ * that tasks of many editors share the threads. Tasks of visible editors are run on their own pool,
+ * and tasks of invisible editors are run on a separate single thread, so that a long message of an
+ * invisible editor (for example, parsing a large file opened in background) never delays visible
+ * editors. Background work of invisible editors is suspended until they become visible.
+ * <p>
+ * Threads of the pools exit when they are idle for a while.
+ */
+public class AnalysisScheduler {
+
+    private final static String LOG_TAG = "AnalysisScheduler";
+    /**
+     * Time limit of running a task before other tasks get their turns
+     */
+    private final static long TIME_SLICE_MILLIS = 50;
+    private final static long KEEP_ALIVE_SECONDS = 30;
+    private static AnalysisScheduler defaultScheduler;
+    private final static ThreadLocal<Task> currentTask = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor executor;
+    /**
+     * Runs slices of background tasks
+     */
+    private final ThreadPoolExecutor backgroundExecutor;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger threadId = new AtomicInteger();
+
+    /**
+     * Create a scheduler with the given max count of threads for visible editors
+     */
+    public AnalysisScheduler(int maxThreadCount) {
+        if (maxThreadCount <= 0) {
+            throw new IllegalArgumentException("max thread count must be positive");
+        }
+        executor = createExecutor(maxThreadCount);
+        backgroundExecutor = createExecutor(1);
+    }
+
+    @NonNull
+    private ThreadPoolExecutor createExecutor(int threadCount) {
+        var executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), (r) -> {
+            var thread = new Thread(r, "AnalysisWorker-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Get the scheduler shared by built-in analyze managers
+     */
+    @NonNull
+    public synchronized static AnalysisScheduler getDefault() {
+        if (defaultScheduler == null) {
+            int count = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+            defaultScheduler = new AnalysisScheduler(count);
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Get the task running on current thread, or null if current thread is not running any task
+     */
+    @Nullable
+    public static Task getCurrentTask() {
+        return currentTask.get();
+    }
+
+    /**
+     * Set max count of threads running tasks of visible editors
+     */
+    public void setMaxThreadCount(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("max thread count must be positive");
+        }
+        if (count > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(count);
+            executor.setCorePoolSize(count);
+        } else {
+            executor.setCorePoolSize(count);
+            executor.setMaximumPoolSize(count);
+        }
+    }
+
+    public int getMaxThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Get count of threads currently created by the scheduler
+     */
+    public int getThreadCount() {
+        return executor.getPoolSize() + backgroundExecutor.getPoolSize();
+    }
+
+    private void schedule(@NonNull Task task) {
+        var slice = new Slice(task, task.foreground, sequence.getAndIncrement());
+        task.pendingSlice = slice;
+        (slice.foreground ? executor : backgroundExecutor).execute(slice);
+    }
+
+    /**
+     * Move the queued background slice of the task to the pool of visible editors
+     *
+     * @return true if the slice is moved
+     */
+    private boolean promote(@NonNull Task task) {
+        var slice = task.pendingSlice;
+        if (slice != null && !slice.foreground && backgroundExecutor.remove(slice)) {
+            schedule(task);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A single run of a task in the pool
+     */
+    private static class Slice implements Runnable, Comparable<Slice> {
+
+        private final Task task;
+        private final boolean foreground;
+        private final long sequence;
+
+        Slice(Task task, boolean foreground, long sequence) {
+            this.task = task;
+            this.foreground = foreground;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            task.runSlice();
+        }
+
+        @Override
+        public int compareTo(Slice o) {
+            if (foreground != o.foreground) {
+                return foreground ? -1 : 1;
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+
+    /**
+     * Analysis work of a manager. Messages offered to the task are handled in order, and at most
+     * one thread runs the task at the same time, so the task can keep its data without locks.
+     */
+    public abstract static class Task {
+
+        private final AnalysisScheduler scheduler;
+        private final Queue<Message> messageQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean foreground = true;
+        private volatile boolean abort;
+        private volatile Thread runner;
+        private volatile boolean released;
+        /**
+         * The slice submitted to the pool and not started yet
+         */
+        private volatile Slice pendingSlice;
+        private String name = getClass().getSimpleName();
+
+        public Task(@NonNull AnalysisScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        public void setName(@NonNull String name) {
+            this.name = name;
+        }
+
+        @NonNull
+        public String getName() {
+            return name;
+        }
+
+        public void offerMessage(int what, @Nullable Object obj) {
+            var msg = Message.obtain();
+            msg.what = what;
+            msg.obj = obj;
+            offerMessage(msg);
+        }
+
+        public void offerMessage(@NonNull Message msg) {
+            messageQueue.offer(msg);
+            schedule();
+        }
+
+        /**
+         * Get the next queued message without removing it. Should be called by the task itself.
+         */
+        @Nullable
+        protected Message peekMessage() {
+            return messageQueue.peek();
+        }
+
+        /**
+         * Remove and get the next queued message. Should be called by the task itself.
+         */
+        @Nullable
+        protected Message pollMessage() {
+            return messageQueue.poll();
+        }
+
+        /**
+         * Set whether the task belongs to a visible editor. Foreground tasks are run before background
+         * ones, and {@link #hasBackgroundWork()} is not run for background tasks.
+         */
+        public void setForeground(boolean foreground) {
+            this.foreground = foreground;
+            if (foreground && !scheduler.promote(this)) {
+                schedule();
+            }
+        }
+
+        public boolean isForeground() {
+            return foreground;
+        }
+
+        /**
+         * Stop the task. Queued messages are discarded, and {@link #releaseResources()} is called
+         * later in the pool.
+         */
+        public void abort() {
+            abort = true;
+            schedule();
+        }
+
+        public boolean isAborted() {
+            return abort;
+        }
+
+        /**
+         * Check whether current thread is running the task
+         */
+        public boolean isRunningOnCurrentThread() {
+            return runner == Thread.currentThread();
+        }
+
+        /**
+         * Handle the given message
+         *
+         * @return false if the task should be stopped
+         */
+        protected abstract boolean handleMessage(@NonNull Message msg);
+
+        /**
+         * Check whether the task has work to do when there is no message
+         */
+        protected boolean hasBackgroundWork() {
+            return false;
+        }
+
+        /**
+         * Do a step of work when there is no message. The step should be short, so that other
+         * tasks are not blocked.
+         *
+         * @return false if the task should be stopped
+         */
+        protected boolean runBackgroundWork() {
+            return true;
+        }
+
+        /**
+         * Release resources held by the task, after it is aborted
+         */
+        protected void releaseResources() {
+
+        }
+
+        private void schedule() {
+            if (!released && scheduled.compareAndSet(false, true)) {
+                scheduler.schedule(this);
+            }
+        }
+
+        private void runSlice() {
+            var thread = Thread.currentThread();
+            runner = thread;
+            pendingSlice = null;
+            currentTask.set(this);
+            boolean more = false;
+            try {
+                if (!abort) {
+                    long deadline = System.currentTimeMillis() + TIME_SLICE_MILLIS;
+                    Message msg;
+                    while (!abort && System.currentTimeMillis() < deadline && (msg = messageQueue.poll()) != null) {
+                        if (!handleMessage(msg)) {
+                            abort = true;
+                        }
+                        msg.recycle();
+                    }
+                    if (!abort && messageQueue.isEmpty() && foreground && hasBackgroundWork()) {
+                        if (!runBackgroundWork()) {
+                            abort = true;
+                        }
+                    }
+                    more = !abort && foreground && hasBackgroundWork();
+                }
+                if (abort && !released) {
+                    released = true;
+                    Message msg;
+                    while ((msg = messageQueue.poll()) != null) {
+                        msg.recycle();
+                    }
+                    releaseResources();
+                }
+            } catch (Exception e) {
+                Log.w(LOG_TAG, "Task " + name + " failed", e);
+                abort = true;
+            } finally {
+                currentTask.remove();
+                runner = null;
+                scheduled.set(false);
+            }
+            if (more || !messageQueue.isEmpty() || (abort && !released)) {
+                schedule();
+            }
+        }
+
+    }
+
+}
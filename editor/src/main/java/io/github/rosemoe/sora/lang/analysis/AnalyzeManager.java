@@ -87,6 +87,31 @@ public interface AnalyzeManager {
      */
     void rerun();
 
+    /**
+     * Called by editor on UI thread when its visible line range is changed. Managers can analyze
+     * the given lines in advance, so that highlighting is shown quickly for large text.
+     *
+     * @param firstLine First visible line
+     * @param lastLine  Last visible line, inclusive
+     */
+    default void onVisibleLineRangeChanged(int firstLine, int lastLine) {
+
+    }
+
+    /**
+     * Called by editor on UI thread when it is shown to or hidden from the user, for example when
+     * its tab is switched. Managers can lower the priority of their work for invisible editors, or
+     * release resources until the editor is visible again.
+     * <p>
+     * Managers are considered visible until this is called. Note that this can be called before
+     * {@link #reset(ContentReference, Bundle)}.
+     *
+     * @param visible Whether the editor is visible now
+     */
+    default void onEditorVisibilityChanged(boolean visible) {
+
+    }
+
     /**
      * Destroy the manager. Release any resources held.
      * Make sure that you will not call the receiver anymore.
@@ -29,15 +29,12 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.github.rosemoe.sora.lang.styling.CodeBlock;
 import io.github.rosemoe.sora.lang.styling.Span;
@@ -54,12 +51,34 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
     private final static int MSG_BASE = 11451400;
     private final static int MSG_INIT = MSG_BASE + 1;
     private final static int MSG_MOD = MSG_BASE + 2;
+    /**
+     * Max line count tokenized in a single step of lazy tokenization
+     */
+    private final static int LAZY_TOKENIZATION_STEP = 1000;
+    /**
+     * Extra lines tokenized in advance around the visible range
+     */
+    private final static int VISIBLE_RANGE_MARGIN = 50;
     private static int sThreadId = 0;
     private StyleReceiver receiver;
     private ContentReference ref;
     private Bundle extraArguments;
-    private LooperThread thread;
+    private LooperTask task;
     private volatile long runCount;
+    private boolean visible = true;
+    private boolean releaseWhenInvisible;
+    /**
+     * Whether the task is released because the editor is invisible
+     */
+    private boolean released;
+    private volatile boolean lazyTokenization;
+    private volatile long visibleLineRange = -1;
+    /**
+     * Counters of modifications. An aborted task may still be running when its replacement starts,
+     * so they can be updated by two threads at the same time.
+     */
+    private final AtomicLong processedModificationCount = new AtomicLong();
+    private final AtomicLong mergedModificationCount = new AtomicLong();
 
     private synchronized static int nextThreadId() {
         sThreadId++;
@@ -98,48 +117,135 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
 
     @Override
     public void insert(@NonNull CharPosition start, @NonNull CharPosition end, @NonNull CharSequence insertedText) {
-        if (thread != null) {
+        if (task != null) {
             increaseRunCount();
-            thread.offerMessage(MSG_MOD, new TextModification(IntPair.pack(start.line, start.column), IntPair.pack(end.line, end.column), insertedText));
+            task.offerMessage(MSG_MOD, new TextModification(IntPair.pack(start.line, start.column), IntPair.pack(end.line, end.column), insertedText));
         }
     }
 
     @Override
     public void delete(@NonNull CharPosition start, @NonNull CharPosition end, @NonNull CharSequence deletedText) {
-        if (thread != null) {
+        if (task != null) {
             increaseRunCount();
-            thread.offerMessage(MSG_MOD, new TextModification(IntPair.pack(start.line, start.column), IntPair.pack(end.line, end.column), null));
+            task.offerMessage(MSG_MOD, new TextModification(IntPair.pack(start.line, start.column), IntPair.pack(end.line, end.column), null));
         }
     }
 
     @Override
     public void rerun() {
-        if (thread != null) {
-            if (thread.isAlive()) {
-                thread.interrupt();
-                thread.abort = true;
-            }
+        restart(true);
+    }
+
+    private void restart(boolean clearStyles) {
+        if (task != null) {
+            task.abort();
+            task = null;
+        }
+        if (clearStyles) {
+            sendNewStyles(null);
+        }
+        increaseRunCount();
+        if (!visible && releaseWhenInvisible) {
+            // Analyze when the editor becomes visible
+            released = true;
+            return;
         }
+        released = false;
         final var text = ref.getReference().copyText(false);
         text.setUndoEnabled(false);
-        thread = new LooperThread();
-        thread.setName("AsyncAnalyzer-" + nextThreadId());
-        thread.offerMessage(MSG_INIT, text);
-        increaseRunCount();
-        sendNewStyles(null);
-        thread.start();
+        task = new LooperTask();
+        task.setName("AsyncAnalyzer-" + nextThreadId());
+        task.setForeground(visible);
+        task.offerMessage(MSG_INIT, text);
+    }
+
+    @Override
+    public void onVisibleLineRangeChanged(int firstLine, int lastLine) {
+        visibleLineRange = IntPair.pack(firstLine, lastLine);
+    }
+
+    @Override
+    public void onEditorVisibilityChanged(boolean visible) {
+        this.visible = visible;
+        if (visible) {
+            if (released && ref != null) {
+                // Styles of last analysis are kept until the new ones are ready
+                restart(false);
+            } else if (task != null) {
+                task.setForeground(true);
+            }
+        } else if (task != null) {
+            if (releaseWhenInvisible) {
+                task.abort();
+                task = null;
+                released = true;
+            } else {
+                task.setForeground(false);
+            }
+        }
+    }
+
+    /**
+     * Set whether the analysis is stopped when the editor is invisible. If enabled, the copy of text
+     * and the states kept for incremental analysis are released, and the text is analyzed again
+     * when the editor becomes visible. This keeps memory usage low when there are many editors, for
+     * example in tabs.
+     */
+    public void setReleaseWhenInvisible(boolean releaseWhenInvisible) {
+        this.releaseWhenInvisible = releaseWhenInvisible;
+    }
+
+    /**
+     * @see #setReleaseWhenInvisible(boolean)
+     */
+    public boolean isReleaseWhenInvisible() {
+        return releaseWhenInvisible;
+    }
+
+    /**
+     * Set whether the text is tokenized lazily. Takes effect on next {@link #rerun()}.
+     * <p>
+     * When enabled, styles are sent after the first lines and visible lines are tokenized, and
+     * the remaining lines are tokenized in background steps. Before the lines are reached, spans of
+     * visible lines are computed from the initial state, which may be inexact, and others are plain text.
+     * Code blocks are computed after all lines are tokenized.
+     */
+    public void setLazyTokenizationEnabled(boolean enabled) {
+        lazyTokenization = enabled;
+    }
+
+    /**
+     * @see #setLazyTokenizationEnabled(boolean)
+     */
+    public boolean isLazyTokenizationEnabled() {
+        return lazyTokenization;
+    }
+
+    /**
+     * Get count of text modifications processed by analysis tasks of this manager
+     */
+    public long getProcessedModificationCount() {
+        return processedModificationCount.get();
+    }
+
+    /**
+     * Get count of text modifications merged into previous ones. Queued modifications are handled
+     * together, so that lines are re-tokenized and code blocks are computed once for them.
+     */
+    public long getMergedModificationCount() {
+        return mergedModificationCount.get();
     }
 
     @Override
     public LineTokenizeResult<S, T> getState(int line) {
-        final var thread = this.thread;
-        if (thread == Thread.currentThread()) {
-            if (line >= 0 && line < thread.states.size()) {
-                return thread.states.get(line);
+        final var task = this.task;
+        if (task != null && task.isRunningOnCurrentThread()) {
+            if (line >= 0 && line < task.states.size()) {
+                return task.states.get(line);
             }
             return null;
         }
-        throw new SecurityException("Can not get state from non-analytical or abandoned thread");
+        throw new SecurityException("Can not get state from non-analytical thread or abandoned task");
     }
 
     @Override
@@ -158,16 +264,14 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
 
     @Override
     public void destroy() {
-        if (thread != null) {
-            if (thread.isAlive()) {
-                thread.interrupt();
-            }
-            thread.abort = true;
+        if (task != null) {
+            task.abort();
         }
         receiver = null;
         ref = null;
         extraArguments = null;
-        thread = null;
+        task = null;
+        released = false;
     }
 
     private void sendNewStyles(Styles styles) {
@@ -196,21 +300,58 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
     }
 
     public Styles getManagedStyles() {
-        var thread = Thread.currentThread();
-        if (thread.getClass() != AsyncIncrementalAnalyzeManager.LooperThread.class) {
+        var task = AnalysisScheduler.getCurrentTask();
+        if (!(task instanceof AsyncIncrementalAnalyzeManager.LooperTask)) {
             throw new IllegalThreadStateException();
         }
-        return ((AsyncIncrementalAnalyzeManager<?, ?>.LooperThread) thread).styles;
+        return ((AsyncIncrementalAnalyzeManager<?, ?>.LooperTask) task).styles;
     }
 
-    private static class LockedSpans implements Spans {
+    /**
+     * Spans whose reads never block. Spans of lines are published as immutable snapshots, and
+     * the analysis thread creates a new snapshot after modifications (copy-on-write). Lines are
+     * stored in chunks, so that only modified chunks are copied for a new snapshot.
+     * <p>
+     * Span lists given to the modifier must not be modified after they are set.
+     */
+    @VisibleForTesting
+    static class CopyOnWriteSpans implements Spans {
+
+        private final static int CHUNK_SHIFT = 8;
+        private final static int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private final static int CHUNK_MASK = CHUNK_SIZE - 1;
 
-        private final Lock lock;
-        private final List<Line> lines;
+        /**
+         * Latest published spans, read by any thread
+         */
+        private volatile Snapshot snapshot;
+        /**
+         * Tokenized lines. Lines after them are not tokenized yet. Accessed by writers only.
+         */
+        private final List<List<Span>> lines;
+        /**
+         * Spans of some lines after tokenized lines, which are computed from the initial state.
+         * Accessed by writers only.
+         */
+        private List<List<Span>> provisionalSpans;
+        private int provisionalStart;
+        /**
+         * Line range changed since last publishing
+         */
+        private int dirtyStart = Integer.MAX_VALUE;
+        private int dirtyEnd = -1;
+        /**
+         * Whether lines are inserted or deleted before the end, so that all lines after
+         * {@link #dirtyStart} are changed
+         */
+        private boolean dirtyShifted;
+        private boolean provisionalChanged;
+        private int batchDepth;
 
-        public LockedSpans() {
+        @SuppressWarnings("unchecked")
+        public CopyOnWriteSpans() {
             lines = new ArrayList<>(128);
-            lock = new ReentrantLock();
+            snapshot = new Snapshot(new List[0][], 0, 0, null);
         }
 
         @Override
@@ -225,7 +366,7 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
 
         @Override
         public int getLineCount() {
-            return lines.size();
+            return snapshot.lineCount;
         }
 
         @Override
@@ -243,101 +384,159 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
             return true;
         }
 
-        private static class Line {
+        /**
+         * Start a batch of modifications. Changes are invisible to readers until the outermost
+         * batch ends.
+         */
+        synchronized void beginBatch() {
+            batchDepth++;
+        }
 
-            public Lock lock = new ReentrantLock();
+        /**
+         * End a batch of modifications and publish the changes if it is the outermost batch
+         */
+        synchronized void endBatch() {
+            if (--batchDepth == 0) {
+                publish();
+            }
+        }
 
-            public List<Span> spans;
+        /**
+         * Set provisional spans for lines starting from {@code startLine}. Should be called by the
+         * analysis thread only.
+         */
+        synchronized void setProvisionalSpans(int startLine, @Nullable List<List<Span>> spans) {
+            provisionalStart = startLine;
+            provisionalSpans = spans;
+            provisionalChanged = true;
+            publishIfNeeded();
+        }
+
+        /**
+         * Check whether the given line range has provisional spans. Should be called by the analysis
+         * thread only.
+         */
+        boolean hasProvisionalSpans(int startLine, int endLine) {
+            return provisionalSpans != null && startLine >= provisionalStart && endLine <= provisionalStart + provisionalSpans.size();
+        }
+
+        /**
+         * Get end line of provisional spans, or -1 if there is none. Should be called by the analysis
+         * thread only.
+         */
+        int getProvisionalEnd() {
+            return provisionalSpans == null ? -1 : provisionalStart + provisionalSpans.size();
+        }
 
-            public Line() {
-                this(null);
+        private void markDirty(int line, boolean shifted) {
+            dirtyStart = Math.min(dirtyStart, line);
+            dirtyEnd = Math.max(dirtyEnd, line);
+            dirtyShifted |= shifted;
+        }
+
+        private void publishIfNeeded() {
+            if (batchDepth == 0) {
+                publish();
+            }
+        }
+
+        /**
+         * Create a new snapshot for changes. Chunks without changed lines are shared with the old one.
+         */
+        @SuppressWarnings("unchecked")
+        private void publish() {
+            if (dirtyStart > dirtyEnd && !provisionalChanged) {
+                return;
+            }
+            var old = snapshot;
+            int lineCount = lines.size();
+            int chunkCount = (lineCount + CHUNK_MASK) >> CHUNK_SHIFT;
+            var chunks = old.chunks;
+            if (dirtyStart <= dirtyEnd) {
+                chunks = new List[chunkCount][];
+                System.arraycopy(old.chunks, 0, chunks, 0, Math.min(chunkCount, old.chunks.length));
+                int endChunk = dirtyShifted ? chunkCount - 1 : Math.min(chunkCount - 1, dirtyEnd >> CHUNK_SHIFT);
+                for (int i = dirtyStart >> CHUNK_SHIFT; i <= endChunk; i++) {
+                    int start = i << CHUNK_SHIFT;
+                    var chunk = new List[Math.min(CHUNK_SIZE, lineCount - start)];
+                    for (int j = 0; j < chunk.length; j++) {
+                        chunk[j] = lines.get(start + j);
+                    }
+                    chunks[i] = chunk;
+                }
+            }
+            snapshot = new Snapshot(chunks, lineCount, provisionalStart, provisionalSpans);
+            dirtyStart = Integer.MAX_VALUE;
+            dirtyEnd = -1;
+            dirtyShifted = false;
+            provisionalChanged = false;
+        }
+
+        /**
+         * Immutable spans of lines
+         */
+        private static class Snapshot {
+
+            final List<Span>[][] chunks;
+            final int lineCount;
+            final int provisionalStart;
+            final List<List<Span>> provisionalSpans;
+
+            Snapshot(List<Span>[][] chunks, int lineCount, int provisionalStart, List<List<Span>> provisionalSpans) {
+                this.chunks = chunks;
+                this.lineCount = lineCount;
+                this.provisionalStart = provisionalStart;
+                this.provisionalSpans = provisionalSpans;
             }
 
-            public Line(List<Span> s) {
-                spans = s;
+            /**
+             * Get spans of the given line, or null if the line is neither tokenized nor covered by
+             * provisional spans
+             */
+            @Nullable
+            List<Span> getSpansOnLine(int line) {
+                if (line < lineCount) {
+                    return chunks[line >> CHUNK_SHIFT][line & CHUNK_MASK];
+                }
+                var spans = provisionalSpans;
+                if (spans != null && line >= provisionalStart && line < provisionalStart + spans.size()) {
+                    return spans.get(line - provisionalStart);
+                }
+                return null;
             }
 
         }
 
         private class ReaderImpl implements Spans.Reader {
 
-            private Line line;
+            /**
+             * Spans of current line, or null for plain text
+             */
+            private List<Span> spans;
 
             public void moveToLine(int line) {
-                if (line < 0 || line >= lines.size()) {
-                    if (this.line != null) {
-                        this.line.lock.unlock();
-                    }
-                    this.line = null;
-                } else {
-                    if (this.line != null) {
-                        this.line.lock.unlock();
-                    }
-                    var locked = false;
-                    try {
-                        locked = lock.tryLock(100, TimeUnit.MICROSECONDS);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                        Thread.currentThread().interrupt();
-                    }
-                    if (locked) {
-                        try {
-                            var obj = lines.get(line);
-                            if (obj.lock.tryLock()) {
-                                this.line = obj;
-                            } else {
-                                this.line = null;
-                            }
-                        } finally {
-                            lock.unlock();
-                        }
-                    } else {
-                        this.line = null;
-                    }
-                }
+                spans = line < 0 ? null : snapshot.getSpansOnLine(line);
             }
 
             @Override
             public int getSpanCount() {
-                return line == null ? 1 : line.spans.size();
+                return spans == null ? 1 : spans.size();
             }
 
             @Override
             public Span getSpanAt(int index) {
-                return line == null ? Span.obtain(0, EditorColorScheme.TEXT_NORMAL) : line.spans.get(index);
+                return spans == null ? Span.obtain(0, EditorColorScheme.TEXT_NORMAL) : spans.get(index);
             }
 
             @Override
             public List<Span> getSpansOnLine(int line) {
-                var spans = new ArrayList<Span>();
-                var locked = false;
-                try {
-                    locked = lock.tryLock(1, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                var spans = snapshot.getSpansOnLine(line);
+                if (spans != null) {
+                    return Collections.unmodifiableList(spans);
                 }
-                if (locked) {
-                    Line obj = null;
-                    try {
-                        if (line < lines.size()) {
-                            obj = lines.get(line);
-                        }
-                    } finally {
-                        lock.unlock();
-                    }
-                    if (obj != null && obj.lock.tryLock()) {
-                        try {
-                            return Collections.unmodifiableList(obj.spans);
-                        } finally {
-                            obj.lock.unlock();
-                        }
-                    } else {
-                        spans.add(getSpanAt(0));
-                    }
-                } else {
-                    spans.add(getSpanAt(0));
-                }
-                return spans;
+                var list = new ArrayList<Span>();
+                list.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
+                return list;
             }
         }
 
@@ -345,54 +544,56 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
 
             @Override
             public void setSpansOnLine(int line, List<Span> spans) {
-                lock.lock();
-                try {
+                synchronized (CopyOnWriteSpans.this) {
                     while (lines.size() <= line) {
                         var list = new ArrayList<Span>();
                         list.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
-                        lines.add(new Line(list));
-                    }
-                    var obj = lines.get(line);
-                    obj.lock.lock();
-                    try {
-                        obj.spans = spans;
-                    } finally {
-                        obj.lock.unlock();
+                        markDirty(lines.size(), false);
+                        lines.add(list);
                     }
-                } finally {
-                    lock.unlock();
+                    lines.set(line, spans);
+                    markDirty(line, false);
+                    publishIfNeeded();
                 }
             }
 
             @Override
             public void addLineAt(int line, List<Span> spans) {
-                lock.lock();
-                try {
-                    lines.add(line, new Line(spans));
-                } finally {
-                    lock.unlock();
+                synchronized (CopyOnWriteSpans.this) {
+                    markDirty(line, line < lines.size());
+                    lines.add(line, spans);
+                    publishIfNeeded();
                 }
             }
 
             @Override
             public void deleteLineAt(int line) {
-                lock.lock();
-                try {
-                    var obj = lines.get(line);
-                    obj.lock.lock();
-                    try {
-                        lines.remove(line);
-                    } finally {
-                        obj.lock.unlock();
-                    }
-                } finally {
-                    lock.unlock();
+                synchronized (CopyOnWriteSpans.this) {
+                    lines.remove(line);
+                    markDirty(line, line < lines.size());
+                    publishIfNeeded();
                 }
             }
         }
 
     }
 
+    /**
+     * Get the position of the given line after the modification. Lines removed by deletion are
+     * mapped to its start line.
+     */
+    private static int mapLine(int line, @NonNull TextModification mod) {
+        int startLine = IntPair.getFirst(mod.start);
+        int endLine = IntPair.getFirst(mod.end);
+        if (line <= startLine) {
+            return line;
+        }
+        if (mod.changedText != null) {
+            return line + endLine - startLine;
+        }
+        return line <= endLine ? startLine : line - (endLine - startLine);
+    }
+
     private static class TextModification {
 
         private final long start;
@@ -414,11 +615,17 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
      */
     public class CodeBlockAnalyzeDelegate {
 
-        private final LooperThread thread;
+        private final LooperTask task;
         int suppressSwitch;
+        /**
+         * Whether code blocks are successfully computed by the task
+         */
+        boolean computed;
+        int modifiedStartLine = Integer.MAX_VALUE;
+        int modifiedEndLine = -1;
 
-        CodeBlockAnalyzeDelegate(@NonNull LooperThread lp) {
-            thread = lp;
+        CodeBlockAnalyzeDelegate(@NonNull LooperTask lp) {
+            task = lp;
         }
 
         public void setSuppressSwitch(int suppressSwitch) {
@@ -429,8 +636,47 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
             suppressSwitch = Integer.MAX_VALUE;
         }
 
+        /**
+         * Get the first line modified since code blocks are successfully computed last time by this
+         * task. Lines before it are unchanged, so their results can be reused.
+         * <p>
+         * 0 is returned if code blocks are not computed yet.
+         */
+        public int getModifiedStartLine() {
+            return computed ? modifiedStartLine : 0;
+        }
+
+        /**
+         * Get the last line modified since code blocks are successfully computed last time by this
+         * task, in current text. Lines after it are unchanged, but shifted by the change of line
+         * count since last time. If no line is modified, the result is smaller than {@link #getModifiedStartLine()}.
+         * <p>
+         * The last line of text is returned if code blocks are not computed yet.
+         */
+        public int getModifiedEndLine() {
+            return computed ? modifiedEndLine : task.shadowed.getLineCount() - 1;
+        }
+
+        void mapModifiedLines(@NonNull TextModification mod) {
+            if (modifiedStartLine <= modifiedEndLine) {
+                modifiedStartLine = mapLine(modifiedStartLine, mod);
+                modifiedEndLine = mapLine(modifiedEndLine, mod);
+            }
+        }
+
+        void addModifiedLines(int startLine, int endLine) {
+            modifiedStartLine = Math.min(modifiedStartLine, startLine);
+            modifiedEndLine = Math.max(modifiedEndLine, endLine);
+        }
+
+        void onComputed() {
+            computed = true;
+            modifiedStartLine = Integer.MAX_VALUE;
+            modifiedEndLine = -1;
+        }
+
         public boolean isCancelled() {
-            return thread.myRunCount != runCount || thread.abort || thread.isInterrupted();
+            return task.myRunCount != runCount || task.isAborted();
         }
 
         public boolean isNotCancelled() {
@@ -439,173 +685,280 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> implements Incrementa
 
     }
 
-    private final class LooperThread extends Thread {
+    private final class LooperTask extends AnalysisScheduler.Task {
 
-        private final BlockingQueue<Message> messageQueue = new LinkedBlockingQueue<>();
-        volatile boolean abort;
         Content shadowed;
         long myRunCount;
 
         List<LineTokenizeResult<S, T>> states = new ArrayList<>();
         Styles styles;
-        LockedSpans spans;
+        CopyOnWriteSpans spans;
         CodeBlockAnalyzeDelegate delegate = new CodeBlockAnalyzeDelegate(this);
 
-        public void offerMessage(int what, @Nullable Object obj) {
-            var msg = Message.obtain();
-            msg.what = what;
-            msg.obj = obj;
-            offerMessage(msg);
-        }
-
-        public void offerMessage(@NonNull Message msg) {
-            // Result ignored: capacity is enough as it is INT_MAX
-            //noinspection ResultOfMethodCallIgnored
-            messageQueue.offer(msg);
+        LooperTask() {
+            super(AnalysisScheduler.getDefault());
         }
 
         private void initialize() {
-            styles = new Styles(spans = new LockedSpans());
-            S state = getInitialState();
-            var mdf = spans.modify();
-            for (int i = 0; i < shadowed.getLineCount() && !abort && !isInterrupted(); i++) {
-                var line = shadowed.getLine(i);
-                var result = tokenizeLine(line, state, i);
-                state = result.state;
-                var spans = result.spans != null ? result.spans : generateSpansForLine(result);
-                states.add(result.clearSpans());
-                onAddState(result.state);
-                mdf.addLineAt(i, spans);
+            styles = new Styles(spans = new CopyOnWriteSpans());
+            if (lazyTokenization && shadowed.getLineCount() > LAZY_TOKENIZATION_STEP) {
+                // Send styles as soon as possible. Visible lines and remaining lines are tokenized later
+                tokenizeLines(LAZY_TOKENIZATION_STEP);
+                if (!isAborted())
+                    sendNewStyles(styles);
+                return;
             }
+            tokenizeLines(shadowed.getLineCount());
             styles.blocks = computeBlocks(shadowed, delegate);
             styles.setSuppressSwitch(delegate.suppressSwitch);
-            if (!abort)
+            if (delegate.isNotCancelled()) {
+                delegate.onComputed();
+            }
+            if (!isAborted())
                 sendNewStyles(styles);
         }
 
-        public boolean handleMessage(@NonNull Message msg) {
+        /**
+         * Tokenize at most {@code count} lines after tokenized lines
+         */
+        private void tokenizeLines(int count) {
+            int start = states.size();
+            int end = Math.min(shadowed.getLineCount(), start + count);
+            S state = start == 0 ? getInitialState() : states.get(start - 1).state;
+            var mdf = spans.modify();
+            spans.beginBatch();
+            try {
+                for (int i = start; i < end && !isAborted(); i++) {
+                    var line = shadowed.getLine(i);
+                    var result = tokenizeLine(line, state, i);
+                    state = result.state;
+                    var spans = result.spans != null ? result.spans : generateSpansForLine(result);
+                    states.add(result.clearSpans());
+                    onAddState(result.state);
+                    mdf.addLineAt(i, spans);
+                }
+            } finally {
+                spans.endBatch();
+            }
+        }
+
+        /**
+         * Apply the modifications to shadowed text, and then re-tokenize the modified lines together.
+         * <p>
+         * The state at each tokenized line is kept as the old state of the text at the end of the line,
+         * so that states of modified lines can also be compared with old ones. Inserted lines hold
+         * null states until they are re-tokenized.
+         *
+         * @return Packed start and end line of updated lines
+         */
+        private long applyModifications(@NonNull List<TextModification> modifications) {
+            // Readers see the spans after all modifications are applied
+            spans.beginBatch();
+            try {
+                return applyModificationsInBatch(modifications);
+            } finally {
+                spans.endBatch();
+            }
+        }
+
+        private long applyModificationsInBatch(@NonNull List<TextModification> modifications) {
+            var mdf = spans.modify();
+            int dirtyStart = -1, dirtyEnd = -1;
+            for (var mod : modifications) {
+                int startLine = IntPair.getFirst(mod.start);
+                int endLine = IntPair.getFirst(mod.end);
+                int delta = endLine - startLine;
+                // Lines after tokenized lines are left to lazy tokenization
+                int tokenized = states.size();
+                if (startLine <= spans.getProvisionalEnd()) {
+                    spans.setProvisionalSpans(0, null);
+                }
+                if (mod.changedText == null) {
+                    shadowed.delete(startLine, IntPair.getSecond(mod.start), endLine, IntPair.getSecond(mod.end));
+                    if (startLine < tokenized) {
+                        // Keep the state of end line. If end line is not tokenized, start line becomes not tokenized as well
+                        int removeEnd = Math.min(endLine, tokenized);
+                        var subList = states.subList(startLine, removeEnd);
+                        for (var result : subList) {
+                            if (result != null) {
+                                onAbandonState(result.state);
+                            }
+                        }
+                        subList.clear();
+                        for (int i = startLine; i < removeEnd; i++) {
+                            mdf.deleteLineAt(startLine);
+                        }
+                    }
+                } else {
+                    shadowed.insert(startLine, IntPair.getSecond(mod.start), mod.changedText);
+                    if (startLine < tokenized) {
+                        // The state of start line is moved to end line
+                        for (int i = 0; i < delta; i++) {
+                            states.add(startLine, null);
+                            var list = new ArrayList<Span>();
+                            list.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
+                            mdf.addLineAt(startLine, list);
+                        }
+                    }
+                }
+                delegate.mapModifiedLines(mod);
+                int modifiedEnd = mod.changedText == null ? startLine : endLine;
+                if (dirtyStart == -1) {
+                    dirtyStart = startLine;
+                    dirtyEnd = modifiedEnd;
+                } else {
+                    dirtyStart = Math.min(mapLine(dirtyStart, mod), startLine);
+                    dirtyEnd = Math.max(mapLine(dirtyEnd, mod), modifiedEnd);
+                }
+            }
+            int tokenized = states.size();
+            if (dirtyStart >= tokenized) {
+                return IntPair.pack(dirtyStart, dirtyStart);
+            }
+            dirtyEnd = Math.min(dirtyEnd, tokenized - 1);
+            S state = dirtyStart == 0 ? getInitialState() : states.get(dirtyStart - 1).state;
+            int line = dirtyStart;
+            while (line < tokenized) {
+                var res = tokenizeLine(shadowed.getLine(line), state, line);
+                mdf.setSpansOnLine(line, res.spans != null ? res.spans : generateSpansForLine(res));
+                var old = states.set(line, res.clearSpans());
+                if (old != null) {
+                    onAbandonState(old.state);
+                }
+                onAddState(res.state);
+                // Following lines are not affected if the state at the end of modified text is unchanged
+                if (line >= dirtyEnd && old != null && stateEquals(old.state, res.state)) {
+                    break;
+                }
+                state = res.state;
+                line++;
+            }
+            delegate.addModifiedLines(dirtyStart, Math.min(line, tokenized - 1));
+            return IntPair.pack(dirtyStart, line);
+        }
+
+        /**
+         * Whether some lines are not tokenized, in lazy tokenization
+         */
+        private boolean isTokenizationIncomplete() {
+            return shadowed != null && spans != null && states.size() < shadowed.getLineCount();
+        }
+
+        /**
+         * Compute provisional spans for visible lines that are not tokenized yet. The lines are
+         * tokenized from initial state, because the states of lines before are unknown.
+         */
+        private void tokenizeVisibleLines() {
+            var range = visibleLineRange;
+            if (range == -1) {
+                return;
+            }
+            int tokenized = states.size();
+            int start = Math.max(tokenized, IntPair.getFirst(range) - VISIBLE_RANGE_MARGIN);
+            int end = Math.min(shadowed.getLineCount(), IntPair.getSecond(range) + 1 + VISIBLE_RANGE_MARGIN);
+            if (start >= end || spans.hasProvisionalSpans(start, end)) {
+                return;
+            }
+            S state = start == tokenized && tokenized > 0 ? states.get(tokenized - 1).state : getInitialState();
+            var result = new ArrayList<List<Span>>(end - start);
+            for (int i = start; i < end && !isAborted(); i++) {
+                var res = tokenizeLine(shadowed.getLine(i), state, i);
+                result.add(res.spans != null ? res.spans : generateSpansForLine(res));
+                state = res.state;
+            }
+            spans.setProvisionalSpans(start, result);
+            if (!isAborted()) {
+                sendUpdate(styles, start, end);
+            }
+        }
+
+        /**
+         * Run a step of lazy tokenization
+         */
+        private boolean tokenizeInBackground() {
+            try {
+                myRunCount = runCount;
+                delegate.reset();
+                tokenizeVisibleLines();
+                int start = states.size();
+                tokenizeLines(LAZY_TOKENIZATION_STEP);
+                if (!isTokenizationIncomplete()) {
+                    spans.setProvisionalSpans(0, null);
+                    var blocks = computeBlocks(shadowed, delegate);
+                    if (delegate.isNotCancelled()) {
+                        styles.blocks = blocks;
+                        styles.setSuppressSwitch(delegate.suppressSwitch);
+                        delegate.onComputed();
+                    }
+                }
+                if (!isAborted()) {
+                    sendUpdate(styles, start, states.size());
+                }
+                return true;
+            } catch (Exception e) {
+                Log.w("AsyncAnalysis", "Task " + getName() + " failed", e);
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean handleMessage(@NonNull Message msg) {
             try {
                 myRunCount = runCount;
                 delegate.reset();
                 switch (msg.what) {
                     case MSG_INIT:
                         shadowed = (Content) msg.obj;
-                        if (!abort && !isInterrupted()) {
+                        if (!isAborted()) {
                             initialize();
                         }
                         break;
                     case MSG_MOD:
-                        int updateStart = 0, updateEnd = 0;
-                        if (!abort && !isInterrupted()) {
-                            var mod = (TextModification) msg.obj;
-                            int startLine = IntPair.getFirst(mod.start);
-                            int endLine = IntPair.getFirst(mod.end);
-
-                            updateStart = startLine;
-                            if (mod.changedText == null) {
-                                shadowed.delete(IntPair.getFirst(mod.start), IntPair.getSecond(mod.start),
-                                        IntPair.getFirst(mod.end), IntPair.getSecond(mod.end));
-                                S state = startLine == 0 ? getInitialState() : states.get(startLine - 1).state;
-                                // Remove states
-                                if (endLine >= startLine + 1) {
-                                    var subList = states.subList(startLine + 1, endLine + 1);
-                                    for (LineTokenizeResult<S, T> stLineTokenizeResult : subList) {
-                                        onAbandonState(stLineTokenizeResult.state);
-                                    }
-                                    subList.clear();
-                                }
-                                var mdf = spans.modify();
-                                for (int i = startLine + 1; i <= endLine; i++) {
-                                    mdf.deleteLineAt(startLine + 1);
-                                }
-                                int line = startLine;
-                                while (line < shadowed.getLineCount()) {
-                                    var res = tokenizeLine(shadowed.getLine(line), state, line);
-                                    mdf.setSpansOnLine(line, res.spans != null ? res.spans : generateSpansForLine(res));
-                                    var old = states.set(line, res.clearSpans());
-                                    if (old != null) {
-                                        onAbandonState(old.state);
-                                    }
-                                    onAddState(res.state);
-                                    if (stateEquals(old == null ? null : old.state, res.state)) {
-                                        break;
-                                    }
-                                    state = res.state;
-                                    line++;
-                                }
-                                updateEnd = line;
-                            } else {
-                                shadowed.insert(IntPair.getFirst(mod.start), IntPair.getSecond(mod.start), mod.changedText);
-                                S state = startLine == 0 ? getInitialState() : states.get(startLine - 1).state;
-                                int line = startLine;
-                                var spans = styles.spans.modify();
-                                // Add Lines
-                                while (line <= endLine) {
-                                    var res = tokenizeLine(shadowed.getLine(line), state, line);
-                                    if (line == startLine) {
-                                        spans.setSpansOnLine(line, res.spans != null ? res.spans : generateSpansForLine(res));
-                                        var old = states.set(line, res.clearSpans());
-                                        if (old != null) {
-                                            onAbandonState(old.state);
-                                        }
-                                    } else {
-                                        spans.addLineAt(line, res.spans != null ? res.spans : generateSpansForLine(res));
-                                        states.add(line, res.clearSpans());
-                                    }
-                                    onAddState(res.state);
-                                    state = res.state;
-                                    line++;
-                                }
-                                // line = end.line + 1, check whether the state equals
-                                boolean flag = true;
-                                while (line < shadowed.getLineCount() && flag) {
-                                    var res = tokenizeLine(shadowed.getLine(line), state, line);
-                                    if (stateEquals(res.state, states.get(line).state)) {
-                                        flag = false;
-                                    }
-                                    spans.setSpansOnLine(line, res.spans != null ? res.spans : generateSpansForLine(res));
-                                    var old = states.set(line, res.clearSpans());
-                                    if (old != null) {
-                                        onAbandonState(old.state);
-                                    }
-                                    onAddState(res.state);
-                                    state = res.state;
-                                    line++;
-                                }
-                                updateEnd = line;
-                            }
+                        var modifications = new ArrayList<TextModification>();
+                        modifications.add((TextModification) msg.obj);
+                        // Merge queued modifications, so that lines are re-tokenized and code blocks are computed once
+                        Message next;
+                        while ((next = peekMessage()) != null && next.what == MSG_MOD) {
+                            pollMessage();
+                            modifications.add((TextModification) next.obj);
+                            next.recycle();
+                        }
+                        myRunCount = runCount;
+                        processedModificationCount.addAndGet(modifications.size());
+                        mergedModificationCount.addAndGet(modifications.size() - 1);
+                        long updateRange = 0;
+                        if (!isAborted()) {
+                            updateRange = applyModifications(modifications);
                         }
                         // Do not update incomplete code blocks
-                        var blocks = computeBlocks(shadowed, delegate);
-                        if (delegate.isNotCancelled()) {
-                            styles.blocks = blocks;
-                            styles.setSuppressSwitch(delegate.suppressSwitch);
+                        if (!isTokenizationIncomplete()) {
+                            var blocks = computeBlocks(shadowed, delegate);
+                            if (delegate.isNotCancelled()) {
+                                styles.blocks = blocks;
+                                styles.setSuppressSwitch(delegate.suppressSwitch);
+                                delegate.onComputed();
+                            }
                         }
-                        if (!abort) {
-                            sendUpdate(styles, updateStart, updateEnd);
+                        if (!isAborted()) {
+                            sendUpdate(styles, IntPair.getFirst(updateRange), IntPair.getSecond(updateRange));
                         }
                         break;
                 }
                 return true;
             } catch (Exception e) {
-                Log.w("AsyncAnalysis", "Thread " + Thread.currentThread().getName() + " failed", e);
+                Log.w("AsyncAnalysis", "Task " + getName() + " failed", e);
             }
             return false;
         }
 
         @Override
-        public void run() {
-            try {
-                while (!abort && !isInterrupted()) {
-                    var msg = messageQueue.take();
-                    if (!handleMessage(msg)) {
-                        break;
-                    }
-                    msg.recycle();
-                }
-            } catch (InterruptedException e) {
-                // ignored
-            }
+        protected boolean hasBackgroundWork() {
+            return isTokenizationIncomplete();
+        }
+
+        @Override
+        protected boolean runBackgroundWork() {
+            return tokenizeInBackground();
         }
     }
 
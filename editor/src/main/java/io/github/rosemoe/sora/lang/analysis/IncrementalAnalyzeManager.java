@@ -91,6 +91,15 @@ public interface IncrementalAnalyzeManager<S, T> extends AnalyzeManager {
          */
         public List<T_> tokens;
 
+        /**
+         * Tokens on this line, packed into primitive values. This can be used instead of {@link #tokens}
+         * if a token can be represented by a long value, so that tokens of the whole text are stored
+         * without boxed objects.
+         *
+         * @see #ofPackedTokens(Object, long[])
+         */
+        public long[] packedTokens;
+
         /**
          * Spans. If spans are generated as well you can directly return them here to avoid
          * {@link #generateSpansForLine(LineTokenizeResult)} calls.
@@ -108,6 +117,18 @@ public interface IncrementalAnalyzeManager<S, T> extends AnalyzeManager {
             this.spans = spans;
         }
 
+        /**
+         * Create a result whose tokens are stored in {@link #packedTokens}
+         *
+         * @param state        State at line end
+         * @param packedTokens Packed tokens, whose length is exactly the token count
+         */
+        public static <S_, T_> LineTokenizeResult<S_, T_> ofPackedTokens(@NonNull S_ state, @NonNull long[] packedTokens) {
+            var result = new LineTokenizeResult<S_, T_>(state, null);
+            result.packedTokens = packedTokens;
+            return result;
+        }
+
         protected LineTokenizeResult<S_, T_> clearSpans() {
             spans = null;
             return this;
@@ -24,18 +24,40 @@
 package io.github.rosemoe.sora.lang.brackets;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import io.github.rosemoe.sora.lang.styling.Spans;
 import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.text.ContentLine;
 
 /**
  * Compute paired bracket when queried
+ * <p>
+ * Text is scanned line by line on the raw chars of {@link ContentLine}. If spans are set by
+ * {@link #setSpans(Spans)}, brackets in strings and comments are skipped according to
+ * {@link #isCodeSpan(Spans.Reader, int)}. Results are cached until the text or the spans are changed.
  *
  * @author Rosemoe
  */
 public class OnlineBracketsMatcher implements BracketsProvider {
 
+    private final static int MAX_CACHE_SIZE = 1024;
+    /**
+     * Placeholder for positions without paired bracket in cache
+     */
+    private final static PairedBracket NO_PAIR = new PairedBracket(-1, -1);
+
     private final char[] pairs;
     private final int limit;
+    private Spans spans;
+    private int spansVersion;
+    private final Map<Integer, PairedBracket> cache = new HashMap<>();
+    private Content cachedText;
+    private long cachedVersion;
+    private int cachedSpansVersion;
 
     /**
      * @param pairs Pairs. For example: {'(', ')', '{', '}'}
@@ -49,6 +71,28 @@ public class OnlineBracketsMatcher implements BracketsProvider {
         this.limit = limit;
     }
 
+    /**
+     * Set spans of the text, so that brackets in strings and comments can be skipped. The spans
+     * can be slightly behind the text, and brackets on lines without spans are regarded as code.
+     * Cached results are dropped.
+     *
+     * @param spans Spans of the text, or null to match all the brackets
+     */
+    public synchronized void setSpans(@Nullable Spans spans) {
+        this.spans = spans;
+        spansVersion++;
+    }
+
+    /**
+     * Check whether brackets in the span at {@code index} of current line of the reader are code.
+     * Brackets in spans of strings and comments should be skipped.
+     * <p>
+     * All spans are code by default.
+     */
+    protected boolean isCodeSpan(@NonNull Spans.Reader reader, int index) {
+        return true;
+    }
+
     private int findIndex(char ch) {
         for (int i = 0; i < pairs.length; i++) {
             if (ch == pairs[i]) {
@@ -58,53 +102,183 @@ public class OnlineBracketsMatcher implements BracketsProvider {
         return -1;
     }
 
+    /**
+     * Reads spans line by line for a scan
+     */
+    private class SpansCursor {
+
+        private final Spans.Reader reader;
+        private int line = -1;
+        private boolean available;
+
+        SpansCursor(@NonNull Spans spans) {
+            reader = spans.read();
+        }
+
+        boolean isCode(int line, int column) {
+            if (this.line != line) {
+                this.line = line;
+                try {
+                    reader.moveToLine(line);
+                    available = reader.getSpanCount() > 0;
+                } catch (Exception e) {
+                    // Spans are behind the text
+                    available = false;
+                }
+            }
+            if (!available) {
+                return true;
+            }
+            // Find the last span starting at or before the column
+            int low = 0, high = reader.getSpanCount() - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (reader.getSpanColumn(mid) <= column) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return isCodeSpan(reader, low);
+        }
+
+        void release() {
+            try {
+                reader.moveToLine(-1);
+            } catch (Exception e) {
+                // Ignored
+            }
+        }
+    }
+
     private PairedBracket tryComputePaired(Content text, int index) {
-        char a = text.charAt(index);
+        if (index < 0 || index >= text.length()) {
+            return null;
+        }
+        var pos = text.getIndexer().getCharPosition(index);
+        int line = pos.line;
+        var contentLine = text.getLine(line);
+        if (pos.column >= contentLine.length()) {
+            // Line separator
+            return null;
+        }
+        char a = contentLine.getRawData()[pos.column];
         int symbolIndex = findIndex(a);
-        if (symbolIndex != -1) {
+        if (symbolIndex == -1) {
+            return null;
+        }
+        var spans = this.spans;
+        var cursor = spans == null ? null : new SpansCursor(spans);
+        try {
             char b = pairs[symbolIndex ^ 1];
+            // Only brackets in the same kind of region are matched
+            boolean code = cursor == null || cursor.isCode(line, pos.column);
             int stack = 0;
             if ((symbolIndex & 1) == 0) {
                 // Find forward
-                for (int i = index + 1; i < text.length() && i - index < limit; i++) {
-                    char ch = text.charAt(i);
-                    if (ch == b) {
-                        if (stack <= 0) {
-                            return new PairedBracket(index, i);
-                        } else {
-                            stack--;
+                int lineCount = text.getLineCount();
+                int column = pos.column + 1;
+                int i = index + 1;
+                while (true) {
+                    var chars = contentLine.getRawData();
+                    int length = contentLine.length();
+                    for (; column < length; column++, i++) {
+                        if (i - index >= limit) {
+                            return null;
+                        }
+                        char ch = chars[column];
+                        if ((ch == b || ch == a) && (cursor == null || cursor.isCode(line, column) == code)) {
+                            if (ch == a) {
+                                stack++;
+                            } else if (stack <= 0) {
+                                return new PairedBracket(index, i);
+                            } else {
+                                stack--;
+                            }
                         }
-                    } else if (ch == a) {
-                        stack++;
                     }
+                    i += contentLine.getLineSeparator().getLength();
+                    // Checked here as well, so that empty lines can not take the scan beyond the limit
+                    if (++line >= lineCount || i - index >= limit) {
+                        return null;
+                    }
+                    contentLine = text.getLine(line);
+                    column = 0;
                 }
             } else {
                 // Find backward
-                for (int i = index - 1; i >= 0 && index - i < limit; i--) {
-                    char ch = text.charAt(i);
-                    if (ch == b) {
-                        if (stack <= 0) {
-                            return new PairedBracket(i, index);
-                        } else {
-                            stack--;
+                int column = pos.column - 1;
+                int i = index - 1;
+                while (true) {
+                    var chars = contentLine.getRawData();
+                    for (; column >= 0; column--, i--) {
+                        if (index - i >= limit) {
+                            return null;
+                        }
+                        char ch = chars[column];
+                        if ((ch == b || ch == a) && (cursor == null || cursor.isCode(line, column) == code)) {
+                            if (ch == a) {
+                                stack++;
+                            } else if (stack <= 0) {
+                                return new PairedBracket(i, index);
+                            } else {
+                                stack--;
+                            }
                         }
-                    } else if (ch == a) {
-                        stack++;
                     }
+                    if (--line < 0) {
+                        return null;
+                    }
+                    contentLine = text.getLine(line);
+                    i -= contentLine.getLineSeparator().getLength();
+                    if (index - i >= limit) {
+                        return null;
+                    }
+                    column = contentLine.length() - 1;
                 }
             }
+        } finally {
+            if (cursor != null) {
+                cursor.release();
+            }
         }
-        return null;
+    }
+
+    /**
+     * Get the paired bracket of the bracket at the given index, from cache if possible
+     */
+    private PairedBracket getPaired(Content text, int index) {
+        var result = cache.get(index);
+        if (result == null) {
+            result = tryComputePaired(text, index);
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            if (result == null) {
+                cache.put(index, NO_PAIR);
+            } else {
+                // Either bracket of the pair gets the same result
+                cache.put(result.leftIndex, result);
+                cache.put(result.rightIndex, result);
+            }
+        }
+        return result == NO_PAIR ? null : result;
     }
 
     @Override
-    public PairedBracket getPairedBracketAt(@NonNull Content text, int index) {
+    public synchronized PairedBracket getPairedBracketAt(@NonNull Content text, int index) {
+        if (text != cachedText || text.getDocumentVersion() != cachedVersion || spansVersion != cachedSpansVersion) {
+            cache.clear();
+            cachedText = text;
+            cachedVersion = text.getDocumentVersion();
+            cachedSpansVersion = spansVersion;
+        }
         PairedBracket pairedBracket = null;
         if (index > 0) {
-            pairedBracket = tryComputePaired(text, index - 1);
+            pairedBracket = getPaired(text, index - 1);
         }
         if (pairedBracket == null) {
-            pairedBracket = tryComputePaired(text, index);
+            pairedBracket = getPaired(text, index);
         }
         return pairedBracket;
     }
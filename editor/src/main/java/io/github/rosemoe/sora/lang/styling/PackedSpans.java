@@ -0,0 +1,606 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.styling;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.rosemoe.sora.text.CharPosition;
+import io.github.rosemoe.sora.widget.schemes.EditorColorScheme;
+
+/**
+ * Store spans of each line in packed primitive arrays, instead of {@link Span} objects.
+ * <p>
+ * Columns and styles of spans are stored in an {@code int[]} and a {@code long[]} for each line.
+ * Only spans with underline color, extra data or of {@link AdvancedSpan} are kept as objects. Its
+ * reader supports the primitive getters in {@link Reader}, so that the editor reads the spans
+ * without creating objects. {@link Reader#getSpanAt(int)} and {@link Reader#getSpansOnLine(int)}
+ * create {@link Span} objects for spans stored in arrays on first call, and reuse them until spans
+ * are added to or removed from the line.
+ *
+ * @see Builder
+ */
+public class PackedSpans implements Spans {
+
+    private final List<Line> lines;
+
+    private PackedSpans(@NonNull List<Line> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Check whether the span must be stored as object
+     */
+    private static boolean isSpecial(@NonNull Span span) {
+        return span.getClass() != Span.class || span.underlineColor != 0 || span.extra != null;
+    }
+
+    /**
+     * Same as {@link Span#copy()}: only underline color is kept
+     */
+    @Nullable
+    private static Span copySpecial(@Nullable Span special, int column, long style) {
+        if (special == null || special.underlineColor == 0) {
+            return null;
+        }
+        return Span.obtain(column, style).setUnderlineColor(special.underlineColor);
+    }
+
+    @NonNull
+    private static Line toLine(@NonNull List<Span> spans) {
+        var line = new Line(spans.size());
+        for (int i = 0; i < spans.size(); i++) {
+            line.add(spans.get(i));
+        }
+        return line;
+    }
+
+    @NonNull
+    private static Line extendedLine(@NonNull Line previous) {
+        var line = new Line(1);
+        int index = previous.size - 1;
+        long style = previous.styles[index];
+        line.add(0, style, copySpecial(previous.specialAt(index), 0, style));
+        return line;
+    }
+
+    @Override
+    public void adjustOnInsert(CharPosition start, CharPosition end) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        if (start.line == end.line) {
+            shiftOnSingleLineInsert(start.line, start.column, end.column);
+        } else {
+            shiftOnMultiLineInsert(start.line, start.column, end.line, end.column);
+        }
+    }
+
+    @Override
+    public void adjustOnDelete(CharPosition start, CharPosition end) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        if (start.line == end.line) {
+            shiftOnSingleLineDelete(start.line, start.column, end.column);
+        } else {
+            shiftOnMultiLineDelete(start.line, start.column, end.line, end.column);
+        }
+    }
+
+    private void shiftOnSingleLineInsert(int line, int startColumn, int endColumn) {
+        var spans = lines.get(line);
+        int index = spans.findIndexFor(0, startColumn);
+        if (index == -1) {
+            return;
+        }
+        spans.shiftColumns(index, endColumn - startColumn);
+        // Add extra span for line start
+        if (index == 0) {
+            if (spans.styles[0] == EditorColorScheme.TEXT_NORMAL && spans.getUnderlineColor(0) == 0) {
+                spans.columns[0] = 0;
+            } else {
+                spans.insert(0, 0, EditorColorScheme.TEXT_NORMAL, null);
+            }
+        }
+    }
+
+    private void shiftOnMultiLineInsert(int startLine, int startColumn, int endLine, int endColumn) {
+        // Find extended span
+        var startLineSpans = lines.get(startLine);
+        int extendedIndex = startLineSpans.findIndexFor(0, startColumn);
+        if (extendedIndex == -1) {
+            extendedIndex = startLineSpans.size - 1;
+        }
+        if (startLineSpans.columns[extendedIndex] > startColumn) {
+            extendedIndex--;
+        }
+        extendedIndex = Math.max(0, extendedIndex);
+        long extendedStyle = startLineSpans.styles[extendedIndex];
+        var extendedSpecial = startLineSpans.specialAt(extendedIndex);
+        // Create lines
+        for (int i = 0; i < endLine - startLine; i++) {
+            var line = new Line(1);
+            line.add(0, extendedStyle, copySpecial(extendedSpecial, 0, extendedStyle));
+            lines.add(startLine + 1, line);
+        }
+        // Add original spans to new line
+        var endLineSpans = lines.get(endLine);
+        for (int i = extendedIndex; i < startLineSpans.size; i++) {
+            int column = Math.max(0, startLineSpans.columns[i] - startColumn + endColumn);
+            long style = startLineSpans.styles[i];
+            endLineSpans.add(column, style, copySpecial(startLineSpans.specialAt(i), column, style));
+        }
+        startLineSpans.removeRange(extendedIndex + 1, startLineSpans.size);
+        if (endLineSpans.size > 1 && endLineSpans.columns[0] == 0 && endLineSpans.columns[1] == 0) {
+            endLineSpans.removeRange(0, 1);
+        }
+    }
+
+    private void shiftOnSingleLineDelete(int line, int startColumn, int endColumn) {
+        var spans = lines.get(line);
+        int startIndex = spans.findIndexFor(0, startColumn);
+        if (startIndex == -1) {
+            // No span is to be updated
+            return;
+        }
+        int endIndex = spans.findIndexFor(startIndex, endColumn);
+        if (endIndex == -1) {
+            endIndex = spans.size;
+        }
+        // Remove spans inside deleted text
+        spans.removeRange(startIndex, endIndex);
+        spans.shiftColumns(startIndex, startColumn - endColumn);
+        // Ensure there is span
+        if (spans.size == 0 || spans.columns[0] != 0) {
+            spans.insert(0, 0, EditorColorScheme.TEXT_NORMAL, null);
+        }
+        // Remove spans with length 0
+        for (int i = 0; i + 1 < spans.size; i++) {
+            if (spans.columns[i] >= spans.columns[i + 1]) {
+                spans.removeRange(i, i + 1);
+                i--;
+            }
+        }
+    }
+
+    private void shiftOnMultiLineDelete(int startLine, int startColumn, int endLine, int endColumn) {
+        // Remove unrelated lines
+        lines.subList(startLine + 1, endLine).clear();
+        // Clean up start line
+        var startLineSpans = lines.get(startLine);
+        int index = startLineSpans.size - 1;
+        while (index > 0 && startLineSpans.columns[index] >= startColumn) {
+            index--;
+        }
+        startLineSpans.removeRange(index + 1, startLineSpans.size);
+        // Shift end line
+        var endLineSpans = lines.remove(startLine + 1);
+        endLineSpans.shiftColumns(0, startColumn - endColumn);
+        int first = 0;
+        while (first + 1 < endLineSpans.size && endLineSpans.columns[first] <= startColumn && endLineSpans.columns[first + 1] <= startColumn) {
+            first++;
+        }
+        endLineSpans.removeRange(0, first);
+        if (endLineSpans.columns[0] <= startColumn) {
+            endLineSpans.columns[0] = startColumn;
+        }
+        startLineSpans.addAll(endLineSpans);
+    }
+
+    @Override
+    public Reader read() {
+        return new Mdf();
+    }
+
+    @Override
+    public boolean supportsModify() {
+        return true;
+    }
+
+    @Override
+    public Modifier modify() {
+        return new Mdf();
+    }
+
+    @Override
+    public int getLineCount() {
+        return lines.size();
+    }
+
+    /**
+     * Spans of a line
+     */
+    private static class Line {
+
+        int[] columns;
+        long[] styles;
+        /**
+         * Spans that can not be packed. Null if there is no such span.
+         */
+        Span[] specials;
+        int size;
+        /**
+         * Span objects created for readers. Null if not created or spans are added or removed after
+         * creation.
+         */
+        private Span[] cache;
+        private List<Span> cacheList;
+
+        Line(int capacity) {
+            capacity = Math.max(1, capacity);
+            columns = new int[capacity];
+            styles = new long[capacity];
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (columns.length < capacity) {
+                int newCapacity = Math.max(capacity, columns.length + (columns.length >> 1) + 1);
+                var newColumns = new int[newCapacity];
+                System.arraycopy(columns, 0, newColumns, 0, size);
+                columns = newColumns;
+                var newStyles = new long[newCapacity];
+                System.arraycopy(styles, 0, newStyles, 0, size);
+                styles = newStyles;
+                if (specials != null) {
+                    var newSpecials = new Span[newCapacity];
+                    System.arraycopy(specials, 0, newSpecials, 0, size);
+                    specials = newSpecials;
+                }
+            }
+        }
+
+        @Nullable
+        Span specialAt(int index) {
+            return specials == null ? null : specials[index];
+        }
+
+        int getUnderlineColor(int index) {
+            var special = specialAt(index);
+            return special == null ? 0 : special.underlineColor;
+        }
+
+        void add(@NonNull Span span) {
+            add(span.column, span.style, isSpecial(span) ? span : null);
+        }
+
+        void add(int column, long style, @Nullable Span special) {
+            insert(size, column, style, special);
+        }
+
+        void insert(int index, int column, long style, @Nullable Span special) {
+            invalidateCache();
+            ensureCapacity(size + 1);
+            if (index < size) {
+                System.arraycopy(columns, index, columns, index + 1, size - index);
+                System.arraycopy(styles, index, styles, index + 1, size - index);
+                if (specials != null) {
+                    System.arraycopy(specials, index, specials, index + 1, size - index);
+                }
+            }
+            columns[index] = column;
+            styles[index] = style;
+            if (special != null && specials == null) {
+                specials = new Span[columns.length];
+            }
+            if (specials != null) {
+                specials[index] = special;
+            }
+            size++;
+        }
+
+        void addAll(@NonNull Line line) {
+            invalidateCache();
+            ensureCapacity(size + line.size);
+            System.arraycopy(line.columns, 0, columns, size, line.size);
+            System.arraycopy(line.styles, 0, styles, size, line.size);
+            if (line.specials != null && specials == null) {
+                specials = new Span[columns.length];
+            }
+            if (specials != null) {
+                if (line.specials != null) {
+                    System.arraycopy(line.specials, 0, specials, size, line.size);
+                } else {
+                    for (int i = 0; i < line.size; i++) {
+                        specials[size + i] = null;
+                    }
+                }
+            }
+            size += line.size;
+        }
+
+        void removeRange(int start, int end) {
+            if (start >= end) {
+                return;
+            }
+            invalidateCache();
+            System.arraycopy(columns, end, columns, start, size - end);
+            System.arraycopy(styles, end, styles, start, size - end);
+            if (specials != null) {
+                System.arraycopy(specials, end, specials, start, size - end);
+                for (int i = size - (end - start); i < size; i++) {
+                    specials[i] = null;
+                }
+            }
+            size -= end - start;
+        }
+
+        void shiftColumns(int start, int delta) {
+            for (int i = start; i < size; i++) {
+                columns[i] += delta;
+            }
+        }
+
+        /**
+         * Find the first span whose column is not less than the given column
+         *
+         * @return Index of the span, or -1 if not found
+         */
+        int findIndexFor(int start, int column) {
+            for (int i = start; i < size; i++) {
+                if (columns[i] >= column) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void invalidateCache() {
+            cache = null;
+            cacheList = null;
+        }
+
+        Span getSpanAt(int index) {
+            // Columns in arrays are always up-to-date, as columns are shifted without invalidating
+            // the cache
+            var special = specialAt(index);
+            if (special != null) {
+                special.column = columns[index];
+                return special;
+            }
+            if (cache == null) {
+                cache = new Span[size];
+            }
+            var span = cache[index];
+            if (span == null) {
+                span = cache[index] = Span.obtain(columns[index], styles[index]);
+            } else {
+                span.column = columns[index];
+            }
+            return span;
+        }
+
+        List<Span> getSpans() {
+            if (cache == null) {
+                cache = new Span[size];
+            }
+            for (int i = 0; i < size; i++) {
+                cache[i] = getSpanAt(i);
+            }
+            if (cacheList == null) {
+                cacheList = Collections.unmodifiableList(Arrays.asList(cache));
+            }
+            return cacheList;
+        }
+
+    }
+
+    /**
+     * Allow you to build packed spans linearly.
+     */
+    public static class Builder {
+
+        private final List<Line> lines;
+        private long lastStyle;
+        private Span lastSpecial;
+        private boolean hasLast;
+
+        public Builder() {
+            this(128);
+        }
+
+        public Builder(int lineCapacity) {
+            lines = new ArrayList<>(lineCapacity);
+        }
+
+        /**
+         * Add a new span if required.
+         * <p>
+         * If no special style is specified, you can use colorId as style long integer
+         *
+         * @param spanLine Line
+         * @param column   Column
+         * @param style    Style of text
+         */
+        public void addIfNeeded(int spanLine, int column, long style) {
+            if (hasLast && lastStyle == style) {
+                return;
+            }
+            add(spanLine, column, style);
+        }
+
+        /**
+         * Add a span directly
+         * <p>
+         * Note: the line should always >= the line of span last committed
+         * <p>
+         * If two spans are on the same line, you must add them in order by their column
+         *
+         * @param spanLine The line position of span
+         * @param span     The span. It is stored only if it can not be packed.
+         */
+        public void add(int spanLine, @NonNull Span span) {
+            add(spanLine, span.column, span.style, isSpecial(span) ? span : null);
+        }
+
+        /**
+         * Add a span without creating a {@link Span} object
+         *
+         * @see #add(int, Span)
+         */
+        public void add(int spanLine, int column, long style) {
+            add(spanLine, column, style, null);
+        }
+
+        private void add(int spanLine, int column, long style, @Nullable Span special) {
+            int mapLine = lines.size() - 1;
+            if (spanLine == mapLine) {
+                lines.get(spanLine).add(column, style, special);
+            } else if (spanLine > mapLine) {
+                fillLines(spanLine);
+                var line = lines.get(spanLine);
+                if (column == 0) {
+                    line.removeRange(0, line.size);
+                }
+                line.add(column, style, special);
+            } else {
+                throw new IllegalStateException("Invalid position");
+            }
+            hasLast = true;
+            lastStyle = style;
+            lastSpecial = special;
+        }
+
+        private void fillLines(int line) {
+            long style = hasLast ? lastStyle : EditorColorScheme.TEXT_NORMAL;
+            for (int mapLine = lines.size() - 1; mapLine < line; mapLine++) {
+                var spans = new Line(1);
+                spans.add(0, style, copySpecial(lastSpecial, 0, style));
+                lines.add(spans);
+            }
+        }
+
+        /**
+         * This method must be called when whole text is analyzed.
+         * <strong>Note that it is not the line count but line index!</strong>
+         *
+         * @param line The line is the line last of text
+         */
+        public void determine(int line) {
+            fillLines(line);
+        }
+
+        /**
+         * Ensure the list not empty
+         */
+        public void addNormalIfNull() {
+            if (lines.isEmpty()) {
+                var spans = new Line(1);
+                spans.add(0, EditorColorScheme.TEXT_NORMAL, null);
+                lines.add(spans);
+            }
+        }
+
+        public PackedSpans build() {
+            return new PackedSpans(lines);
+        }
+    }
+
+    private class Mdf implements Reader, Modifier {
+
+        private Line line;
+
+        private void checkLine() {
+            if (line == null) {
+                throw new IllegalStateException("line must be set first");
+            }
+        }
+
+        @Override
+        public void moveToLine(int line) {
+            if (line == -1) {
+                this.line = null;
+                return;
+            }
+            this.line = lines.get(line);
+        }
+
+        @Override
+        public int getSpanCount() {
+            checkLine();
+            return line.size;
+        }
+
+        @Override
+        public Span getSpanAt(int index) {
+            checkLine();
+            return line.getSpanAt(index);
+        }
+
+        @Override
+        public int getSpanColumn(int index) {
+            checkLine();
+            return line.columns[index];
+        }
+
+        @Override
+        public long getSpanStyle(int index) {
+            checkLine();
+            return line.styles[index];
+        }
+
+        @Override
+        public int getSpanUnderlineColor(int index) {
+            checkLine();
+            return line.getUnderlineColor(index);
+        }
+
+        @Nullable
+        @Override
+        public ExternalRenderer getSpanRenderer(int index) {
+            checkLine();
+            var special = line.specialAt(index);
+            return special instanceof AdvancedSpan ? ((AdvancedSpan) special).renderer : null;
+        }
+
+        @Override
+        public List<Span> getSpansOnLine(int line) {
+            return lines.get(line).getSpans();
+        }
+
+        @Override
+        public void setSpansOnLine(int line, List<Span> spans) {
+            while (lines.size() <= line) {
+                lines.add(extendedLine(lines.get(lines.size() - 1)));
+            }
+            lines.set(line, toLine(spans));
+        }
+
+        @Override
+        public void addLineAt(int line, List<Span> spans) {
+            lines.add(line, toLine(spans));
+        }
+
+        @Override
+        public void deleteLineAt(int line) {
+            lines.remove(line);
+        }
+    }
+
+}
@@ -23,6 +23,8 @@
  */
 package io.github.rosemoe.sora.lang.styling;
 
+import androidx.annotation.Nullable;
+
 import java.util.List;
 
 import io.github.rosemoe.sora.text.CharPosition;
@@ -98,6 +100,43 @@ public interface Spans {
          */
         List<Span> getSpansOnLine(int line);
 
+        /**
+         * Get start column of span at position {@code index}.
+         * <p>
+         * Implementations that do not store spans by {@link Span} objects can override this and the
+         * following methods, so that the editor reads spans without creating new objects.
+         */
+        default int getSpanColumn(int index) {
+            return getSpanAt(index).column;
+        }
+
+        /**
+         * Get style of span at position {@code index}
+         *
+         * @see TextStyle
+         */
+        default long getSpanStyle(int index) {
+            return getSpanAt(index).style;
+        }
+
+        /**
+         * Get underline color of span at position {@code index}. Zero for no underline.
+         */
+        default int getSpanUnderlineColor(int index) {
+            return getSpanAt(index).underlineColor;
+        }
+
+        /**
+         * Get external renderer of span at position {@code index}, or null if there is no external renderer
+         *
+         * @see AdvancedSpan#renderer
+         */
+        @Nullable
+        default ExternalRenderer getSpanRenderer(int index) {
+            var span = getSpanAt(index);
+            return span instanceof AdvancedSpan ? ((AdvancedSpan) span).renderer : null;
+        }
+
     }
 
     /**
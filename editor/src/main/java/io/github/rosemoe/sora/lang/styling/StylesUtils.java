@@ -50,13 +50,13 @@ public class StylesUtils {
                 return true;
             }
             for (int i = 0; i < reader.getSpanCount(); i++) {
-                if (reader.getSpanAt(i).column > column) {
+                if (reader.getSpanColumn(i) > column) {
                     index = i - 1;
                     break;
                 }
             }
             index = Math.max(0, Math.min(index, reader.getSpanCount() - 1));
-            if (TextStyle.isNoCompletion(reader.getSpanAt(index).style)) {
+            if (TextStyle.isNoCompletion(reader.getSpanStyle(index))) {
                 reader.moveToLine(-1);
                 return true;
             }
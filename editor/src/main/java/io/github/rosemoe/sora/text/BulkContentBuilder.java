@@ -0,0 +1,224 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Build {@link Content} from a {@link Reader} in bulk.
+ * <p>
+ * Text is read in windows of fixed-size chunks. Line separators in chunks of a window are found
+ * in parallel, and then {@link ContentLine}s and their {@link LineSeparator}s are created in one
+ * sequential pass. The lines are finally handed to {@link Content} directly, so there is no
+ * write lock, indexer update or listener dispatch for each piece of text.
+ */
+class BulkContentBuilder {
+
+    private final static int CHUNK_SIZE = 65536;
+    private final static int CHUNKS_PER_WINDOW = 32;
+    private final static int PARALLEL_THRESHOLD = 2;
+
+    private final List<ContentLine> lines;
+    private final Content.LineStorage storage;
+    private final char[][] chunks = new char[CHUNKS_PER_WINDOW][];
+    private final int[] chunkLengths = new int[CHUNKS_PER_WINDOW];
+    private final int[][] separatorPositions = new int[CHUNKS_PER_WINDOW][];
+    private final int[] separatorCounts = new int[CHUNKS_PER_WINDOW];
+    private ContentLine currentLine = new ContentLine();
+    private boolean pendingCR;
+    private long textLength;
+
+    BulkContentBuilder(@NonNull Content.LineStorage storage) {
+        this.storage = storage;
+        this.lines = Content.createLineList(storage);
+    }
+
+    /**
+     * Read all the text from the given reader and build the content. The reader is not closed.
+     */
+    @NonNull
+    Content build(@NonNull Reader reader) throws IOException {
+        int chunkCount;
+        do {
+            chunkCount = readWindow(reader);
+            scanWindow(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                buildLines(i);
+            }
+        } while (chunkCount == CHUNKS_PER_WINDOW && chunkLengths[CHUNKS_PER_WINDOW - 1] == CHUNK_SIZE);
+        // The last line has no separator
+        lines.add(currentLine);
+        textLength += currentLine.length();
+        if (textLength > Integer.MAX_VALUE) {
+            throw new IOException("text is too long");
+        }
+        return new Content(lines, (int) textLength, storage, true);
+    }
+
+    /**
+     * Fill chunks of a window
+     *
+     * @return Count of used chunks
+     */
+    private int readWindow(@NonNull Reader reader) throws IOException {
+        for (int i = 0; i < CHUNKS_PER_WINDOW; i++) {
+            if (chunks[i] == null) {
+                chunks[i] = new char[CHUNK_SIZE];
+            }
+            var chunk = chunks[i];
+            int length = 0;
+            int count;
+            while (length < CHUNK_SIZE && (count = reader.read(chunk, length, CHUNK_SIZE - length)) != -1) {
+                length += count;
+            }
+            chunkLengths[i] = length;
+            if (length < CHUNK_SIZE) {
+                return length == 0 ? i : i + 1;
+            }
+        }
+        return CHUNKS_PER_WINDOW;
+    }
+
+    /**
+     * Find positions of '\r' and '\n' in chunks
+     */
+    private void scanWindow(int chunkCount) {
+        if (chunkCount < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() == 1) {
+            for (int i = 0; i < chunkCount; i++) {
+                scanChunk(i);
+            }
+        } else {
+            var tasks = new ArrayList<RecursiveAction>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                tasks.add(new ScanTask(i));
+            }
+            ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        }
+    }
+
+    private void scanChunk(int index) {
+        var chunk = chunks[index];
+        int length = chunkLengths[index];
+        var positions = separatorPositions[index];
+        if (positions == null) {
+            positions = new int[256];
+        }
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            var ch = chunk[i];
+            if (ch == '\n' || ch == '\r') {
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, count << 1);
+                }
+                positions[count++] = i;
+            }
+        }
+        separatorPositions[index] = positions;
+        separatorCounts[index] = count;
+    }
+
+    /**
+     * Create lines for the chunk, in order
+     */
+    private void buildLines(int index) {
+        var chunk = chunks[index];
+        var positions = separatorPositions[index];
+        int count = separatorCounts[index];
+        int length = chunkLengths[index];
+        int lineStart = 0;
+        for (int i = 0; i < count; i++) {
+            int pos = positions[i];
+            if (chunk[pos] == '\n' && pos == 0 && pendingCR) {
+                // '\r' at the end of previous chunk and '\n' at the start of this one
+                pendingCR = false;
+                lines.get(lines.size() - 1).setLineSeparator(LineSeparator.CRLF);
+                textLength++;
+                lineStart = 1;
+                continue;
+            }
+            pendingCR = false;
+            LineSeparator separator;
+            int next = pos + 1;
+            if (chunk[pos] == '\n') {
+                separator = LineSeparator.LF;
+            } else if (next < length && chunk[next] == '\n') {
+                separator = LineSeparator.CRLF;
+                // Skip the '\n'
+                i++;
+                next++;
+            } else {
+                separator = LineSeparator.CR;
+                pendingCR = next == length;
+            }
+            commitLine(chunk, lineStart, pos, separator);
+            lineStart = next;
+        }
+        if (lineStart < length) {
+            pendingCR = false;
+            currentLine.append(chunk, lineStart, length);
+        }
+    }
+
+    private void commitLine(@NonNull char[] chunk, int start, int end, @NonNull LineSeparator separator) {
+        ContentLine line;
+        if (currentLine.length() == 0) {
+            line = new ContentLine(end - start);
+            line.append(chunk, start, end);
+        } else {
+            line = currentLine.append(chunk, start, end);
+            currentLine = new ContentLine();
+        }
+        line.setLineSeparator(separator);
+        lines.add(line);
+        textLength += line.length() + separator.getLength();
+    }
+
+    private class ScanTask extends RecursiveAction {
+
+        private final int index;
+
+        ScanTask(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            scanChunk(index);
+        }
+    }
+
+}
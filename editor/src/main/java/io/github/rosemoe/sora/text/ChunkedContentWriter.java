@@ -0,0 +1,143 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Write {@link Content} to a {@link FileChannel} chunk by chunk.
+ * <p>
+ * Text is written from a {@link Content#snapshot() snapshot} of the content, so no lock is held
+ * during the operation and modifications made meanwhile do not affect the saved text.
+ */
+class ChunkedContentWriter {
+
+    private final static int CHUNK_SIZE = 65536;
+
+    private final FileChannel channel;
+    private final CharsetEncoder encoder;
+    private final ContentIO.ProgressCallback callback;
+    private final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    private int line;
+    private int column;
+
+    ChunkedContentWriter(@NonNull FileChannel channel, @NonNull Charset charset, @Nullable ContentIO.ProgressCallback callback) {
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.callback = callback;
+    }
+
+    void write(@NonNull Content content) throws IOException {
+        var text = content.snapshot();
+        long written = 0;
+        long total = text.length();
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            written += copyChunk(text);
+            endOfInput = line >= text.getLineCount();
+            encodeAndWrite(endOfInput);
+            if (callback != null && !callback.onProgress(written, total)) {
+                throw new InterruptedIOException("writing is cancelled");
+            }
+        }
+        flushEncoder();
+    }
+
+    /**
+     * Copy text from current position to the char buffer, until the buffer is full or the text ends
+     *
+     * @return Count of copied chars
+     */
+    private int copyChunk(@NonNull Content text) {
+        int copied = 0;
+        final int lineCount = text.getLineCount();
+        while (line < lineCount && chars.hasRemaining()) {
+            var lineObj = text.getLine(line);
+            int length = lineObj.length();
+            var separator = lineObj.getLineSeparator();
+            if (column < length) {
+                int count = Math.min(chars.remaining(), length - column);
+                lineObj.getChars(column, column + count, chars.array(), chars.arrayOffset() + chars.position());
+                chars.position(chars.position() + count);
+                column += count;
+                copied += count;
+            }
+            while (column >= length && column < length + separator.getLength() && chars.hasRemaining()) {
+                chars.put(separator.getContent().charAt(column - length));
+                column++;
+                copied++;
+            }
+            if (column == length + separator.getLength()) {
+                line++;
+                column = 0;
+            }
+        }
+        return copied;
+    }
+
+    private void encodeAndWrite(boolean endOfInput) throws IOException {
+        chars.flip();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            writeBytes();
+        } while (result.isOverflow());
+        // Chars left here are incomplete surrogate pairs
+        chars.compact();
+    }
+
+    private void flushEncoder() throws IOException {
+        CoderResult result;
+        do {
+            result = encoder.flush(bytes);
+            writeBytes();
+        } while (result.isOverflow());
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+}
@@ -54,7 +54,9 @@ public class Content implements CharSequence {
         setInitialLineCapacity(DEFAULT_LIST_CAPACITY);
     }
 
-    private final List<ContentLine> lines;
+    private List<ContentLine> lines;
+    private volatile LineStorage lineStorage;
+    private final boolean readOnly;
     private final List<ContentListener> contentListeners;
     private final ReadWriteLock lock;
     private int textLength;
@@ -65,6 +67,11 @@ public class Content implements CharSequence {
     private UndoManager undoManager;
     private Cursor cursor;
     private LineRemoveListener lineListener;
+    /**
+     * Lines with other generations are shared with snapshots, and must be copied before modification
+     */
+    private int lineGeneration;
+    private Content lastSnapshot;
 
     /**
      * This constructor will create a Content object with no text
@@ -87,6 +94,19 @@ public class Content implements CharSequence {
      * Create a Content object with the given content text. Specify whether thread-safe is enabled.
      */
     public Content(CharSequence src, boolean threadSafe) {
+        this(src, threadSafe, LineStorage.ARRAY);
+    }
+
+    /**
+     * Create a Content object with the given content text. Specify whether thread-safe is enabled,
+     * and how the text lines are stored.
+     *
+     * @see LineStorage
+     */
+    public Content(CharSequence src, boolean threadSafe, @NonNull LineStorage storage) {
+        if (storage == LineStorage.MAPPED) {
+            throw new IllegalArgumentException("mapped content can only be created by ContentIO");
+        }
         if (src == null) {
             src = "";
         }
@@ -97,13 +117,15 @@ public class Content implements CharSequence {
         }
         textLength = 0;
         nestedBatchEdit = 0;
-        lines = new ArrayList<>(getInitialLineCapacity());
+        lineStorage = Objects.requireNonNull(storage);
+        readOnly = false;
+        lines = createLineList(storage);
         lines.add(new ContentLine());
         contentListeners = new ArrayList<>();
         bidi = new ContentBidi(this);
         undoManager = new UndoManager();
         setMaxUndoStackSize(Content.DEFAULT_MAX_UNDO_STACK_SIZE);
-        indexer = new CachedIndexer(this);
+        indexer = createIndexer();
         if (src.length() == 0) {
             setUndoEnabled(true);
             return;
@@ -113,6 +135,80 @@ public class Content implements CharSequence {
         setUndoEnabled(true);
     }
 
+    /**
+     * Create a Content object with prepared lines. No listener or undo manager is notified.
+     *
+     * @param lines      Lines of the new object. The list should be created for the given storage type.
+     * @param textLength Text length of the lines, including line separators
+     */
+    Content(@NonNull List<ContentLine> lines, int textLength, @NonNull LineStorage storage, boolean threadSafe) {
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("lines can not be empty");
+        }
+        lock = threadSafe ? new ReentrantReadWriteLock() : null;
+        this.textLength = textLength;
+        nestedBatchEdit = 0;
+        lineStorage = Objects.requireNonNull(storage);
+        readOnly = storage == LineStorage.MAPPED;
+        this.lines = lines;
+        contentListeners = new ArrayList<>();
+        bidi = new ContentBidi(this);
+        undoManager = new UndoManager();
+        setMaxUndoStackSize(Content.DEFAULT_MAX_UNDO_STACK_SIZE);
+        indexer = createIndexer();
+        setUndoEnabled(storage != LineStorage.MAPPED);
+    }
+
+    /**
+     * Create a read-only snapshot of the given object. Lines are shared with the source.
+     */
+    private Content(@NonNull Content source, @NonNull List<ContentLine> lines) {
+        lock = null;
+        textLength = source.textLength;
+        nestedBatchEdit = 0;
+        lineStorage = source.lineStorage;
+        readOnly = true;
+        this.lines = lines;
+        documentVersion.set(source.getDocumentVersion());
+        contentListeners = new ArrayList<>();
+        bidi = new ContentBidi(this);
+        undoManager = new UndoManager();
+        if (source.indexer instanceof PrefixSumIndexer) {
+            // Share line lengths with the source
+            indexer = ((PrefixSumIndexer) source.indexer).snapshot(this);
+        } else {
+            // Snapshots are usually short-lived, so do not build a prefix sum tree for them
+            indexer = new CachedIndexer(this);
+        }
+        setUndoEnabled(false);
+    }
+
+    /**
+     * Create the indexer of this object according to the line storage type
+     */
+    @NonNull
+    private Indexer createIndexer() {
+        if (lineStorage == LineStorage.ARRAY) {
+            return new CachedIndexer(this);
+        }
+        return new PrefixSumIndexer(this);
+    }
+
+    /**
+     * Create an empty line list for the given storage type
+     */
+    @NonNull
+    static List<ContentLine> createLineList(@NonNull LineStorage storage) {
+        switch (storage) {
+            case ARRAY:
+                return new ArrayList<>(getInitialLineCapacity());
+            case TREE:
+                return new ContentLineTree();
+            default:
+                throw new IllegalArgumentException("can not create line list for storage " + storage);
+        }
+    }
+
     /**
      * Returns the default capacity of text line list
      *
@@ -153,6 +249,76 @@ public class Content implements CharSequence {
         return true;
     }
 
+    /**
+     * Get the storage type of text lines in this object.
+     * <p>
+     * Note that {@link LineStorage#ARRAY} changes to {@link LineStorage#TREE} when the first
+     * {@link #snapshot()} is taken.
+     */
+    @NonNull
+    public LineStorage getLineStorage() {
+        return lineStorage;
+    }
+
+    /**
+     * Check whether this object is read-only. Read-only objects throw {@link UnsupportedOperationException}
+     * on any modification.
+     *
+     * @see ContentIO#createMapped(java.io.File, java.nio.charset.Charset)
+     * @see #snapshot()
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Get an immutable snapshot of current text in O(1) time.
+     * <p>
+     * The snapshot shares lines with this object. Lines are copied lazily when they are modified
+     * in this object for the first time after the snapshot is taken. So the snapshot is cheap to create,
+     * and its text never changes. It is {@link #isReadOnly() read-only} and can be read from any thread
+     * without locking. Its {@link #getDocumentVersion()} is the version of this object when the snapshot
+     * is taken.
+     * <p>
+     * For {@link LineStorage#ARRAY} storage, the first snapshot moves lines into a tree in O(n) time
+     * while holding the write lock, and switches the storage of this object to {@link LineStorage#TREE}.
+     * Later snapshots are O(1).
+     * <p>
+     * Use this instead of {@link #copyText()} or {@link #toString()} when the text is only read,
+     * for example, by a background analyzer or searcher.
+     */
+    @NonNull
+    public Content snapshot() {
+        if (readOnly && !(lines instanceof MappedLineList && !((MappedLineList) lines).isComplete())) {
+            // Text never changes
+            return this;
+        }
+        lock(true);
+        try {
+            if (lastSnapshot != null && lastSnapshot.getDocumentVersion() == getDocumentVersion()) {
+                // No modification since last snapshot
+                return lastSnapshot;
+            }
+            List<ContentLine> sharedLines;
+            if (lines instanceof MappedLineList) {
+                // Lines of mapped contents are never modified, but new lines can be appended
+                sharedLines = ((MappedLineList) lines).snapshot();
+            } else {
+                if (!(lines instanceof ContentLineTree)) {
+                    // Move lines into a tree once, so that this and later snapshots share the
+                    // line list in O(1) time, instead of copying it on next modification
+                    lines = new ContentLineTree(lines);
+                    lineStorage = LineStorage.TREE;
+                }
+                sharedLines = ((ContentLineTree) lines).snapshot();
+            }
+            lineGeneration++;
+            return lastSnapshot = new Content(this, sharedLines);
+        } finally {
+            unlock(true);
+        }
+    }
+
     public boolean isThreadSafe() {
         return lock != null;
     }
@@ -278,6 +444,9 @@ public class Content implements CharSequence {
      * @return Character count on line
      */
     public int getColumnCount(int line) {
+        if (lines instanceof MappedLineList) {
+            return ((MappedLineList) lines).getLineLength(line);
+        }
         return getLine(line).length();
     }
 
@@ -354,6 +523,7 @@ public class Content implements CharSequence {
     }
 
     private void insertInternal(int line, int column, CharSequence text) {
+        checkModifiable();
         checkLineAndColumn(line, column);
         if (text == null) {
             throw new IllegalArgumentException("text can not be null");
@@ -372,7 +542,7 @@ public class Content implements CharSequence {
 
         int workLine = line;
         int workIndex = column;
-        var currLine = lines.get(workLine);
+        var currLine = getLineForWrite(workLine);
         var helper = InsertTextHelper.forInsertion(text);
         int type, peekType = InsertTextHelper.TYPE_EOF;
         boolean fromPeek = false;
@@ -396,6 +566,7 @@ public class Content implements CharSequence {
                 fromPeek = true;
 
                 var newLine = new ContentLine(currLine.length() - workIndex + helper.getIndexNext() - helper.getIndex() + 10);
+                newLine.generation = lineGeneration;
                 newLine.insert(0, currLine, workIndex, currLine.length());
                 currLine.delete(workIndex, currLine.length());
                 workIndex = 0;
@@ -452,6 +623,7 @@ public class Content implements CharSequence {
     }
 
     private void deleteInternal(int startLine, int columnOnStartLine, int endLine, int columnOnEndLine) {
+        checkModifiable();
         checkLineAndColumn(endLine, columnOnEndLine);
         checkLineAndColumn(startLine, columnOnStartLine);
         if (startLine == endLine && columnOnStartLine == columnOnEndLine) {
@@ -471,7 +643,7 @@ public class Content implements CharSequence {
         }
         var changedContent = new StringBuilder();
         if (startLine == endLine) {
-            var curr = lines.get(startLine);
+            var curr = getLineForWrite(startLine);
             int len = curr.length();
             if (columnOnStartLine < 0 || columnOnEndLine > len || columnOnStartLine > columnOnEndLine) {
                 throw new StringIndexOutOfBoundsException("invalid bounds");
@@ -513,7 +685,8 @@ public class Content implements CharSequence {
             }
 
             int currEnd = startLine + 1;
-            var start = lines.get(startLine);
+            var start = getLineForWrite(startLine);
+            // The end line is removed, and it may be shared with snapshots. So do not modify it
             var end = lines.get(currEnd);
             textLength -= start.length() - columnOnStartLine;
             changedContent.insert(0, start, columnOnStartLine, start.length())
@@ -521,10 +694,9 @@ public class Content implements CharSequence {
             start.delete(columnOnStartLine, start.length());
             textLength -= columnOnEndLine;
             changedContent.append(end, 0, columnOnEndLine);
-            end.delete(0, columnOnEndLine);
             textLength -= start.getLineSeparator().getLength();
             lines.remove(currEnd);
-            start.append(end);
+            start.insert(start.length(), end, Math.min(columnOnEndLine, end.length()), end.length());
             start.setLineSeparator(end.getLineSeparator());
         } else {
             throw new IllegalArgumentException("start line > end line");
@@ -652,6 +824,26 @@ public class Content implements CharSequence {
         undoManager.setMaxUndoStackSize(maxSize);
     }
 
+    /**
+     * Get the memory budget of UndoManager, in bytes
+     *
+     * @return current memory budget
+     * @see UndoManager#getMaxMemoryUsage()
+     */
+    public long getMaxUndoMemoryUsage() {
+        return undoManager.getMaxMemoryUsage();
+    }
+
+    /**
+     * Set the memory budget of UndoManager, in bytes. Non-positive value for no limit.
+     *
+     * @param maxMemoryUsage New memory budget
+     * @see UndoManager#setMaxMemoryUsage(long)
+     */
+    public void setMaxUndoMemoryUsage(long maxMemoryUsage) {
+        undoManager.setMaxMemoryUsage(maxMemoryUsage);
+    }
+
     /**
      * A delegate method.
      * Notify the UndoManager to begin batch edit(enter a new layer).
@@ -733,12 +925,20 @@ public class Content implements CharSequence {
      * @return Indexer for this object
      */
     public Indexer getIndexer() {
-        if (cursor != null) {
-            return cursor.getIndexer();
+        if (cursor != null && !(indexer instanceof PrefixSumIndexer)) {
+            return cursor.getCharIndexer();
         }
         return indexer;
     }
 
+    /**
+     * Get the indexer owned by this object, regardless of the cursor
+     */
+    @NonNull
+    Indexer getDocumentIndexer() {
+        return indexer;
+    }
+
     /**
      * Quick method to get sub string of this object
      *
@@ -971,11 +1171,11 @@ public class Content implements CharSequence {
      */
     private void dispatchBeforeReplace() {
         undoManager.beforeReplace(this);
-        if (cursor != null)
-            cursor.beforeReplace();
         if (indexer instanceof ContentListener) {
             ((ContentListener) indexer).beforeReplace(this);
         }
+        if (cursor != null)
+            cursor.beforeReplace();
         for (ContentListener lis : contentListeners) {
             lis.beforeReplace(this);
         }
@@ -992,11 +1192,12 @@ public class Content implements CharSequence {
      */
     private void dispatchAfterDelete(int a, int b, int c, int d, @NonNull CharSequence e) {
         undoManager.afterDelete(this, a, b, c, d, e);
-        if (cursor != null)
-            cursor.afterDelete(a, b, c, d, e);
+        // Indexer goes first, as the cursor may share it
         if (indexer instanceof ContentListener) {
             ((ContentListener) indexer).afterDelete(this, a, b, c, d, e);
         }
+        if (cursor != null)
+            cursor.afterDelete(a, b, c, d, e);
         for (ContentListener lis : contentListeners) {
             lis.afterDelete(this, a, b, c, d, e);
         }
@@ -1012,17 +1213,71 @@ public class Content implements CharSequence {
      * @param e Text deleted
      */
     private void dispatchAfterInsert(int a, int b, int c, int d, @NonNull CharSequence e) {
-        undoManager.afterInsert(this, a, b, c, d, e);
-        if (cursor != null)
-            cursor.afterInsert(a, b, c, d, e);
+        if (!readOnly) {
+            // Lines appended to mapped contents can not be undone
+            undoManager.afterInsert(this, a, b, c, d, e);
+        }
+        // Indexer goes first, as the cursor may share it
         if (indexer instanceof ContentListener) {
             ((ContentListener) indexer).afterInsert(this, a, b, c, d, e);
         }
+        if (cursor != null)
+            cursor.afterInsert(a, b, c, d, e);
         for (ContentListener lis : contentListeners) {
             lis.afterInsert(this, a, b, c, d, e);
         }
     }
 
+    /**
+     * Append lines indexed by the background pass of a mapped content. Listeners are notified as if
+     * the text of new lines is inserted at the end of text.
+     */
+    void appendMappedLines(@NonNull MappedLineList.IndexBatch batch) {
+        lock(true);
+        documentVersion.getAndIncrement();
+        try {
+            var mappedLines = (MappedLineList) lines;
+            // The last line is the empty line pending for indexing
+            int startLine = mappedLines.size() - 1;
+            int startIndex = textLength;
+            if (cursor != null)
+                cursor.beforeInsert(startLine, 0);
+            for (var lis : contentListeners) {
+                lis.beforeModification(this);
+            }
+            mappedLines.append(batch);
+            textLength = mappedLines.getTextLength();
+            int endLine = mappedLines.size() - 1;
+            dispatchAfterInsert(startLine, 0, endLine, mappedLines.getLineLength(endLine), new TextRegion(startIndex, textLength));
+        } finally {
+            unlock(true);
+        }
+    }
+
+    /**
+     * Check whether this object can be modified
+     */
+    private void checkModifiable() {
+        if (isReadOnly()) {
+            throw new UnsupportedOperationException("Content is read-only");
+        }
+        lastSnapshot = null;
+    }
+
+    /**
+     * Get the line for modification. Lines shared with snapshots are copied first.
+     */
+    @NonNull
+    private ContentLine getLineForWrite(int line) {
+        var obj = lines.get(line);
+        if (obj.generation != lineGeneration) {
+            obj = new ContentLine(obj);
+            obj.generation = lineGeneration;
+            lines.set(line, obj);
+        }
+        return obj;
+    }
+
     /**
      * Check whether the index is valid
      *
@@ -1076,25 +1331,31 @@ public class Content implements CharSequence {
     public Content copyText(boolean newContentThreadSafe) {
         lock(false);
         try {
-            var n = new Content(null, newContentThreadSafe);
-            n.lines.remove(0);
+            var storage = lineStorage == LineStorage.MAPPED ? LineStorage.TREE : lineStorage;
+            var newLines = createLineList(storage);
             for (int i = 0; i < getLineCount(); i++) {
                 var line = lines.get(i);
-                n.lines.add(new ContentLine(line));
+                newLines.add(new ContentLine(line));
             }
-            n.textLength = textLength;
-            return n;
+            return new Content(newLines, textLength, storage, newContentThreadSafe);
         } finally {
             unlock(false);
         }
     }
 
     protected int getColumnCountUnsafe(int line) {
+        if (lines instanceof MappedLineList) {
+            // Avoid decoding lines when walking through them
+            return ((MappedLineList) lines).getLineLength(line);
+        }
         return lines.get(line).length();
     }
 
     @NonNull
     protected LineSeparator getLineSeparatorUnsafe(int line) {
+        if (lines instanceof MappedLineList) {
+            return ((MappedLineList) lines).getLineSeparator(line);
+        }
         return lines.get(line).getLineSeparator();
     }
 
@@ -1136,6 +1397,78 @@ public class Content implements CharSequence {
     }
 
 
+    /**
+     * Text in a region of this object, read on demand
+     */
+    private final class TextRegion implements CharSequence {
+
+        private final int start;
+        private final int end;
+
+        TextRegion(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new StringIndexOutOfBoundsException("index = " + index + ", length = " + length());
+            }
+            return Content.this.charAt(start + index);
+        }
+
+        @NonNull
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return Content.this.subSequence(this.start + start, this.start + end);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return Content.this.substring(start, end);
+        }
+    }
+
+    /**
+     * Storage types of text lines in {@link Content}
+     */
+    public enum LineStorage {
+
+        /**
+         * Lines are kept in a plain array list. Line access is the fastest, but inserting or removing
+         * lines shifts all the lines after them. Good for small and medium documents.
+         * <p>
+         * The storage is switched to {@link #TREE} when the first {@link Content#snapshot()} is taken,
+         * and lines are moved into a tree in O(n) time, so that later snapshots remain cheap to maintain.
+         */
+        ARRAY,
+
+        /**
+         * Lines are kept in a balanced tree of line blocks, with cached line counts in each node.
+         * Line access, insertion and removal of lines cost O(log n). Recommended for huge documents,
+         * especially those with a lot of lines.
+         * <p>
+         * Contents with this storage use {@link PrefixSumIndexer}, so that index conversions also cost O(log n).
+         */
+        TREE,
+
+        /**
+         * Lines are decoded on demand from a memory-mapped file, and the content is read-only.
+         * This type can not be passed to constructors of {@link Content}.
+         *
+         * @see ContentIO#createMapped(java.io.File, java.nio.charset.Charset)
+         */
+        MAPPED
+
+    }
+
     public interface ContentLineConsumer {
 
         void accept(int lineIndex, @NonNull ContentLine line, @NonNull Directions dirs);
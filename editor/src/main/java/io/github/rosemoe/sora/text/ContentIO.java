@@ -24,16 +24,24 @@
 package io.github.rosemoe.sora.text;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
 
 /**
  * Helper class for creating or saving {@link Content} objects, with minimal extra memory usage when
@@ -44,6 +52,10 @@ import java.nio.charset.Charset;
 public class ContentIO {
 
     private final static int BUFFER_SIZE = 16384;
+    /**
+     * Byte count of mapped files indexed before the content is returned, when lines are indexed in background
+     */
+    private final static int MAPPED_INITIAL_INDEX_BYTES = 256 * 1024;
 
     /**
      * Create a {@link Content} from stream.
@@ -73,7 +85,36 @@ public class ContentIO {
      */
     @NonNull
     public static Content createFrom(@NonNull Reader reader) throws IOException {
-        var content = new Content();
+        return createFrom(reader, Content.LineStorage.ARRAY);
+    }
+
+    /**
+     * Create a {@link Content} from reader, with the given line storage type.
+     * <p>
+     * Lines are built in bulk, with line separators searched in parallel. No {@link ContentListener}
+     * is involved in the process.
+     * <p>
+     * The reader will get closed if the operation is successfully done.
+     *
+     * @see Content.LineStorage
+     */
+    @NonNull
+    public static Content createFrom(@NonNull Reader reader, @NonNull Content.LineStorage storage) throws IOException {
+        var content = new BulkContentBuilder(storage).build(reader);
+        reader.close();
+        return content;
+    }
+
+    /**
+     * Create a {@link Content} from reader by inserting text pieces one by one. This is the old
+     * loading path, and it is kept for comparison.
+     * <p>
+     * The reader will get closed if the operation is successfully done.
+     */
+    @NonNull
+    @VisibleForTesting
+    static Content createFromByInsertion(@NonNull Reader reader, @NonNull Content.LineStorage storage) throws IOException {
+        var content = new Content(null, true, storage);
         content.setUndoEnabled(false);
         var buffer = new char[BUFFER_SIZE];
         var wrapper = new CharArrayWrapper(buffer, 0);
@@ -108,6 +149,70 @@ public class ContentIO {
         return content;
     }
 
+    /**
+     * Create a read-only {@link Content} from the given file, by mapping the file into memory.
+     * <p>
+     * Only line offsets are indexed when creating. Text of lines is decoded when they are accessed,
+     * so that huge files (such as logs) can be viewed with little heap memory. The returned object
+     * can not be modified, and the file should not be modified while the content is in use.
+     * <p>
+     * The charset must be ASCII-compatible for line separators (such as UTF-8, ISO-8859-1, GBK).
+     * Call this method in background thread, as the indexing pass scans the whole file. To
+     * get the content without waiting for the whole file, use {@link #createMapped(File, Charset, Executor)}.
+     *
+     * @param file    Source file, whose size must be no more than {@link Integer#MAX_VALUE} bytes
+     * @param charset Charset for decoding the content
+     * @throws IllegalArgumentException if the charset is not supported
+     * @see Content#isReadOnly()
+     */
+    @NonNull
+    @WorkerThread
+    public static Content createMapped(@NonNull File file, @NonNull Charset charset) throws IOException {
+        var lines = mapLines(file, charset);
+        lines.indexTo(Integer.MAX_VALUE);
+        return new Content(lines, lines.getTextLength(), Content.LineStorage.MAPPED, true);
+    }
+
+    /**
+     * Create a read-only {@link Content} from the given file, by mapping the file into memory, and
+     * index the lines in background.
+     * <p>
+     * Only the beginning of the file is indexed before this method returns, so that huge files can
+     * be shown almost instantly. The rest of the file is indexed by a background thread, and the
+     * new lines are appended by tasks run in the given executor, as if the text is inserted at the
+     * end. Listeners of the content, such as the editor, are notified in that executor. Until the whole
+     * file is indexed, the content ends with an empty line.
+     * <p>
+     * See {@link #createMapped(File, Charset)} for requirements of the file and charset.
+     *
+     * @param file      Source file, whose size must be no more than {@link Integer#MAX_VALUE} bytes
+     * @param charset   Charset for decoding the content
+     * @param publisher Executor that runs tasks in order, in the thread where the content is used
+     *                  (for example, the main thread executor for contents displayed by the editor)
+     * @throws IllegalArgumentException if the charset is not supported
+     */
+    @NonNull
+    public static Content createMapped(@NonNull File file, @NonNull Charset charset, @NonNull Executor publisher) throws IOException {
+        var lines = mapLines(file, charset);
+        lines.indexTo(MAPPED_INITIAL_INDEX_BYTES);
+        var content = new Content(lines, lines.getTextLength(), Content.LineStorage.MAPPED, true);
+        lines.startBackgroundIndexing(content, publisher);
+        return content;
+    }
+
+    @NonNull
+    private static MappedLineList mapLines(@NonNull File file, @NonNull Charset charset) throws IOException {
+        try (var raf = new RandomAccessFile(file, "r"); var channel = raf.getChannel()) {
+            var size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file is too large to be mapped: " + size + " bytes");
+            }
+            // The mapping stays valid after the channel is closed
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedLineList(buffer, charset);
+        }
+    }
+
     /**
      * Write the text to the given stream with default charset. Close the stream if {@code closeOnSucceed} is true.
      *
@@ -135,6 +240,9 @@ public class ContentIO {
      * Write the text to the given writer. Close the writer if {@code closeOnSucceed} is true.
      * <p>
      * If you use {@link BufferedWriter}, make sure you set an appropriate buffer size. We recommend using the default size (8192) or larger.
+     * <p>
+     * Note that the read lock of the text is held during the whole operation. For large files, consider
+     * {@link #writeTo(Content, File, Charset, ProgressCallback)}.
      *
      * @param text Text to be written
      * @param writer Output writer
@@ -169,4 +277,43 @@ public class ContentIO {
         }
     }
 
+    /**
+     * Write the text to the given file with given charset, chunk by chunk.
+     * <p>
+     * The text written is a {@link Content#snapshot() snapshot} taken when the operation starts, so
+     * modifications in other threads are neither blocked nor included in the saved text.
+     * <p>
+     * If the operation is cancelled or failed, the file may be partially written. Write to a
+     * temporary file and rename it if you need an atomic save.
+     *
+     * @param text     Text to be written
+     * @param file     Destination file. It is truncated before writing.
+     * @param charset  Charset of output bytes
+     * @param callback Optional callback for progress and cancellation
+     * @throws java.io.InterruptedIOException if the operation is cancelled by the callback
+     */
+    @WorkerThread
+    public static void writeTo(@NonNull Content text, @NonNull File file, @NonNull Charset charset,
+                               @Nullable ProgressCallback callback) throws IOException {
+        try (var stream = new FileOutputStream(file); var channel = stream.getChannel()) {
+            new ChunkedContentWriter(channel, charset, callback).write(text);
+        }
+    }
+
+    /**
+     * Callback for chunked IO operations in {@link ContentIO}
+     */
+    public interface ProgressCallback {
+
+        /**
+         * Called after a chunk is processed.
+         *
+         * @param processedChars Count of chars processed
+         * @param totalChars     Total count of chars
+         * @return false to cancel the operation
+         */
+        boolean onProgress(long processedChars, long totalChars);
+
+    }
+
 }
@@ -49,6 +49,10 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
 
     private int rtlAffectingCount;
     private LineSeparator lineSeparator;
+    /**
+     * Generation of line copies in {@link Content}, for copy-on-write after {@link Content#snapshot()}
+     */
+    int generation;
 
     public ContentLine() {
         this(true);
@@ -250,6 +254,27 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
         return this.insert(length, text);
     }
 
+    /**
+     * Append characters in the given region of a char array
+     *
+     * @param src   Source chars
+     * @param start Start index in {@code src}, inclusive
+     * @param end   End index in {@code src}, exclusive
+     */
+    @NonNull
+    ContentLine append(@NonNull char[] src, int start, int end) {
+        int len = end - start;
+        ensureCapacity(length + len);
+        System.arraycopy(src, start, value, length, len);
+        for (int i = start; i < end; i++) {
+            if (TextBidi.couldAffectRtl(src[i])) {
+                rtlAffectingCount++;
+            }
+        }
+        length += len;
+        return this;
+    }
+
     @Override
     public int length() {
         return length;
@@ -0,0 +1,130 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A list of {@link ContentLine} organized as a B+ tree of line blocks ({@link LineBlockTree}),
+ * so that random access, insertion and removal of lines are all done in O(log n) time.
+ * <p>
+ * Compared with {@link java.util.ArrayList}, inserting or removing lines in the middle of a huge
+ * document does not shift the whole backing array, and the list never requires a single contiguous
+ * array of millions of references.
+ * <p>
+ * The list also supports O(1) snapshots by sharing tree nodes.
+ */
+final class ContentLineTree extends AbstractList<ContentLine> {
+
+    private final LineBlockTree<ContentLine> tree;
+
+    ContentLineTree() {
+        this(new LineBlockTree<>(true, false));
+    }
+
+    /**
+     * Create a list with the given lines in O(n) time
+     */
+    ContentLineTree(@NonNull List<ContentLine> lines) {
+        this();
+        tree.load(lines);
+    }
+
+    private ContentLineTree(@NonNull LineBlockTree<ContentLine> tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Create a new list with the same lines in O(1) time. The two lists share their nodes, and
+     * modifications to either list are not visible to the other one.
+     */
+    @NonNull
+    ContentLineTree snapshot() {
+        return new ContentLineTree(tree.snapshot());
+    }
+
+    @Override
+    public int size() {
+        return tree.size();
+    }
+
+    @Override
+    public ContentLine get(int index) {
+        return tree.get(index);
+    }
+
+    @Override
+    public ContentLine set(int index, ContentLine element) {
+        return tree.set(index, element);
+    }
+
+    @Override
+    public void add(int index, ContentLine element) {
+        tree.insert(index, element, 0);
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(int index, @NonNull Collection<? extends ContentLine> c) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + size());
+        }
+        for (var line : c) {
+            add(index++, line);
+        }
+        return !c.isEmpty();
+    }
+
+    @Override
+    public ContentLine remove(int index) {
+        var removed = tree.remove(index);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            remove(fromIndex);
+        }
+    }
+
+    @Override
+    public void clear() {
+        tree.clear();
+        modCount++;
+    }
+
+    @NonNull
+    @Override
+    public Iterator<ContentLine> iterator() {
+        return tree.iterator();
+    }
+
+}
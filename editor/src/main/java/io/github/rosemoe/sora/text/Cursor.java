@@ -35,7 +35,11 @@ import io.github.rosemoe.sora.util.IntPair;
 public final class Cursor {
 
     private final Content content;
-    private final CachedIndexer indexer;
+    private final Indexer indexer;
+    /**
+     * Non-null if this cursor has its own indexer, which should be updated by the cursor
+     */
+    private CachedIndexer cachedIndexer;
     private CharPosition leftSel, rightSel;
     private CharPosition cache0, cache1, cache2;
 
@@ -46,7 +50,15 @@ public final class Cursor {
      */
     public Cursor(@NonNull Content content) {
         this.content = content;
-        indexer = new CachedIndexer(content);
+        var documentIndexer = content.getDocumentIndexer();
+        if (documentIndexer instanceof PrefixSumIndexer) {
+            // Share the indexer, as its queries do not depend on cache
+            cachedIndexer = null;
+            indexer = documentIndexer;
+        } else {
+            cachedIndexer = new CachedIndexer(content);
+            indexer = cachedIndexer;
+        }
         leftSel = new CharPosition().toBOF();
         rightSel = new CharPosition().toBOF();
     }
@@ -185,10 +197,29 @@ public final class Cursor {
      *
      * @return Using Indexer
      */
-    public CachedIndexer getIndexer() {
+    @NonNull
+    public Indexer getCharIndexer() {
         return indexer;
     }
 
+    /**
+     * Get a {@link CachedIndexer} for the content.
+     * <p>
+     * If the content uses a {@link PrefixSumIndexer}, which is shared by this cursor, a
+     * {@link CachedIndexer} is created and maintained by this cursor since the first call.
+     *
+     * @return CachedIndexer of this cursor
+     * @deprecated Use {@link #getCharIndexer()}, which is not limited to {@link CachedIndexer}
+     */
+    @Deprecated
+    @NonNull
+    public CachedIndexer getIndexer() {
+        if (cachedIndexer == null) {
+            cachedIndexer = new CachedIndexer(content);
+        }
+        return cachedIndexer;
+    }
+
     /**
      * Get whether text is selected
      *
@@ -285,7 +316,9 @@ public final class Cursor {
      * Internal call back before replace
      */
     void beforeReplace() {
-        indexer.beforeReplace(content);
+        if (cachedIndexer != null) {
+            cachedIndexer.beforeReplace(content);
+        }
     }
 
     /**
@@ -299,7 +332,9 @@ public final class Cursor {
      */
     void afterInsert(int startLine, int startColumn, int endLine, int endColumn,
                      CharSequence insertedContent) {
-        indexer.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
+        if (cachedIndexer != null) {
+            cachedIndexer.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
+        }
         int beginIdx = cache0.getIndex();
         if (getLeft() >= beginIdx) {
             leftSel = indexer.getCharPosition(getLeft() + insertedContent.length()).fromThis();
@@ -320,7 +355,9 @@ public final class Cursor {
      */
     void afterDelete(int startLine, int startColumn, int endLine, int endColumn,
                      CharSequence deletedContent) {
-        indexer.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
+        if (cachedIndexer != null) {
+            cachedIndexer.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
+        }
         int beginIdx = cache1.getIndex();
         int endIdx = cache2.getIndex();
         int left = getLeft();
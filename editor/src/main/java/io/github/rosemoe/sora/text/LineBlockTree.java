@@ -0,0 +1,703 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A B+ tree of lines organized in blocks. Every line may carry an item and an int weight, and
+ * each node caches the line count and the sum of weights in its subtree, so that random access,
+ * insertion, removal and prefix sum queries are all done in O(log n) time.
+ * <p>
+ * Lists of {@link ContentLine} ({@link ContentLine}s as items) and line lengths of
+ * {@link PrefixSumIndexer} (lengths as weights) are both kept in this tree. Language analyzers can
+ * also keep their results of lines in it. Storage for items or weights is not allocated if the tree
+ * does not use them.
+ * <p>
+ * The tree also supports O(1) snapshots by sharing nodes. Every node records the token of the tree
+ * that is allowed to modify it in place. After {@link #snapshot()}, this tree gets a new token, so
+ * the nodes on the path of next modification are copied first (path copying), and the snapshot
+ * keeps seeing the old nodes. Shared nodes are never modified, so a snapshot can be read by another
+ * thread while this tree is modified.
+ * <p>
+ * This class is internal to the editor library and its language modules. It is not a public API,
+ * and may be changed or removed at any time.
+ *
+ * @param <T> Type of items
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+public final class LineBlockTree<T> {
+
+    /**
+     * Max line count in a leaf node
+     */
+    private final static int LEAF_CAPACITY = 64;
+    /**
+     * Max child count of an inner node
+     */
+    private final static int INNER_CAPACITY = 32;
+
+    private final boolean hasItems;
+    private final boolean hasWeights;
+    private Node root;
+    /**
+     * Nodes with this owner can be modified in place
+     */
+    private Object owner;
+    private int modCount;
+
+    /**
+     * Create an empty tree
+     *
+     * @param hasItems   Whether lines carry items
+     * @param hasWeights Whether lines carry weights
+     */
+    public LineBlockTree(boolean hasItems, boolean hasWeights) {
+        this.hasItems = hasItems;
+        this.hasWeights = hasWeights;
+        owner = new Object();
+        root = new Leaf(owner, hasItems, hasWeights);
+    }
+
+    private LineBlockTree(@NonNull LineBlockTree<T> source) {
+        hasItems = source.hasItems;
+        hasWeights = source.hasWeights;
+        owner = new Object();
+        root = source.root;
+    }
+
+    /**
+     * Create a new tree with the same lines in O(1) time. The two trees share their nodes, and
+     * modifications to either tree are not visible to the other one.
+     */
+    @NonNull
+    public LineBlockTree<T> snapshot() {
+        var copy = new LineBlockTree<>(this);
+        // Nodes are now shared, make ourselves copy them before modification
+        owner = new Object();
+        return copy;
+    }
+
+    /**
+     * Line count in the tree
+     */
+    public int size() {
+        return root.size;
+    }
+
+    /**
+     * Sum of all weights
+     */
+    public int total() {
+        return root.sum;
+    }
+
+    private void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + size);
+        }
+    }
+
+    /**
+     * Find the leaf containing the given line without modification
+     *
+     * @param dest dest[0] is set to the index of the line in the leaf
+     */
+    @NonNull
+    private Leaf findLeaf(int index, @NonNull int[] dest) {
+        var node = root;
+        while (node instanceof Inner) {
+            var inner = (Inner) node;
+            int i = 0;
+            Node child;
+            while (index >= (child = inner.children[i]).size) {
+                index -= child.size;
+                i++;
+            }
+            node = child;
+        }
+        dest[0] = index;
+        return (Leaf) node;
+    }
+
+    /**
+     * Get item of the given line
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        checkIndex(index, size());
+        var node = root;
+        while (node instanceof Inner) {
+            var inner = (Inner) node;
+            int i = 0;
+            Node child;
+            while (index >= (child = inner.children[i]).size) {
+                index -= child.size;
+                i++;
+            }
+            node = child;
+        }
+        return (T) ((Leaf) node).items[index];
+    }
+
+    /**
+     * Get weight of the given line
+     */
+    public int getWeight(int index) {
+        checkIndex(index, size());
+        var pos = new int[1];
+        return findLeaf(index, pos).weights[pos[0]];
+    }
+
+    /**
+     * Find the leaf containing the given line, copying nodes on the path if they are not owned by
+     * this tree. Sums on the path are increased by {@code delta}.
+     *
+     * @param dest dest[0] is set to the index of the line in the leaf
+     */
+    @NonNull
+    private Leaf editLeaf(int index, int delta, @NonNull int[] dest) {
+        var node = root = root.editable(owner);
+        node.sum += delta;
+        while (node instanceof Inner) {
+            var inner = (Inner) node;
+            int i = 0;
+            Node child;
+            while (index >= (child = inner.children[i]).size) {
+                index -= child.size;
+                i++;
+            }
+            node = inner.children[i] = child.editable(owner);
+            node.sum += delta;
+        }
+        dest[0] = index;
+        return (Leaf) node;
+    }
+
+    /**
+     * Set item of the given line
+     *
+     * @return The old item
+     */
+    @SuppressWarnings("unchecked")
+    public T set(int index, @Nullable T item) {
+        checkIndex(index, size());
+        var pos = new int[1];
+        var leaf = editLeaf(index, 0, pos);
+        var old = leaf.items[pos[0]];
+        leaf.items[pos[0]] = item;
+        return (T) old;
+    }
+
+    /**
+     * Set weight of the given line
+     */
+    public void setWeight(int index, int weight) {
+        checkIndex(index, size());
+        var pos = new int[1];
+        int delta = weight - findLeaf(index, pos).weights[pos[0]];
+        if (delta != 0) {
+            editLeaf(index, delta, pos).weights[pos[0]] = weight;
+        }
+    }
+
+    /**
+     * Insert a line with the given item and weight
+     */
+    public void insert(int index, @Nullable T item, int weight) {
+        checkIndex(index, size() + 1);
+        root = root.editable(owner);
+        var split = root.insert(index, item, weight, owner);
+        if (split != null) {
+            var newRoot = new Inner(owner);
+            newRoot.children[0] = root;
+            newRoot.children[1] = split;
+            newRoot.childCount = 2;
+            newRoot.size = root.size + split.size;
+            newRoot.sum = root.sum + split.sum;
+            root = newRoot;
+        }
+        modCount++;
+    }
+
+    /**
+     * Remove the given line
+     *
+     * @return Item of the removed line
+     */
+    @SuppressWarnings("unchecked")
+    public T remove(int index) {
+        checkIndex(index, size());
+        root = root.editable(owner);
+        var removed = root.remove(index, owner);
+        while (root instanceof Inner && ((Inner) root).childCount == 1) {
+            root = ((Inner) root).children[0];
+        }
+        modCount++;
+        return (T) removed;
+    }
+
+    public void clear() {
+        root = new Leaf(owner, hasItems, hasWeights);
+        modCount++;
+    }
+
+    /**
+     * Replace all lines with the given items in O(n) time, by filling leaves in order and building
+     * inner nodes bottom-up. Weights of the new lines are 0.
+     */
+    public void load(@NonNull List<? extends T> items) {
+        int count = items.size();
+        var level = new Node[Math.max(1, (count + LEAF_CAPACITY - 1) / LEAF_CAPACITY)];
+        for (int i = 0; i < level.length; i++) {
+            var leaf = new Leaf(owner, hasItems, hasWeights);
+            leaf.size = Math.min(LEAF_CAPACITY, count - i * LEAF_CAPACITY);
+            if (hasItems) {
+                for (int j = 0; j < leaf.size; j++) {
+                    leaf.items[j] = items.get(i * LEAF_CAPACITY + j);
+                }
+            }
+            level[i] = leaf;
+        }
+        int nodeCount = level.length;
+        while (nodeCount > 1) {
+            int parentCount = (nodeCount + INNER_CAPACITY - 1) / INNER_CAPACITY;
+            for (int i = 0; i < parentCount; i++) {
+                var inner = new Inner(owner);
+                inner.childCount = Math.min(INNER_CAPACITY, nodeCount - i * INNER_CAPACITY);
+                System.arraycopy(level, i * INNER_CAPACITY, inner.children, 0, inner.childCount);
+                for (int j = 0; j < inner.childCount; j++) {
+                    inner.size += inner.children[j].size;
+                }
+                level[i] = inner;
+            }
+            nodeCount = parentCount;
+        }
+        root = level[0];
+        modCount++;
+    }
+
+    /**
+     * Get sum of weights of lines in [0, index)
+     */
+    public int prefixSum(int index) {
+        checkIndex(index, size() + 1);
+        int sum = 0;
+        var node = root;
+        while (node instanceof Inner) {
+            var inner = (Inner) node;
+            int i = 0;
+            while (i < inner.childCount && index >= inner.children[i].size) {
+                index -= inner.children[i].size;
+                sum += inner.children[i].sum;
+                i++;
+            }
+            if (i == inner.childCount) {
+                return sum;
+            }
+            node = inner.children[i];
+        }
+        var weights = ((Leaf) node).weights;
+        for (int i = 0; i < index; i++) {
+            sum += weights[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Find the line containing the given offset, that's the line {@code l} that
+     * {@code prefixSum(l) <= offset < prefixSum(l + 1)}. If the offset is not less than
+     * {@link #total()}, the last line is returned.
+     *
+     * @param dest dest[0] is set to the line, and dest[1] is set to prefix sum of the line
+     */
+    public void findByOffset(int offset, @NonNull int[] dest) {
+        int line = 0;
+        int sum = 0;
+        var node = root;
+        while (node instanceof Inner) {
+            var inner = (Inner) node;
+            int i = 0;
+            while (i < inner.childCount - 1 && offset >= sum + inner.children[i].sum) {
+                sum += inner.children[i].sum;
+                line += inner.children[i].size;
+                i++;
+            }
+            node = inner.children[i];
+        }
+        var leaf = (Leaf) node;
+        int i = 0;
+        while (i < leaf.size - 1 && offset >= sum + leaf.weights[i]) {
+            sum += leaf.weights[i];
+            i++;
+        }
+        dest[0] = line + i;
+        dest[1] = sum;
+    }
+
+    /**
+     * Iterate items of all lines
+     */
+    @NonNull
+    public Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    /**
+     * Iterate leaves with an explicit path so that each step costs amortized O(1)
+     */
+    private class Itr implements Iterator<T> {
+
+        private final Inner[] path = new Inner[32];
+        private final int[] childIndices = new int[32];
+        private final int expectedModCount = modCount;
+        private int depth;
+        private Leaf leaf;
+        private int indexInLeaf;
+        private int remaining = size();
+
+        Itr() {
+            var node = root;
+            while (node instanceof Inner) {
+                path[depth] = (Inner) node;
+                childIndices[depth] = 0;
+                depth++;
+                node = ((Inner) node).children[0];
+            }
+            leaf = (Leaf) node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+            while (indexInLeaf >= leaf.size) {
+                nextLeaf();
+            }
+            remaining--;
+            return (T) leaf.items[indexInLeaf++];
+        }
+
+        private void nextLeaf() {
+            int level = depth - 1;
+            while (childIndices[level] + 1 >= path[level].childCount) {
+                level--;
+            }
+            childIndices[level]++;
+            Node node = path[level].children[childIndices[level]];
+            for (level = level + 1; level < depth; level++) {
+                path[level] = (Inner) node;
+                childIndices[level] = 0;
+                node = ((Inner) node).children[0];
+            }
+            leaf = (Leaf) node;
+            indexInLeaf = 0;
+        }
+    }
+
+    private abstract static class Node {
+
+        /**
+         * Token of the tree that can modify this node in place
+         */
+        final Object owner;
+        /**
+         * Line count in this subtree
+         */
+        int size;
+        /**
+         * Sum of weights in this subtree
+         */
+        int sum;
+
+        Node(Object owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Get this node if it is owned by the given token, or a copy of it owned by the token
+         */
+        final Node editable(Object owner) {
+            return this.owner == owner ? this : copy(owner);
+        }
+
+        abstract Node copy(Object owner);
+
+        /**
+         * Insert the line at given index in this subtree. This node must be owned by the given token.
+         *
+         * @return The new right sibling if this node is split, or null
+         */
+        abstract Node insert(int index, Object item, int weight, Object owner);
+
+        /**
+         * Remove the line at given index in this subtree. This node must be owned by the given token.
+         *
+         * @return Item of the removed line
+         */
+        abstract Object remove(int index, Object owner);
+
+        abstract boolean isUnderflow();
+
+    }
+
+    private final static class Leaf extends Node {
+
+        final Object[] items;
+        final int[] weights;
+
+        Leaf(Object owner, boolean hasItems, boolean hasWeights) {
+            super(owner);
+            items = hasItems ? new Object[LEAF_CAPACITY] : null;
+            weights = hasWeights ? new int[LEAF_CAPACITY] : null;
+        }
+
+        @NonNull
+        private Leaf newSibling(Object owner) {
+            return new Leaf(owner, items != null, weights != null);
+        }
+
+        @Override
+        Node copy(Object owner) {
+            var leaf = newSibling(owner);
+            if (items != null) {
+                System.arraycopy(items, 0, leaf.items, 0, size);
+            }
+            if (weights != null) {
+                System.arraycopy(weights, 0, leaf.weights, 0, size);
+            }
+            leaf.size = size;
+            leaf.sum = sum;
+            return leaf;
+        }
+
+        @Override
+        Node insert(int index, Object item, int weight, Object owner) {
+            if (size < LEAF_CAPACITY) {
+                if (items != null) {
+                    System.arraycopy(items, index, items, index + 1, size - index);
+                    items[index] = item;
+                }
+                if (weights != null) {
+                    System.arraycopy(weights, index, weights, index + 1, size - index);
+                    weights[index] = weight;
+                    sum += weight;
+                }
+                size++;
+                return null;
+            }
+            var right = newSibling(owner);
+            int half = LEAF_CAPACITY / 2;
+            right.size = LEAF_CAPACITY - half;
+            if (items != null) {
+                System.arraycopy(items, half, right.items, 0, right.size);
+                Arrays.fill(items, half, LEAF_CAPACITY, null);
+            }
+            if (weights != null) {
+                System.arraycopy(weights, half, right.weights, 0, right.size);
+                for (int i = 0; i < right.size; i++) {
+                    right.sum += right.weights[i];
+                }
+                Arrays.fill(weights, half, LEAF_CAPACITY, 0);
+                sum -= right.sum;
+            }
+            size = half;
+            if (index <= half) {
+                insert(index, item, weight, owner);
+            } else {
+                right.insert(index - half, item, weight, owner);
+            }
+            return right;
+        }
+
+        @Override
+        Object remove(int index, Object owner) {
+            Object removed = null;
+            size--;
+            if (items != null) {
+                removed = items[index];
+                System.arraycopy(items, index + 1, items, index, size - index);
+                items[size] = null;
+            }
+            if (weights != null) {
+                sum -= weights[index];
+                System.arraycopy(weights, index + 1, weights, index, size - index);
+                weights[size] = 0;
+            }
+            return removed;
+        }
+
+        @Override
+        boolean isUnderflow() {
+            return size < LEAF_CAPACITY / 4;
+        }
+    }
+
+    private final static class Inner extends Node {
+
+        /**
+         * One extra slot for temporary overflow before splitting
+         */
+        final Node[] children = new Node[INNER_CAPACITY + 1];
+        int childCount;
+
+        Inner(Object owner) {
+            super(owner);
+        }
+
+        @Override
+        Node copy(Object owner) {
+            var inner = new Inner(owner);
+            System.arraycopy(children, 0, inner.children, 0, childCount);
+            inner.childCount = childCount;
+            inner.size = size;
+            inner.sum = sum;
+            return inner;
+        }
+
+        @Override
+        Node insert(int index, Object item, int weight, Object owner) {
+            int i = 0;
+            while (i < childCount - 1 && index > children[i].size) {
+                index -= children[i].size;
+                i++;
+            }
+            var split = (children[i] = children[i].editable(owner)).insert(index, item, weight, owner);
+            size++;
+            sum += weight;
+            if (split == null) {
+                return null;
+            }
+            System.arraycopy(children, i + 1, children, i + 2, childCount - i - 1);
+            children[i + 1] = split;
+            childCount++;
+            if (childCount <= INNER_CAPACITY) {
+                return null;
+            }
+            var right = new Inner(owner);
+            int half = childCount / 2;
+            for (int j = half; j < childCount; j++) {
+                var c = children[j];
+                right.children[j - half] = c;
+                right.size += c.size;
+                right.sum += c.sum;
+                children[j] = null;
+            }
+            right.childCount = childCount - half;
+            childCount = half;
+            size -= right.size;
+            sum -= right.sum;
+            return right;
+        }
+
+        @Override
+        Object remove(int index, Object owner) {
+            int i = 0;
+            while (index >= children[i].size) {
+                index -= children[i].size;
+                i++;
+            }
+            var child = children[i] = children[i].editable(owner);
+            int oldSum = child.sum;
+            var removed = child.remove(index, owner);
+            size--;
+            sum += child.sum - oldSum;
+            if (child.size == 0 && childCount > 1) {
+                removeChild(i);
+            } else if (child.isUnderflow() && childCount > 1) {
+                // Try to merge with a neighbor
+                if (i > 0 && mergeIfFits(i - 1, owner)) {
+                    return removed;
+                }
+                if (i + 1 < childCount) {
+                    mergeIfFits(i, owner);
+                }
+            }
+            return removed;
+        }
+
+        private void removeChild(int i) {
+            System.arraycopy(children, i + 1, children, i, childCount - i - 1);
+            children[--childCount] = null;
+        }
+
+        /**
+         * Merge child at {@code i + 1} into child at {@code i} if the result fits in one node
+         */
+        private boolean mergeIfFits(int i, Object owner) {
+            var left = children[i];
+            var right = children[i + 1];
+            if (left instanceof Leaf) {
+                var r = (Leaf) right;
+                if (left.size + r.size > LEAF_CAPACITY) {
+                    return false;
+                }
+                var l = (Leaf) (children[i] = left.editable(owner));
+                if (l.items != null) {
+                    System.arraycopy(r.items, 0, l.items, l.size, r.size);
+                }
+                if (l.weights != null) {
+                    System.arraycopy(r.weights, 0, l.weights, l.size, r.size);
+                }
+            } else {
+                var r = (Inner) right;
+                if (((Inner) left).childCount + r.childCount > INNER_CAPACITY) {
+                    return false;
+                }
+                var l = (Inner) (children[i] = left.editable(owner));
+                System.arraycopy(r.children, 0, l.children, l.childCount, r.childCount);
+                l.childCount += r.childCount;
+            }
+            var merged = children[i];
+            merged.size += right.size;
+            merged.sum += right.sum;
+            removeChild(i + 1);
+            return true;
+        }
+
+        @Override
+        boolean isUnderflow() {
+            return childCount < INNER_CAPACITY / 4;
+        }
+    }
+
+}
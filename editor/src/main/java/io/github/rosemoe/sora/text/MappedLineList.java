@@ -0,0 +1,487 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Read-only line list backed by a mapped file buffer. Only the start offsets, text lengths and
+ * line separators of lines are kept on heap. Line text is decoded when the line is accessed,
+ * and recently accessed lines are kept in a small LRU cache, so that the editor can keep its
+ * measure cache in {@link ContentLine} for lines on screen.
+ * <p>
+ * Lines are indexed in batches. The list can be created with only the beginning of the file indexed,
+ * and the rest of lines are then {@link #append(IndexBatch) appended} by a background pass. Until
+ * the file is completely indexed, the list ends with an empty line without separator.
+ * <p>
+ * The charset must encode {@code '\r'} and {@code '\n'} as single bytes, and those bytes must not
+ * appear inside other characters (UTF-8, ISO-8859-x, GBK, etc.).
+ */
+final class MappedLineList extends AbstractList<ContentLine> {
+
+    private final static String LOG_TAG = "MappedLineList";
+    private final static int DEFAULT_CACHE_SIZE = 1024;
+    /**
+     * Byte count of the file indexed by each batch of the background pass
+     */
+    private final static int BATCH_BYTES = 4 * 1024 * 1024;
+    private final static LineSeparator[] SEPARATORS = LineSeparator.values();
+
+    private final ByteBuffer buffer;
+    private final Charset charset;
+    private final LineDecoder decoder;
+    private final Map<Integer, ContentLine> cache;
+    private int[] lineStarts;
+    private int[] lineLengths;
+    private byte[] separators;
+    /**
+     * Count of indexed lines
+     */
+    private int lineCount;
+    private long textLength;
+    /**
+     * Byte offset of the first line not indexed
+     */
+    private int indexedEnd;
+    /**
+     * Whether no more lines can be appended
+     */
+    private boolean complete;
+    /**
+     * Whether the list ends with an empty line that is not indexed yet
+     */
+    private boolean pendingLine = true;
+
+    MappedLineList(@NonNull ByteBuffer buffer, @NonNull Charset charset) {
+        if (!isSupportedCharset(charset)) {
+            throw new IllegalArgumentException("charset " + charset + " is not supported for mapped content");
+        }
+        this.buffer = buffer;
+        this.charset = charset;
+        this.decoder = new LineDecoder(buffer, charset);
+        this.cache = new LinkedHashMap<>(DEFAULT_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ContentLine> eldest) {
+                return size() > DEFAULT_CACHE_SIZE;
+            }
+        };
+        lineStarts = new int[16];
+        lineLengths = new int[16];
+        separators = new byte[16];
+    }
+
+    /**
+     * Check whether the given charset can be used by {@link MappedLineList}
+     */
+    static boolean isSupportedCharset(@NonNull Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        var bytes = "\r\n".getBytes(charset);
+        return bytes.length == 2 && bytes[0] == '\r' && bytes[1] == '\n';
+    }
+
+    /**
+     * Index lines starting before the given byte offset in the current thread
+     */
+    void indexTo(int byteLimit) {
+        append(scan(buffer, decoder, indexedEnd, byteLimit));
+    }
+
+    /**
+     * Index the rest of the file in a background thread. Indexed lines are appended to the given
+     * content by tasks posted to the publisher, as if text is inserted at the end.
+     *
+     * @param content   The content using this list
+     * @param publisher Executor that runs tasks in order, in the thread that the content is used
+     */
+    void startBackgroundIndexing(@NonNull Content content, @NonNull Executor publisher) {
+        if (isComplete()) {
+            return;
+        }
+        final var contentRef = new WeakReference<>(content);
+        final int start = indexedEnd;
+        var thread = new Thread(() -> {
+            var threadDecoder = new LineDecoder(buffer, charset);
+            int from = start;
+            try {
+                while (contentRef.get() != null) {
+                    var batch = scan(buffer, threadDecoder, from, (int) Math.min((long) from + BATCH_BYTES, Integer.MAX_VALUE));
+                    publisher.execute(() -> {
+                        var target = contentRef.get();
+                        if (target != null) {
+                            target.appendMappedLines(batch);
+                        }
+                    });
+                    if (batch.last) {
+                        break;
+                    }
+                    from = batch.end;
+                }
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Failed to index mapped file", e);
+            }
+        }, "MappedLineIndexer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Scan lines from the given byte offset, until a line starts at or after the byte limit, or
+     * the end of buffer is reached. Only complete lines are included, unless the end of buffer is reached.
+     */
+    @NonNull
+    static IndexBatch scan(@NonNull ByteBuffer buffer, @NonNull LineDecoder decoder, int from, int byteLimit) {
+        final var limit = buffer.limit();
+        var batch = new IndexBatch();
+        int start = from;
+        while (start < byteLimit) {
+            boolean ascii = true;
+            int i = start;
+            byte b = 0;
+            for (; i < limit; i++) {
+                b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    break;
+                } else if (b < 0) {
+                    ascii = false;
+                }
+            }
+            if (i == limit) {
+                batch.add(start, decoder.getTextLength(start, limit, ascii), LineSeparator.NONE);
+                batch.last = true;
+                break;
+            }
+            var separator = LineSeparator.LF;
+            int next = i + 1;
+            if (b == '\r') {
+                if (next < limit && buffer.get(next) == '\n') {
+                    separator = LineSeparator.CRLF;
+                    next++;
+                } else {
+                    separator = LineSeparator.CR;
+                }
+            }
+            batch.add(start, decoder.getTextLength(start, i, ascii), separator);
+            start = next;
+        }
+        if (!batch.last && start >= limit) {
+            // Empty line after the last separator
+            batch.add(start, 0, LineSeparator.NONE);
+            batch.last = true;
+        }
+        batch.end = batch.last ? limit : start;
+        return batch;
+    }
+
+    /**
+     * Append indexed lines to this list
+     */
+    synchronized void append(@NonNull IndexBatch batch) {
+        if (complete) {
+            throw new IllegalStateException("lines are completely indexed");
+        }
+        if (batch.count > 0 && batch.starts[0] != indexedEnd) {
+            throw new IllegalArgumentException("batch is not continuous");
+        }
+        int newCount = lineCount + batch.count;
+        if (newCount > lineStarts.length) {
+            int newCapacity = Math.max(newCount, lineCount + (lineCount >> 1));
+            lineStarts = Arrays.copyOf(lineStarts, newCapacity);
+            lineLengths = Arrays.copyOf(lineLengths, newCapacity);
+            separators = Arrays.copyOf(separators, newCapacity);
+        }
+        // The pending empty line is replaced
+        cache.remove(lineCount);
+        System.arraycopy(batch.starts, 0, lineStarts, lineCount, batch.count);
+        System.arraycopy(batch.lengths, 0, lineLengths, lineCount, batch.count);
+        System.arraycopy(batch.separators, 0, separators, lineCount, batch.count);
+        long newTextLength = textLength + batch.textLength;
+        if (newTextLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("text is too long");
+        }
+        lineCount = newCount;
+        textLength = newTextLength;
+        indexedEnd = batch.end;
+        complete = batch.last;
+        pendingLine = !batch.last;
+    }
+
+    /**
+     * Check whether no more lines can be appended to this list
+     */
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Create a list with lines indexed currently. Indexed data is shared with this list.
+     */
+    @NonNull
+    synchronized MappedLineList snapshot() {
+        var list = new MappedLineList(buffer, charset);
+        list.lineStarts = lineStarts;
+        list.lineLengths = lineLengths;
+        list.separators = separators;
+        list.lineCount = lineCount;
+        list.textLength = textLength;
+        list.indexedEnd = indexedEnd;
+        // The snapshot never grows
+        list.complete = true;
+        list.pendingLine = pendingLine;
+        return list;
+    }
+
+    /**
+     * Get text length of the whole document
+     */
+    synchronized int getTextLength() {
+        return (int) textLength;
+    }
+
+    /**
+     * Get text length of the given line, without decoding it
+     */
+    synchronized int getLineLength(int line) {
+        checkIndex(line);
+        return line == lineCount ? 0 : lineLengths[line];
+    }
+
+    /**
+     * Get line separator of the given line, without decoding it
+     */
+    @NonNull
+    synchronized LineSeparator getLineSeparator(int line) {
+        checkIndex(line);
+        return line == lineCount ? LineSeparator.NONE : SEPARATORS[separators[line]];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + size());
+        }
+    }
+
+    @Override
+    public synchronized ContentLine get(int index) {
+        checkIndex(index);
+        var line = cache.get(index);
+        if (line == null) {
+            if (index == lineCount) {
+                line = new ContentLine(1);
+            } else {
+                int length = lineLengths[index];
+                var separator = SEPARATORS[separators[index]];
+                var chars = decoder.decode(lineStarts[index], (index + 1 < lineCount ? lineStarts[index + 1] : indexedEnd) - separator.getLength());
+                line = new ContentLine(length + 1);
+                // Keep the indexed length even if the decoder behaves differently for a single line
+                line.insert(0, chars, 0, Math.min(chars.remaining(), length));
+                while (line.length() < length) {
+                    line.append("\uFFFD");
+                }
+                line.setLineSeparator(separator);
+            }
+            cache.put(index, line);
+        }
+        return line;
+    }
+
+    @Override
+    public synchronized int size() {
+        return pendingLine ? lineCount + 1 : lineCount;
+    }
+
+    /**
+     * Lines indexed by one pass
+     */
+    static final class IndexBatch {
+
+        int[] starts = new int[256];
+        int[] lengths = new int[256];
+        byte[] separators = new byte[256];
+        int count;
+        long textLength;
+        /**
+         * Byte offset of the first line after this batch
+         */
+        int end;
+        /**
+         * Whether the batch reaches the end of file
+         */
+        boolean last;
+
+        void add(int start, int length, @NonNull LineSeparator separator) {
+            if (count == starts.length) {
+                int newCapacity = count << 1;
+                starts = Arrays.copyOf(starts, newCapacity);
+                lengths = Arrays.copyOf(lengths, newCapacity);
+                separators = Arrays.copyOf(separators, newCapacity);
+            }
+            starts[count] = start;
+            lengths[count] = length;
+            separators[count] = (byte) separator.ordinal();
+            count++;
+            textLength += length + separator.getLength();
+        }
+
+    }
+
+    /**
+     * Decoder of line bytes. Text lengths of lines are computed without decoding whenever possible.
+     */
+    static final class LineDecoder {
+
+        private final ByteBuffer buffer;
+        private final CharsetDecoder decoder;
+        private final boolean utf8;
+        private final boolean singleByte;
+        private CharBuffer decodeBuffer = CharBuffer.allocate(256);
+
+        LineDecoder(@NonNull ByteBuffer buffer, @NonNull Charset charset) {
+            this.buffer = buffer;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            utf8 = StandardCharsets.UTF_8.equals(charset);
+            // Every byte is decoded to exactly one char, including malformed ones
+            singleByte = !utf8 && decoder.maxCharsPerByte() == 1f && charset.newEncoder().maxBytesPerChar() == 1f;
+        }
+
+        /**
+         * Get UTF-16 length of text decoded from bytes in [start, end)
+         *
+         * @param ascii Whether the bytes are all ASCII characters
+         */
+        int getTextLength(int start, int end, boolean ascii) {
+            if (ascii || singleByte) {
+                return end - start;
+            }
+            if (utf8) {
+                int length = getUtf8Length(start, end);
+                if (length >= 0) {
+                    return length;
+                }
+            }
+            // Malformed input or other multibyte charsets
+            return decode(start, end).remaining();
+        }
+
+        /**
+         * Count UTF-16 chars of well-formed UTF-8 bytes in [start, end)
+         *
+         * @return The length, or -1 if the bytes are malformed
+         */
+        private int getUtf8Length(int start, int end) {
+            int length = 0;
+            int i = start;
+            while (i < end) {
+                int b = buffer.get(i) & 0xff;
+                if (b < 0x80) {
+                    length++;
+                    i++;
+                    continue;
+                }
+                int trailing;
+                if (b >= 0xc2 && b <= 0xdf) {
+                    trailing = 1;
+                } else if (b >= 0xe0 && b <= 0xef) {
+                    trailing = 2;
+                } else if (b >= 0xf0 && b <= 0xf4) {
+                    trailing = 3;
+                } else {
+                    return -1;
+                }
+                if (i + trailing >= end) {
+                    return -1;
+                }
+                int second = buffer.get(i + 1) & 0xff;
+                if ((second & 0xc0) != 0x80
+                        || (b == 0xe0 && second < 0xa0) || (b == 0xed && second > 0x9f)
+                        || (b == 0xf0 && second < 0x90) || (b == 0xf4 && second > 0x8f)) {
+                    // Overlong forms, surrogates or code points out of range
+                    return -1;
+                }
+                for (int j = 2; j <= trailing; j++) {
+                    if ((buffer.get(i + j) & 0xc0) != 0x80) {
+                        return -1;
+                    }
+                }
+                // Supplementary characters take a surrogate pair
+                length += trailing == 3 ? 2 : 1;
+                i += trailing + 1;
+            }
+            return length;
+        }
+
+        /**
+         * Decode bytes in [start, end) with the shared buffer
+         *
+         * @return The shared decode buffer, flipped for reading
+         */
+        @NonNull
+        CharBuffer decode(int start, int end) {
+            var src = buffer.duplicate();
+            src.limit(end).position(start);
+            int expected = (int) Math.ceil((end - start) * (double) decoder.maxCharsPerByte());
+            if (decodeBuffer.capacity() < expected) {
+                decodeBuffer = CharBuffer.allocate(expected);
+            }
+            decodeBuffer.clear();
+            decoder.reset();
+            try {
+                var result = decoder.decode(src, decodeBuffer, true);
+                if (!result.isUnderflow()) {
+                    result.throwException();
+                }
+                result = decoder.flush(decodeBuffer);
+                if (!result.isUnderflow()) {
+                    result.throwException();
+                }
+            } catch (CharacterCodingException e) {
+                throw new IllegalStateException("failed to decode line", e);
+            }
+            decodeBuffer.flip();
+            return decodeBuffer;
+        }
+
+    }
+
+}
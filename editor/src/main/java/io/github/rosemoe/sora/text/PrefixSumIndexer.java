@@ -0,0 +1,167 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import io.github.rosemoe.sora.annotations.UnsupportedUserUsage;
+
+/**
+ * Indexer Impl for Content
+ * Lengths of lines are kept in a balanced tree with prefix sums, so that every conversion
+ * between index and (line,column) costs O(log n), no matter where the queried position is.
+ * <p>
+ * The tree is updated incrementally when the content is modified. It takes some more memory
+ * (about 4 bytes per line) than {@link CachedIndexer}, so it is used for contents with
+ * {@link Content.LineStorage#TREE} or {@link Content.LineStorage#MAPPED} storage, which are
+ * designed for huge documents.
+ */
+public class PrefixSumIndexer implements Indexer, ContentListener {
+
+    private final Content content;
+    private final LineBlockTree<Void> tree;
+
+    /**
+     * Create a new PrefixSumIndexer for the given content
+     *
+     * @param content Content to manage
+     */
+    PrefixSumIndexer(@NonNull Content content) {
+        this.content = content;
+        tree = new LineBlockTree<>(false, true);
+        final int lineCount = content.getLineCount();
+        for (int i = 0; i < lineCount; i++) {
+            tree.insert(i, null, lengthOf(i));
+        }
+    }
+
+    private PrefixSumIndexer(@NonNull Content content, @NonNull LineBlockTree<Void> tree) {
+        this.content = content;
+        this.tree = tree;
+    }
+
+    /**
+     * Create an indexer for a snapshot of current content in O(1) time, sharing line lengths with
+     * this indexer
+     *
+     * @param snapshot Snapshot of current content
+     */
+    @NonNull
+    PrefixSumIndexer snapshot(@NonNull Content snapshot) {
+        return new PrefixSumIndexer(snapshot, tree.snapshot());
+    }
+
+    /**
+     * Get length of the line, with its line separator
+     */
+    private int lengthOf(int line) {
+        return content.getColumnCountUnsafe(line) + content.getLineSeparatorUnsafe(line).getLength();
+    }
+
+    @Override
+    public int getCharIndex(int line, int column) {
+        return getCharPosition(line, column).index;
+    }
+
+    @Override
+    public int getCharLine(int index) {
+        return getCharPosition(index).line;
+    }
+
+    @Override
+    public int getCharColumn(int index) {
+        return getCharPosition(index).column;
+    }
+
+    @NonNull
+    @Override
+    public CharPosition getCharPosition(int index) {
+        var pos = new CharPosition();
+        getCharPosition(index, pos);
+        return pos;
+    }
+
+    @Override
+    public void getCharPosition(int index, @NonNull CharPosition dest) {
+        content.checkIndex(index);
+        content.lock(false);
+        try {
+            var found = new int[2];
+            tree.findByOffset(index, found);
+            dest.index = index;
+            dest.line = found[0];
+            dest.column = index - found[1];
+        } finally {
+            content.unlock(false);
+        }
+    }
+
+    @NonNull
+    @Override
+    public CharPosition getCharPosition(int line, int column) {
+        var pos = new CharPosition();
+        getCharPosition(line, column, pos);
+        return pos;
+    }
+
+    @Override
+    public void getCharPosition(int line, int column, @NonNull CharPosition dest) {
+        content.checkLineAndColumn(line, column);
+        content.lock(false);
+        try {
+            dest.index = tree.prefixSum(line) + column;
+            dest.line = line;
+            dest.column = column;
+        } finally {
+            content.unlock(false);
+        }
+    }
+
+    @Override
+    @UnsupportedUserUsage
+    public void beforeReplace(@NonNull Content content) {
+        // Do nothing
+    }
+
+    @Override
+    @UnsupportedUserUsage
+    public void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
+                            @NonNull CharSequence insertedContent) {
+        tree.setWeight(startLine, lengthOf(startLine));
+        for (int i = startLine + 1; i <= endLine; i++) {
+            tree.insert(i, null, lengthOf(i));
+        }
+    }
+
+    @Override
+    @UnsupportedUserUsage
+    public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
+                            @NonNull CharSequence deletedContent) {
+        for (int i = startLine + 1; i <= endLine; i++) {
+            tree.remove(startLine + 1);
+        }
+        tree.setWeight(startLine, lengthOf(startLine));
+    }
+
+}
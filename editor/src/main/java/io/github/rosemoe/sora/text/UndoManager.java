@@ -28,12 +28,21 @@ import android.os.Parcelable;
 
 import androidx.annotation.NonNull;
 
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Helper class for Content to take down modification
  * As well as provide Undo/Redo actions
+ * <p>
+ * Besides the max count of actions, the history is also limited by a memory budget. Texts of actions
+ * are stored as compact strings, and large texts can be compressed ({@link #setCompressionEnabled(boolean)}).
+ * Oldest actions are removed when the budget is exceeded.
  *
  * @author Rosemoe
  */
@@ -46,11 +55,17 @@ public final class UndoManager implements ContentListener, Parcelable {
             o.maxStackSize = parcel.readInt();
             o.stackPointer = parcel.readInt();
             o.undoEnabled = parcel.readInt() > 0;
+            o.maxMemoryUsage = parcel.readLong();
+            o.compressionEnabled = parcel.readInt() > 0;
             var count = parcel.readInt();
             while (count > 0) {
-                o.actionStack.add(parcel.readParcelable(UndoManager.class.getClassLoader()));
+                ContentAction action = parcel.readParcelable(UndoManager.class.getClassLoader());
+                o.actionStack.add(action);
+                o.memoryUsage += estimateMemoryUsage(action);
                 count--;
             }
+            // Texts are restored uncompressed, so the history may exceed the budget now
+            o.cleanStack();
             return o;
         }
 
@@ -63,6 +78,23 @@ public final class UndoManager implements ContentListener, Parcelable {
      * The max time span limit for merging actions
      */
     private static long sMergeTimeLimit = 8000L;
+    /**
+     * Default memory budget of actions, in bytes
+     */
+    public final static long DEFAULT_MAX_MEMORY_USAGE = 32L * 1024 * 1024;
+    /**
+     * Max text length of merged actions
+     */
+    private final static int MAX_MERGE_LENGTH = 10000;
+    /**
+     * Min text length to compress. Texts can not be merged after compression, so this should not be
+     * smaller than {@link #MAX_MERGE_LENGTH}
+     */
+    private final static int COMPRESSION_THRESHOLD = 16 * 1024;
+    /**
+     * Estimated memory of an action object without its text
+     */
+    private final static int ACTION_OVERHEAD = 64;
     private final List<ContentAction> actionStack;
     private boolean undoEnabled;
     private int maxStackSize;
@@ -73,6 +105,9 @@ public final class UndoManager implements ContentListener, Parcelable {
     private int stackPointer;
     private boolean ignoreModification;
     private boolean forceNewMultiAction;
+    private long memoryUsage;
+    private long maxMemoryUsage;
+    private boolean compressionEnabled;
 
     /**
      * Create an UndoManager
@@ -84,6 +119,8 @@ public final class UndoManager implements ContentListener, Parcelable {
         deleteAction = null;
         stackPointer = 0;
         ignoreModification = false;
+        maxMemoryUsage = DEFAULT_MAX_MEMORY_USAGE;
+        compressionEnabled = false;
     }
 
     /**
@@ -112,6 +149,8 @@ public final class UndoManager implements ContentListener, Parcelable {
         parcel.writeInt(maxStackSize);
         parcel.writeInt(stackPointer);
         parcel.writeInt(undoEnabled ? 1 : 0);
+        parcel.writeLong(maxMemoryUsage);
+        parcel.writeInt(compressionEnabled ? 1 : 0);
         parcel.writeInt(actionStack.size());
         for (ContentAction contentAction : actionStack) {
             parcel.writeParcelable(contentAction, flags);
@@ -158,7 +197,9 @@ public final class UndoManager implements ContentListener, Parcelable {
         if (!actionStack.isEmpty() && actionStack.get(actionStack.size() - 1) instanceof MultiAction) {
             var action = ((MultiAction) actionStack.get(actionStack.size() - 1));
             if (action._actions.size() == 1) {
-                actionStack.set(actionStack.size() - 1, action._actions.get(0));
+                var single = action._actions.get(0);
+                memoryUsage += estimateMemoryUsage(single) - estimateMemoryUsage(action);
+                actionStack.set(actionStack.size() - 1, single);
             }
         }
     }
@@ -221,6 +262,51 @@ public final class UndoManager implements ContentListener, Parcelable {
         cleanStack();
     }
 
+    /**
+     * Get the memory budget of actions
+     *
+     * @return Max memory usage in bytes, or a non-positive value if unlimited
+     * @see #getMemoryUsage()
+     */
+    public long getMaxMemoryUsage() {
+        return maxMemoryUsage;
+    }
+
+    /**
+     * Set the memory budget of actions. Oldest actions are removed when the estimated memory usage
+     * is larger than the budget. The latest action is always kept.
+     *
+     * @param maxMemoryUsage Max memory usage in bytes, or a non-positive value for no limit
+     */
+    public void setMaxMemoryUsage(long maxMemoryUsage) {
+        this.maxMemoryUsage = maxMemoryUsage;
+        cleanStack();
+    }
+
+    /**
+     * Get estimated memory usage of all actions, in bytes
+     */
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * @see #setCompressionEnabled(boolean)
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Set whether large texts of new actions are compressed. Disabled by default.
+     * <p>
+     * Compression runs synchronously when the text is modified, so enabling it makes large
+     * insertions and deletions slower, in exchange for a smaller history.
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        compressionEnabled = enabled;
+    }
+
     /**
      * Clean stack after add or state change
      * This is to limit stack size
@@ -229,9 +315,10 @@ public final class UndoManager implements ContentListener, Parcelable {
         if (!undoEnabled) {
             actionStack.clear();
             stackPointer = 0;
+            memoryUsage = 0;
         } else {
-            while (stackPointer > 1 && actionStack.size() > maxStackSize) {
-                actionStack.remove(0);
+            while (stackPointer > 1 && (actionStack.size() > maxStackSize || (maxMemoryUsage > 0 && memoryUsage > maxMemoryUsage))) {
+                memoryUsage -= estimateMemoryUsage(actionStack.remove(0));
                 stackPointer--;
             }
         }
@@ -243,7 +330,7 @@ public final class UndoManager implements ContentListener, Parcelable {
      */
     private void cleanBeforePush() {
         while (stackPointer < actionStack.size()) {
-            actionStack.remove(actionStack.size() - 1);
+            memoryUsage -= estimateMemoryUsage(actionStack.remove(actionStack.size() - 1));
         }
     }
 
@@ -263,29 +350,37 @@ public final class UndoManager implements ContentListener, Parcelable {
                 MultiAction a = new MultiAction();
                 a.addAction(action);
                 actionStack.add(a);
+                memoryUsage += a.getMemoryUsage();
                 stackPointer++;
             } else {
                 ContentAction a = actionStack.get(actionStack.size() - 1);
                 if (a instanceof MultiAction && !forceNewMultiAction) {
                     MultiAction ac = (MultiAction) a;
+                    var previousUsage = ac.getMemoryUsage();
                     ac.addAction(action);
+                    memoryUsage += ac.getMemoryUsage() - previousUsage;
                 } else {
                     MultiAction ac = new MultiAction();
                     ac.addAction(action);
                     actionStack.add(ac);
+                    memoryUsage += ac.getMemoryUsage();
                     stackPointer++;
                 }
             }
         } else {
             if (actionStack.isEmpty()) {
                 actionStack.add(action);
+                memoryUsage += estimateMemoryUsage(action);
                 stackPointer++;
             } else {
                 ContentAction last = actionStack.get(actionStack.size() - 1);
                 if (last.canMerge(action)) {
+                    var previousUsage = estimateMemoryUsage(last);
                     last.merge(action);
+                    memoryUsage += estimateMemoryUsage(last) - previousUsage;
                 } else {
                     actionStack.add(action);
+                    memoryUsage += estimateMemoryUsage(action);
                     stackPointer++;
                 }
             }
@@ -322,7 +417,7 @@ public final class UndoManager implements ContentListener, Parcelable {
         insertAction.startColumn = startColumn;
         insertAction.endLine = endLine;
         insertAction.endColumn = endColumn;
-        insertAction.text = insertedContent;
+        insertAction.text = compactText(insertedContent);
         if (replaceMark && deleteAction != null) {
             ReplaceAction rep = new ReplaceAction();
             rep._delete = deleteAction;
@@ -347,12 +442,143 @@ public final class UndoManager implements ContentListener, Parcelable {
         deleteAction.startColumn = startColumn;
         deleteAction.endLine = endLine;
         deleteAction.startLine = startLine;
-        deleteAction.text = deletedContent;
+        deleteAction.text = compactText(deletedContent);
         if (!replaceMark) {
             pushAction(content, deleteAction);
         }
     }
 
+    /**
+     * Copy the text into a compact form, so that the action does not refer to buffers of others
+     */
+    @NonNull
+    private CharSequence compactText(@NonNull CharSequence text) {
+        if (compressionEnabled && text.length() >= COMPRESSION_THRESHOLD) {
+            return new CompressedText(text);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Get the text for modifying content
+     */
+    @NonNull
+    private static CharSequence expandText(@NonNull CharSequence text) {
+        return text instanceof CompressedText ? text.toString() : text;
+    }
+
+    /**
+     * Estimate memory usage of the given action
+     */
+    static long estimateMemoryUsage(@NonNull ContentAction action) {
+        if (action instanceof InsertAction) {
+            return ACTION_OVERHEAD + estimateMemoryUsage(((InsertAction) action).text);
+        } else if (action instanceof DeleteAction) {
+            return ACTION_OVERHEAD + estimateMemoryUsage(((DeleteAction) action).text);
+        } else if (action instanceof ReplaceAction) {
+            var replace = (ReplaceAction) action;
+            return ACTION_OVERHEAD + estimateMemoryUsage(replace._insert) + estimateMemoryUsage(replace._delete);
+        } else if (action instanceof MultiAction) {
+            return ((MultiAction) action).getMemoryUsage();
+        }
+        return ACTION_OVERHEAD;
+    }
+
+    private static long estimateMemoryUsage(@NonNull CharSequence text) {
+        if (text instanceof CompressedText) {
+            return ((CompressedText) text).data.length;
+        } else if (text instanceof StringBuilder) {
+            return ((StringBuilder) text).capacity() * 2L;
+        }
+        return text.length() * 2L;
+    }
+
+    /**
+     * Text compressed with {@link Deflater}. Each char is stored as two bytes before compression.
+     * The text is decompressed on first access, and the result is softly cached for later accesses.
+     */
+    private final static class CompressedText implements CharSequence {
+
+        private final byte[] data;
+        private final int length;
+        private SoftReference<String> expanded;
+
+        CompressedText(@NonNull CharSequence text) {
+            length = text.length();
+            var deflater = new Deflater(Deflater.BEST_SPEED);
+            var output = new ByteArrayOutputStream();
+            var input = new byte[16384];
+            var buffer = new byte[16384];
+            for (int start = 0; start < length; start += input.length / 2) {
+                int end = Math.min(length, start + input.length / 2);
+                for (int i = start; i < end; i++) {
+                    char ch = text.charAt(i);
+                    input[(i - start) * 2] = (byte) (ch >> 8);
+                    input[(i - start) * 2 + 1] = (byte) ch;
+                }
+                deflater.setInput(input, 0, (end - start) * 2);
+                while (!deflater.needsInput()) {
+                    output.write(buffer, 0, deflater.deflate(buffer));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            data = output.toByteArray();
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return toString().charAt(index);
+        }
+
+        @NonNull
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            var text = expanded == null ? null : expanded.get();
+            if (text == null) {
+                text = inflate();
+                expanded = new SoftReference<>(text);
+            }
+            return text;
+        }
+
+        @NonNull
+        private String inflate() {
+            var inflater = new Inflater();
+            inflater.setInput(data);
+            var bytes = new byte[length * 2];
+            try {
+                int offset = 0;
+                while (offset < bytes.length && !inflater.finished()) {
+                    offset += inflater.inflate(bytes, offset, bytes.length - offset);
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inflater.end();
+            }
+            var chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) (((bytes[i * 2] & 0xff) << 8) | (bytes[i * 2 + 1] & 0xff));
+            }
+            return new String(chars);
+        }
+    }
+
     /**
      * For saving modification better
      *
@@ -426,7 +652,7 @@ public final class UndoManager implements ContentListener, Parcelable {
 
         @Override
         public void redo(Content content) {
-            content.insert(startLine, startColumn, text);
+            content.insert(startLine, startColumn, expandText(text));
         }
 
         @Override
@@ -434,7 +660,7 @@ public final class UndoManager implements ContentListener, Parcelable {
             if (action instanceof InsertAction) {
                 InsertAction ac = (InsertAction) action;
                 return (ac.startColumn == endColumn && ac.startLine == endLine
-                        && ac.text.length() + text.length() < 10000
+                        && ac.text.length() + text.length() < MAX_MERGE_LENGTH
                         && Math.abs(ac.createTime - createTime) < sMergeTimeLimit);
             }
             return false;
@@ -499,7 +725,9 @@ public final class UndoManager implements ContentListener, Parcelable {
                 var o = new MultiAction();
                 var count = parcel.readInt();
                 while (count > 0) {
-                    o._actions.add(parcel.readParcelable(MultiAction.class.getClassLoader()));
+                    ContentAction action = parcel.readParcelable(MultiAction.class.getClassLoader());
+                    o._actions.add(action);
+                    o.memoryUsage += estimateMemoryUsage(action);
                     count--;
                 }
                 return o;
@@ -511,20 +739,32 @@ public final class UndoManager implements ContentListener, Parcelable {
             }
         };
         private final List<ContentAction> _actions = new ArrayList<>();
+        private long memoryUsage = ACTION_OVERHEAD;
 
         public void addAction(ContentAction action) {
             if (_actions.isEmpty()) {
                 _actions.add(action);
+                memoryUsage += estimateMemoryUsage(action);
             } else {
                 ContentAction last = _actions.get(_actions.size() - 1);
                 if (last.canMerge(action)) {
+                    var previousUsage = estimateMemoryUsage(last);
                     last.merge(action);
+                    memoryUsage += estimateMemoryUsage(last) - previousUsage;
                 } else {
                     _actions.add(action);
+                    memoryUsage += estimateMemoryUsage(action);
                 }
             }
         }
 
+        /**
+         * Get estimated memory usage of this action
+         */
+        long getMemoryUsage() {
+            return memoryUsage;
+        }
+
         @Override
         public void undo(Content content) {
             for (int i = _actions.size() - 1; i >= 0; i--) {
@@ -593,7 +833,7 @@ public final class UndoManager implements ContentListener, Parcelable {
 
         @Override
         public void undo(Content content) {
-            content.insert(startLine, startColumn, text);
+            content.insert(startLine, startColumn, expandText(text));
         }
 
         @Override
@@ -605,9 +845,11 @@ public final class UndoManager implements ContentListener, Parcelable {
         public boolean canMerge(ContentAction action) {
             if (action instanceof DeleteAction) {
                 DeleteAction ac = (DeleteAction) action;
-                return (ac.endColumn == startColumn && ac.endLine == startLine
-                        && ac.text.length() + text.length() < 10000
-                        && Math.abs(ac.createTime - createTime) < sMergeTimeLimit);
+                // Deleting backward (such as backspace), or forward at the same position (such as delete key)
+                return ((ac.endColumn == startColumn && ac.endLine == startLine)
+                        || (ac.startColumn == startColumn && ac.startLine == startLine))
+                        && ac.text.length() + text.length() < MAX_MERGE_LENGTH
+                        && Math.abs(ac.createTime - createTime) < sMergeTimeLimit;
             }
             return false;
         }
@@ -618,8 +860,6 @@ public final class UndoManager implements ContentListener, Parcelable {
                 throw new IllegalArgumentException();
             }
             DeleteAction ac = (DeleteAction) action;
-            this.startColumn = ac.startColumn;
-            this.startLine = ac.startLine;
             StringBuilder sb;
             if (text instanceof StringBuilder) {
                 sb = (StringBuilder) text;
@@ -627,7 +867,20 @@ public final class UndoManager implements ContentListener, Parcelable {
                 sb = new StringBuilder(text);
                 text = sb;
             }
-            sb.insert(0, ac.text);
+            if (ac.endColumn == startColumn && ac.endLine == startLine) {
+                this.startColumn = ac.startColumn;
+                this.startLine = ac.startLine;
+                sb.insert(0, ac.text);
+            } else {
+                // The text deleted by the action was after our end position before our deletion
+                if (ac.startLine == ac.endLine) {
+                    this.endColumn += ac.endColumn - ac.startColumn;
+                } else {
+                    this.endLine += ac.endLine - ac.startLine;
+                    this.endColumn = ac.endColumn;
+                }
+                sb.append(ac.text);
+            }
         }
 
         @NonNull
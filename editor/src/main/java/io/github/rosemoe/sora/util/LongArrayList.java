@@ -49,6 +49,28 @@ public class LongArrayList {
         }
     }
 
+    /**
+     * Replace elements in range [fromIndex, toIndex) with all elements in {@code values}. Elements
+     * after the range are moved in place.
+     * @throws IndexOutOfBoundsException if the range is invalid
+     */
+    public void replace(int fromIndex, int toIndex, LongArrayList values) {
+        if (fromIndex < 0 || toIndex > length || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("range [" + fromIndex + ", " + toIndex + ") with length " + length);
+        }
+        int newLength = length - (toIndex - fromIndex) + values.length;
+        if (newLength >= data.length) {
+            long[] newData = new long[Math.max(newLength + 1, data.length << 1)];
+            System.arraycopy(data, 0, newData, 0, fromIndex);
+            System.arraycopy(data, toIndex, newData, fromIndex + values.length, length - toIndex);
+            data = newData;
+        } else {
+            System.arraycopy(data, toIndex, data, fromIndex + values.length, length - toIndex);
+        }
+        System.arraycopy(values.data, 0, data, fromIndex, values.length);
+        length = newLength;
+    }
+
     /**
      * Get length of the list
      */
@@ -128,4 +150,13 @@ public class LongArrayList {
         length = 0;
     }
 
+    /**
+     * Copy elements to a new array whose length is exactly the size of the list
+     */
+    public long[] toArray() {
+        var array = new long[length];
+        System.arraycopy(data, 0, array, 0, length);
+        return array;
+    }
+
 }
@@ -312,6 +312,11 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
     private Language editorLanguage;
     private DiagnosticIndicatorStyle diagnosticStyle = DiagnosticIndicatorStyle.WAVY_LINE;
     private long lastMakeVisible = 0;
+    private long lastVisibleLineRange = -1;
+    /**
+     * Visibility of the editor last notified to analyze manager
+     */
+    private boolean editorVisible = true;
     private EditorAutoCompletion completionWindow;
     private EditorTouchEventHandler touchHandler;
     private Paint.Align lineNumberAlign;
@@ -909,6 +914,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
 
         styleDelegate.reset();
         this.editorLanguage = lang;
+        lastVisibleLineRange = -1;
         this.textStyles = null;
         this.diagnostics = null;
 
@@ -918,6 +924,9 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         // Setup new one
         var mgr = lang.getAnalyzeManager();
         mgr.setReceiver(styleDelegate);
+        if (!editorVisible) {
+            mgr.onEditorVisibilityChanged(false);
+        }
         if (text != null) {
             mgr.reset(new ContentReference(text), extraArguments);
         }
@@ -1045,9 +1054,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
             this.antiWordBreaking = antiWordBreaking;
             requestLayoutIfNeeded();
             createLayout();
-            if (!wordwrap) {
-                renderer.invalidateRenderNodes();
-            }
+            renderer.invalidateRenderNodes();
             invalidate();
         }
     }
@@ -1415,7 +1422,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         if (editorSearcher.currentPattern == null || editorSearcher.searchOptions == null) {
             return;
         }
-        if (!editorSearcher.isResultValid()) {
+        if (!editorSearcher.isResultValid() && !editorSearcher.partialResults) {
             return;
         }
         var res = editorSearcher.lastResults;
@@ -1424,7 +1431,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         }
         var lineLeft = text.getCharIndex(line, 0);
         var lineRight = lineLeft + text.getColumnCount(line);
-        for (int i = Math.max(0, positions.lowerBoundByFirst(lineLeft) - 1); i < res.size(); i++) {
+        for (int i = Math.max(0, res.lowerBoundByFirst(lineLeft) - 1); i < res.size(); i++) {
             var region = res.get(i);
             var start = IntPair.getFirst(region);
             var end = IntPair.getSecond(region);
@@ -2335,6 +2342,9 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      * Undo last action
      */
     public void undo() {
+        if (editorSearcher.isReplacing()) {
+            return;
+        }
         text.undo();
         notifyIMEExternalCursorChange();
         completionWindow.hide();
@@ -2344,6 +2354,9 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      * Redo last action
      */
     public void redo() {
+        if (editorSearcher.isReplacing()) {
+            return;
+        }
         text.redo();
         notifyIMEExternalCursorChange();
         completionWindow.hide();
@@ -2930,7 +2943,8 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
     /**
      * Check whether the editor is actually editable. This is not only related to user
      * property 'editable', but also editor states. When the editor is busy at initializing
-     * its layout or awaiting the result of format, it is also not editable.
+     * its layout, awaiting the result of format or replacing all matches of {@link EditorSearcher},
+     * or the text is read-only, it is also not editable.
      * <p>
      * Do not modify the text externally in editor when this method returns false.
      *
@@ -2938,9 +2952,11 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      * @see CodeEditor#setEditable(boolean)
      * @see CodeEditor#setLayoutBusy(boolean)
      * @see #isFormatting()
+     * @see EditorSearcher#isReplacing()
      */
     public boolean isEditable() {
-        return editable && !layoutBusy && !isFormatting();
+        return editable && !layoutBusy && !isFormatting() && (editorSearcher == null || !editorSearcher.isReplacing())
+                && (text == null || !text.isReadOnly());
     }
 
     /**
@@ -4135,6 +4151,13 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
 
         renderer.draw(canvas);
 
+        // Let the analyzer know the lines to analyze first
+        var visibleLineRange = IntPair.pack(getFirstVisibleLine(), getLastVisibleLine());
+        if (visibleLineRange != lastVisibleLineRange) {
+            lastVisibleLineRange = visibleLineRange;
+            editorLanguage.getAnalyzeManager().onVisibleLineRangeChanged(IntPair.getFirst(visibleLineRange), IntPair.getSecond(visibleLineRange));
+        }
+
         // Update magnifier
         if ((lastCursorState != cursorBlink.visibility || !touchHandler.getScroller().isFinished()) && touchHandler.magnifier.isShowing()) {
             lastCursorState = cursorBlink.visibility;
@@ -4378,11 +4401,44 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        updateEditorVisibility();
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         cursorBlink.valid = false;
         removeCallbacks(cursorBlink);
+        updateEditorVisibility();
+    }
+
+    @Override
+    protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateEditorVisibility();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateEditorVisibility();
+    }
+
+    /**
+     * Notify analyze manager when the editor is shown or hidden
+     */
+    private void updateEditorVisibility() {
+        if (editorLanguage == null) {
+            return;
+        }
+        boolean visible = isAttachedToWindow() && getWindowVisibility() == VISIBLE && isShown();
+        if (visible != editorVisible) {
+            editorVisible = visible;
+            editorLanguage.getAnalyzeManager().onEditorVisibilityChanged(visible);
+        }
     }
 
     @Override
@@ -4523,7 +4579,12 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         styleDelegate.onTextChange();
         var start = text.getIndexer().getCharPosition(startLine, startColumn);
         var end = text.getIndexer().getCharPosition(endLine, endColumn);
-        renderer.buildMeasureCacheForLines(startLine, endLine);
+        // Read-only text only grows when lines of mapped files are indexed, and those lines are
+        // measured when they are displayed
+        final var appendedByIndexing = content.isReadOnly();
+        if (!appendedByIndexing) {
+            renderer.buildMeasureCacheForLines(startLine, endLine);
+        }
 
         // Update spans
         try {
@@ -4560,7 +4621,9 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         //Log.d(LOG_TAG, "Ins: " + startLine + " " + startColumn + ", " + endLine + " " + endColumn + ", content = " + insertedContent);
         updateCursorAnchor();
         renderer.invalidateOnInsert(startLine, endLine);
-        ensureSelectionVisible();
+        if (!appendedByIndexing) {
+            ensureSelectionVisible();
+        }
 
         editorLanguage.getAnalyzeManager().insert(start, end, insertedContent);
         touchHandler.hideInsertHandle();
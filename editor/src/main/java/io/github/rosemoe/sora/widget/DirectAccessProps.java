@@ -205,6 +205,14 @@ public class DirectAccessProps implements Serializable {
      */
     public boolean cacheRenderNodeForLongLines = false;
 
+    /**
+     * Max count of cached RenderNode for text lines. Nodes of the least recently drawn lines are
+     * released after a frame when the count is exceeded. Nodes of visible lines are always kept,
+     * even if there are more visible lines than this count.
+     */
+    @IntRange(from = 1)
+    public int maxRenderNodeCount = 256;
+
     /**
      * Use the ICU library to find range of words on double tap or long press.
      */
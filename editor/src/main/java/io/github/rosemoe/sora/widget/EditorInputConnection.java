@@ -63,6 +63,10 @@ class EditorInputConnection extends BaseInputConnection {
     protected ComposingText composingText = new ComposingText();
     protected boolean imeConsumingInput = false;
     private boolean connectionInvalid;
+    /**
+     * Count of batch edit layers started by this connection
+     */
+    private int batchEditDepth;
 
     /**
      * Create a connection for the given editor
@@ -99,9 +103,14 @@ class EditorInputConnection extends BaseInputConnection {
         imeConsumingInput = false;
     }
 
+    /**
+     * End batch edit layers started by this connection. Layers started by others, such as
+     * {@link EditorSearcher#replaceAll(String)}, are kept.
+     */
     private void resetBatchEdit() {
         Content content = editor.getText();
-        while (content.isInBatchEdit()) {
+        while (batchEditDepth > 0) {
+            batchEditDepth--;
             content.endBatchEdit();
         }
     }
@@ -451,6 +460,7 @@ class EditorInputConnection extends BaseInputConnection {
         if (editor.getProps().disallowSuggestions) {
             return editor.getText().isInBatchEdit(); // Do not start new batch edit layer
         }
+        batchEditDepth++;
         return editor.getText().beginBatchEdit();
     }
 
@@ -458,7 +468,14 @@ class EditorInputConnection extends BaseInputConnection {
     public synchronized boolean endBatchEdit() {
         if (DEBUG)
             logger.d("endBatchEdit");
-        boolean inBatch = editor.getText().endBatchEdit();
+        boolean inBatch;
+        if (batchEditDepth > 0) {
+            batchEditDepth--;
+            inBatch = editor.getText().endBatchEdit();
+        } else {
+            // Not started by this connection
+            inBatch = editor.getText().isInBatchEdit();
+        }
         if (!inBatch) {
             editor.updateSelection();
         }
@@ -592,7 +592,7 @@ class EditorKeyEventHandler {
                                 int delta = result.shiftLeft;
                                 if (delta != 0) {
                                     int newSel = Math.max(editorCursor.getLeft() - delta, 0);
-                                    var charPosition = editorCursor.getIndexer().getCharPosition(newSel);
+                                    var charPosition = editorCursor.getCharIndexer().getCharPosition(newSel);
                                     editor.setSelection(charPosition.line, charPosition.column);
                                 }
                                 consumed = true;
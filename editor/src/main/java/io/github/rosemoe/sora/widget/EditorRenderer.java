@@ -58,7 +58,6 @@ import io.github.rosemoe.sora.graphics.Paint;
 import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange;
 import io.github.rosemoe.sora.lang.completion.snippet.SnippetItem;
 import io.github.rosemoe.sora.lang.diagnostic.DiagnosticRegion;
-import io.github.rosemoe.sora.lang.styling.AdvancedSpan;
 import io.github.rosemoe.sora.lang.styling.CodeBlock;
 import io.github.rosemoe.sora.lang.styling.EmptyReader;
 import io.github.rosemoe.sora.lang.styling.ExternalRenderer;
@@ -378,6 +377,26 @@ public class EditorRenderer {
         }
     }
 
+    /**
+     * Get count of hardware-accelerated line drawings that reused a cached render node
+     */
+    public long getRenderNodeHitCount() {
+        if (renderNodeHolder != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return renderNodeHolder.getHitCount();
+        }
+        return 0;
+    }
+
+    /**
+     * Get count of hardware-accelerated line drawings that had to create a render node
+     */
+    public long getRenderNodeMissCount() {
+        if (renderNodeHolder != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return renderNodeHolder.getMissCount();
+        }
+        return 0;
+    }
+
     public void invalidateInRegion(int start, int end) {
         if (renderNodeHolder != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             renderNodeHolder.invalidateInRegion(start, end);
@@ -417,115 +436,152 @@ public class EditorRenderer {
 
     @RequiresApi(29)
     protected void updateLineDisplayList(RenderNode renderNode, int line, Spans.Reader spans) {
+        updateLineDisplayList(renderNode, line, spans, Collections.emptyList());
+    }
+
+    /**
+     * Record the text of the given line into the render node. Every row of the line, separated by
+     * the given soft breaks, is recorded with its own row top in the node, so that the node of a
+     * wrapped line covers all of its rows.
+     *
+     * @param softBreaks Start columns of the rows except the leading one, in ascending order
+     */
+    @RequiresApi(29)
+    protected void updateLineDisplayList(RenderNode renderNode, int line, Spans.Reader spans, @NonNull List<Integer> softBreaks) {
         prepareLine(line);
         int columnCount = getColumnCount(line);
-        float widthLine = measureText(lineBuf, line, 0, columnCount) + editor.getDpUnit() * 20;
-        renderNode.setPosition(0, 0, (int) (widthLine + paintGraph.measureText("↵") * 1.5f), editor.getRowHeight());
+        int rowCount = softBreaks.size() + 1;
+        float widthLine = 0;
+        for (int row = 0; row < rowCount; row++) {
+            int rowStart = row == 0 ? 0 : softBreaks.get(row - 1);
+            int rowEnd = row + 1 < rowCount ? softBreaks.get(row) : columnCount;
+            widthLine = Math.max(widthLine, measureText(lineBuf, line, rowStart, rowEnd - rowStart));
+        }
+        widthLine += editor.getDpUnit() * 20;
+        renderNode.setPosition(0, 0, (int) (widthLine + paintGraph.measureText("↵") * 1.5f), editor.getRowHeight() * rowCount);
         Canvas canvas = renderNode.beginRecording();
         if (spans == null || spans.getSpanCount() <= 0) {
             spans = new EmptyReader();
         }
         int spanOffset = 0;
         float paintingOffset = 0;
-        int row = 0;
-        Span span = spans.getSpanAt(spanOffset);
-        // Draw by spans
         long lastStyle = 0;
-        while (columnCount > span.column) {
-            int spanEnd = spanOffset + 1 >= spans.getSpanCount() ? columnCount : spans.getSpanAt(spanOffset + 1).column;
-            spanEnd = Math.min(columnCount, spanEnd);
-            int paintStart = span.column;
-            int paintEnd = Math.min(columnCount, spanEnd);
-            float width = measureText(lineBuf, line, paintStart, paintEnd - paintStart);
-            ExternalRenderer renderer = span instanceof AdvancedSpan ? ((AdvancedSpan) span).renderer : null;
-
-            // Invoke external renderer preDraw
-            if (renderer != null && renderer.requirePreDraw()) {
-                int saveCount = canvas.save();
-                canvas.translate(paintingOffset, editor.getRowTop(row));
-                canvas.clipRect(0f, 0f, width, editor.getRowHeight());
-                try {
-                    renderer.draw(canvas, paintGeneral, editor.getColorScheme(), true);
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "Error while invoking external renderer", e);
+        for (int row = 0; row < rowCount; row++) {
+            int rowStart = row == 0 ? 0 : softBreaks.get(row - 1);
+            int rowEnd = row + 1 < rowCount ? softBreaks.get(row) : columnCount;
+            paintingOffset = 0;
+            // Seek for first span of the row
+            while (spanOffset + 1 < spans.getSpanCount()) {
+                if (spans.getSpanColumn(spanOffset + 1) <= rowStart) {
+                    spanOffset++;
+                } else {
+                    break;
                 }
-                canvas.restoreToCount(saveCount);
             }
+            // Draw by spans
+            while (rowEnd > spans.getSpanColumn(spanOffset)) {
+                int spanStart = spans.getSpanColumn(spanOffset);
+                long style = spans.getSpanStyle(spanOffset);
+                int spanEnd = spanOffset + 1 >= spans.getSpanCount() ? columnCount : spans.getSpanColumn(spanOffset + 1);
+                spanEnd = Math.min(columnCount, spanEnd);
+                int paintStart = Math.max(rowStart, spanStart);
+                int paintEnd = Math.min(rowEnd, spanEnd);
+                if (paintStart > paintEnd) {
+                    break;
+                }
+                float width = measureText(lineBuf, line, paintStart, paintEnd - paintStart);
+                ExternalRenderer renderer = spans.getSpanRenderer(spanOffset);
+
+                // Invoke external renderer preDraw
+                if (renderer != null && renderer.requirePreDraw()) {
+                    int saveCount = canvas.save();
+                    canvas.translate(paintingOffset, editor.getRowTop(row));
+                    canvas.clipRect(0f, 0f, width, editor.getRowHeight());
+                    try {
+                        renderer.draw(canvas, paintGeneral, editor.getColorScheme(), true);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "Error while invoking external renderer", e);
+                    }
+                    canvas.restoreToCount(saveCount);
+                }
 
-            // Apply font style
-            long styleBits = span.getStyleBits();
-            if (span.getStyleBits() != lastStyle) {
-                paintGeneral.setFakeBoldText(TextStyle.isBold(styleBits));
-                if (TextStyle.isItalics(styleBits)) {
-                    paintGeneral.setTextSkewX(GraphicsConstants.TEXT_SKEW_X);
-                } else {
-                    paintGeneral.setTextSkewX(0);
+                // Apply font style
+                long styleBits = TextStyle.getStyleBits(style);
+                if (styleBits != lastStyle) {
+                    paintGeneral.setFakeBoldText(TextStyle.isBold(styleBits));
+                    if (TextStyle.isItalics(styleBits)) {
+                        paintGeneral.setTextSkewX(GraphicsConstants.TEXT_SKEW_X);
+                    } else {
+                        paintGeneral.setTextSkewX(0);
+                    }
+                    lastStyle = styleBits;
                 }
-                lastStyle = styleBits;
-            }
 
-            int backgroundColorId = span.getBackgroundColorId();
-            if (backgroundColorId != 0) {
-                if (paintStart != paintEnd) {
-                    tmpRect.top = editor.getRowTop(row);
-                    tmpRect.bottom = editor.getRowBottom(row);
-                    tmpRect.left = paintingOffset;
-                    tmpRect.right = tmpRect.left + width;
-                    paintGeneral.setColor(editor.getColorScheme().getColor(backgroundColorId));
-                    canvas.drawRoundRect(tmpRect, editor.getRowHeight() * editor.getProps().roundTextBackgroundFactor, editor.getRowHeight() * editor.getProps().roundTextBackgroundFactor, paintGeneral);
+                int backgroundColorId = TextStyle.getBackgroundColorId(style);
+                if (backgroundColorId != 0) {
+                    if (paintStart != paintEnd) {
+                        tmpRect.top = editor.getRowTop(row);
+                        tmpRect.bottom = editor.getRowBottom(row);
+                        tmpRect.left = paintingOffset;
+                        tmpRect.right = tmpRect.left + width;
+                        paintGeneral.setColor(editor.getColorScheme().getColor(backgroundColorId));
+                        canvas.drawRoundRect(tmpRect, editor.getRowHeight() * editor.getProps().roundTextBackgroundFactor, editor.getRowHeight() * editor.getProps().roundTextBackgroundFactor, paintGeneral);
+                    }
                 }
-            }
 
 
-            // Draw text
-            drawRegionTextDirectional(canvas, paintingOffset, editor.getRowBaseline(row), line, paintStart, paintEnd, span.column, spanEnd, columnCount, editor.getColorScheme().getColor(span.getForegroundColorId()));
+                // Draw text
+                drawRegionTextDirectional(canvas, paintingOffset, editor.getRowBaseline(row), line, paintStart, paintEnd, spanStart, spanEnd, columnCount, editor.getColorScheme().getColor(TextStyle.getForegroundColorId(style)));
 
-            // Draw strikethrough
-            if (TextStyle.isStrikeThrough(span.style)) {
-                var strikethroughColor = editor.getColorScheme().getColor(EditorColorScheme.STRIKETHROUGH);
-                paintOther.setColor(strikethroughColor == 0 ? paintGeneral.getColor() : strikethroughColor);
-                canvas.drawLine(paintingOffset, editor.getRowTop(row) + editor.getRowHeight() / 2f, paintingOffset + width, editor.getRowTop(row) + editor.getRowHeight() / 2f, paintOther);
-            }
+                // Draw strikethrough
+                if (TextStyle.isStrikeThrough(style)) {
+                    var strikethroughColor = editor.getColorScheme().getColor(EditorColorScheme.STRIKETHROUGH);
+                    paintOther.setColor(strikethroughColor == 0 ? paintGeneral.getColor() : strikethroughColor);
+                    canvas.drawLine(paintingOffset, editor.getRowTop(row) + editor.getRowHeight() / 2f, paintingOffset + width, editor.getRowTop(row) + editor.getRowHeight() / 2f, paintOther);
+                }
 
-            // Draw underline
-            if (span.underlineColor != 0) {
-                tmpRect.bottom = editor.getRowBottom(row) - editor.getDpUnit() * 1;
-                tmpRect.top = tmpRect.bottom - editor.getRowHeight() * 0.08f;
-                tmpRect.left = paintingOffset;
-                tmpRect.right = paintingOffset + width;
-                drawColor(canvas, span.underlineColor, tmpRect);
-            }
+                // Draw underline
+                int underlineColor = spans.getSpanUnderlineColor(spanOffset);
+                if (underlineColor != 0) {
+                    tmpRect.bottom = editor.getRowBottom(row) - editor.getDpUnit() * 1;
+                    tmpRect.top = tmpRect.bottom - editor.getRowHeight() * 0.08f;
+                    tmpRect.left = paintingOffset;
+                    tmpRect.right = paintingOffset + width;
+                    drawColor(canvas, underlineColor, tmpRect);
+                }
 
-            // Invoke external renderer postDraw
-            if (renderer != null && renderer.requirePostDraw()) {
-                int saveCount = canvas.save();
-                canvas.translate(paintingOffset, editor.getRowTop(row));
-                canvas.clipRect(0f, 0f, width, editor.getRowHeight());
-                try {
-                    renderer.draw(canvas, paintGeneral, editor.getColorScheme(), false);
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "Error while invoking external renderer", e);
+                // Invoke external renderer postDraw
+                if (renderer != null && renderer.requirePostDraw()) {
+                    int saveCount = canvas.save();
+                    canvas.translate(paintingOffset, editor.getRowTop(row));
+                    canvas.clipRect(0f, 0f, width, editor.getRowHeight());
+                    try {
+                        renderer.draw(canvas, paintGeneral, editor.getColorScheme(), false);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "Error while invoking external renderer", e);
+                    }
+                    canvas.restoreToCount(saveCount);
                 }
-                canvas.restoreToCount(saveCount);
-            }
 
-            paintingOffset += width;
+                paintingOffset += width;
 
-            if (paintEnd == columnCount) {
-                break;
-            }
-            spanOffset++;
-            if (spanOffset < spans.getSpanCount()) {
-                span = spans.getSpanAt(spanOffset);
-            } else {
-                spanOffset--;
+                if (paintEnd >= rowEnd) {
+                    break;
+                }
+                spanOffset++;
+                if (spanOffset >= spans.getSpanCount()) {
+                    spanOffset--;
+                }
             }
         }
 
         int nonPrintableFlags = editor.getNonPrintablePaintingFlags();
         // Draw hard wrap
         if ((nonPrintableFlags & CodeEditor.FLAG_DRAW_LINE_SEPARATOR) != 0) {
+            canvas.save();
+            canvas.translate(0, editor.getRowTop(rowCount - 1));
             drawMiniGraph(canvas, paintingOffset, -1, "↵");
+            canvas.restore();
         }
         renderNode.endRecording();
         paintGeneral.setTextSkewX(0);
@@ -979,9 +1035,6 @@ public class EditorRenderer {
             float spaceWidth = paintGeneral.getSpaceWidth();
             circleRadius = Math.min(editor.getRowHeight(), spaceWidth) * 0.125f;
         }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && !editor.isWordwrap() && canvas.isHardwareAccelerated() && editor.isHardwareAcceleratedDrawAllowed()) {
-            renderNodeHolder.keepCurrentInDisplay(firstVis, editor.getLastVisibleRow());
-        }
         float offset2 = editor.getOffsetX() - editor.measureTextRegionOffset();
         float offset3 = offset2 - editor.getDpUnit() * 15;
 
@@ -1068,6 +1121,7 @@ public class EditorRenderer {
         long lastStyle = 0;
         Spans.Reader reader = null;
         lastPreparedLine = -1;
+        int lastNodeLine = -1;
         for (int row = firstVis; row <= editor.getLastVisibleRow() && rowIterator.hasNext(); row++) {
             Row rowInf = rowIterator.next();
             int line = rowInf.lineIndex;
@@ -1125,22 +1179,23 @@ public class EditorRenderer {
             int nonPrintableFlags = editor.getNonPrintablePaintingFlags();
 
             // Draw text here
-            if (!editor.isHardwareAcceleratedDrawAllowed() || editor.getEventHandler().isScaling || !canvas.isHardwareAccelerated() || editor.isWordwrap() || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || (rowInf.endColumn - rowInf.startColumn > 128 && !editor.getProps().cacheRenderNodeForLongLines) /* Save memory */) {
+            if (!editor.isHardwareAcceleratedDrawAllowed() || editor.getEventHandler().isScaling || !canvas.isHardwareAccelerated() || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || (columnCount > 128 && !editor.getProps().cacheRenderNodeForLongLines) /* Save memory */) {
                 // Draw without hardware acceleration
                 // Seek for first span
                 while (spanOffset + 1 < reader.getSpanCount()) {
-                    if (reader.getSpanAt(spanOffset + 1).column <= firstVisibleChar) {
+                    if (reader.getSpanColumn(spanOffset + 1) <= firstVisibleChar) {
                         spanOffset++;
                     } else {
                         break;
                     }
                 }
-                Span span = reader.getSpanAt(spanOffset);
                 // Draw by spans
-                while (lastVisibleChar > span.column) {
-                    int spanEnd = spanOffset + 1 >= reader.getSpanCount() ? columnCount : reader.getSpanAt(spanOffset + 1).column;
+                while (lastVisibleChar > reader.getSpanColumn(spanOffset)) {
+                    int spanStart = reader.getSpanColumn(spanOffset);
+                    long style = reader.getSpanStyle(spanOffset);
+                    int spanEnd = spanOffset + 1 >= reader.getSpanCount() ? columnCount : reader.getSpanColumn(spanOffset + 1);
                     spanEnd = Math.min(columnCount, spanEnd);
-                    int paintStart = Math.max(firstVisibleChar, span.column);
+                    int paintStart = Math.max(firstVisibleChar, spanStart);
                     paintStart = Math.max(0, paintStart);
                     if (paintStart >= columnCount) {
                         break;
@@ -1151,7 +1206,7 @@ public class EditorRenderer {
                         break;
                     }
                     float width = measureText(lineBuf, line, paintStart, paintEnd - paintStart);
-                    ExternalRenderer renderer = span instanceof AdvancedSpan ? ((AdvancedSpan) span).renderer : null;
+                    ExternalRenderer renderer = reader.getSpanRenderer(spanOffset);
 
                     // Invoke external renderer preDraw
                     if (renderer != null && renderer.requirePreDraw()) {
@@ -1167,8 +1222,8 @@ public class EditorRenderer {
                     }
 
                     // Apply font style
-                    long styleBits = span.getStyleBits();
-                    if (span.getStyleBits() != lastStyle) {
+                    long styleBits = TextStyle.getStyleBits(style);
+                    if (styleBits != lastStyle) {
                         paintGeneral.setFakeBoldText(TextStyle.isBold(styleBits));
                         if (TextStyle.isItalics(styleBits)) {
                             paintGeneral.setTextSkewX(GraphicsConstants.TEXT_SKEW_X);
@@ -1178,7 +1233,7 @@ public class EditorRenderer {
                         lastStyle = styleBits;
                     }
 
-                    int backgroundColorId = span.getBackgroundColorId();
+                    int backgroundColorId = TextStyle.getBackgroundColorId(style);
                     if (backgroundColorId != 0) {
                         if (paintStart != paintEnd) {
                             tmpRect.top = editor.getRowTop(row) - editor.getOffsetY();
@@ -1191,7 +1246,7 @@ public class EditorRenderer {
                     }
 
                     // Draw text
-                    drawRegionTextDirectional(canvas, paintingOffset, editor.getRowBaseline(row) - editor.getOffsetY(), line, paintStart, paintEnd, span.column, spanEnd, columnCount, editor.getColorScheme().getColor(span.getForegroundColorId()));
+                    drawRegionTextDirectional(canvas, paintingOffset, editor.getRowBaseline(row) - editor.getOffsetY(), line, paintStart, paintEnd, spanStart, spanEnd, columnCount, editor.getColorScheme().getColor(TextStyle.getForegroundColorId(style)));
 
                     // Draw strikethrough
                     if (TextStyle.isStrikeThrough(styleBits)) {
@@ -1201,12 +1256,13 @@ public class EditorRenderer {
                     }
 
                     // Draw underline
-                    if (span.underlineColor != 0) {
+                    int underlineColor = reader.getSpanUnderlineColor(spanOffset);
+                    if (underlineColor != 0) {
                         tmpRect.bottom = editor.getRowBottom(row) - editor.getOffsetY() - editor.getDpUnit() * 1;
                         tmpRect.top = tmpRect.bottom - editor.getRowHeight() * 0.08f;
                         tmpRect.left = paintingOffset;
                         tmpRect.right = paintingOffset + width;
-                        drawColor(canvas, span.underlineColor, tmpRect);
+                        drawColor(canvas, underlineColor, tmpRect);
                     }
 
                     // Invoke external renderer postDraw
@@ -1228,9 +1284,7 @@ public class EditorRenderer {
                         break;
                     }
                     spanOffset++;
-                    if (spanOffset < reader.getSpanCount()) {
-                        span = reader.getSpanAt(spanOffset);
-                    } else {
+                    if (spanOffset >= reader.getSpanCount()) {
                         spanOffset--;
                         //break;
                     }
@@ -1241,8 +1295,14 @@ public class EditorRenderer {
                     drawMiniGraph(canvas, paintingOffset, row, "↵");
                 }
             } else {
-                paintingOffset = offset + renderNodeHolder.drawLineHardwareAccelerated(canvas, line, offset) - editor.getDpUnit() * 20;
-                lastVisibleChar = columnCount;
+                // The node of a wrapped line covers all of its rows, so draw it only once
+                if (lastNodeLine != line) {
+                    lastNodeLine = line;
+                    renderNodeHolder.drawLineHardwareAccelerated(canvas, rowInf, row, offset);
+                }
+                if (!editor.isWordwrap()) {
+                    lastVisibleChar = columnCount;
+                }
             }
 
             // Recover the offset
@@ -1327,6 +1387,11 @@ public class EditorRenderer {
             }
         }
 
+        // Release nodes out of budget, after all visible lines are drawn
+        if (renderNodeHolder != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            renderNodeHolder.trimToBudget();
+        }
+
         paintGeneral.setFakeBoldText(false);
         paintGeneral.setTextSkewX(0);
         paintOther.setStrokeWidth(circleRadius * 2);
@@ -1352,7 +1417,7 @@ public class EditorRenderer {
             final float waveWidth = editor.getDpUnit() * editor.getProps().indicatorWaveWidth;
             var start = new CharPosition();
             var end = new CharPosition();
-            var indexer = cursor.getIndexer();
+            var indexer = cursor.getCharIndexer();
             for (var region : collectedDiagnostics) {
                 var startIndex = Math.max(firstIndex, region.startIndex);
                 var endIndex = Math.min(lastIndex, region.endIndex);
@@ -2190,8 +2255,8 @@ public class EditorRenderer {
         var layout = editor.getLayout();
         var startRow = layout.getRowIndexForPosition(start);
         var endRow = layout.getRowIndexForPosition(end);
-        var posStart = cursor.getIndexer().getCharPosition(start);
-        var posEnd = cursor.getIndexer().getCharPosition(end);
+        var posStart = cursor.getCharIndexer().getCharPosition(start);
+        var posEnd = cursor.getCharIndexer().getCharPosition(end);
         var itr = layout.obtainRowIterator(startRow, preloadedLines);
         var list = new ArrayList<TextDisplayPosition>();
         for (int i = startRow; i <= endRow && itr.hasNext(); i++) {
@@ -2238,19 +2303,12 @@ public class EditorRenderer {
             var horizontalOffset = textOffset;
             boolean first = true;
             // Find spans to draw
-            Span nextSpan = null;
             int spanCount = reader.getSpanCount();
             for (int i = 0; i < spanCount; i++) {
-                Span span;
-                if (nextSpan == null) {
-                    span = reader.getSpanAt(i);
-                } else {
-                    span = nextSpan;
-                }
-                nextSpan = i + 1 == spanCount ? null : reader.getSpanAt(i + 1);
-                var spanStart = Math.max(span.column, position.rowStart);
+                long style = reader.getSpanStyle(i);
+                var spanStart = Math.max(reader.getSpanColumn(i), position.rowStart);
                 var sharedStart = Math.max(startCol, spanStart);
-                var spanEnd = nextSpan == null ? column : nextSpan.column;
+                var spanEnd = i + 1 == spanCount ? column : reader.getSpanColumn(i + 1);
                 spanEnd = Math.min(column, spanEnd); // Spans can be corrupted
                 if (spanEnd <= position.startColumn) {
                     continue;
@@ -2262,7 +2320,7 @@ public class EditorRenderer {
                         horizontalOffset += measureText(lineText, line, position.rowStart, spanStart - position.rowStart);
                         first = false;
                     }
-                    if (TextStyle.isItalics(span.getStyleBits())) {
+                    if (TextStyle.isItalics(style)) {
                         var path = new Path();
                         var y = editor.getRowBottomOfText(position.row) - editor.getOffsetY();
                         path.moveTo(textOffset + position.left, y);
@@ -2275,7 +2333,7 @@ public class EditorRenderer {
                         canvas.clipRect(textOffset + position.left, 0, editor.getWidth(), editor.getHeight());
                     }
 
-                    if (TextStyle.isItalics(span.getStyleBits())) {
+                    if (TextStyle.isItalics(style)) {
                         var path = new Path();
                         var y = editor.getRowBottomOfText(position.row) - editor.getOffsetY();
                         path.moveTo(textOffset + position.right, y);
@@ -2289,7 +2347,7 @@ public class EditorRenderer {
                     }
 
                     // Patch the text
-                    patch.draw(canvas, horizontalOffset, position.row, line, spanStart, spanEnd, span.style);
+                    patch.draw(canvas, horizontalOffset, position.row, line, spanStart, spanEnd, style);
                 }
                 if (spanEnd >= endCol) {
                     break;
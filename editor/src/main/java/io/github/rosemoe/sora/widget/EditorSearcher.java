@@ -23,13 +23,16 @@
  */
 package io.github.rosemoe.sora.widget;
 
-import android.app.ProgressDialog;
 import android.widget.Toast;
 
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Pattern;
 
 import io.github.rosemoe.sora.I18nConfig;
@@ -50,6 +53,14 @@ import io.github.rosemoe.sora.util.LongArrayList;
  * The searcher updates its search results automatically when editor text is changed, even after {@link CodeEditor#setText(CharSequence)}
  * is invoked. So be careful that the search result is changing and {@link PublishSearchResultEvent} is
  * re-triggered when search result is available for changed text.
+ * <p>
+ * If the pattern never matches line separators, results are updated incrementally on text changes: only
+ * the modified lines are matched again, and other results are shifted. Otherwise, the whole text is
+ * searched again.
+ * <p>
+ * Large documents are split into line-aligned segments and searched in parallel, if the pattern never
+ * matches line separators. Results of leading segments are published before the whole search completes.
+ * See {@link #isResultPartial()}.
  *
  * @see PublishSearchResultEvent
  * @see SearchOptions
@@ -57,21 +68,48 @@ import io.github.rosemoe.sora.util.LongArrayList;
  */
 public class EditorSearcher {
 
+    /**
+     * Max count of modified lines to update search results incrementally
+     */
+    private final static int MAX_INCREMENTAL_LINES = 1000;
+    /**
+     * Min char count of segments for parallel searching
+     */
+    private final static int SEGMENT_SIZE = 64 * 1024;
+    /**
+     * Min interval of publishing partial results, in milliseconds
+     */
+    private final static long PARTIAL_RESULT_INTERVAL = 100;
+
     private final CodeEditor editor;
     protected String currentPattern;
     protected SearchOptions searchOptions;
     protected Thread currentThread;
+    /**
+     * Compiled regex of current pattern, or null for {@link SearchOptions#TYPE_NORMAL}
+     */
+    private Pattern currentRegex;
+    /**
+     * Whether matches of current pattern never contain line separators
+     */
+    private boolean lineLocal;
     /**
      * Search results. Note that it is naturally sorted by start index (and also end index).
      * No overlapping region is permitted.
      */
     protected LongArrayList lastResults;
+    /**
+     * Whether {@link #lastResults} is published by a search still in progress
+     */
+    protected boolean partialResults;
     private boolean cyclicJumping = true;
+    private ReplaceAllTask replaceAllTask;
 
     EditorSearcher(@NonNull CodeEditor editor) {
         this.editor = editor;
         this.editor.subscribeEvent(ContentChangeEvent.class, ((event, unsubscribe) -> {
-            if (hasQuery()) {
+            // Results are updated once after replacing all
+            if (hasQuery() && replaceAllTask == null && !updateResultsIncrementally(event)) {
                 executeMatch();
             }
         }));
@@ -92,6 +130,15 @@ public class EditorSearcher {
         return cyclicJumping;
     }
 
+    /**
+     * Check whether current results are only results of the leading part of text, published while
+     * the search is still in progress. Partial results are displayed, but not used by methods
+     * such as {@link #gotoNext()} and {@link #replaceAll(String)}.
+     */
+    public boolean isResultPartial() {
+        return partialResults;
+    }
+
     /**
      * Search text with the given pattern and options. If you use {@link SearchOptions#TYPE_REGULAR_EXPRESSION},
      * the pattern will be your regular expression.
@@ -109,11 +156,9 @@ public class EditorSearcher {
         if (pattern.length() == 0) {
             throw new IllegalArgumentException("pattern length must be > 0");
         }
-        if (options.type == SearchOptions.TYPE_REGULAR_EXPRESSION) {
-            // Pre-check
-            //noinspection ResultOfMethodCallIgnored
-            Pattern.compile(pattern);
-        }
+        currentRegex = compileRegex(pattern, options);
+        lineLocal = options.type == SearchOptions.TYPE_REGULAR_EXPRESSION ? isLineLocalRegex(pattern) :
+                (pattern.indexOf('\n') == -1 && pattern.indexOf('\r') == -1);
         currentPattern = pattern;
         searchOptions = options;
         executeMatch();
@@ -127,11 +172,169 @@ public class EditorSearcher {
         if (currentThread != null && currentThread.isAlive()) {
             currentThread.interrupt();
         }
-        var runnable = new SearchRunnable(editor.getText(), searchOptions, currentPattern);
+        var runnable = new SearchRunnable(editor.getText(), searchOptions, currentPattern, currentRegex, lineLocal);
+        partialResults = false;
         currentThread = new Thread(runnable);
         currentThread.start();
     }
 
+    /**
+     * Update search results for the given text change, by matching the modified lines again and
+     * shifting results after them. Other results are reused.
+     *
+     * @return Whether the results are updated. If not, the whole text should be searched again.
+     */
+    private boolean updateResultsIncrementally(@NonNull ContentChangeEvent event) {
+        var results = lastResults;
+        // Results must be published, so that they are for the text before this change
+        if (!lineLocal || currentThread != null || results == null || event.getAction() == ContentChangeEvent.ACTION_SET_NEW_TEXT) {
+            return false;
+        }
+        var text = editor.getText();
+        var start = event.getChangeStart();
+        var isInsert = event.getAction() == ContentChangeEvent.ACTION_INSERT;
+        int startLine = start.line;
+        int endLine = isInsert ? event.getChangeEnd().line : startLine;
+        if (endLine - startLine > MAX_INCREMENTAL_LINES) {
+            return false;
+        }
+        int delta = isInsert ? event.getChangedText().length() : -event.getChangedText().length();
+        // Results are updated in place, as they are only accessed in main thread after publishing
+        updateResults(results, text, startLine, endLine, delta, currentPattern, currentRegex, searchOptions.ignoreCase);
+        editor.dispatchEvent(new PublishSearchResultEvent(editor));
+        return true;
+    }
+
+    /**
+     * Update results of a line-local pattern for a text change in place. Results on the modified
+     * lines are matched again, and results after them are shifted.
+     *
+     * @param results   Sorted results for the text before the change
+     * @param text      The text after the change
+     * @param startLine First modified line
+     * @param endLine   Last modified line, in the text after the change
+     * @param delta     Change of text length
+     */
+    @VisibleForTesting
+    static void updateResults(@NonNull LongArrayList results, @NonNull Content text, int startLine, int endLine, int delta,
+                              @NonNull String pattern, @Nullable Pattern regex, boolean ignoreCase) {
+        // Matches never cross lines, so only results on modified lines are affected
+        int regionStart = text.getCharIndex(startLine, 0);
+        int regionEnd = text.getCharIndex(endLine, text.getColumnCount(endLine));
+        int oldRegionEnd = regionEnd - delta;
+        int from = results.lowerBoundByFirst(regionStart);
+        int to = results.lowerBoundByFirst(oldRegionEnd);
+        for (int i = to; i < results.size(); i++) {
+            var region = results.get(i);
+            results.set(i, IntPair.pack(IntPair.getFirst(region) + delta, IntPair.getSecond(region) + delta));
+        }
+        var regionResults = new LongArrayList();
+        int offset = regionStart;
+        for (int line = startLine; line <= endLine; line++) {
+            var lineText = text.getLineString(line);
+            findMatches(lineText, offset, pattern, regex, ignoreCase, regionResults, null);
+            offset += lineText.length() + text.getLine(line).getLineSeparator().getLength();
+        }
+        results.replace(from, to, regionResults);
+    }
+
+    /**
+     * Compile the regex for the given pattern and options
+     *
+     * @return The regex, or null for {@link SearchOptions#TYPE_NORMAL}
+     * @throws java.util.regex.PatternSyntaxException if pattern is invalid when regex is enabled.
+     */
+    @Nullable
+    private static Pattern compileRegex(@NonNull String pattern, @NonNull SearchOptions options) {
+        switch (options.type) {
+            case SearchOptions.TYPE_WHOLE_WORD:
+                pattern = "\\b" + Pattern.quote(pattern) + "\\b";
+                // fall-through
+            case SearchOptions.TYPE_REGULAR_EXPRESSION:
+                return Pattern.compile(pattern, (options.ignoreCase ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Check whether matches of the given regex never contain line separators, so that lines can be
+     * matched separately. This is a conservative check: constructs that may match line separators
+     * (such as {@code \s}, negated character classes and dot-all flag) are all rejected.
+     */
+    @VisibleForTesting
+    static boolean isLineLocalRegex(@NonNull String regex) {
+        int length = regex.length();
+        for (int i = 0; i < length; i++) {
+            char ch = regex.charAt(i);
+            char next = i + 1 < length ? regex.charAt(i + 1) : 0;
+            switch (ch) {
+                case '\n':
+                case '\r':
+                    return false;
+                case '\\':
+                    if ("sWDRvHnrxuc0XpPNAZzG".indexOf(next) != -1) {
+                        return false;
+                    }
+                    i++;
+                    break;
+                case '[':
+                    if (next == '^') {
+                        return false;
+                    }
+                    break;
+                case '(':
+                    if (next == '?') {
+                        // Inline flags
+                        for (int j = i + 2; j < length && (Character.isLetter(regex.charAt(j)) || regex.charAt(j) == '-'); j++) {
+                            if (regex.charAt(j) == 's') {
+                                return false;
+                            }
+                        }
+                    }
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find matched regions in the given text, and add them to {@code dest} with the given offset.
+     * Empty regions are skipped.
+     *
+     * @param regex   Compiled regex, or null to find the pattern as plain text
+     * @param checker Stop when the checker reports cancellation, or null
+     */
+    @VisibleForTesting
+    static void findMatches(@NonNull CharSequence text, int offset, @NonNull String pattern, @Nullable Pattern regex,
+                            boolean ignoreCase, @NonNull LongArrayList dest, @Nullable CancelChecker checker) {
+        var textLength = text.length();
+        if (regex == null) {
+            int nextStart = 0;
+            var patternLength = pattern.length();
+            while (nextStart != -1 && nextStart < textLength && (checker == null || checker.checkNotCancelled())) {
+                nextStart = TextUtils.indexOf(text, pattern, ignoreCase, nextStart);
+                if (nextStart != -1) {
+                    dest.add(IntPair.pack(offset + nextStart, offset + nextStart + patternLength));
+                    nextStart += patternLength;
+                }
+            }
+        } else {
+            int lastEnd = 0;
+            var matcher = regex.matcher(text);
+            while (lastEnd < textLength && matcher.find(lastEnd) && (checker == null || checker.checkNotCancelled())) {
+                lastEnd = matcher.end();
+                var start = matcher.start();
+                if (start == lastEnd) {
+                    // Do not match empty text
+                    lastEnd ++;
+                    continue;
+                }
+                dest.add(IntPair.pack(offset + start, offset + lastEnd));
+            }
+        }
+    }
+
     /**
      * Stop searching.
      */
@@ -141,7 +344,9 @@ public class EditorSearcher {
         }
         currentThread = null;
         lastResults = null;
+        partialResults = false;
         currentPattern = null;
+        currentRegex = null;
         searchOptions = null;
         editor.dispatchEvent(new PublishSearchResultEvent(editor));
     }
@@ -289,8 +494,9 @@ public class EditorSearcher {
     }
 
     /**
-     * Replace all matched position. Note that after invoking this, a blocking {@link ProgressDialog}
-     * is shown until the action is done (either succeeded or failed).
+     * Replace all matched position. Matches are replaced in place, from the end to the start of text,
+     * in a few frames on main thread. All the replacements are in one batch edit, so they can be undone
+     * at once.
      * @param replacement The text for replacement
      * @throws IllegalStateException if no search is in progress
      */
@@ -299,62 +505,219 @@ public class EditorSearcher {
     }
 
     /**
-     * Replace all matched position. Note that after invoking this, a blocking {@link ProgressDialog}
-     * is shown until the action is done (either succeeded or failed). The given callback will be executed
-     * on success.
+     * Replace all matched position. Matches are replaced in place, from the end to the start of text,
+     * in a few frames on main thread. All the replacements are in one batch edit, so they can be undone
+     * at once. The given callback will be executed on success.
      *
      * @param replacement The text for replacement
      * @param whenSucceeded Callback when action is succeeded
      * @throws IllegalStateException if no search is in progress
      */
     public void replaceAll(@NonNull String replacement, @Nullable final Runnable whenSucceeded) {
+        replaceAll(replacement, whenSucceeded, null);
+    }
+
+    /**
+     * Replace all matched position. Matches are replaced in place, from the end to the start of text,
+     * in a few frames on main thread. All the replacements are in one batch edit, so they can be undone
+     * at once. The editor is not editable and undo is disabled until the replacement is finished. The
+     * action fails if the text is modified by others during the replacement, and replaced positions
+     * are rolled back when possible.
+     *
+     * @param replacement The text for replacement
+     * @param whenSucceeded Callback when action is succeeded
+     * @param progressCallback Callback for progress of replacement
+     * @throws IllegalStateException if no search is in progress
+     */
+    public void replaceAll(@NonNull String replacement, @Nullable final Runnable whenSucceeded, @Nullable ReplaceProgressCallback progressCallback) {
         if (!editor.isEditable()) {
             return;
         }
         checkState();
-        if (!isResultValid()) {
+        if (!isResultValid() || replaceAllTask != null) {
             Toast.makeText(editor.getContext(), I18nConfig.getResourceId(R.string.sora_editor_editor_search_busy), Toast.LENGTH_SHORT).show();
             return;
         }
-        var context = editor.getContext();
-        final var dialog = ProgressDialog.show(context, I18nConfig.getString(context, R.string.sora_editor_replaceAll), I18nConfig.getString(context, R.string.sora_editor_editor_search_replacing), true, false);
         final var res = lastResults;
-        new Thread(() -> {
-            try {
-                var sb = editor.getText().toStringBuilder();
-                int newLength = replacement.length();
-                int delta = 0;
-                for (int i = 0; i < res.size(); i++) {
-                    var region = res.get(i);
-                    var start = IntPair.getFirst(region);
-                    var end = IntPair.getSecond(region);
-                    var oldLength = end - start;
-                    sb.replace(start + delta, end + delta, replacement);
-                    delta += newLength - oldLength;
-                }
-                editor.postInLifecycle(() -> {
-                    var pos = editor.getCursor().left();
-                    editor.getText().replace(0, 0, editor.getLineCount() - 1, editor.getText().getColumnCount(editor.getLineCount() - 1), sb);
-                    editor.setSelectionAround(pos.line, pos.column);
-                    dialog.dismiss();
+        if (res == null) {
+            return;
+        }
+        // Results are invalidated by the replacement, and searched again after it
+        lastResults = null;
+        replaceAllTask = new ReplaceAllTask(res, replacement, whenSucceeded, progressCallback);
+        replaceAllTask.run();
+    }
 
-                    if (whenSucceeded != null) {
-                        whenSucceeded.run();
-                    }
-                });
-            } catch (Exception e) {
-                editor.postInLifecycle(() -> {
-                    Toast.makeText(editor.getContext(), "Replace failed:" + e, Toast.LENGTH_SHORT).show();
-                    dialog.dismiss();
-                });
-            }
-        }).start();
+    /**
+     * Check if {@link #replaceAll(String)} is in progress
+     */
+    public boolean isReplacing() {
+        return replaceAllTask != null;
     }
 
     protected boolean isResultValid() {
         return currentThread == null || !currentThread.isAlive();
     }
 
+    /**
+     * Callback for progress of replacing all matched positions
+     *
+     * @see #replaceAll(String, Runnable, ReplaceProgressCallback)
+     */
+    public interface ReplaceProgressCallback {
+
+        /**
+         * Called on main thread after a part of matched positions are replaced
+         *
+         * @param replacedCount Count of replaced positions
+         * @param totalCount    Count of all positions to replace
+         */
+        void onProgress(int replacedCount, int totalCount);
+
+    }
+
+    /**
+     * Replace matched positions from the end of text, in time-limited steps on main thread. The editor
+     * does not accept input until the task is finished ({@link CodeEditor#isEditable()} checks
+     * {@link #isReplacing()}), and positions replaced by a failed task are rolled back.
+     */
+    private final class ReplaceAllTask implements Runnable {
+
+        /**
+         * Max time of one step, in milliseconds
+         */
+        private final static long MAX_STEP_TIME = 8;
+
+        private final ReplaceSteps steps;
+        private final Runnable whenSucceeded;
+        private final ReplaceProgressCallback progressCallback;
+        private final Content text;
+
+        ReplaceAllTask(@NonNull LongArrayList regions, @NonNull String replacement, @Nullable Runnable whenSucceeded,
+                       @Nullable ReplaceProgressCallback progressCallback) {
+            this.whenSucceeded = whenSucceeded;
+            this.progressCallback = progressCallback;
+            text = editor.getText();
+            steps = new ReplaceSteps(text, regions, replacement);
+        }
+
+        @Override
+        public void run() {
+            if (replaceAllTask != this) {
+                return;
+            }
+            if (editor.getText() != text || steps.isTextModified()) {
+                finish(false);
+                Toast.makeText(editor.getContext(), I18nConfig.getResourceId(R.string.sora_editor_editor_search_replace_text_modified), Toast.LENGTH_SHORT).show();
+                return;
+            }
+            boolean done;
+            try {
+                done = steps.step(MAX_STEP_TIME);
+            } catch (Exception e) {
+                finish(false);
+                var message = editor.getContext().getString(I18nConfig.getResourceId(R.string.sora_editor_editor_search_replace_failed), e.toString());
+                Toast.makeText(editor.getContext(), message, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            if (progressCallback != null) {
+                progressCallback.onProgress(steps.getReplacedCount(), steps.getRegionCount());
+            }
+            if (done) {
+                finish(true);
+            } else {
+                editor.postInLifecycle(this);
+            }
+        }
+
+        private void finish(boolean succeeded) {
+            replaceAllTask = null;
+            // Replaced regions in an old text are not restored
+            steps.finish(succeeded || editor.getText() != text);
+            if (hasQuery()) {
+                executeMatch();
+            }
+            if (succeeded && whenSucceeded != null) {
+                whenSucceeded.run();
+            }
+        }
+    }
+
+    /**
+     * Replace regions of a text from the last one backwards, in steps, so that positions of the remaining
+     * regions stay valid. The text is kept in one batch edit until {@link #finish(boolean)}, so that
+     * all the replacements are recorded as one undo action.
+     */
+    @VisibleForTesting
+    static class ReplaceSteps {
+
+        private final Content text;
+        private final LongArrayList regions;
+        private final String replacement;
+        private long expectedVersion;
+        private int nextIndex;
+
+        ReplaceSteps(@NonNull Content text, @NonNull LongArrayList regions, @NonNull String replacement) {
+            this.text = text;
+            this.regions = regions;
+            this.replacement = replacement;
+            expectedVersion = text.getDocumentVersion();
+            nextIndex = regions.size() - 1;
+            text.beginBatchEdit();
+        }
+
+        /**
+         * Check whether the text is modified by others since the last replacement
+         */
+        boolean isTextModified() {
+            return text.getDocumentVersion() != expectedVersion;
+        }
+
+        int getRegionCount() {
+            return regions.size();
+        }
+
+        int getReplacedCount() {
+            return regions.size() - 1 - nextIndex;
+        }
+
+        /**
+         * Replace regions for at most {@code maxTime} milliseconds. At least one region is replaced if
+         * there is any.
+         *
+         * @return Whether all regions are replaced
+         */
+        boolean step(long maxTime) {
+            var indexer = text.getIndexer();
+            var startTime = System.currentTimeMillis();
+            while (nextIndex >= 0) {
+                var region = regions.get(nextIndex);
+                var start = indexer.getCharPosition(IntPair.getFirst(region));
+                var end = indexer.getCharPosition(IntPair.getSecond(region));
+                text.replace(start.line, start.column, end.line, end.column, replacement);
+                nextIndex--;
+                expectedVersion = text.getDocumentVersion();
+                if (System.currentTimeMillis() - startTime >= maxTime) {
+                    break;
+                }
+            }
+            return nextIndex < 0;
+        }
+
+        /**
+         * End the batch edit. If not all regions are replaced, the replaced ones are rolled back by
+         * undoing them, unless the text is modified by others or undo is disabled.
+         *
+         * @param keepReplaced Do not roll back replaced regions
+         */
+        void finish(boolean keepReplaced) {
+            text.endBatchEdit();
+            if (!keepReplaced && nextIndex >= 0 && getReplacedCount() > 0 && !isTextModified() && text.canUndo()) {
+                text.undo();
+            }
+        }
+    }
+
     /**
      * Search options for {@link EditorSearcher#search(String, SearchOptions)}
      */
@@ -401,67 +764,67 @@ public class EditorSearcher {
     /**
      * Run for regex matching
      */
-    private final class SearchRunnable implements Runnable {
+    private final class SearchRunnable implements Runnable, CancelChecker {
 
-        private final StringBuilder text;
+        private final Content snapshot;
         private final String pattern;
+        private final Pattern regex;
         private final SearchOptions options;
+        private final boolean lineLocal;
+        private volatile boolean cancelled;
         private Thread localThread;
 
-        public SearchRunnable(@NonNull Content content, @NonNull SearchOptions options, @NonNull String pattern) {
-            this.text = content.toStringBuilder();
+        public SearchRunnable(@NonNull Content content, @NonNull SearchOptions options, @NonNull String pattern, @Nullable Pattern regex, boolean lineLocal) {
+            // Take the snapshot in O(1) time, and build the text in background
+            this.snapshot = content.snapshot();
             this.options = options;
             this.pattern = pattern;
+            this.regex = regex;
+            this.lineLocal = lineLocal;
         }
 
-        private boolean checkNotCancelled() {
-            return currentThread == localThread && !Thread.interrupted();
+        /**
+         * Check whether this search is still required. Can be called from worker threads.
+         */
+        @Override
+        public boolean checkNotCancelled() {
+            if (cancelled) {
+                return false;
+            }
+            if (currentThread != localThread || (Thread.currentThread() == localThread && Thread.interrupted())) {
+                cancelled = true;
+                return false;
+            }
+            return true;
         }
 
         @Override
         public void run() {
             localThread = Thread.currentThread();
-            var results = new LongArrayList();
-            var textLength = text.length();
-            var ignoreCase = searchOptions.ignoreCase;
-            var pattern = this.pattern;
-            switch (options.type) {
-                case SearchOptions.TYPE_NORMAL: {
-                    int nextStart = 0;
-                    var patternLength = pattern.length();
-                    while (nextStart != -1 && nextStart < textLength && checkNotCancelled()) {
-                        nextStart = TextUtils.indexOf(text, pattern, ignoreCase, nextStart);
-                        if (nextStart != -1) {
-                            results.add(IntPair.pack(nextStart, nextStart + patternLength));
-                            nextStart += patternLength;
-                        }
+            // Matcher will call toString() on input several times
+            var text = snapshot.toString();
+            LongArrayList results;
+            if (lineLocal && text.length() >= SEGMENT_SIZE * 2 && ForkJoinPool.getCommonPoolParallelism() > 1) {
+                results = new ParallelMatcher(text, pattern, regex, options.ignoreCase, SEGMENT_SIZE, PARTIAL_RESULT_INTERVAL) {
+                    @Override
+                    public boolean checkNotCancelled() {
+                        return SearchRunnable.this.checkNotCancelled();
                     }
-                    break;
-                }
-                case SearchOptions.TYPE_WHOLE_WORD:
-                    pattern = "\\b" + Pattern.quote(pattern) + "\\b";
-                    // fall-through
-                case SearchOptions.TYPE_REGULAR_EXPRESSION:
-                    var regex = Pattern.compile(pattern, (ignoreCase ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE);
-                    int lastEnd = 0;
-                    // Matcher will call toString() on input several times
-                    var string = text.toString();
-                    var matcher = regex.matcher(string);
-                    while (lastEnd < textLength && matcher.find(lastEnd) && checkNotCancelled()) {
-                        lastEnd = matcher.end();
-                        var start = matcher.start();
-                        if (start == lastEnd) {
-                            // Do not match empty text
-                            lastEnd ++;
-                            continue;
-                        }
-                        results.add(IntPair.pack(matcher.start(), lastEnd));
+
+                    @Override
+                    void onPartialResults(@NonNull LongArrayList results) {
+                        publishPartialResults(results);
                     }
+                }.run();
+            } else {
+                results = new LongArrayList();
+                findMatches(text, 0, pattern, regex, options.ignoreCase, results, this);
             }
             if (checkNotCancelled()) {
                 editor.postInLifecycle(() -> {
                     if (currentThread == localThread) {
                         lastResults = results;
+                        partialResults = false;
                         editor.invalidate();
                         editor.dispatchEvent(new PublishSearchResultEvent(editor));
                         currentThread = null;
@@ -469,6 +832,167 @@ public class EditorSearcher {
                 });
             }
         }
+
+        private void publishPartialResults(@NonNull LongArrayList results) {
+            editor.postInLifecycle(() -> {
+                if (currentThread == localThread) {
+                    lastResults = results;
+                    partialResults = true;
+                    editor.invalidate();
+                    editor.dispatchEvent(new PublishSearchResultEvent(editor));
+                }
+            });
+        }
+    }
+
+    /**
+     * Tells whether a match task should go on
+     */
+    interface CancelChecker {
+
+        /**
+         * Check whether the task is still required. Can be called from worker threads.
+         *
+         * @return false if the task is cancelled
+         */
+        boolean checkNotCancelled();
+
+    }
+
+    /**
+     * Split the text into line-aligned segments and match them on the common pool. As matches
+     * never cross lines, results of segments are simply concatenated in order. Only patterns that
+     * never match line separators can be matched in this way.
+     */
+    @VisibleForTesting
+    static class ParallelMatcher implements CancelChecker {
+
+        private final String text;
+        private final String pattern;
+        private final Pattern regex;
+        private final boolean ignoreCase;
+        private final int segmentSize;
+        private final long publishInterval;
+
+        /**
+         * @param segmentSize     Min char count of segments
+         * @param publishInterval Min interval of {@link #onPartialResults(LongArrayList)}, in milliseconds
+         */
+        ParallelMatcher(@NonNull String text, @NonNull String pattern, @Nullable Pattern regex, boolean ignoreCase,
+                        int segmentSize, long publishInterval) {
+            this.text = text;
+            this.pattern = pattern;
+            this.regex = regex;
+            this.ignoreCase = ignoreCase;
+            this.segmentSize = segmentSize;
+            this.publishInterval = publishInterval;
+        }
+
+        @Override
+        public boolean checkNotCancelled() {
+            return true;
+        }
+
+        /**
+         * Called in the matching thread with results of leading segments, while later segments are
+         * still being matched. The given list is not modified afterwards.
+         */
+        void onPartialResults(@NonNull LongArrayList results) {
+        }
+
+        /**
+         * Match the text and wait for the results. The results are incomplete if the task is cancelled.
+         */
+        @NonNull
+        LongArrayList run() {
+            var pool = ForkJoinPool.commonPool();
+            var tasks = new ArrayList<SegmentMatchTask>();
+            int start = 0;
+            while (start < text.length()) {
+                int end = nextSegmentEnd(text, start + segmentSize);
+                var task = new SegmentMatchTask(start, end);
+                pool.execute(task);
+                tasks.add(task);
+                start = end;
+            }
+            var results = new LongArrayList();
+            long lastPublishTime = System.currentTimeMillis();
+            boolean cancelled = false;
+            for (int i = 0; i < tasks.size(); i++) {
+                if (!checkNotCancelled()) {
+                    cancelled = true;
+                    break;
+                }
+                var segmentResults = tasks.get(i).awaitResults();
+                for (int j = 0; j < segmentResults.size(); j++) {
+                    results.add(segmentResults.get(j));
+                }
+                var time = System.currentTimeMillis();
+                if (time - lastPublishTime >= publishInterval && i + 1 < tasks.size()) {
+                    lastPublishTime = time;
+                    var copy = new LongArrayList();
+                    for (int j = 0; j < results.size(); j++) {
+                        copy.add(results.get(j));
+                    }
+                    onPartialResults(copy);
+                }
+            }
+            if (cancelled) {
+                for (var task : tasks) {
+                    task.cancel(false);
+                }
+            }
+            return results;
+        }
+
+        /**
+         * Find the end of segment, which is after the first line separator at or after {@code index}
+         */
+        @VisibleForTesting
+        static int nextSegmentEnd(@NonNull String text, int index) {
+            int length = text.length();
+            while (index < length) {
+                var ch = text.charAt(index);
+                if (ch == '\r' && index + 1 < length && text.charAt(index + 1) == '\n') {
+                    return index + 2;
+                } else if (ch == '\r' || ch == '\n') {
+                    return index + 1;
+                }
+                index++;
+            }
+            return length;
+        }
+
+        /**
+         * Match a segment of text
+         */
+        private final class SegmentMatchTask extends RecursiveAction {
+
+            private final int start;
+            private final int end;
+            private final LongArrayList results = new LongArrayList();
+
+            SegmentMatchTask(int start, int end) {
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            protected void compute() {
+                if (checkNotCancelled()) {
+                    findMatches(text.substring(start, end), start, pattern, regex, ignoreCase, results, ParallelMatcher.this);
+                }
+            }
+
+            /**
+             * Wait for the task and get its results
+             */
+            @NonNull
+            LongArrayList awaitResults() {
+                join();
+                return results;
+            }
+        }
     }
 
 }
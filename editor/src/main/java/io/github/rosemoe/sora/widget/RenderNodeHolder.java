@@ -29,62 +29,111 @@ import android.graphics.RenderNode;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
 
 import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange;
 import io.github.rosemoe.sora.lang.styling.EmptyReader;
-import io.github.rosemoe.sora.util.ArrayList;
+import io.github.rosemoe.sora.widget.layout.Row;
+import io.github.rosemoe.sora.widget.layout.WordwrapLayout;
 
 /**
  * Hardware accelerated text render, which manages {@link RenderNode}
  * to speed up drawing process.
+ * <p>
+ * Nodes are indexed by their lines in an open-addressing hash table, and linked in the order of
+ * their last usage. When the count of nodes exceeds {@link DirectAccessProps#maxRenderNodeCount}
+ * after a frame is drawn, the least recently used ones are released.
  *
  * @author Rosemoe
  */
 @RequiresApi(29)
 class RenderNodeHolder {
 
+    private final static int EMPTY = -1;
+
     private final CodeEditor editor;
-    private final ArrayList<TextRenderNode> cache;
     private final Stack<TextRenderNode> pool = new Stack<>();
+    private int[] keys;
+    private TextRenderNode[] values;
+    private int size;
+    /**
+     * Most recently used node
+     */
+    private TextRenderNode head;
+    /**
+     * Least recently used node
+     */
+    private TextRenderNode tail;
+    private long hitCount;
+    private long missCount;
 
     public RenderNodeHolder(CodeEditor editor) {
         this.editor = editor;
-        cache = new ArrayList<>(64);
+        keys = new int[64];
+        values = new TextRenderNode[64];
+        Arrays.fill(keys, EMPTY);
     }
 
     private boolean shouldUpdateCache() {
-        return !editor.isWordwrap() && editor.isHardwareAcceleratedDrawAllowed();
+        return editor.isHardwareAcceleratedDrawAllowed();
+    }
+
+    /**
+     * Get count of {@link #getNode(int)} calls that found a cached node
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get count of {@link #getNode(int)} calls that created a new node
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public void resetCounters() {
+        hitCount = missCount = 0;
+    }
+
+    /**
+     * Get count of cached nodes
+     */
+    public int size() {
+        return size;
     }
 
     public boolean invalidateInRegion(@NonNull StyleUpdateRange range) {
         var res = false;
-        var itr = cache.iterator();
-        while (itr.hasNext()) {
-            var element = itr.next();
-            if (range.isInRange(element.line)) {
-                itr.remove();
-                element.renderNode.discardDisplayList();
-                pool.push(element);
+        var node = head;
+        while (node != null) {
+            var next = node.next;
+            if (range.isInRange(node.line)) {
+                removeKey(node.line);
+                unlink(node);
+                recycle(node);
                 res = true;
             }
+            node = next;
         }
         return res;
     }
 
     public boolean invalidateInRegion(int startLine, int endLine) {
         var res = false;
-        var itr = cache.iterator();
-        while (itr.hasNext()) {
-            var element = itr.next();
-            if (element.line >= startLine) {
-                itr.remove();
-                element.renderNode.discardDisplayList();
-                pool.push(element);
+        var node = head;
+        while (node != null) {
+            var next = node.next;
+            if (node.line >= startLine && node.line <= endLine) {
+                removeKey(node.line);
+                unlink(node);
+                recycle(node);
                 res = true;
             }
+            node = next;
         }
         return res;
     }
@@ -92,46 +141,87 @@ class RenderNodeHolder {
     /**
      * Called by editor when text style changes.
      * Such as text size/typeface.
-     * Also called when wordwrap state changes from true to false
+     * Also called when wordwrap state changes
      */
     public void invalidate() {
-        cache.forEach(node -> node.isDirty = true);
+        for (var node = head; node != null; node = node.next) {
+            node.isDirty = true;
+        }
     }
 
     public TextRenderNode getNode(int line) {
-        var size = cache.size();
-        for (int i = 0; i < size; i++) {
-            var node = cache.get(i);
-            if (node.line == line) {
-                Collections.swap(cache, 0, i);
-                return node;
+        var index = indexOf(line);
+        if (index != -1) {
+            var node = values[index];
+            hitCount++;
+            if (node != head) {
+                unlink(node);
+                linkFirst(node);
             }
+            return node;
         }
+        missCount++;
         var node = pool.isEmpty() ? new TextRenderNode(line) : pool.pop();
         node.line = line;
         node.isDirty = true;
-        cache.add(0, node);
+        node.layoutGeneration = -1;
+        putKey(node);
+        linkFirst(node);
         return node;
     }
 
-    public void keepCurrentInDisplay(int start, int end) {
-        var itr = cache.iterator();
-        while (itr.hasNext()) {
-            var node = itr.next();
-            if (node.line < start || node.line > end) {
-                itr.remove();
-                node.renderNode.discardDisplayList();
-            }
+    /**
+     * Release least recently used nodes until the count of nodes is in budget. This should be
+     * called after a frame is drawn, so that nodes drawn in the frame are not released. The budget
+     * is never less than the count of visible lines.
+     */
+    public void trimToBudget() {
+        var visibleLineCount = editor.getLastVisibleLine() - editor.getFirstVisibleLine() + 1;
+        trimToSize(Math.max(visibleLineCount, editor.getProps().maxRenderNodeCount));
+    }
+
+    /**
+     * Release least recently used nodes until the count of nodes is not larger than the given size
+     */
+    void trimToSize(int maxSize) {
+        maxSize = Math.max(1, maxSize);
+        while (size > maxSize) {
+            var node = tail;
+            removeKey(node.line);
+            unlink(node);
+            recycle(node);
         }
     }
 
-    public int drawLineHardwareAccelerated(Canvas canvas, int line, float offset) {
+    /**
+     * Draw the whole text line of the given row. In wordwrap mode, the node covers all the rows
+     * of the line, and it is placed at the leading row of the line.
+     *
+     * @param row      A row of the line to draw
+     * @param rowIndex Index of that row
+     * @return Width of the node
+     */
+    public int drawLineHardwareAccelerated(Canvas canvas, Row row, int rowIndex, float offset) {
         if (!canvas.isHardwareAccelerated()) {
             throw new UnsupportedOperationException("Only hardware-accelerated canvas can be used");
         }
         var styles = editor.getStyles();
-        // It's safe to use row directly because the mode is non-wordwrap
+        int line = row.lineIndex;
+        var layout = editor.getLayout();
+        var wordwrapLayout = layout instanceof WordwrapLayout ? (WordwrapLayout) layout : null;
+        var generation = wordwrapLayout == null ? 0 : wordwrapLayout.getGeneration();
         var node = getNode(line);
+        // Rows of the line can be changed by layout without modifying the line. Only check them
+        // when rows of the layout change.
+        if (node.layoutGeneration != generation) {
+            List<Integer> softBreaks = wordwrapLayout == null ? Collections.emptyList() : wordwrapLayout.getSoftBreaksForLine(line);
+            if (!node.softBreaks.equals(softBreaks)) {
+                node.softBreaks = softBreaks;
+                node.isDirty = true;
+            }
+            node.layoutGeneration = generation;
+        }
+        var softBreaks = node.softBreaks;
         if (node.needsRecord()) {
             var spans = styles == null ? null : styles.spans;
             var reader = spans == null ? new EmptyReader() : spans.read();
@@ -140,7 +230,7 @@ class RenderNodeHolder {
             } catch (Exception e) {
                 reader = new EmptyReader();
             }
-            editor.getRenderer().updateLineDisplayList(node.renderNode, line, reader);
+            editor.getRenderer().updateLineDisplayList(node.renderNode, line, reader, softBreaks);
             try {
                 reader.moveToLine(-1);
             } catch (Exception e) {
@@ -148,37 +238,154 @@ class RenderNodeHolder {
             }
             node.isDirty = false;
         }
+        int leadingRow = rowIndex;
+        for (int i = 0; i < softBreaks.size() && softBreaks.get(i) <= row.startColumn; i++) {
+            leadingRow--;
+        }
         canvas.save();
-        canvas.translate(offset, editor.getRowTop(line) - editor.getOffsetY());
+        canvas.translate(offset, editor.getRowTop(leadingRow) - editor.getOffsetY());
         canvas.drawRenderNode(node.renderNode);
         canvas.restore();
         return node.renderNode.getWidth();
     }
 
     public void afterInsert(int startLine, int endLine) {
-        cache.forEach(node -> {
+        var delta = endLine - startLine;
+        for (var node = head; node != null; node = node.next) {
             if (node.line == startLine) {
                 node.isDirty = true;
             } else if (node.line > startLine) {
-                node.line += endLine - startLine;
+                node.line += delta;
             }
-        });
+        }
+        if (delta != 0) {
+            rehash(keys.length);
+        }
     }
 
     public void afterDelete(int startLine, int endLine) {
-        List<TextRenderNode> garbage = new ArrayList<>();
-        cache.forEach(node -> {
+        var delta = endLine - startLine;
+        var node = head;
+        while (node != null) {
+            var next = node.next;
             if (node.line == startLine) {
                 node.isDirty = true;
             } else if (node.line > startLine && node.line <= endLine) {
-                garbage.add(node);
-                node.renderNode.discardDisplayList();
+                unlink(node);
+                recycle(node);
             } else if (node.line > endLine) {
-                node.line -= endLine - startLine;
+                node.line -= delta;
             }
-        });
-        cache.removeAll(garbage);
-        pool.addAll(garbage);
+            node = next;
+        }
+        if (delta != 0) {
+            rehash(keys.length);
+        }
+    }
+
+    private void recycle(TextRenderNode node) {
+        node.renderNode.discardDisplayList();
+        pool.push(node);
+    }
+
+    private void linkFirst(TextRenderNode node) {
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        }
+        head = node;
+        if (tail == null) {
+            tail = node;
+        }
+    }
+
+    private void unlink(TextRenderNode node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        node.prev = node.next = null;
+    }
+
+    private static int hash(int line, int mask) {
+        return (line * 0x9E3779B9) >>> 16 & mask;
+    }
+
+    private int indexOf(int line) {
+        var mask = keys.length - 1;
+        var index = hash(line, mask);
+        int key;
+        while ((key = keys[index]) != EMPTY) {
+            if (key == line) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void putKey(TextRenderNode node) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        var mask = keys.length - 1;
+        var index = hash(node.line, mask);
+        while (keys[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        keys[index] = node.line;
+        values[index] = node;
+        size++;
+    }
+
+    private void removeKey(int line) {
+        var index = indexOf(line);
+        if (index == -1) {
+            return;
+        }
+        var mask = keys.length - 1;
+        // Shift following entries back so that no tombstone is needed
+        var next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            var key = keys[next];
+            if (key == EMPTY) {
+                break;
+            }
+            var ideal = hash(key, mask);
+            if (next > index ? (ideal <= index || ideal > next) : (ideal <= index && ideal > next)) {
+                keys[index] = key;
+                values[index] = values[next];
+                index = next;
+            }
+        }
+        keys[index] = EMPTY;
+        values[index] = null;
+        size--;
+    }
+
+    /**
+     * Rebuild the table from the linked nodes, whose lines could have been changed
+     */
+    private void rehash(int capacity) {
+        if (keys.length != capacity) {
+            keys = new int[capacity];
+            values = new TextRenderNode[capacity];
+        } else {
+            Arrays.fill(values, null);
+        }
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (var node = head; node != null; node = node.next) {
+            putKey(node);
+        }
     }
 
     protected static class TextRenderNode {
@@ -190,11 +397,23 @@ class RenderNodeHolder {
         public int line;
         public RenderNode renderNode;
         public boolean isDirty;
+        /**
+         * Soft breaks of the line when the node is recorded
+         */
+        public List<Integer> softBreaks;
+        /**
+         * Generation of {@link WordwrapLayout} when {@link #softBreaks} is got, or 0 for other
+         * layouts
+         */
+        public long layoutGeneration = -1;
+        TextRenderNode prev;
+        TextRenderNode next;
 
         public TextRenderNode(int line) {
             this.line = line;
             renderNode = new RenderNode("editorRenderNode");
             isDirty = true;
+            softBreaks = Collections.emptyList();
         }
 
         public boolean needsRecord() {
@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.github.rosemoe.sora.graphics.Paint;
 import io.github.rosemoe.sora.text.Content;
@@ -52,9 +53,12 @@ import io.github.rosemoe.sora.widget.CodeEditor;
  */
 public class WordwrapLayout extends AbstractLayout {
 
+    private final static AtomicLong generations = new AtomicLong();
+
     private final int width;
     private final boolean antiWordBreaking;
     private List<RowRegion> rowTable;
+    private long generation;
 
     public WordwrapLayout(CodeEditor editor, Content text, boolean antiWordBreaking, List<RowRegion> extended, boolean clearCache) {
         super(editor, text);
@@ -64,6 +68,7 @@ public class WordwrapLayout extends AbstractLayout {
             rowTable.clear();
         }
         width = editor.getWidth() - (int) (editor.measureTextRegionOffset() + editor.getTextPaint().measureText("a"));
+        generation = generations.incrementAndGet();
         breakAllLines();
     }
 
@@ -71,6 +76,15 @@ public class WordwrapLayout extends AbstractLayout {
         return rowTable;
     }
 
+    /**
+     * Get the generation of rows. It changes whenever rows of this layout change, and it is never
+     * the same for two layout objects. So soft breaks of lines got at the same generation are still
+     * valid.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
     private void breakAllLines() {
         var taskCount = Math.min(SUBTASK_COUNT, (int) Math.ceil((float) text.getLineCount() / MIN_LINE_COUNT_FOR_SUBTASK));
         var sizeEachTask = text.getLineCount() / taskCount;
@@ -96,6 +110,7 @@ public class WordwrapLayout extends AbstractLayout {
                     for (WordwrapResult wordwrapResult : r2) {
                         rowTable.addAll(wordwrapResult.regions);
                     }
+                    generation = generations.incrementAndGet();
                     editor.setLayoutBusy(false);
                     editor.getEventHandler().scrollBy(0, 0);
                 });
@@ -172,6 +187,7 @@ public class WordwrapLayout extends AbstractLayout {
             breakpoints.clear();
         }
         rowTable.addAll(insertPosition, newRegions);
+        generation = generations.incrementAndGet();
     }
 
     private void breakLine(int line, ContentLine sequence, List<Integer> breakpoints, @Nullable Paint paint) {
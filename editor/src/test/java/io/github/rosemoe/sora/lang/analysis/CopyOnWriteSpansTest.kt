@@ -0,0 +1,175 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+package io.github.rosemoe.sora.lang.analysis
+
+import io.github.rosemoe.sora.lang.styling.Span
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Check that lines of [AsyncIncrementalAnalyzeManager.CopyOnWriteSpans] are published correctly across
+ * chunks of 256 lines, and that published spans never change
+ */
+class CopyOnWriteSpansTest {
+
+    private var nextId = 0L
+
+    /**
+     * Spans of a line, identified by the style of its only span
+     */
+    private fun newLine() = listOf(Span.obtain(0, nextId++))
+
+    private fun AsyncIncrementalAnalyzeManager.CopyOnWriteSpans.readAll(): List<Long> {
+        val reader = read()
+        return (0 until lineCount).map { reader.getSpansOnLine(it)[0].style }
+    }
+
+    private fun createSpans(model: MutableList<List<Span>>, lineCount: Int): AsyncIncrementalAnalyzeManager.CopyOnWriteSpans {
+        val spans = AsyncIncrementalAnalyzeManager.CopyOnWriteSpans()
+        val modifier = spans.modify()
+        for (i in 0 until lineCount) {
+            val line = newLine()
+            model.add(line)
+            modifier.addLineAt(i, line)
+        }
+        return spans
+    }
+
+    @Test
+    fun testEditsAcrossChunkBoundaries() {
+        val model = ArrayList<List<Span>>()
+        val spans = createSpans(model, 600)
+        val modifier = spans.modify()
+        assertEquals(model.map { it[0].style }, spans.readAll())
+        val lines = intArrayOf(0, 254, 255, 256, 257, 511, 512, 513)
+        for (line in lines) {
+            // Insert before the chunk boundary, shifting the lines of next chunks
+            val inserted = newLine()
+            model.add(line, inserted)
+            modifier.addLineAt(line, inserted)
+            assertEquals("insert at $line", model.map { it[0].style }, spans.readAll())
+
+            modifier.deleteLineAt(line + 1)
+            model.removeAt(line + 1)
+            assertEquals("delete at ${line + 1}", model.map { it[0].style }, spans.readAll())
+
+            val replaced = newLine()
+            model[line] = replaced
+            modifier.setSpansOnLine(line, replaced)
+            assertEquals("set at $line", model.map { it[0].style }, spans.readAll())
+        }
+        // Delete the last lines, so that the last chunk is removed
+        while (model.size > 500) {
+            modifier.deleteLineAt(model.size - 1)
+            model.removeAt(model.size - 1)
+        }
+        assertEquals(model.map { it[0].style }, spans.readAll())
+        // Setting a line after the end appends lines of plain text before it
+        val appended = newLine()
+        modifier.setSpansOnLine(520, appended)
+        assertEquals(521, spans.lineCount)
+        assertEquals(appended, spans.read().getSpansOnLine(520))
+        assertEquals(1, spans.read().getSpansOnLine(519).size)
+    }
+
+    @Test
+    fun testRandomEdits() {
+        val seed = System.currentTimeMillis()
+        val random = Random(seed)
+        val model = ArrayList<List<Span>>()
+        val spans = createSpans(model, 1000)
+        val modifier = spans.modify()
+        for (round in 0 until 200) {
+            val batch = random.nextBoolean()
+            if (batch) {
+                spans.beginBatch()
+            }
+            repeat(random.nextInt(1, 10)) {
+                when (random.nextInt(3)) {
+                    0 -> {
+                        val line = random.nextInt(model.size + 1)
+                        val spansOnLine = newLine()
+                        model.add(line, spansOnLine)
+                        modifier.addLineAt(line, spansOnLine)
+                    }
+                    1 -> if (model.size > 1) {
+                        val line = random.nextInt(model.size)
+                        model.removeAt(line)
+                        modifier.deleteLineAt(line)
+                    }
+                    else -> {
+                        val line = random.nextInt(model.size)
+                        val spansOnLine = newLine()
+                        model[line] = spansOnLine
+                        modifier.setSpansOnLine(line, spansOnLine)
+                    }
+                }
+            }
+            if (batch) {
+                spans.endBatch()
+            }
+            assertEquals("seed $seed, round $round", model.map { it[0].style }, spans.readAll())
+        }
+    }
+
+    @Test
+    fun testOldSnapshotDuringBatch() {
+        val model = ArrayList<List<Span>>()
+        val spans = createSpans(model, 700)
+        val modifier = spans.modify()
+        val reader = spans.read()
+        val old = spans.readAll()
+        val oldLists = (0 until 700).map { reader.getSpansOnLine(it) }
+
+        spans.beginBatch()
+        modifier.deleteLineAt(250)
+        modifier.addLineAt(256, newLine())
+        modifier.addLineAt(600, newLine())
+        modifier.setSpansOnLine(300, newLine())
+        modifier.setSpansOnLine(10, newLine())
+        // Readers keep seeing the old spans until the batch ends
+        assertEquals(700, spans.lineCount)
+        assertEquals(old, spans.readAll())
+        reader.moveToLine(300)
+        assertEquals(old[300], reader.getSpanAt(0).style)
+        spans.endBatch()
+
+        val new = spans.readAll()
+        assertEquals(701, new.size)
+        assertEquals(old.subList(0, 10), new.subList(0, 10))
+        assertEquals(old.subList(11, 250), new.subList(11, 250))
+        assertEquals(old.subList(251, 257), new.subList(250, 256))
+        assertEquals(old.subList(257, 300), new.subList(257, 300))
+        assertEquals(old.subList(301, 600), new.subList(301, 600))
+        assertEquals(old.subList(600, 700), new.subList(601, 701))
+        reader.moveToLine(300)
+        assertEquals(new[300], reader.getSpanAt(0).style)
+        // Spans got from the old snapshot are not changed by publishing
+        for (line in 0 until 700) {
+            assertEquals(old[line], oldLists[line][0].style)
+        }
+    }
+
+}
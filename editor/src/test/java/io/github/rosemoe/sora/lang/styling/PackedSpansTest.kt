@@ -0,0 +1,266 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.styling
+
+import io.github.rosemoe.sora.text.CharPosition
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Check [PackedSpans] against [MappedSpans], which stores the same spans by [Span] objects
+ */
+class PackedSpansTest {
+
+    private class Pair(val packed: PackedSpans, val mapped: MappedSpans, val lineLengths: MutableList<Int>)
+
+    private fun randomLineSpans(random: Random, length: Int): List<Span> {
+        val spans = ArrayList<Span>()
+        var column = 0
+        while (column <= length) {
+            val span = Span.obtain(column, random.nextLong(1, 6))
+            if (random.nextInt(5) == 0) {
+                span.setUnderlineColor(random.nextInt(1, 0xffffff))
+            }
+            spans.add(span)
+            column += random.nextInt(1, 8)
+        }
+        return spans
+    }
+
+    private fun createSpans(random: Random, lineCount: Int): Pair {
+        val packed = PackedSpans.Builder()
+        val mapped = MappedSpans.Builder()
+        val lengths = ArrayList<Int>()
+        for (line in 0 until lineCount) {
+            val length = random.nextInt(0, 40)
+            lengths.add(length)
+            // Skip some lines, so that the builders extend the last span to them
+            if (line != 0 && random.nextInt(4) == 0) {
+                continue
+            }
+            for (span in randomLineSpans(random, length)) {
+                packed.add(line, span.copy())
+                mapped.add(line, span.copy())
+            }
+        }
+        packed.determine(lineCount - 1)
+        mapped.determine(lineCount - 1)
+        return Pair(packed.build(), mapped.build(), lengths)
+    }
+
+    private fun assertSpansEqual(expected: Spans, actual: Spans) {
+        assertEquals(expected.lineCount, actual.lineCount)
+        val expectedReader = expected.read()
+        val actualReader = actual.read()
+        for (line in 0 until expected.lineCount) {
+            expectedReader.moveToLine(line)
+            actualReader.moveToLine(line)
+            assertEquals("span count of line $line", expectedReader.spanCount, actualReader.spanCount)
+            for (i in 0 until expectedReader.spanCount) {
+                val expectedSpan = expectedReader.getSpanAt(i)
+                assertEquals("column of span $i on line $line", expectedSpan.column, actualReader.getSpanColumn(i))
+                assertEquals("style of span $i on line $line", expectedSpan.style, actualReader.getSpanStyle(i))
+                assertEquals("underline of span $i on line $line", expectedSpan.underlineColor, actualReader.getSpanUnderlineColor(i))
+                val actualSpan = actualReader.getSpanAt(i)
+                assertEquals(expectedSpan.column, actualSpan.column)
+                assertEquals(expectedSpan.style, actualSpan.style)
+                assertEquals(expectedSpan.underlineColor, actualSpan.underlineColor)
+            }
+            val actualSpans = actualReader.getSpansOnLine(line)
+            assertEquals(expectedReader.spanCount, actualSpans.size)
+            for (i in actualSpans.indices) {
+                assertEquals(actualReader.getSpanColumn(i), actualSpans[i].column)
+            }
+        }
+        expectedReader.moveToLine(-1)
+        actualReader.moveToLine(-1)
+    }
+
+    private fun randomPosition(random: Random, lengths: List<Int>): CharPosition {
+        val line = random.nextInt(lengths.size)
+        return CharPosition(line, random.nextInt(lengths[line] + 1))
+    }
+
+    private fun insert(random: Random, spans: Pair) {
+        val lengths = spans.lineLengths
+        val start = randomPosition(random, lengths)
+        val end = if (random.nextBoolean()) {
+            CharPosition(start.line, start.column + random.nextInt(1, 10))
+        } else {
+            CharPosition(start.line + random.nextInt(1, 4), random.nextInt(0, 10))
+        }
+        val tail = lengths[start.line] - start.column
+        for (line in start.line + 1..end.line) {
+            lengths.add(line, 0)
+        }
+        if (start.line == end.line) {
+            lengths[start.line] += end.column - start.column
+        } else {
+            lengths[start.line] = start.column
+            lengths[end.line] = end.column + tail
+        }
+        spans.packed.adjustOnInsert(start, end)
+        spans.mapped.adjustOnInsert(start, end)
+    }
+
+    private fun delete(random: Random, spans: Pair) {
+        val lengths = spans.lineLengths
+        var start = randomPosition(random, lengths)
+        var end = if (random.nextBoolean()) {
+            CharPosition(start.line, random.nextInt(lengths[start.line] + 1))
+        } else {
+            randomPosition(random, lengths)
+        }
+        if (end.line < start.line || (end.line == start.line && end.column < start.column)) {
+            start = end.also { end = start }
+        }
+        if (start == end) {
+            return
+        }
+        if (start.line == end.line) {
+            lengths[start.line] -= end.column - start.column
+        } else {
+            lengths[start.line] = start.column + lengths[end.line] - end.column
+            lengths.subList(start.line + 1, end.line + 1).clear()
+        }
+        spans.packed.adjustOnDelete(start, end)
+        spans.mapped.adjustOnDelete(start, end)
+    }
+
+    @Test
+    fun testBuilder() {
+        for (seed in 0 until 20) {
+            val spans = createSpans(Random(seed), 50)
+            assertSpansEqual(spans.mapped, spans.packed)
+        }
+    }
+
+    @Test
+    fun testBuilderAddIfNeeded() {
+        val packed = PackedSpans.Builder()
+        val mapped = MappedSpans.Builder()
+        val random = Random(0)
+        for (line in 0 until 100) {
+            for (column in 0 until 20 step 3) {
+                val style = random.nextLong(1, 3)
+                packed.addIfNeeded(line, column, style)
+                mapped.addIfNeeded(line, column, style)
+            }
+        }
+        packed.determine(120)
+        mapped.determine(120)
+        assertSpansEqual(mapped.build(), packed.build())
+
+        val empty = PackedSpans.Builder()
+        empty.addNormalIfNull()
+        val emptyMapped = MappedSpans.Builder()
+        emptyMapped.addNormalIfNull()
+        assertSpansEqual(emptyMapped.build(), empty.build())
+    }
+
+    @Test
+    fun testAdjustOnInsertAndDelete() {
+        for (seed in 0 until 20) {
+            val random = Random(seed)
+            val spans = createSpans(random, 30)
+            for (round in 0 until 200) {
+                if (random.nextBoolean()) {
+                    insert(random, spans)
+                } else {
+                    delete(random, spans)
+                }
+                assertSpansEqual(spans.mapped, spans.packed)
+            }
+        }
+    }
+
+    @Test
+    fun testModifier() {
+        val random = Random(1)
+        val spans = createSpans(random, 30)
+        val packed = spans.packed.modify()
+        val mapped = spans.mapped.modify()
+        for (round in 0 until 200) {
+            val lineCount = spans.mapped.lineCount
+            when (random.nextInt(3)) {
+                0 -> {
+                    // May extend the spans
+                    val line = random.nextInt(lineCount + 3)
+                    val lineSpans = randomLineSpans(random, 30)
+                    packed.setSpansOnLine(line, lineSpans.map { it.copy() })
+                    mapped.setSpansOnLine(line, lineSpans.map { it.copy() })
+                }
+                1 -> {
+                    val line = random.nextInt(lineCount + 1)
+                    val lineSpans = randomLineSpans(random, 30)
+                    packed.addLineAt(line, lineSpans.map { it.copy() })
+                    mapped.addLineAt(line, lineSpans.map { it.copy() })
+                }
+                else -> if (lineCount > 1) {
+                    val line = random.nextInt(lineCount)
+                    packed.deleteLineAt(line)
+                    mapped.deleteLineAt(line)
+                }
+            }
+            assertSpansEqual(spans.mapped, spans.packed)
+        }
+    }
+
+    @Test
+    fun testReaderReusesSpans() {
+        val builder = PackedSpans.Builder()
+        builder.add(0, 0, 1)
+        builder.add(0, 5, 2)
+        builder.add(0, Span.obtain(8, 3).setUnderlineColor(0xff))
+        builder.determine(1)
+        val spans = builder.build()
+        val reader = spans.read()
+        reader.moveToLine(0)
+        val first = reader.getSpanAt(1)
+        assertSame(first, reader.getSpanAt(1))
+        val list = reader.getSpansOnLine(0)
+        assertSame(list, reader.getSpansOnLine(0))
+        assertSame(first, list[1])
+
+        // Shifting columns keeps the objects, with columns updated
+        spans.adjustOnInsert(CharPosition(0, 2), CharPosition(0, 4))
+        assertSame(list, reader.getSpansOnLine(0))
+        assertEquals(7, list[1].column)
+        assertEquals(10, list[2].column)
+        assertEquals(0xff, list[2].underlineColor)
+
+        // Removing spans creates a new list
+        spans.adjustOnDelete(CharPosition(0, 6), CharPosition(0, 9))
+        val newList = reader.getSpansOnLine(0)
+        assertEquals(listOf(0 to 1L, 7 to 3L), newList.map { it.column to it.style })
+        reader.moveToLine(0)
+        assertEquals(newList.size, reader.spanCount)
+        assertSame(newList[1], reader.getSpanAt(1))
+        reader.moveToLine(-1)
+    }
+
+}
@@ -51,6 +51,7 @@ dependencies {
     api(libs.androidx.annotation)
 
     testImplementation(libs.junit)
+    androidTestImplementation(projects.editor)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
 }
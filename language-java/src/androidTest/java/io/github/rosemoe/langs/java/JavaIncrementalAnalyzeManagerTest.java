@@ -0,0 +1,183 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.langs.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Random;
+
+import io.github.rosemoe.sora.lang.analysis.AnalyzeManager;
+import io.github.rosemoe.sora.lang.analysis.StyleReceiver;
+import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange;
+import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
+import io.github.rosemoe.sora.lang.brackets.PairedBracket;
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer;
+import io.github.rosemoe.sora.lang.styling.CodeBlock;
+import io.github.rosemoe.sora.lang.styling.Styles;
+import io.github.rosemoe.sora.langs.java.JavaIncrementalAnalyzeManager;
+import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.text.ContentReference;
+
+@RunWith(AndroidJUnit4.class)
+public class JavaIncrementalAnalyzeManagerTest {
+
+    private final static String[] PIECES = {"{", "}", "(", ")", "[", "]", "\n", "\n\n", "a", " ", "f(", "/*", "*/", "{\n", "}\n"};
+    private final static long TIMEOUT = 10000;
+
+    @Test
+    public void testIncrementalBlocksAndBrackets() throws InterruptedException {
+        var seed = System.currentTimeMillis();
+        var random = new Random(seed);
+        Log.v(getClass().getSimpleName(), "testIncrementalBlocksAndBrackets: Random object is initialized with seed " + seed);
+        var builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        var text = new Content(builder.toString());
+        var manager = new JavaIncrementalAnalyzeManager();
+        var receiver = new Receiver(manager);
+        manager.setReceiver(receiver);
+        manager.reset(new ContentReference(text), new Bundle());
+        long modifications = 0;
+        for (int round = 0; round < 300; round++) {
+            // Several modifications may be merged by the analyzer
+            int count = random.nextInt(3) + 1;
+            for (int i = 0; i < count; i++) {
+                int length = text.length();
+                if (length > 0 && random.nextInt(3) == 0) {
+                    int startIndex = random.nextInt(length);
+                    int endIndex = Math.min(length, startIndex + 1 + random.nextInt(8));
+                    var start = text.getIndexer().getCharPosition(startIndex);
+                    var end = text.getIndexer().getCharPosition(endIndex);
+                    var deleted = text.subSequence(startIndex, endIndex);
+                    text.delete(startIndex, endIndex);
+                    manager.delete(start, end, deleted);
+                } else {
+                    var inserted = PIECES[random.nextInt(PIECES.length)];
+                    var start = text.getIndexer().getCharPosition(random.nextInt(length + 1));
+                    text.insert(start.line, start.column, inserted);
+                    var end = text.getIndexer().getCharPosition(start.index + inserted.length());
+                    manager.insert(start, end, inserted);
+                }
+                modifications++;
+            }
+            receiver.awaitModifications(modifications);
+
+            var expectedManager = new JavaIncrementalAnalyzeManager();
+            var expected = new Receiver(expectedManager);
+            expectedManager.setReceiver(expected);
+            expectedManager.reset(new ContentReference(text), new Bundle());
+            expected.awaitModifications(0);
+            expectedManager.destroy();
+
+            var message = "round " + round + ", text:\n" + text;
+            assertEquals(message, toString(expected.styles.blocks), toString(receiver.styles.blocks));
+            for (int i = 0; i <= text.length(); i++) {
+                assertEquals(message + "\nindex " + i, toString(expected.provider.getPairedBracketAt(text, i)), toString(receiver.provider.getPairedBracketAt(text, i)));
+            }
+        }
+        manager.destroy();
+    }
+
+    private static String toString(@NonNull List<CodeBlock> blocks) {
+        var builder = new StringBuilder();
+        for (var block : blocks) {
+            builder.append(block.startLine).append(':').append(block.startColumn).append('-')
+                    .append(block.endLine).append(':').append(block.endColumn).append(' ');
+        }
+        return builder.toString();
+    }
+
+    private static String toString(@Nullable PairedBracket pair) {
+        return pair == null ? "null" : pair.leftIndex + "," + pair.rightIndex;
+    }
+
+    /**
+     * Keep the latest results from the analyzer
+     */
+    private static class Receiver implements StyleReceiver {
+
+        private final JavaIncrementalAnalyzeManager manager;
+        private volatile Styles styles;
+        private volatile BracketsProvider provider;
+        /**
+         * Count of modifications processed when styles are received last time
+         */
+        private volatile long processed = -1;
+
+        Receiver(@NonNull JavaIncrementalAnalyzeManager manager) {
+            this.manager = manager;
+        }
+
+        void awaitModifications(long count) throws InterruptedException {
+            long startTime = System.currentTimeMillis();
+            while (processed != count || styles == null || styles.blocks == null || provider == null) {
+                assertTrue("analysis timeout", System.currentTimeMillis() - startTime < TIMEOUT);
+                Thread.sleep(1);
+            }
+            assertNotNull(styles);
+        }
+
+        @Override
+        public void setStyles(@NonNull AnalyzeManager sourceManager, @Nullable Styles styles) {
+            this.styles = styles;
+            processed = manager.getProcessedModificationCount();
+        }
+
+        @Override
+        public void setStyles(@NonNull AnalyzeManager sourceManager, @Nullable Styles styles, @Nullable Runnable action) {
+            setStyles(sourceManager, styles);
+        }
+
+        @Override
+        public void updateStyles(@NonNull AnalyzeManager sourceManager, @NonNull Styles styles, @NonNull StyleUpdateRange range) {
+            setStyles(sourceManager, styles);
+        }
+
+        @Override
+        public void setDiagnostics(@NonNull AnalyzeManager sourceManager, @Nullable DiagnosticsContainer diagnostics) {
+
+        }
+
+        @Override
+        public void updateBracketProvider(@NonNull AnalyzeManager sourceManager, @Nullable BracketsProvider provider) {
+            this.provider = provider;
+        }
+
+    }
+
+}
@@ -26,20 +26,23 @@ package io.github.rosemoe.sora.langs.java;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.util.List;
-import java.util.Stack;
 
 import io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager;
-import io.github.rosemoe.sora.lang.brackets.SimpleBracketsCollector;
+import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
+import io.github.rosemoe.sora.lang.brackets.PairedBracket;
 import io.github.rosemoe.sora.lang.completion.IdentifierAutoComplete;
 import io.github.rosemoe.sora.lang.styling.CodeBlock;
 import io.github.rosemoe.sora.lang.styling.Span;
 import io.github.rosemoe.sora.lang.styling.TextStyle;
 import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentReference;
+import io.github.rosemoe.sora.text.LineBlockTree;
 import io.github.rosemoe.sora.util.ArrayList;
 import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
 import io.github.rosemoe.sora.widget.schemes.EditorColorScheme;
 
 public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManager<State, Long> {
@@ -48,7 +51,29 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
     private final static int STATE_INCOMPLETE_COMMENT = 1;
 
     private final ThreadLocal<JavaTextTokenizer> tokenizerProvider = new ThreadLocal<>();
+    /**
+     * Buffer for tokens of the line being tokenized. Tokens are copied to a packed array then.
+     */
+    private final ThreadLocal<LongArrayList> tokenBufferProvider = new ThreadLocal<>();
     protected IdentifierAutoComplete.SyncIdentifiers identifiers = new IdentifierAutoComplete.SyncIdentifiers();
+    /**
+     * Results of each line in last code block computation, so that results of unchanged lines can be reused.
+     * Bracket providers given to the editor read snapshots of the tree.
+     */
+    private final LineBlockTree<LineBlocks> lineBlocks = new LineBlockTree<>(true, false);
+    /**
+     * Code blocks in last computation, sorted by end line
+     */
+    private final ArrayList<CodeBlock> blocks = new ArrayList<>();
+    private final ArrayList<OpenBracket> openedBracesBuffer = new ArrayList<>();
+    private final ArrayList<OpenBracket> openedBracketsBuffer = new ArrayList<>();
+    private final ArrayList<OpenBracket> pairOpenersBuffer = new ArrayList<>();
+    private final LongArrayList pairColumnsBuffer = new LongArrayList();
+    /**
+     * Lines cached in {@link OpenBracket}s are valid only if they are cached in current epoch. The
+     * epoch is increased when line numbers of old results are shifted.
+     */
+    private int lineEpoch;
 
     private synchronized JavaTextTokenizer obtainTokenizer() {
         var res = tokenizerProvider.get();
@@ -59,65 +84,143 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
         return res;
     }
 
+    private LongArrayList obtainTokenBuffer() {
+        var res = tokenBufferProvider.get();
+        if (res == null) {
+            res = new LongArrayList();
+            tokenBufferProvider.set(res);
+        }
+        res.clear();
+        return res;
+    }
+
     @Override
     public List<CodeBlock> computeBlocks(Content text, AsyncIncrementalAnalyzeManager<State, Long>.CodeBlockAnalyzeDelegate delegate) {
-        var stack = new Stack<CodeBlock>();
-        var blocks = new ArrayList<CodeBlock>();
-        var maxSwitch = 0;
-        var currSwitch = 0;
-        var brackets = new SimpleBracketsCollector();
-        var bracketsStack = new Stack<Long>();
-        for (int i = 0; i < text.getLineCount() && delegate.isNotCancelled(); i++) {
-            var state = getState(i);
-            boolean checkForIdentifiers = state.state.state == STATE_NORMAL || (state.state.state == STATE_INCOMPLETE_COMMENT && state.tokens.size() > 1);
-            if (state.state.hasBraces || checkForIdentifiers) {
-                // Iterate tokens
-                for (int i1 = 0; i1 < state.tokens.size(); i1++) {
-                    var tokenRecord = state.tokens.get(i1);
-                    var token = IntPair.getFirst(tokenRecord);
-                    if (token == ORDINAL_LBRACE) {
-                        var offset = IntPair.getSecond(tokenRecord);
-                        if (stack.isEmpty()) {
-                            if (currSwitch > maxSwitch) {
-                                maxSwitch = currSwitch;
-                            }
-                            currSwitch = 0;
-                        }
-                        currSwitch++;
-                        CodeBlock block = new CodeBlock();
-                        block.startLine = i;
-                        block.startColumn = offset;
-                        stack.push(block);
-                    } else if (token == ORDINAL_RBRACE) {
-                        var offset = IntPair.getSecond(tokenRecord);
-                        if (!stack.isEmpty()) {
-                            CodeBlock block = stack.pop();
-                            block.endLine = i;
+        synchronized (lineBlocks) {
+            int lineCount = text.getLineCount();
+            int oldLineCount = lineBlocks.size();
+            int delta = lineCount - oldLineCount;
+            // Lines before start are unchanged. Lines after end are unchanged but shifted by delta
+            int start = Math.min(delegate.getModifiedStartLine(), oldLineCount);
+            int end = delegate.getModifiedEndLine();
+            var computed = new ArrayList<LineBlocks>();
+            var computedBlocks = new ArrayList<CodeBlock>();
+            var previous = start == 0 ? null : lineBlocks.get(start - 1);
+            int reuseStart = oldLineCount;
+            for (int i = start; i < lineCount && delegate.isNotCancelled(); i++) {
+                int oldLine = i - delta;
+                var old = oldLine >= start && oldLine < oldLineCount ? lineBlocks.get(oldLine) : null;
+                var current = computeLineBlocks(i, previous, old, start, computedBlocks);
+                computed.add(current);
+                previous = current;
+                // Brackets at the same position are shared with old results, so the following lines are
+                // computed with the same open brackets once the stacks are the same objects
+                if (i > end && old != null && current.braces == old.braces && current.brackets == old.brackets) {
+                    reuseStart = oldLine + 1;
+                    break;
+                }
+            }
+            if (delegate.isCancelled()) {
+                // Reused brackets may have cached their new lines
+                lineEpoch++;
+                return new ArrayList<>();
+            }
+            for (int i = start; i < reuseStart; i++) {
+                lineBlocks.remove(start);
+            }
+            for (int i = 0; i < computed.size(); i++) {
+                lineBlocks.insert(start + i, computed.get(i), 0);
+            }
+            int blockStart = lowerBound(blocks, start);
+            int blockEnd = lowerBound(blocks, reuseStart);
+            blocks.removeRange(blockStart, blockEnd);
+            blocks.addAll(blockStart, computedBlocks);
+            if (delta != 0) {
+                for (int i = blockStart + computedBlocks.size(); i < blocks.size(); i++) {
+                    var block = blocks.get(i);
+                    if (block.startLine >= start) {
+                        block.startLine += delta;
+                    }
+                    block.endLine += delta;
+                }
+                lineEpoch++;
+            }
+            var provider = new BracketsSnapshot(lineBlocks.snapshot());
+            withReceiver(r -> r.updateBracketProvider(this, provider));
+            // The editor adjusts given blocks on text changes, so they are copied
+            var result = new ArrayList<CodeBlock>(blocks.size());
+            for (var block : blocks) {
+                var copy = new CodeBlock();
+                copy.startLine = block.startLine;
+                copy.startColumn = block.startColumn;
+                copy.endLine = block.endLine;
+                copy.endColumn = block.endColumn;
+                result.add(copy);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Compute code blocks and brackets of the given line
+     *
+     * @param previous Result of previous line
+     * @param old      Old result of the line at the same position, whose brackets can be reused
+     * @param start    Start line of this computation
+     * @param blocks   Code blocks ending on the line are added to this list
+     */
+    private LineBlocks computeLineBlocks(int line, @Nullable LineBlocks previous, @Nullable LineBlocks old, int start, @NonNull List<CodeBlock> blocks) {
+        var braces = previous == null ? null : previous.braces;
+        var brackets = previous == null ? null : previous.brackets;
+        openedBracesBuffer.clear();
+        openedBracketsBuffer.clear();
+        pairOpenersBuffer.clear();
+        pairColumnsBuffer.clear();
+        var state = getState(line);
+        var tokens = state.packedTokens;
+        boolean checkForIdentifiers = state.state.state == STATE_NORMAL || (state.state.state == STATE_INCOMPLETE_COMMENT && tokens.length > 1);
+        if (state.state.hasBraces || checkForIdentifiers) {
+            // Iterate tokens
+            for (long tokenRecord : tokens) {
+                var token = IntPair.getFirst(tokenRecord);
+                var offset = IntPair.getSecond(tokenRecord);
+                if (token == ORDINAL_LBRACE) {
+                    braces = openBracket(braces, 3, line, offset, old == null ? null : old.openedBraces);
+                    openedBracesBuffer.add(braces);
+                } else if (token == ORDINAL_RBRACE) {
+                    if (braces != null) {
+                        int startLine = getOpenLine(braces, start);
+                        if (startLine != line) {
+                            var block = new CodeBlock();
+                            block.startLine = startLine;
+                            block.startColumn = braces.column;
+                            block.endLine = line;
                             block.endColumn = offset;
-                            if (block.startLine != block.endLine) {
-                                blocks.add(block);
-                            }
+                            blocks.add(block);
                         }
+                        braces = braces.next;
                     }
-                    var type = getType(token);
-                    if (type > 0) {
-                        if (isStart(token)) {
-                            bracketsStack.push(IntPair.pack(type, text.getCharIndex(i, IntPair.getSecond(tokenRecord))));
-                        } else {
-                            if (!bracketsStack.isEmpty()) {
-                                var record = bracketsStack.pop();
-                                var typeRecord = IntPair.getFirst(record);
-                                if (typeRecord == type) {
-                                    brackets.add(IntPair.getSecond(record), text.getCharIndex(i, IntPair.getSecond(tokenRecord)));
-                                } else if (type == 3) {
-                                    // Bad syntax, try to find type 3
-                                    while (!bracketsStack.isEmpty()) {
-                                        record = bracketsStack.pop();
-                                        if (IntPair.getFirst(record) == 3) {
-                                            brackets.add(IntPair.getSecond(record), text.getCharIndex(i, IntPair.getSecond(tokenRecord)));
-                                            break;
-                                        }
-                                    }
+                }
+                var type = getType(token);
+                if (type > 0) {
+                    if (isStart(token)) {
+                        brackets = openBracket(brackets, type, line, offset, old == null ? null : old.openedBrackets);
+                        openedBracketsBuffer.add(brackets);
+                    } else if (brackets != null) {
+                        var record = brackets;
+                        brackets = brackets.next;
+                        if (record.type == type) {
+                            pairOpenersBuffer.add(record);
+                            pairColumnsBuffer.add(offset);
+                        } else if (type == 3) {
+                            // Bad syntax, try to find type 3
+                            while (brackets != null) {
+                                record = brackets;
+                                brackets = brackets.next;
+                                if (record.type == 3) {
+                                    pairOpenersBuffer.add(record);
+                                    pairColumnsBuffer.add(offset);
+                                    break;
                                 }
                             }
                         }
@@ -125,10 +228,97 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
                 }
             }
         }
-        if (delegate.isNotCancelled()) {
-            withReceiver(r -> r.updateBracketProvider(this, brackets));
+        var pairColumns = new int[pairColumnsBuffer.size()];
+        for (int i = 0; i < pairColumns.length; i++) {
+            pairColumns[i] = (int) pairColumnsBuffer.get(i);
+        }
+        return new LineBlocks(braces, brackets, toArray(openedBracesBuffer), toArray(openedBracketsBuffer), toArray(pairOpenersBuffer), pairColumns);
+    }
+
+    /**
+     * Push a bracket to the stack. If the old result of the line has a bracket opened at the same
+     * position on the same stack, the old node is reused instead of creating a new one.
+     *
+     * @param candidates Brackets opened on the old line
+     */
+    @NonNull
+    private OpenBracket openBracket(@Nullable OpenBracket stack, int type, int line, int column, @Nullable OpenBracket[] candidates) {
+        if (candidates != null) {
+            for (var node : candidates) {
+                if (node.next == stack && node.type == type && node.column == column) {
+                    node.line = line;
+                    node.epoch = lineEpoch;
+                    return node;
+                }
+            }
+        }
+        return new OpenBracket(stack, type, column, line, lineEpoch);
+    }
+
+    /**
+     * Get the line where the brace is opened. If the cached line is outdated, the brace is opened
+     * before current computation, and the line is searched in unchanged lines before {@code start}.
+     */
+    private int getOpenLine(@NonNull OpenBracket brace, int start) {
+        if (brace.epoch != lineEpoch) {
+            brace.line = findLine(lineBlocks, brace, true, 0, start, true);
+            brace.epoch = lineEpoch;
+        }
+        return brace.line;
+    }
+
+    @Nullable
+    private static OpenBracket[] toArray(@NonNull List<OpenBracket> list) {
+        return list.size() == 0 ? null : list.toArray(new OpenBracket[0]);
+    }
+
+    /**
+     * Find first index in blocks whose end line is not less than the given line
+     */
+    private static int lowerBound(@NonNull List<CodeBlock> blocks, int line) {
+        int left = 0, right = blocks.size();
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (blocks.get(mid).endLine < line) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Check whether the stack contains the node
+     */
+    private static boolean contains(@Nullable OpenBracket stack, @NonNull OpenBracket node) {
+        while (stack != null && stack.depth > node.depth) {
+            stack = stack.next;
+        }
+        return stack == node;
+    }
+
+    /**
+     * Find the first line in [from, to) whose stack at line end contains the node or not. A node is
+     * contained in stacks of continuous lines, from the line it is opened to the line before it is
+     * closed, so the lines can be binary searched if the result is known to be false before and true
+     * after some line in the range, or the reverse.
+     *
+     * @param braces    Search in stacks of braces or brackets
+     * @param contained The expected result at the found line
+     * @return The found line, or {@code to} if no line is found
+     */
+    private static int findLine(@NonNull LineBlockTree<LineBlocks> lines, @NonNull OpenBracket node, boolean braces, int from, int to, boolean contained) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            var result = lines.get(mid);
+            if (contains(braces ? result.braces : result.brackets, node) == contained) {
+                to = mid;
+            } else {
+                from = mid + 1;
+            }
         }
-        return blocks;
+        return from;
     }
 
     private static int getType(int token) {
@@ -185,7 +375,7 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
 
     @Override
     public LineTokenizeResult<State, Long> tokenizeLine(CharSequence line, State state, int lineIndex) {
-        var tokens = new ArrayList<Long>();
+        var tokens = obtainTokenBuffer();
         int newState = 0;
         var stateObj = new State();
         if (state.state == STATE_NORMAL) {
@@ -199,17 +389,17 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
                 newState = STATE_INCOMPLETE_COMMENT;
             }
         }
-        if (tokens.isEmpty()) {
+        if (tokens.size() == 0) {
             tokens.add(token(Tokens.UNKNOWN, 0));
         }
         stateObj.state = newState;
-        return new LineTokenizeResult<>(stateObj, tokens);
+        return LineTokenizeResult.ofPackedTokens(stateObj, tokens.toArray());
     }
 
     /**
      * @return state and offset
      */
-    private long tryFillIncompleteComment(CharSequence line, List<Long> tokens) {
+    private long tryFillIncompleteComment(CharSequence line, LongArrayList tokens) {
         char pre = '\0', cur = '\0';
         int offset = 0;
         while ((pre != '*' || cur != '/') && offset < line.length()) {
@@ -225,7 +415,7 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
         return IntPair.pack(STATE_INCOMPLETE_COMMENT, offset);
     }
 
-    private int tokenizeNormal(CharSequence text, int offset, List<Long> tokens, State st) {
+    private int tokenizeNormal(CharSequence text, int offset, LongArrayList tokens, State st) {
         var tokenizer = obtainTokenizer();
         tokenizer.reset(text);
         tokenizer.offset = offset;
@@ -254,11 +444,11 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
     @Override
     public List<Span> generateSpansForLine(LineTokenizeResult<State, Long> lineResult) {
         var spans = new ArrayList<Span>();
-        var tokens = lineResult.tokens;
+        var tokens = lineResult.packedTokens;
         Tokens previous = Tokens.UNKNOWN;
         boolean classNamePrevious = false;
-        for (int i = 0; i < tokens.size(); i++) {
-            var tokenRecord = tokens.get(i);
+        for (int i = 0; i < tokens.length; i++) {
+            var tokenRecord = tokens[i];
             var token = ordinalToToken(IntPair.getFirst(tokenRecord));
             int offset = IntPair.getSecond(tokenRecord);
             switch (token) {
@@ -353,8 +543,8 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
                             int j = i + 1;
                             var next = Tokens.UNKNOWN;
                             label:
-                            while (j < tokens.size()) {
-                                next = ordinalToToken(IntPair.getFirst(tokens.get(j)));
+                            while (j < tokens.length) {
+                                next = ordinalToToken(IntPair.getFirst(tokens[j]));
                                 switch (next) {
                                     case WHITESPACE:
                                     case NEWLINE:
@@ -414,4 +604,147 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
     private static final int ORDINAL_RBRACE = Tokens.RBRACE.ordinal();
     private static Tokens[] mapping;
 
+    /**
+     * Node of a persistent stack of unmatched brackets. Nodes are shared by stacks of different lines.
+     */
+    private static class OpenBracket {
+
+        final OpenBracket next;
+        final int type;
+        final int column;
+        /**
+         * Count of brackets in the stack from this node
+         */
+        final int depth;
+        /**
+         * Cached line of the bracket, valid in the given epoch only. Accessed by analysis thread only.
+         */
+        int line;
+        int epoch;
+
+        OpenBracket(OpenBracket next, int type, int column, int line, int epoch) {
+            this.next = next;
+            this.type = type;
+            this.column = column;
+            this.line = line;
+            this.epoch = epoch;
+            depth = next == null ? 1 : next.depth + 1;
+        }
+
+    }
+
+    /**
+     * Code block and bracket results of a single line
+     */
+    private static class LineBlocks {
+
+        /**
+         * Unmatched braces and brackets at the end of line
+         */
+        final OpenBracket braces, brackets;
+        /**
+         * Braces and brackets opened on this line
+         */
+        final OpenBracket[] openedBraces, openedBrackets;
+        /**
+         * Bracket pairs whose right bracket is on this line, as the left brackets and columns of
+         * the right brackets
+         */
+        final OpenBracket[] pairOpeners;
+        final int[] pairColumns;
+
+        LineBlocks(OpenBracket braces, OpenBracket brackets, OpenBracket[] openedBraces, OpenBracket[] openedBrackets, OpenBracket[] pairOpeners, int[] pairColumns) {
+            this.braces = braces;
+            this.brackets = brackets;
+            this.openedBraces = openedBraces;
+            this.openedBrackets = openedBrackets;
+            this.pairOpeners = pairOpeners;
+            this.pairColumns = pairColumns;
+        }
+
+    }
+
+    /**
+     * Find paired brackets in a snapshot of line results. Positions of brackets are resolved on query,
+     * so the provider does not need to be rebuilt for unchanged lines.
+     */
+    private static class BracketsSnapshot implements BracketsProvider {
+
+        private final LineBlockTree<LineBlocks> lines;
+
+        BracketsSnapshot(@NonNull LineBlockTree<LineBlocks> lines) {
+            this.lines = lines;
+        }
+
+        @Nullable
+        @Override
+        public PairedBracket getPairedBracketAt(@NonNull Content text, int index) {
+            var res = index - 1 >= 0 ? getForIndex(text, index - 1) : null;
+            if (res == null) {
+                res = getForIndex(text, index);
+            }
+            return res;
+        }
+
+        @Nullable
+        private PairedBracket getForIndex(@NonNull Content text, int index) {
+            if (index >= text.length()) {
+                return null;
+            }
+            var pos = text.getIndexer().getCharPosition(index);
+            int line = pos.line, column = pos.column;
+            if (line >= lines.size()) {
+                return null;
+            }
+            var result = lines.get(line);
+            // Right bracket
+            var openers = result.pairOpeners;
+            for (int i = 0; openers != null && i < openers.length; i++) {
+                if (result.pairColumns[i] == column) {
+                    var opener = openers[i];
+                    int openLine = arrayContains(result.openedBrackets, opener) ? line : findLine(lines, opener, false, 0, line, true);
+                    return createPair(text, openLine, opener.column, line, column);
+                }
+            }
+            // Left bracket
+            var opened = result.openedBrackets;
+            for (int i = 0; opened != null && i < opened.length; i++) {
+                var opener = opened[i];
+                if (opener.column != column) {
+                    continue;
+                }
+                int closeLine = contains(result.brackets, opener) ? findLine(lines, opener, false, line + 1, lines.size(), false) : line;
+                if (closeLine < lines.size()) {
+                    var closeResult = lines.get(closeLine);
+                    for (int j = 0; closeResult.pairOpeners != null && j < closeResult.pairOpeners.length; j++) {
+                        if (closeResult.pairOpeners[j] == opener) {
+                            return createPair(text, line, column, closeLine, closeResult.pairColumns[j]);
+                        }
+                    }
+                }
+                return null;
+            }
+            return null;
+        }
+
+        private static boolean arrayContains(@Nullable OpenBracket[] array, @NonNull OpenBracket node) {
+            for (int i = 0; array != null && i < array.length; i++) {
+                if (array[i] == node) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Nullable
+        private static PairedBracket createPair(@NonNull Content text, int leftLine, int leftColumn, int rightLine, int rightColumn) {
+            // The text may be newer than the results
+            if (rightLine >= text.getLineCount() || leftColumn >= text.getColumnCount(leftLine) || rightColumn >= text.getColumnCount(rightLine)) {
+                return null;
+            }
+            return new PairedBracket(text.getCharIndex(leftLine, leftColumn), text.getCharIndex(rightLine, rightColumn));
+        }
+
+    }
+
 }
@@ -43,6 +43,12 @@ android {
         buildConfig = true
     }
 
+    sourceSets {
+        // Bundled grammars and samples of the demo app are used by benchmarks and tests
+        getByName("androidTest").assets.srcDir("../app/src/main/assets")
+        getByName("test").resources.srcDir("../app/src/main/assets")
+    }
+
     buildTypes {
         release {
             isMinifyEnabled = false
@@ -56,6 +62,10 @@ android {
     kotlinOptions {
         jvmTarget = "11"
     }
+    testOptions {
+        // Logging in JVM unit tests goes to the stubbed android.util.Log
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -70,6 +80,7 @@ dependencies {
     implementation(libs.jdt.annotation)
     implementation(libs.guava)
 
+    testImplementation(projects.editor)
     testImplementation(libs.junit)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.langs.textmate
+
+import android.util.Log
+import androidx.test.platform.app.InstrumentationRegistry
+import io.github.rosemoe.sora.langs.textmate.registry.GrammarRegistry
+import org.eclipse.tm4e.core.registry.IGrammarSource
+import org.eclipse.tm4e.core.registry.Registry
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+
+/**
+ * Compare time to first token of bundled grammars with and without the grammar cache.
+ */
+class GrammarCacheBenchmark {
+
+    companion object {
+        private const val TAG = "GrammarCacheBenchmark"
+        private const val ROUNDS = 10
+        private val GRAMMARS = arrayOf(
+            "textmate/java/syntaxes/java.tmLanguage.json",
+            "textmate/kotlin/syntaxes/Kotlin.tmLanguage",
+            "textmate/javascript/syntaxes/JavaScript.tmLanguage.json",
+            "textmate/python/syntaxes/python.tmLanguage.json",
+            "textmate/html/syntaxes/html.tmLanguage.json"
+        )
+    }
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+
+    private fun firstToken(path: String): String {
+        val source = instrumentation.context.assets.open(path).use {
+            IGrammarSource.fromInputStream(it, path, null)
+        }
+        val grammar = Registry().addGrammar(source)
+        return grammar.tokenizeLine2("// first line").tokens.contentToString()
+    }
+
+    private fun measure(path: String): Pair<Long, String> {
+        var result = ""
+        val start = System.nanoTime()
+        for (i in 0 until ROUNDS) {
+            result = firstToken(path)
+        }
+        return Pair((System.nanoTime() - start) / 1000 / ROUNDS, result)
+    }
+
+    @Test
+    fun benchmarkCache() {
+        val cacheDir = File(instrumentation.targetContext.cacheDir, "grammar-cache-benchmark")
+        try {
+            for (path in GRAMMARS) {
+                GrammarRegistry.setGrammarCacheDirectory(null)
+                val (parseTime, parseResult) = measure(path)
+                GrammarRegistry.setGrammarCacheDirectory(cacheDir)
+                // Fill the cache
+                firstToken(path)
+                val (cacheTime, cacheResult) = measure(path)
+                assertEquals(parseResult, cacheResult)
+                Log.i(TAG, "$path: parse ${parseTime}us, cached ${cacheTime}us")
+            }
+        } finally {
+            GrammarRegistry.setGrammarCacheDirectory(null)
+            cacheDir.deleteRecursively()
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.langs.textmate
+
+import android.util.Log
+import androidx.test.platform.app.InstrumentationRegistry
+import org.eclipse.tm4e.core.grammar.IGrammar
+import org.eclipse.tm4e.core.grammar.IStateStack
+import org.eclipse.tm4e.core.internal.grammar.TokenizeLineCache
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScanner
+import org.eclipse.tm4e.core.registry.IGrammarSource
+import org.eclipse.tm4e.core.registry.Registry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Compare tokenizer throughput of the bundled grammars with and without the start-byte prefilter
+ * of [OnigScanner], and of the Java grammar with the shared [TokenizeLineCache].
+ */
+class TokenizerBenchmark {
+
+    companion object {
+        private const val TAG = "TokenizerBenchmark"
+        private const val GRAMMAR = "textmate/java/syntaxes/java.tmLanguage.json"
+        private const val SAMPLE = "samples/big_sample.txt"
+        private const val LUA_SAMPLE = "testProject/sample.lua"
+        private const val GRAMMARS_DIR = "textmate"
+        /**
+         * Lines of [SAMPLE] tokenized by each grammar in the prefilter benchmark
+         */
+        private const val PREFILTER_SAMPLE_LINES = 5000
+    }
+
+    private val assets = InstrumentationRegistry.getInstrumentation().context.assets
+
+    private fun loadGrammar(path: String = GRAMMAR): IGrammar {
+        return assets.open(path).use {
+            Registry().addGrammar(IGrammarSource.fromInputStream(it, path, null))
+        }
+    }
+
+    /**
+     * Paths of all grammar files in the bundled assets
+     */
+    private fun listGrammars(): List<String> {
+        return assets.list(GRAMMARS_DIR)!!.flatMap { language ->
+            val dir = "$GRAMMARS_DIR/$language/syntaxes"
+            (assets.list(dir) ?: emptyArray()).map { "$dir/$it" }
+        }.sorted()
+    }
+
+    private fun readLines(path: String) = assets.open(path).bufferedReader().use { it.readLines() }
+
+    private fun measure(lines: List<String>, prefilter: Boolean, grammar: String = GRAMMAR): Pair<Long, List<String>> {
+        OnigScanner.setPrefilterEnabled(prefilter)
+        // New grammar so that compiled scanners are not shared between runs
+        return tokenize(loadGrammar(grammar), lines)
+    }
+
+    private fun tokenize(grammar: IGrammar, lines: List<String>): Pair<Long, List<String>> {
+        val tokens = ArrayList<String>(lines.size)
+        var state: IStateStack? = null
+        val start = System.nanoTime()
+        for (line in lines) {
+            val result = grammar.tokenizeLine2(line, state, null)
+            state = result.ruleStack
+            tokens.add(result.tokens.contentToString())
+        }
+        return Pair((System.nanoTime() - start) / 1000000, tokens)
+    }
+
+    @Test
+    fun benchmarkPrefilter() {
+        // Samples are not available for every language. Patterns of all the grammars are still
+        // run on the same text, and the tokens must be the same with and without the prefilter.
+        val lines = readLines(SAMPLE).take(PREFILTER_SAMPLE_LINES) + readLines(LUA_SAMPLE)
+        val grammars = listGrammars()
+        assertTrue(grammars.isNotEmpty())
+        try {
+            for (grammar in grammars) {
+                // Warm up
+                measure(lines, true, grammar)
+                val (plainTime, plainTokens) = measure(lines, false, grammar)
+                val (prefilterTime, prefilterTokens) = measure(lines, true, grammar)
+                assertEquals("tokens of $grammar", plainTokens, prefilterTokens)
+                Log.i(TAG, "${lines.size} lines with $grammar: plain ${plainTime}ms, prefilter ${prefilterTime}ms")
+            }
+        } finally {
+            OnigScanner.setPrefilterEnabled(true)
+        }
+    }
+
+    @Test
+    fun benchmarkTokenizeCache() {
+        val lines = readLines(SAMPLE)
+        val (plainTime, plainTokens) = measure(lines, true)
+        try {
+            TokenizeLineCache.setMemoryLimit(64L * 1024 * 1024)
+            // The same grammar is used, as cache entries are keyed by grammar
+            val grammar = loadGrammar()
+            val (coldTime, coldTokens) = tokenize(grammar, lines)
+            val (warmTime, warmTokens) = tokenize(grammar, lines)
+            assertEquals(plainTokens, coldTokens)
+            assertEquals(plainTokens, warmTokens)
+            Log.i(TAG, "${lines.size} lines of Java: plain ${plainTime}ms, cold cache ${coldTime}ms, warm cache ${warmTime}ms")
+        } finally {
+            TokenizeLineCache.setMemoryLimit(0)
+            TokenizeLineCache.clear()
+        }
+    }
+
+}
@@ -35,17 +35,16 @@ import java.util.List;
 import java.util.Objects;
 
 import io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager;
-import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
 import io.github.rosemoe.sora.lang.brackets.OnlineBracketsMatcher;
 import io.github.rosemoe.sora.lang.completion.IdentifierAutoComplete;
 import io.github.rosemoe.sora.lang.styling.CodeBlock;
 import io.github.rosemoe.sora.lang.styling.Span;
+import io.github.rosemoe.sora.lang.styling.Spans;
 import io.github.rosemoe.sora.lang.styling.TextStyle;
 import io.github.rosemoe.sora.langs.textmate.folding.FoldingHelper;
 import io.github.rosemoe.sora.langs.textmate.folding.IndentRange;
 import io.github.rosemoe.sora.langs.textmate.registry.ThemeRegistry;
 import io.github.rosemoe.sora.langs.textmate.registry.model.ThemeModel;
-import io.github.rosemoe.sora.langs.textmate.utils.StringUtils;
 import io.github.rosemoe.sora.text.Content;
 
 import org.eclipse.tm4e.core.grammar.IGrammar;
@@ -78,7 +77,7 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
 
     private OnigRegExp cachedRegExp;
     private boolean foldingOffside;
-    private BracketsProvider bracketsProvider;
+    private OnlineBracketsMatcher bracketsProvider;
     final IdentifierAutoComplete.SyncIdentifiers syncIdentifiers = new IdentifierAutoComplete.SyncIdentifiers();
 
 
@@ -117,7 +116,14 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
                     pairArr[i * 2 + 1] = pair.close.charAt(0);
                     i++;
                 }
-                bracketsProvider = new OnlineBracketsMatcher(pairArr, 100000);
+                bracketsProvider = new OnlineBracketsMatcher(pairArr, 100000) {
+                    @Override
+                    protected boolean isCodeSpan(@NonNull Spans.Reader reader, int index) {
+                        // Token type is stored as extra of span
+                        var tokenType = reader.getSpanAt(index).extra;
+                        return !(tokenType instanceof Integer) || (Integer) tokenType == StandardTokenType.Other;
+                    }
+                };
             }
         } else {
             configuration = null;
@@ -167,6 +173,9 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
         var list = new ArrayList<CodeBlock>();
         analyzeCodeBlocks(text, list, delegate);
         if (delegate.isNotCancelled()) {
+            if (bracketsProvider != null) {
+                bracketsProvider.setSpans(getManagedStyles().spans);
+            }
             withReceiver(r -> r.updateBracketProvider(this, bracketsProvider));
         }
         return list;
@@ -209,12 +218,12 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
     public synchronized LineTokenizeResult<MyState, Span> tokenizeLine(CharSequence lineC, MyState state, int lineIndex) {
         String line = (lineC instanceof ContentLine) ? ((ContentLine) lineC).toStringWithNewline() : lineC.toString();
         var tokens = new ArrayList<Span>();
-        var surrogate = StringUtils.checkSurrogate(line);
         var lineTokens = grammar.tokenizeLine2(line, state == null ? null : state.tokenizeState, Duration.ofSeconds(2));
         int tokensLength = lineTokens.getTokens().length / 2;
         var identifiers = language.createIdentifiers ? new ArrayList<String>() : null;
         for (int i = 0; i < tokensLength; i++) {
-            int startIndex = StringUtils.convertUnicodeOffsetToUtf16(line, lineTokens.getTokens()[2 * i], surrogate);
+            // Token offsets are UTF-16 indexes of the line
+            int startIndex = lineTokens.getTokens()[2 * i];
             if (i == 0 && startIndex != 0) {
                 tokens.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
             }
@@ -225,7 +234,7 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
             if (language.createIdentifiers) {
 
                 if (tokenType == StandardTokenType.Other) {
-                    var end = i + 1 == tokensLength ? lineC.length() : StringUtils.convertUnicodeOffsetToUtf16(line, lineTokens.getTokens()[2 * (i + 1)], surrogate);
+                    var end = i + 1 == tokensLength ? lineC.length() : lineTokens.getTokens()[2 * (i + 1)];
                     if (end > startIndex && MyCharacter.isJavaIdentifierStart(line.charAt(startIndex))) {
                         var flag = true;
                         for (int j = startIndex + 1; j < end; j++) {
@@ -27,11 +27,14 @@ import android.util.Pair;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tm4e.core.grammar.IGrammar;
+import org.eclipse.tm4e.core.internal.grammar.RawGrammarCache;
+import org.eclipse.tm4e.core.internal.grammar.TokenizeLineCache;
 import org.eclipse.tm4e.core.registry.IGrammarSource;
 import org.eclipse.tm4e.core.registry.IThemeSource;
 import org.eclipse.tm4e.core.registry.Registry;
 import org.eclipse.tm4e.languageconfiguration.model.LanguageConfiguration;
 
+import java.io.File;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.HashMap;
@@ -65,6 +68,29 @@ public class GrammarRegistry {
 
     private final Map<String, GrammarDefinition> scopeName2GrammarDefinition = new LinkedHashMap<>();
 
+    /**
+     * Set the directory to cache parsed grammars in, for example a directory in
+     * {@code Context#getCacheDir()}. Cached grammars are used by all registries when the grammar
+     * content is not changed, so that grammar files are not parsed again on later starts.
+     *
+     * @param directory The cache directory, or {@code null} to disable the cache. Disabled by default.
+     */
+    public static void setGrammarCacheDirectory(@Nullable File directory) {
+        RawGrammarCache.setDirectory(directory);
+    }
+
+    /**
+     * Set the memory limit of the line tokenization cache shared by all registries and editors.
+     * Lines with the same text and start state are then tokenized only once, for example the
+     * license headers of files opened in one session.
+     *
+     * @param bytes Maximum memory used by cached results in bytes, or {@code 0} to disable the cache.
+     *              Disabled by default.
+     */
+    public static void setTokenizeCacheMemoryLimit(long bytes) {
+        TokenizeLineCache.setMemoryLimit(bytes);
+    }
+
     public synchronized static GrammarRegistry getInstance() {
         if (instance == null) {
             instance = new GrammarRegistry();
@@ -54,8 +54,8 @@ public final class AttributedScopeStack {
 	}
 
 	@Nullable
-	private final AttributedScopeStack parent;
-	private final ScopeStack scopePath;
+	final AttributedScopeStack parent;
+	final ScopeStack scopePath;
 	final int tokenAttributes;
 
 	public AttributedScopeStack(
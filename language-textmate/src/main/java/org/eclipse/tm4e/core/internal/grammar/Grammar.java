@@ -80,6 +80,11 @@ public final class Grammar implements IGrammar, IRuleFactoryHelper {
 
     @Nullable
     private final BalancedBracketSelectors balancedBracketSelectors;
+    private final StackInterner stackInterner = new StackInterner();
+    /**
+     * Whether line end states are interned. Only disabled by tests, to compare results.
+     */
+    private boolean internStates = true;
 
     public Grammar(
             final String rootScopeName,
@@ -271,7 +276,24 @@ public final class Grammar implements IGrammar, IRuleFactoryHelper {
     @Override
     public ITokenizeLineResult<int[]> tokenizeLine2(final String lineText, @Nullable final IStateStack prevState,
                                                     @Nullable final Duration timeLimit) {
-        return _tokenize(lineText, (StateStack) prevState, true, timeLimit);
+        if (!TokenizeLineCache.isEnabled()) {
+            return _tokenize(lineText, (StateStack) prevState, true, timeLimit);
+        }
+        var startState = (StateStack) prevState;
+        if (startState != null) {
+            startState = startState.equals(StateStack.NULL) ? null : stackInterner.intern(startState);
+        }
+        final var themeDefaults = this.themeProvider.getDefaults();
+        final var key = TokenizeLineCache.createKey(this, themeDefaults, startState, lineText);
+        var result = TokenizeLineCache.get(key);
+        if (result == null) {
+            result = _tokenize(lineText, startState, true, timeLimit);
+            // Results of a theme switched during tokenization are not stored
+            if (!result.isStoppedEarly() && themeDefaults == this.themeProvider.getDefaults()) {
+                TokenizeLineCache.put(key, result);
+            }
+        }
+        return result;
     }
 
     @SuppressWarnings("unchecked")
@@ -353,12 +375,15 @@ public final class Grammar implements IGrammar, IRuleFactoryHelper {
                 true,
                 timeLimit == null ? Duration.ZERO : timeLimit);
 
-        if (emitBinaryTokens) {
-            return (T) new TokenizeLineResult<>(lineTokens.getBinaryResult(tokenizeResult.stack, lineLength),
-                    tokenizeResult.stack, tokenizeResult.stoppedEarly);
-        }
-        return (T) new TokenizeLineResult<>(lineTokens.getResult(tokenizeResult.stack, lineLength),
-                tokenizeResult.stack, tokenizeResult.stoppedEarly);
+        final var tokens = emitBinaryTokens ? lineTokens.getBinaryResult(tokenizeResult.stack, lineLength)
+                : lineTokens.getResult(tokenizeResult.stack, lineLength);
+        // Lines in the same state share their stacks
+        final var nextState = internStates ? stackInterner.intern(tokenizeResult.stack) : tokenizeResult.stack;
+        return (T) new TokenizeLineResult<>(tokens, nextState, tokenizeResult.stoppedEarly);
+    }
+
+    void setInternStates(final boolean internStates) {
+        this.internStates = internStates;
     }
 
     @Override
@@ -16,6 +16,10 @@
  */
 package org.eclipse.tm4e.core.internal.grammar;
 
+import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+
 import org.eclipse.tm4e.core.internal.parser.PListParser;
 import org.eclipse.tm4e.core.internal.parser.PListParserJSON;
 import org.eclipse.tm4e.core.internal.parser.PListParserXML;
@@ -60,16 +64,46 @@ public final class GrammarReader {
     private static final PListParser<RawGrammar> YAML_PARSER = new PListParserYAML<>(OBJECT_FACTORY);
 
     public static IRawGrammar readGrammar(final IGrammarSource source) throws Exception {
+        final var cacheDirectory = RawGrammarCache.getDirectory();
+        if (cacheDirectory != null) {
+            return readGrammarCached(source, cacheDirectory);
+        }
+        try (var reader = source.getReader()) {
+            return parse(source.getContentType(), reader);
+        }
+    }
+
+    private static IRawGrammar readGrammarCached(final IGrammarSource source, final File cacheDirectory) throws Exception {
+        final String content;
         try (var reader = source.getReader()) {
-            switch (source.getContentType()) {
-                case JSON:
-                    return JSON_PARSER.parse(reader);
-                case YAML:
-                    return YAML_PARSER.parse(reader);
-                case XML:
-                default:
-                    return XML_PARSER.parse(reader);
+            final var builder = new StringBuilder();
+            final var buffer = new char[8192];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, count);
             }
+            content = builder.toString();
+        }
+        final var contentType = source.getContentType();
+        final var key = RawGrammarCache.computeKey(contentType, content);
+        final var cached = RawGrammarCache.read(cacheDirectory, key);
+        if (cached != null) {
+            return cached;
+        }
+        final var grammar = parse(contentType, new StringReader(content));
+        RawGrammarCache.write(cacheDirectory, key, grammar);
+        return grammar;
+    }
+
+    private static RawGrammar parse(final IGrammarSource.ContentType contentType, final Reader reader) throws Exception {
+        switch (contentType) {
+            case JSON:
+                return JSON_PARSER.parse(reader);
+            case YAML:
+                return YAML_PARSER.parse(reader);
+            case XML:
+            default:
+                return XML_PARSER.parse(reader);
         }
     }
 
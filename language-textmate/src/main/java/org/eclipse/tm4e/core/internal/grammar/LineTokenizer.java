@@ -153,7 +153,7 @@ final class LineTokenizer {
         if (r == null) {
             //LOGGER.d(" no more matches.");
             // No match
-            lineTokens.produce(stack, lineText.bytesCount);
+            lineTokens.produce(stack, lineText.content.length());
             stop = true;
             return;
         }
@@ -192,7 +192,7 @@ final class LineTokenizer {
                 // intent was to continue in this state
                 stack = popped;
 
-                lineTokens.produce(stack, lineText.bytesCount);
+                lineTokens.produce(stack, lineText.content.length());
                 stop = true;
                 return;
             }
@@ -212,7 +212,7 @@ final class LineTokenizer {
                     matchedRuleId,
                     linePos,
                     anchorPosition,
-                    captureIndices[0].end == lineText.bytesCount,
+                    captureIndices[0].end == lineText.content.length(),
                     null,
                     nameScopesList,
                     nameScopesList);
@@ -251,7 +251,7 @@ final class LineTokenizer {
                     LOGGER.d(
                             "[2] - Grammar is in an endless loop - Grammar pushed the same rule without advancing");
                     stack = castNonNull(stack.pop());
-                    lineTokens.produce(stack, lineText.bytesCount);
+                    lineTokens.produce(stack, lineText.content.length());
                     stop = true;
                     return;
                 }
@@ -292,7 +292,7 @@ final class LineTokenizer {
                     // Grammar pushed the same rule without advancing
                     LOGGER.d("[3] - Grammar is in an endless loop - Grammar pushed the same rule without advancing");
                     stack = castNonNull(stack.pop());
-                    lineTokens.produce(stack, lineText.bytesCount);
+                    lineTokens.produce(stack, lineText.content.length());
                     stop = true;
                     return;
                 }
@@ -320,7 +320,7 @@ final class LineTokenizer {
                     // Grammar is not advancing, nor is it pushing/popping
                     LOGGER.d("[4] - Grammar is in an endless loop - Grammar is not advancing, nor is it pushing/popping");
                     stack = stack.safePop();
-                    lineTokens.produce(stack, lineText.bytesCount);
+                    lineTokens.produce(stack, lineText.content.length());
                     stop = true;
                     return;
                 }
@@ -0,0 +1,335 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tm4e.core.internal.parser.PropertySettable;
+import org.eclipse.tm4e.core.registry.IGrammarSource;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import io.github.rosemoe.sora.util.Logger;
+
+/**
+ * On-disk cache of parsed raw grammars, so that grammar files are not parsed again on every
+ * start. Entries are keyed by the hash of grammar content, and stored in a compact binary
+ * format with a shared string table, followed by a CRC32 of the entry. They are read with memory-mapped IO.
+ * <p>
+ * Only the raw grammar is cached. Rules and regular expressions are still compiled lazily from it.
+ */
+public final class RawGrammarCache {
+
+    private static final Logger LOGGER = Logger.instance(RawGrammarCache.class.getName());
+
+    private static final int MAGIC = 0x544d4743; // TMGC
+    private static final int VERSION = 2;
+    private static final String FILE_SUFFIX = ".tmgc";
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_REAL = 3;
+    private static final byte TYPE_TRUE = 4;
+    private static final byte TYPE_FALSE = 5;
+    private static final byte TYPE_DATE = 6;
+    private static final byte TYPE_ARRAY = 7;
+    private static final byte TYPE_GRAMMAR = 8;
+    private static final byte TYPE_RULE = 9;
+    private static final byte TYPE_REPOSITORY = 10;
+    private static final byte TYPE_CAPTURES = 11;
+
+    @Nullable
+    private static volatile File directory;
+
+    /**
+     * Set the directory to store cached grammars in, or {@code null} to disable the cache.
+     * The directory is created when it does not exist.
+     */
+    public static void setDirectory(@Nullable final File directory) {
+        RawGrammarCache.directory = directory;
+    }
+
+    @Nullable
+    public static File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Compute the cache key of the given grammar content
+     */
+    static String computeKey(final IGrammarSource.ContentType contentType, final String content) {
+        // Two independent 64-bit hashes, together with the content length
+        long h1 = 0xcbf29ce484222325L;
+        long h2 = contentType.ordinal();
+        final int length = content.length();
+        for (int i = 0; i < length; i++) {
+            final char ch = content.charAt(i);
+            h1 = (h1 ^ ch) * 0x100000001b3L;
+            h2 = h2 * 31 + ch;
+        }
+        return Long.toHexString(h1) + Long.toHexString(h2) + Integer.toHexString(length);
+    }
+
+    /**
+     * Read the cached grammar of the given key
+     *
+     * @return {@code null} if there is no valid entry for the key
+     */
+    @Nullable
+    static RawGrammar read(final File directory, final String key) {
+        final var file = new File(directory, key + FILE_SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (var raf = new RandomAccessFile(file, "r"); var channel = raf.getChannel()) {
+            final long size = channel.size();
+            if (size < 12 || size > Integer.MAX_VALUE) {
+                throw new IOException("invalid size " + size);
+            }
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            final int dataSize = (int) size - 4;
+            if (buffer.getInt(dataSize) != computeChecksum(buffer, dataSize)) {
+                throw new IOException("checksum mismatch");
+            }
+            buffer.limit(dataSize);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("unknown format");
+            }
+            final var strings = new String[buffer.getInt()];
+            var bytes = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                final int length = buffer.getInt();
+                if (bytes.length < length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                buffer.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+            final var result = new Reader(buffer, strings).readValue();
+            if (!(result instanceof RawGrammar) || buffer.hasRemaining()) {
+                throw new IOException("malformed entry");
+            }
+            return (RawGrammar) result;
+        } catch (final Exception e) {
+            LOGGER.w("Failed to read cached grammar %s, deleting it", e, file);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        }
+    }
+
+    private static int computeChecksum(final ByteBuffer buffer, final int length) {
+        final var crc = new CRC32();
+        final var bytes = new byte[8192];
+        final var data = buffer.duplicate();
+        data.position(0);
+        for (int remaining = length; remaining > 0; ) {
+            final int count = Math.min(remaining, bytes.length);
+            data.get(bytes, 0, count);
+            crc.update(bytes, 0, count);
+            remaining -= count;
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Store the grammar parsed from content of the given key. Failures are logged and ignored.
+     */
+    static void write(final File directory, final String key, final RawGrammar grammar) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.w("Failed to create grammar cache directory %s", directory);
+            return;
+        }
+        final var file = new File(directory, key + FILE_SUFFIX);
+        final var tempFile = new File(directory, key + FILE_SUFFIX + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            final var writer = new Writer();
+            writer.collectStrings(grammar);
+            final var checkedOut = new CheckedOutputStream(new FileOutputStream(tempFile), new CRC32());
+            try (var out = new DataOutputStream(new BufferedOutputStream(checkedOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(writer.strings.size());
+                for (final String str : writer.strings) {
+                    final var bytes = str.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                writer.writeValue(out, grammar);
+                out.flush();
+                out.writeInt((int) checkedOut.getChecksum().getValue());
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("failed to rename " + tempFile);
+            }
+        } catch (final Exception e) {
+            LOGGER.w("Failed to write cached grammar %s", e, file);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Writes values of a raw grammar, with strings replaced by their indexes in the string table
+     */
+    private static final class Writer {
+
+        final List<String> strings = new ArrayList<>();
+        final Map<String, Integer> stringIndexes = new HashMap<>();
+
+        void collectStrings(final Object value) throws IOException {
+            if (value instanceof String) {
+                addString((String) value);
+            } else if (value instanceof ZonedDateTime) {
+                addString(value.toString());
+            } else if (value instanceof List) {
+                for (final Object item : (List<?>) value) {
+                    collectStrings(item);
+                }
+            } else if (value instanceof Map) {
+                for (final var entry : ((Map<?, ?>) value).entrySet()) {
+                    addString((String) entry.getKey());
+                    collectStrings(entry.getValue());
+                }
+            }
+        }
+
+        private void addString(final String str) {
+            if (!stringIndexes.containsKey(str)) {
+                stringIndexes.put(str, strings.size());
+                strings.add(str);
+            }
+        }
+
+        void writeValue(final DataOutputStream out, final @Nullable Object value) throws IOException {
+            if (value instanceof String) {
+                out.writeByte(TYPE_STRING);
+                out.writeInt(stringIndexes.get(value));
+            } else if (value instanceof Integer) {
+                out.writeByte(TYPE_INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TYPE_REAL);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+            } else if (value instanceof ZonedDateTime) {
+                out.writeByte(TYPE_DATE);
+                out.writeInt(stringIndexes.get(value.toString()));
+            } else if (value instanceof List) {
+                final var list = (List<?>) value;
+                out.writeByte(TYPE_ARRAY);
+                out.writeInt(list.size());
+                for (final Object item : list) {
+                    writeValue(out, item);
+                }
+            } else if (value != null && (value.getClass() == RawGrammar.class || value.getClass() == RawRule.class
+                    || value.getClass() == RawRepository.class || value.getClass() == RawCaptures.class)) {
+                final var map = (Map<?, ?>) value;
+                out.writeByte(value instanceof RawGrammar ? TYPE_GRAMMAR : value instanceof RawRule ? TYPE_RULE
+                        : value instanceof RawRepository ? TYPE_REPOSITORY : TYPE_CAPTURES);
+                out.writeInt(map.size());
+                for (final var entry : map.entrySet()) {
+                    out.writeInt(stringIndexes.get(entry.getKey()));
+                    writeValue(out, entry.getValue());
+                }
+            } else {
+                throw new IOException("unsupported value " + value);
+            }
+        }
+    }
+
+    /**
+     * Reads values written by {@link Writer}
+     */
+    private static final class Reader {
+
+        private final ByteBuffer buffer;
+        private final String[] strings;
+
+        Reader(final ByteBuffer buffer, final String[] strings) {
+            this.buffer = buffer;
+            this.strings = strings;
+        }
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Object readValue() throws IOException {
+            final byte type = buffer.get();
+            switch (type) {
+                case TYPE_STRING:
+                    return strings[buffer.getInt()];
+                case TYPE_INTEGER:
+                    return buffer.getInt();
+                case TYPE_REAL:
+                    return buffer.getFloat();
+                case TYPE_TRUE:
+                    return Boolean.TRUE;
+                case TYPE_FALSE:
+                    return Boolean.FALSE;
+                case TYPE_DATE:
+                    return ZonedDateTime.parse(strings[buffer.getInt()]);
+                case TYPE_ARRAY: {
+                    final int size = buffer.getInt();
+                    final var list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case TYPE_GRAMMAR:
+                case TYPE_RULE:
+                case TYPE_REPOSITORY:
+                case TYPE_CAPTURES: {
+                    final PropertySettable map = type == TYPE_GRAMMAR ? new RawGrammar() : type == TYPE_RULE ? new RawRule()
+                            : type == TYPE_REPOSITORY ? new RawRepository() : new RawCaptures();
+                    final int size = buffer.getInt();
+                    for (int i = 0; i < size; i++) {
+                        final String name = strings[buffer.getInt()];
+                        map.setProperty(name, readValue());
+                    }
+                    return map;
+                }
+                default:
+                    throw new IOException("unknown value type " + type);
+            }
+        }
+    }
+
+    private RawGrammarCache() {
+    }
+}
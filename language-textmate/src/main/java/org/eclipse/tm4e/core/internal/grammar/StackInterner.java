@@ -0,0 +1,181 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Hash-consing of line end states of a grammar. Identical {@link StateStack}s,
+ * {@link AttributedScopeStack}s and {@link ScopeStack}s are kept as one canonical object, so that
+ * lines in the same state share their stacks, and equal states are mostly the same reference.
+ * <p>
+ * Canonical objects are weakly referenced, and released when no line state uses them.
+ */
+final class StackInterner {
+
+    private final Table<StateStack> stateStacks = new Table<>();
+    private final Table<AttributedScopeStack> attributedScopeStacks = new Table<>();
+    private final Table<ScopeStack> scopeStacks = new Table<>();
+
+    /**
+     * Get the canonical stack equal to the given one, including all fields that affect later
+     * tokenization. The positions of returned elements are reset, as they are meaningless across
+     * lines.
+     * <p>
+     * Note that elements of the given stack can become canonical themselves, and their positions
+     * are then reset in place. So the caller's stack is modified, just like {@link StateStack#reset()}
+     * does when the next line is tokenized from it.
+     */
+    synchronized StateStack intern(final StateStack stack) {
+        final var parent = stack.parent == null ? null : intern(stack.parent);
+        final var nameScopesList = intern(stack.nameScopesList);
+        final var contentNameScopesList = intern(stack.contentNameScopesList);
+        final var key = new Key(parent, nameScopesList, contentNameScopesList, stack.endRule,
+                stack.ruleId.id * 2 + (stack.beginRuleCapturedEOL ? 1 : 0));
+        var result = stateStacks.get(key);
+        if (result == null) {
+            if (parent == stack.parent && nameScopesList == stack.nameScopesList
+                    && contentNameScopesList == stack.contentNameScopesList) {
+                result = stack;
+                result.resetPositions();
+            } else {
+                result = new StateStack(parent, stack.ruleId, -1, -1, stack.beginRuleCapturedEOL, stack.endRule,
+                        nameScopesList, contentNameScopesList);
+            }
+            stateStacks.put(key, result);
+        }
+        return result;
+    }
+
+    private AttributedScopeStack intern(final AttributedScopeStack stack) {
+        final var parent = stack.parent == null ? null : intern(stack.parent);
+        final var scopePath = intern(stack.scopePath);
+        final var key = new Key(parent, scopePath, null, null, stack.tokenAttributes);
+        var result = attributedScopeStacks.get(key);
+        if (result == null) {
+            result = parent == stack.parent && scopePath == stack.scopePath ? stack
+                    : new AttributedScopeStack(parent, scopePath, stack.tokenAttributes);
+            attributedScopeStacks.put(key, result);
+        }
+        return result;
+    }
+
+    private ScopeStack intern(final ScopeStack stack) {
+        final var parent = stack.parent == null ? null : intern(stack.parent);
+        final var key = new Key(parent, null, null, stack.scopeName, 0);
+        var result = scopeStacks.get(key);
+        if (result == null) {
+            result = parent == stack.parent ? stack : new ScopeStack(parent, stack.scopeName);
+            scopeStacks.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Key of a stack element. Stack references are compared by identity, as they are canonical.
+     */
+    private static final class Key {
+
+        @Nullable
+        private final Object ref1, ref2, ref3;
+        @Nullable
+        private final String name;
+        private final int value;
+        private final int hash;
+
+        Key(@Nullable final Object ref1, @Nullable final Object ref2, @Nullable final Object ref3,
+            @Nullable final String name, final int value) {
+            this.ref1 = ref1;
+            this.ref2 = ref2;
+            this.ref3 = ref3;
+            this.name = name;
+            this.value = value;
+            int h = System.identityHashCode(ref1);
+            h = h * 31 + System.identityHashCode(ref2);
+            h = h * 31 + System.identityHashCode(ref3);
+            h = h * 31 + Objects.hashCode(name);
+            hash = h * 31 + value;
+        }
+
+        @Override
+        public boolean equals(@Nullable final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final var other = (Key) obj;
+            return hash == other.hash && value == other.value && ref1 == other.ref1 && ref2 == other.ref2
+                    && ref3 == other.ref3 && Objects.equals(name, other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Map from keys to weakly referenced canonical objects
+     */
+    private static final class Table<T> {
+
+        private final HashMap<Key, Entry<T>> map = new HashMap<>();
+        private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+        @Nullable
+        T get(final Key key) {
+            expunge();
+            final var entry = map.get(key);
+            return entry == null ? null : entry.get();
+        }
+
+        void put(final Key key, final T value) {
+            map.put(key, new Entry<>(value, key, queue));
+        }
+
+        @SuppressWarnings("unchecked")
+        private void expunge() {
+            Entry<T> entry;
+            while ((entry = (Entry<T>) queue.poll()) != null) {
+                if (map.get(entry.key) == entry) {
+                    map.remove(entry.key);
+                }
+            }
+        }
+    }
+
+    private static final class Entry<T> extends WeakReference<T> {
+
+        final Key key;
+
+        Entry(final T referent, final Key key, final ReferenceQueue<T> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+}
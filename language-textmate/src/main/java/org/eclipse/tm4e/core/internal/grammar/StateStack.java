@@ -70,12 +70,12 @@ public final class StateStack implements IStateStack {
      * The previous state on the stack (or null for the root state).
      */
     @Nullable
-    private final StateStack parent;
+    final StateStack parent;
 
     /**
      * The state (rule) that this element represents.
      */
-    private final RuleId ruleId;
+    final RuleId ruleId;
 
     /**
      * The state has entered and captured \n. This means that the next line should have an anchorPosition of 0.
@@ -194,6 +194,14 @@ public final class StateStack implements IStateStack {
         }
     }
 
+    /**
+     * Reset the positions of this element only
+     */
+    void resetPositions() {
+        _enterPos = -1;
+        _anchorPos = -1;
+    }
+
     @Nullable
     StateStack pop() {
         return parent;
@@ -0,0 +1,197 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tm4e.core.internal.theme.StyleAttributes;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide LRU cache of binary line tokenization results, shared by all grammars. Entries are
+ * keyed by the grammar, its theme, the interned start state and the line text, so that lines
+ * repeated across documents, such as license headers and imports, are tokenized only once.
+ * <p>
+ * The cache is bounded by the estimated memory of its entries, and disabled by default.
+ * Cached token arrays are shared by all callers, and must not be modified.
+ * <p>
+ * Grammars are weakly referenced by the cache, and entries of a grammar are removed once the
+ * grammar is collected, for example after its registry is disposed.
+ */
+public final class TokenizeLineCache {
+
+    /**
+     * Estimated memory of a cache entry without its line text and tokens
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private static final Map<Key, TokenizeLineResult<int[]>> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private static final ReferenceQueue<Grammar> collectedGrammars = new ReferenceQueue<>();
+    private static volatile long memoryLimit;
+    private static long memoryUsage;
+
+    /**
+     * Set the maximum memory used by cached results in bytes, or {@code 0} to disable the cache.
+     */
+    public static synchronized void setMemoryLimit(final long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("negative memory limit");
+        }
+        memoryLimit = bytes;
+        trimToLimit();
+    }
+
+    public static long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public static boolean isEnabled() {
+        return memoryLimit > 0;
+    }
+
+    /**
+     * Remove all cached results
+     */
+    public static synchronized void clear() {
+        entries.clear();
+        memoryUsage = 0;
+    }
+
+    static Key createKey(final Grammar grammar, final StyleAttributes themeDefaults,
+                         @Nullable final StateStack prevState, final String lineText) {
+        return new Key(grammar, themeDefaults, prevState, lineText);
+    }
+
+    /**
+     * Get the estimated memory used by cached results in bytes
+     */
+    static synchronized long getMemoryUsage() {
+        removeCollectedGrammars();
+        return memoryUsage;
+    }
+
+    @Nullable
+    static synchronized TokenizeLineResult<int[]> get(final Key key) {
+        removeCollectedGrammars();
+        return entries.get(key);
+    }
+
+    static synchronized void put(final Key key, final TokenizeLineResult<int[]> result) {
+        removeCollectedGrammars();
+        final long size = estimateSize(key, result);
+        if (size > memoryLimit / 2) {
+            return;
+        }
+        final var previous = entries.put(key, result);
+        if (previous != null) {
+            memoryUsage -= estimateSize(key, previous);
+        }
+        memoryUsage += size;
+        trimToLimit();
+    }
+
+    private static void trimToLimit() {
+        final Iterator<Map.Entry<Key, TokenizeLineResult<int[]>>> itr = entries.entrySet().iterator();
+        while (memoryUsage > memoryLimit && itr.hasNext()) {
+            final var entry = itr.next();
+            memoryUsage -= estimateSize(entry.getKey(), entry.getValue());
+            itr.remove();
+        }
+    }
+
+    private static void removeCollectedGrammars() {
+        boolean collected = false;
+        while (collectedGrammars.poll() != null) {
+            collected = true;
+        }
+        if (!collected) {
+            return;
+        }
+        final Iterator<Map.Entry<Key, TokenizeLineResult<int[]>>> itr = entries.entrySet().iterator();
+        while (itr.hasNext()) {
+            final var entry = itr.next();
+            if (entry.getKey().grammar.get() == null) {
+                memoryUsage -= estimateSize(entry.getKey(), entry.getValue());
+                itr.remove();
+            }
+        }
+    }
+
+    private static long estimateSize(final Key key, final TokenizeLineResult<int[]> result) {
+        return ENTRY_OVERHEAD + 2L * key.lineText.length() + 4L * result.getTokens().length;
+    }
+
+    /**
+     * Cache key. Grammars, themes and states are compared by reference, as start states are
+     * interned by their grammars. The grammar is weakly referenced, and keys of collected
+     * grammars are equal to no other key.
+     */
+    static final class Key {
+
+        final WeakReference<Grammar> grammar;
+        final StyleAttributes themeDefaults;
+        @Nullable
+        final StateStack prevState;
+        final String lineText;
+        private final int hash;
+
+        Key(final Grammar grammar, final StyleAttributes themeDefaults, @Nullable final StateStack prevState,
+            final String lineText) {
+            this.grammar = new WeakReference<>(grammar, collectedGrammars);
+            this.themeDefaults = themeDefaults;
+            this.prevState = prevState;
+            this.lineText = lineText;
+            int h = System.identityHashCode(grammar);
+            h = h * 31 + System.identityHashCode(themeDefaults);
+            h = h * 31 + System.identityHashCode(prevState);
+            this.hash = h * 31 + lineText.hashCode();
+        }
+
+        @Override
+        public boolean equals(@Nullable final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final var other = (Key) obj;
+            if (hash != other.hash) {
+                return false;
+            }
+            final var grammar = this.grammar.get();
+            return grammar != null && grammar == other.grammar.get() && themeDefaults == other.themeDefaults
+                    && prevState == other.prevState && lineText.equals(other.lineText);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -48,6 +48,14 @@ public final class OnigRegExp {
 
 	private final Regex regex;
 
+	/**
+	 * Matcher kept for the next search on the same bytes
+	 */
+	@Nullable
+	private Matcher cachedMatcher;
+
+	private byte @Nullable [] cachedMatcherBytes;
+
 	private final boolean hasGAnchor;
 
 	public OnigRegExp(final String source) {
@@ -88,12 +96,28 @@ public final class OnigRegExp {
 
 	@Nullable
 	private OnigResult search(final byte[] data, final int startPosition, final int end) {
-		final Matcher matcher = regex.matcher(data);
+		Matcher matcher = null;
+		synchronized (this) {
+			if (cachedMatcherBytes == data) {
+				matcher = cachedMatcher;
+				cachedMatcher = null;
+			}
+		}
+		if (matcher == null) {
+			matcher = regex.matcher(data);
+		}
 		final int status = matcher.search(startPosition, end, Option.DEFAULT);
+		OnigResult result = null;
 		if (status != Matcher.FAILED) {
-			final Region region = matcher.getEagerRegion();
-			return new OnigResult(region, -1);
+			// The region of matcher is reused by its next search
+			final Region matcherRegion = matcher.getRegion();
+			final Region region = matcherRegion != null ? matcherRegion.clone() : matcher.getEagerRegion();
+			result = new OnigResult(region, -1);
 		}
-		return null;
+		synchronized (this) {
+			cachedMatcher = matcher;
+			cachedMatcherBytes = data;
+		}
+		return result;
 	}
 }
@@ -26,6 +26,20 @@ import org.eclipse.jdt.annotation.Nullable;
  */
 public final class OnigScanner {
 
+	private static volatile boolean prefilterEnabled = true;
+
+	/**
+	 * Set whether scanners skip patterns that can not match in the rest of the line, by the bytes
+	 * their matches can start with. Enabled by default. This does not change the results.
+	 */
+	public static void setPrefilterEnabled(final boolean enabled) {
+		prefilterEnabled = enabled;
+	}
+
+	public static boolean isPrefilterEnabled() {
+		return prefilterEnabled;
+	}
+
 	private final OnigSearcher searcher;
 
 	public OnigScanner(final Collection<String> regexps) {
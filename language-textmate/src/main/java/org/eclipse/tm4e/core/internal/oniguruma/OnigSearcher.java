@@ -17,8 +17,6 @@
 package org.eclipse.tm4e.core.internal.oniguruma;
 
 import java.util.Collection;
-import java.util.List;
-import java.util.stream.Collectors;
 
 import org.eclipse.jdt.annotation.Nullable;
 
@@ -28,22 +26,50 @@ import org.eclipse.jdt.annotation.Nullable;
  */
 final class OnigSearcher {
 
-	private final List<OnigRegExp> regExps;
+	private final OnigRegExp[] regExps;
+
+	/**
+	 * Start bytes of each pattern, {@code null} for patterns that can not be skipped
+	 */
+	private final @Nullable OnigStartBytes[] startBytes;
+
+	private final boolean hasStartBytes;
 
 	OnigSearcher(final Collection<String> regExps) {
-		this.regExps = regExps.stream().map(OnigRegExp::new).collect(Collectors.toList());
+		this.regExps = new OnigRegExp[regExps.size()];
+		this.startBytes = new OnigStartBytes[regExps.size()];
+		boolean hasStartBytes = false;
+		int index = 0;
+		for (final String regExp : regExps) {
+			this.regExps[index] = new OnigRegExp(regExp);
+			startBytes[index] = OnigStartBytes.of(regExp);
+			hasStartBytes |= startBytes[index] != null;
+			index++;
+		}
+		this.hasStartBytes = hasStartBytes;
 	}
 
 	@Nullable
 	OnigResult search(final OnigString source, final int charOffset) {
 		final int byteOffset = source.getByteIndexOfChar(charOffset);
+		final int[] firstByteIndexes = hasStartBytes && OnigScanner.isPrefilterEnabled()
+				? source.getFirstByteIndexes(byteOffset)
+				: null;
 
 		int bestLocation = 0;
 		OnigResult bestResult = null;
-		int index = 0;
 
-		for (final OnigRegExp regExp : regExps) {
-			final OnigResult result = regExp.search(source, byteOffset);
+		for (int index = 0; index < regExps.length; index++) {
+			final OnigStartBytes patternStartBytes = startBytes[index];
+			if (firstByteIndexes != null && patternStartBytes != null) {
+				// Skip the pattern if it can not match before the best location, as the earlier
+				// pattern wins when they match at the same location
+				final int possibleLocation = patternStartBytes.getFirstPossibleIndex(firstByteIndexes);
+				if (possibleLocation == Integer.MAX_VALUE || bestResult != null && possibleLocation >= bestLocation) {
+					continue;
+				}
+			}
+			final OnigResult result = regExps[index].search(source, byteOffset);
 			if (result != null && result.count() > 0) {
 				final int location = result.locationAt(0);
 
@@ -57,7 +83,6 @@ final class OnigSearcher {
 					break;
 				}
 			}
-			index++;
 		}
 		return bestResult;
 	}
@@ -0,0 +1,530 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Bytes that a match of a regular expression can start with, computed conservatively from the
+ * pattern source. Searchers use it to skip patterns that can not match in the rest of the line.
+ * <p>
+ * Patterns that can match empty text, or use constructs that are not understood here (options,
+ * back references, subexpression calls and so on), have no start bytes.
+ */
+final class OnigStartBytes {
+
+	/**
+	 * Index of non-ASCII bytes in the tables of {@link OnigString#getFirstByteIndexes(int)}
+	 */
+	static final int NON_ASCII = 128;
+
+	/**
+	 * Compute the start bytes of the given pattern
+	 *
+	 * @return {@code null} if the pattern may start with any byte or can not be analyzed
+	 */
+	@Nullable
+	static OnigStartBytes of(final String pattern) {
+		final var parser = new Parser(pattern);
+		final var result = parser.parseAlternation();
+		if (parser.failed || parser.pos != pattern.length() || result.nullable) {
+			return null;
+		}
+		int count = 0;
+		for (int i = 0; i < 128; i++) {
+			if (result.contains(i)) {
+				count++;
+			}
+		}
+		if (count == 128 && result.nonAscii) {
+			return null;
+		}
+		final var bytes = new int[count];
+		count = 0;
+		for (int i = 0; i < 128; i++) {
+			if (result.contains(i)) {
+				bytes[count++] = i;
+			}
+		}
+		return new OnigStartBytes(bytes, result.nonAscii);
+	}
+
+	private final int[] asciiBytes;
+	private final boolean nonAscii;
+
+	private OnigStartBytes(final int[] asciiBytes, final boolean nonAscii) {
+		this.asciiBytes = asciiBytes;
+		this.nonAscii = nonAscii;
+	}
+
+	/**
+	 * Get the first byte index where a match can start
+	 *
+	 * @param firstByteIndexes Table from {@link OnigString#getFirstByteIndexes(int)}
+	 * @return {@link Integer#MAX_VALUE} if no match is possible
+	 */
+	int getFirstPossibleIndex(final int[] firstByteIndexes) {
+		int index = nonAscii ? firstByteIndexes[NON_ASCII] : Integer.MAX_VALUE;
+		for (final int b : asciiBytes) {
+			index = Math.min(index, firstByteIndexes[b]);
+		}
+		return index;
+	}
+
+	/**
+	 * Start bytes of a part of pattern
+	 */
+	private static final class Result {
+
+		long low;
+		long high;
+		boolean nonAscii;
+		/**
+		 * Whether the part can match empty text
+		 */
+		boolean nullable;
+
+		Result(final boolean nullable) {
+			this.nullable = nullable;
+		}
+
+		boolean contains(final int ch) {
+			return ((ch < 64 ? low >>> ch : high >>> (ch - 64)) & 1) != 0;
+		}
+
+		void add(final int ch) {
+			if (ch >= 128) {
+				nonAscii = true;
+			} else if (ch < 64) {
+				low |= 1L << ch;
+			} else {
+				high |= 1L << (ch - 64);
+			}
+		}
+
+		void addRange(final int start, final int end) {
+			for (int ch = start; ch <= end && ch < 128; ch++) {
+				add(ch);
+			}
+			if (end >= 128) {
+				nonAscii = true;
+			}
+		}
+
+		void addAll() {
+			low = high = -1L;
+			nonAscii = true;
+		}
+
+		void addAll(final Result other) {
+			low |= other.low;
+			high |= other.high;
+			nonAscii |= other.nonAscii;
+		}
+	}
+
+	/**
+	 * Recursive descent parser for the Ruby syntax of Oniguruma. It only needs to find the
+	 * possible first characters, so most constructs are simply skipped or rejected.
+	 */
+	private static final class Parser {
+
+		private final String source;
+		int pos;
+		boolean failed;
+		/**
+		 * Character of the last escape sequence that stands for a single character
+		 */
+		private int lastEscapedChar;
+
+		Parser(final String source) {
+			this.source = source;
+		}
+
+		private boolean hasMore() {
+			return !failed && pos < source.length();
+		}
+
+		private Result fail() {
+			failed = true;
+			pos = source.length();
+			return new Result(true);
+		}
+
+		Result parseAlternation() {
+			final var result = parseSequence();
+			while (hasMore() && source.charAt(pos) == '|') {
+				pos++;
+				final var next = parseSequence();
+				result.addAll(next);
+				result.nullable |= next.nullable;
+			}
+			return result;
+		}
+
+		private Result parseSequence() {
+			final var result = new Result(true);
+			while (hasMore()) {
+				final char ch = source.charAt(pos);
+				if (ch == '|' || ch == ')') {
+					break;
+				}
+				final var atom = parseQuantified();
+				if (result.nullable) {
+					result.addAll(atom);
+					result.nullable = atom.nullable;
+				}
+			}
+			return result;
+		}
+
+		private Result parseQuantified() {
+			final var atom = parseAtom();
+			while (hasMore()) {
+				final char ch = source.charAt(pos);
+				if (ch == '*' || ch == '?') {
+					atom.nullable = true;
+					pos++;
+				} else if (ch == '+') {
+					pos++;
+				} else if (ch == '{') {
+					final int min = parseInterval();
+					if (min == -1) {
+						// Not an interval, '{' is a literal
+						break;
+					}
+					if (min == 0) {
+						atom.nullable = true;
+					}
+				} else {
+					break;
+				}
+			}
+			return atom;
+		}
+
+		/**
+		 * Parse interval like {n}, {n,}, {,m} and {n,m}
+		 *
+		 * @return The lower bound, or -1 if it is not an interval
+		 */
+		private int parseInterval() {
+			int i = pos + 1;
+			int min = 0;
+			boolean hasMin = false;
+			while (i < source.length() && Character.isDigit(source.charAt(i))) {
+				min = Math.min(min * 10 + (source.charAt(i) - '0'), 100000);
+				hasMin = true;
+				i++;
+			}
+			boolean hasMax = false;
+			if (i < source.length() && source.charAt(i) == ',') {
+				i++;
+				while (i < source.length() && Character.isDigit(source.charAt(i))) {
+					hasMax = true;
+					i++;
+				}
+			} else {
+				hasMax = hasMin;
+			}
+			if (i >= source.length() || source.charAt(i) != '}' || (!hasMin && !hasMax)) {
+				return -1;
+			}
+			pos = i + 1;
+			return min;
+		}
+
+		private Result parseAtom() {
+			final char ch = source.charAt(pos);
+			switch (ch) {
+				case '(':
+					return parseGroup();
+				case '[':
+					return parseClass();
+				case '\\':
+					return parseEscape(false);
+				case '^':
+				case '$':
+					pos++;
+					return new Result(true);
+				case '.': {
+					pos++;
+					final var result = new Result(false);
+					result.addAll();
+					return result;
+				}
+				case '*':
+				case '+':
+				case '?':
+					return fail();
+				default: {
+					final var result = new Result(false);
+					result.add(source.codePointAt(pos));
+					pos += Character.charCount(source.codePointAt(pos));
+					return result;
+				}
+			}
+		}
+
+		private Result parseGroup() {
+			pos++;
+			boolean zeroWidth = false;
+			if (pos < source.length() && source.charAt(pos) == '?') {
+				pos++;
+				if (pos >= source.length()) {
+					return fail();
+				}
+				final char type = source.charAt(pos);
+				if (type == ':' || type == '>') {
+					pos++;
+				} else if (type == '=' || type == '!') {
+					pos++;
+					zeroWidth = true;
+				} else if (type == '<' && pos + 1 < source.length()
+						&& (source.charAt(pos + 1) == '=' || source.charAt(pos + 1) == '!')) {
+					pos += 2;
+					zeroWidth = true;
+				} else if (type == '<' || type == '\'') {
+					final int end = source.indexOf(type == '<' ? '>' : '\'', pos + 1);
+					if (end == -1) {
+						return fail();
+					}
+					pos = end + 1;
+				} else if (type == '#') {
+					final int end = source.indexOf(')', pos);
+					if (end == -1) {
+						return fail();
+					}
+					pos = end + 1;
+					return new Result(true);
+				} else {
+					// Options, conditions, absent operators...
+					return fail();
+				}
+			}
+			final var inner = parseAlternation();
+			if (failed || pos >= source.length() || source.charAt(pos) != ')') {
+				return fail();
+			}
+			pos++;
+			return zeroWidth ? new Result(true) : inner;
+		}
+
+		private Result parseClass() {
+			pos++;
+			final var result = new Result(false);
+			boolean negative = false;
+			if (pos < source.length() && source.charAt(pos) == '^') {
+				negative = true;
+				pos++;
+			}
+			if (pos < source.length() && source.charAt(pos) == ']') {
+				return fail();
+			}
+			while (hasMore() && source.charAt(pos) != ']') {
+				final char ch = source.charAt(pos);
+				if (ch == '[' || (ch == '&' && pos + 1 < source.length() && source.charAt(pos + 1) == '&')) {
+					// Nested classes, POSIX brackets and intersections
+					return fail();
+				}
+				final int start;
+				if (ch == '\\') {
+					final char type = pos + 1 < source.length() ? source.charAt(pos + 1) : 0;
+					final var escaped = parseEscape(true);
+					if (failed) {
+						return escaped;
+					}
+					if (escaped.nullable) {
+						// Character types like \d and \w. Negative types and properties are taken
+						// as any character, so the complement of a class containing them is wrong
+						if (negative && "DHWSpP".indexOf(type) != -1) {
+							return fail();
+						}
+						result.addAll(escaped);
+						continue;
+					}
+					start = lastEscapedChar;
+				} else {
+					start = source.codePointAt(pos);
+					pos += Character.charCount(start);
+				}
+				if (pos + 1 < source.length() && source.charAt(pos) == '-' && source.charAt(pos + 1) != ']') {
+					pos++;
+					final int end;
+					if (source.charAt(pos) == '\\') {
+						final var escaped = parseEscape(true);
+						if (failed || escaped.nullable) {
+							return fail();
+						}
+						end = lastEscapedChar;
+					} else if (source.charAt(pos) == '[') {
+						return fail();
+					} else {
+						end = source.codePointAt(pos);
+						pos += Character.charCount(end);
+					}
+					if (end < start) {
+						return fail();
+					}
+					result.addRange(start, end);
+				} else {
+					result.add(start);
+				}
+			}
+			if (!hasMore()) {
+				return fail();
+			}
+			pos++;
+			if (negative) {
+				final var complement = new Result(false);
+				complement.low = ~result.low;
+				complement.high = ~result.high;
+				complement.nonAscii = true;
+				return complement;
+			}
+			return result;
+		}
+
+		/**
+		 * Parse an escape sequence. In character classes, character types like \d are returned
+		 * as nullable results, and single characters are stored in {@link #lastEscapedChar}.
+		 */
+		private Result parseEscape(final boolean inClass) {
+			if (pos + 1 >= source.length()) {
+				return fail();
+			}
+			final int ch = source.codePointAt(pos + 1);
+			pos += 1 + Character.charCount(ch);
+			final var result = new Result(inClass);
+			switch (ch) {
+				case 'd':
+					result.addRange('0', '9');
+					result.nonAscii = true;
+					return result;
+				case 'h':
+					result.addRange('0', '9');
+					result.addRange('a', 'f');
+					result.addRange('A', 'F');
+					result.nonAscii = true;
+					return result;
+				case 'w':
+					result.addRange('0', '9');
+					result.addRange('a', 'z');
+					result.addRange('A', 'Z');
+					result.add('_');
+					result.nonAscii = true;
+					return result;
+				case 's':
+					result.addRange('\t', '\r');
+					result.add(' ');
+					result.nonAscii = true;
+					return result;
+				case 'D':
+				case 'H':
+				case 'W':
+				case 'S':
+				case 'p':
+				case 'P':
+					if (ch == 'p' || ch == 'P') {
+						final int end = source.indexOf('}', pos);
+						if (pos >= source.length() || source.charAt(pos) != '{' || end == -1) {
+							return fail();
+						}
+						pos = end + 1;
+					}
+					result.addAll();
+					return result;
+				case 'A':
+				case 'z':
+				case 'Z':
+				case 'G':
+				case 'b':
+				case 'B':
+					if (inClass) {
+						if (ch != 'b') {
+							return fail();
+						}
+						return single(8);
+					}
+					// Anchors
+					return new Result(true);
+				case 't':
+					return single('\t');
+				case 'n':
+					return single('\n');
+				case 'r':
+					return single('\r');
+				case 'f':
+					return single('\f');
+				case 'v':
+					return single(0x0b);
+				case 'a':
+					return single(0x07);
+				case 'e':
+					return single(0x1b);
+				case 'x': {
+					int value = 0;
+					int digits = 0;
+					while (digits < 2 && pos < source.length() && Character.digit(source.charAt(pos), 16) != -1) {
+						value = value * 16 + Character.digit(source.charAt(pos), 16);
+						digits++;
+						pos++;
+					}
+					if (digits == 0) {
+						return fail();
+					}
+					return single(value);
+				}
+				case 'u': {
+					if (pos + 4 > source.length()) {
+						return fail();
+					}
+					int value = 0;
+					for (int i = 0; i < 4; i++) {
+						final int digit = Character.digit(source.charAt(pos + i), 16);
+						if (digit == -1) {
+							return fail();
+						}
+						value = value * 16 + digit;
+					}
+					pos += 4;
+					return single(value);
+				}
+				default:
+					if (ch < 128 && Character.isLetterOrDigit(ch)) {
+						// Back references, subexpression calls, octal values and other escapes
+						return fail();
+					}
+					return single(ch);
+			}
+		}
+
+		private Result single(final int ch) {
+			lastEscapedChar = ch;
+			final var result = new Result(false);
+			result.add(ch);
+			return result;
+		}
+	}
+}
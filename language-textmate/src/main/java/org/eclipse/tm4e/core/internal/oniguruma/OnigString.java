@@ -22,7 +22,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import org.eclipse.jdt.annotation.Nullable;
-import org.jcodings.specific.UTF8Encoding;
 
 /**
  * Oniguruma string.
@@ -34,80 +33,101 @@ import org.jcodings.specific.UTF8Encoding;
 public abstract class OnigString {
 
 	/**
-	 * Represents a string that contains multi-byte characters
+	 * Represents a string that contains multi-byte characters.
+	 * <p>
+	 * Char indexes are UTF-16 indexes of {@link #content}, so a surrogate pair takes two chars
+	 * while it is one character of four bytes for the regular expressions.
 	 */
 	static final class MultiByteString extends OnigString {
 
 		/**
-		 * For each byte holds the index of the char to which the byte belongs.
-		 * E.g. in case of <code>byteToCharOffsets[100] == 60 && byteToCharOffsets[101] == 60</code>,
+		 * For each char holds the index of its first byte, plus the byte count at the end.
+		 * The low surrogate of a pair has the same byte index as the high surrogate.
+		 */
+		private int @Nullable [] charToByteOffsets;
+
+		/**
+		 * For each byte holds the index of the char to which the byte belongs, plus the char count
+		 * at the end. E.g. in case of <code>byteToCharOffsets[100] == 60 && byteToCharOffsets[101] == 60</code>,
 		 * the bytes at indexes 100 and 101 both belong to the same multi-byte character at index 60.
 		 */
 		private int @Nullable [] byteToCharOffsets;
-		private final int lastCharIndex;
 
 		private MultiByteString(final String str, final byte[] bytesUTF8) {
 			super(str, bytesUTF8);
-			lastCharIndex = str.length() - 1;
 		}
 
 		@Override
 		int getByteIndexOfChar(final int charIndex) {
-			if (charIndex == lastCharIndex + 1) {
-				// One off can happen when finding the end of a regexp (it's the right boundary).
-				return lastCharIndex + 1;
-			}
-
-			if (charIndex < 0 || charIndex > lastCharIndex) {
-				throwOutOfBoundsException("Char", charIndex, 0, lastCharIndex);
+			if (charIndex < 0 || charIndex > content.length()) {
+				throwOutOfBoundsException("Char", charIndex, 0, content.length());
 			}
 			if (charIndex == 0) {
 				return 0;
 			}
-
-			final int[] byteToCharOffsets = getByteToCharOffsets();
-			int byteIndex = Arrays.binarySearch(byteToCharOffsets, charIndex);
-			while (byteIndex > 0 && byteToCharOffsets[byteIndex - 1] == charIndex) {
-				byteIndex--;
-			}
-			return byteIndex;
-		}
-
-		private int[] getByteToCharOffsets() {
-			int[] offsets = byteToCharOffsets;
+			var offsets = charToByteOffsets;
 			if (offsets == null) {
-				offsets = new int[bytesCount];
-				int charIndex = 0;
-				int byteIndex = 0;
-				final int maxByteIndex = bytesCount - 1;
-				while (byteIndex <= maxByteIndex) {
-					final int charLenInBytes = UTF8Encoding.INSTANCE.length(bytesUTF8, byteIndex, bytesCount);
-					// same as "Arrays.fill(offsets, byteIndex, byteIndex + charLenInBytes, charIndex)" but faster
-					for (final int l = byteIndex + charLenInBytes; byteIndex < l; byteIndex++) {
-						offsets[byteIndex] = charIndex;
-					}
-					charIndex++;
-				}
-				byteToCharOffsets = offsets;
+				computeOffsets();
+				offsets = charToByteOffsets;
 			}
-			return offsets;
+			return offsets[charIndex];
 		}
 
 		@Override
 		int getCharIndexOfByte(final int byteIndex) {
-			if (byteIndex == bytesCount) {
-				// One off can happen when finding the end of a regexp (it's the right boundary).
-				return lastCharIndex + 1;
-			}
-
-			if (byteIndex < 0 || byteIndex >= bytesCount) {
-				throwOutOfBoundsException("Byte", byteIndex, 0, bytesCount - 1);
+			if (byteIndex < 0 || byteIndex > bytesCount) {
+				throwOutOfBoundsException("Byte", byteIndex, 0, bytesCount);
 			}
 			if (byteIndex == 0) {
 				return 0;
 			}
+			var offsets = byteToCharOffsets;
+			if (offsets == null) {
+				computeOffsets();
+				offsets = byteToCharOffsets;
+			}
+			return offsets[byteIndex];
+		}
 
-			return getByteToCharOffsets()[byteIndex];
+		/**
+		 * Compute both offset tables in one pass over the chars, using the byte lengths that
+		 * {@link String#getBytes(java.nio.charset.Charset)} produces for them
+		 */
+		private void computeOffsets() {
+			final String str = content;
+			final int length = str.length();
+			final int[] charToByte = new int[length + 1];
+			final int[] byteToChar = new int[bytesCount + 1];
+			int byteIndex = 0;
+			for (int charIndex = 0; charIndex < length; charIndex++) {
+				final char ch = str.charAt(charIndex);
+				final int charLenInBytes;
+				charToByte[charIndex] = byteIndex;
+				if (ch < 0x80) {
+					charLenInBytes = 1;
+				} else if (ch < 0x800) {
+					charLenInBytes = 2;
+				} else if (Character.isHighSurrogate(ch) && charIndex + 1 < length
+						&& Character.isLowSurrogate(str.charAt(charIndex + 1))) {
+					charLenInBytes = 4;
+					charToByte[charIndex + 1] = byteIndex;
+				} else if (Character.isSurrogate(ch)) {
+					// Unpaired surrogates are replaced by '?'
+					charLenInBytes = 1;
+				} else {
+					charLenInBytes = 3;
+				}
+				for (final int l = byteIndex + charLenInBytes; byteIndex < l; byteIndex++) {
+					byteToChar[byteIndex] = charIndex;
+				}
+				if (charLenInBytes == 4) {
+					charIndex++;
+				}
+			}
+			charToByte[length] = byteIndex;
+			byteToChar[byteIndex] = length;
+			charToByteOffsets = charToByte;
+			byteToCharOffsets = byteToChar;
 		}
 	}
 
@@ -160,6 +180,19 @@ public abstract class OnigString {
 	public final int bytesCount;
 	final byte[] bytesUTF8;
 
+	private int @Nullable [] firstByteIndexes;
+	private int firstByteIndexesOffset = -1;
+
+	/**
+	 * First index of each byte kind in the whole string
+	 */
+	private int @Nullable [] lineFirstByteIndexes;
+
+	/**
+	 * For each byte holds the index of the next byte of the same kind, or {@link Integer#MAX_VALUE}
+	 */
+	private int @Nullable [] nextByteIndexes;
+
 	private OnigString(final String content, final byte[] bytesUTF8) {
 		this.content = content;
 		this.bytesUTF8 = bytesUTF8;
@@ -172,6 +205,52 @@ public abstract class OnigString {
 			indexName + " index " + index + " is out of range " + minIndex + ".." + maxIndex + " of " + this);
 	}
 
+	/**
+	 * Get the first index of each ASCII byte value at or after the given byte index. The first index
+	 * of any non-ASCII byte is stored at {@link OnigStartBytes#NON_ASCII}. Missing bytes have
+	 * {@link Integer#MAX_VALUE} as their indexes.
+	 * <p>
+	 * The returned table is reused by later calls, and an OnigString is not shared by threads when
+	 * tokenizing a line.
+	 * <p>
+	 * Search offsets in a line mostly increase, so the table is moved forward from the last offset
+	 * by following links to the next byte of the same kind, which are built once for the string.
+	 */
+	final int[] getFirstByteIndexes(final int byteOffset) {
+		int[] indexes = firstByteIndexes;
+		int[] next = nextByteIndexes;
+		int[] lineIndexes = lineFirstByteIndexes;
+		if (indexes == null || next == null || lineIndexes == null) {
+			lineIndexes = lineFirstByteIndexes = new int[OnigStartBytes.NON_ASCII + 1];
+			next = nextByteIndexes = new int[bytesCount];
+			Arrays.fill(lineIndexes, Integer.MAX_VALUE);
+			final byte[] bytes = bytesUTF8;
+			for (int i = bytesCount - 1; i >= 0; i--) {
+				final int b = bytes[i];
+				final int kind = b >= 0 ? b : OnigStartBytes.NON_ASCII;
+				next[i] = lineIndexes[kind];
+				lineIndexes[kind] = i;
+			}
+			indexes = firstByteIndexes = lineIndexes.clone();
+			firstByteIndexesOffset = 0;
+		}
+		if (firstByteIndexesOffset == byteOffset) {
+			return indexes;
+		}
+		if (byteOffset < firstByteIndexesOffset) {
+			System.arraycopy(lineIndexes, 0, indexes, 0, indexes.length);
+		}
+		for (int kind = 0; kind < indexes.length; kind++) {
+			int index = indexes[kind];
+			while (index < byteOffset) {
+				index = next[index];
+			}
+			indexes[kind] = index;
+		}
+		firstByteIndexesOffset = byteOffset;
+		return indexes;
+	}
+
 	abstract int getByteIndexOfChar(int charIndex);
 
 	abstract int getCharIndexOfByte(int byteIndex);
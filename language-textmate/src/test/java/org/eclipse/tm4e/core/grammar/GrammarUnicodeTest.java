@@ -0,0 +1,108 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.tm4e.core.registry.IGrammarSource;
+import org.eclipse.tm4e.core.registry.Registry;
+import org.junit.Test;
+
+/**
+ * Check token offsets of lines with non-ASCII characters and surrogate pairs. Offsets are UTF-16
+ * indexes of the line.
+ */
+public class GrammarUnicodeTest {
+
+	private static final String GRAMMAR = "{"
+		+ "\"scopeName\": \"source.test\","
+		+ "\"patterns\": ["
+		+ "  {\"match\": \"\\\"[^\\\"]*\\\"\", \"name\": \"string\"},"
+		+ "  {\"match\": \"(\\\\d+)(px)\", \"captures\": {\"1\": {\"name\": \"number\"}, \"2\": {\"name\": \"unit\"}}},"
+		+ "  {\"match\": \"[a-zà-ÿ]+\", \"name\": \"word\"},"
+		+ "  {\"match\": \"\\\\p{So}+\", \"name\": \"symbol\"}"
+		+ "]}";
+
+	private static IGrammar loadGrammar() {
+		return new Registry().addGrammar(IGrammarSource.fromString(IGrammarSource.ContentType.JSON, GRAMMAR));
+	}
+
+	/**
+	 * Describe tokens by their text and innermost scope
+	 */
+	private static List<String> describe(final String line, final IToken[] tokens) {
+		final var result = new ArrayList<String>();
+		for (final IToken token : tokens) {
+			final int end = Math.min(token.getEndIndex(), line.length());
+			if (token.getStartIndex() >= end) {
+				continue;
+			}
+			final List<String> scopes = token.getScopes();
+			result.add(line.substring(token.getStartIndex(), end) + ":" + scopes.get(scopes.size() - 1));
+		}
+		return result;
+	}
+
+	private static void assertTokens(final IGrammar grammar, final String line, final String... expected) {
+		final IToken[] tokens = grammar.tokenizeLine(line).getTokens();
+		assertEquals(List.of(expected), describe(line, tokens));
+		// Binary tokens merge tokens of the same metadata, so they start where tokens start
+		final int[] binaryTokens = grammar.tokenizeLine2(line).getTokens();
+		final var starts = new ArrayList<Integer>();
+		for (final IToken token : tokens) {
+			starts.add(token.getStartIndex());
+		}
+		for (int i = 0; i < binaryTokens.length; i += 2) {
+			assertTrue(line + ": " + binaryTokens[i], starts.contains(binaryTokens[i]));
+		}
+	}
+
+	@Test
+	public void testAsciiLine() {
+		assertTokens(loadGrammar(), "ab \"cd\" 12px",
+			"ab:word", " :source.test", "\"cd\":string", " :source.test", "12:number", "px:unit");
+	}
+
+	@Test
+	public void testNonAsciiLine() {
+		assertTokens(loadGrammar(), "café \"ü\" 3px ñ",
+			"café:word", " :source.test", "\"ü\":string", " :source.test", "3:number", "px:unit", " :source.test",
+			"ñ:word");
+	}
+
+	@Test
+	public void testSurrogatePairLine() {
+		final IGrammar grammar = loadGrammar();
+		assertTokens(grammar, "😀😀 ab \"é😀\" 12px",
+			"😀😀:symbol", " :source.test", "ab:word", " :source.test", "\"é😀\":string", " :source.test",
+			"12:number", "px:unit");
+		// Unpaired surrogates
+		assertTokens(grammar, "ab \uD83D cd \uDE00 ef",
+			"ab:word", " \uD83D :source.test", "cd:word", " \uDE00 :source.test", "ef:word");
+	}
+}
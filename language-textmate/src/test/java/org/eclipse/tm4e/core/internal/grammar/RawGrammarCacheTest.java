@@ -0,0 +1,213 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.eclipse.tm4e.core.registry.IGrammarSource;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that cached grammars are read back as parsed, and that broken entries are never used.
+ */
+public class RawGrammarCacheTest {
+
+    private static final String PLIST_GRAMMAR = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<plist version=\"1.0\"><dict>\n"
+            + "<key>scopeName</key><string>source.plist-test</string>\n"
+            + "<key>version</key><integer>42</integer>\n"
+            + "<key>weight</key><real>0.75</real>\n"
+            + "<key>created</key><date>2007-10-25T12:36:35Z</date>\n"
+            + "<key>experimental</key><true/>\n"
+            + "<key>deprecated</key><false/>\n"
+            + "<key>patterns</key><array>\n"
+            + "  <dict><key>match</key><string>\\d+</string><key>name</key><string>constant.numeric</string></dict>\n"
+            + "  <dict><key>include</key><string>#strings</string></dict>\n"
+            + "</array>\n"
+            + "<key>repository</key><dict><key>strings</key><dict>\n"
+            + "  <key>begin</key><string>\"</string><key>end</key><string>\"</string>\n"
+            + "  <key>beginCaptures</key><dict><key>0</key><dict><key>name</key><string>punctuation</string></dict></dict>\n"
+            + "</dict></dict>\n"
+            + "</dict></plist>";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        RawGrammarCache.setDirectory(null);
+    }
+
+    private static RawGrammar parse(final IGrammarSource source) throws Exception {
+        RawGrammarCache.setDirectory(null);
+        return (RawGrammar) GrammarReader.readGrammar(source);
+    }
+
+    private static String keyOf(final IGrammarSource source) throws IOException {
+        try (var reader = source.getReader()) {
+            final var builder = new StringBuilder();
+            final var buffer = new char[8192];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, count);
+            }
+            return RawGrammarCache.computeKey(source.getContentType(), builder.toString());
+        }
+    }
+
+    private static List<File> bundledGrammars() throws Exception {
+        final var url = RawGrammarCacheTest.class.getClassLoader().getResource("textmate");
+        assertNotNull("bundled grammars are not on the test classpath", url);
+        try (var paths = Files.walk(new File(url.toURI()).toPath())) {
+            return paths.map(java.nio.file.Path::toFile)
+                    .filter(file -> file.isFile() && file.getParentFile().getName().equals("syntaxes"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private List<String> listCacheFiles(final File directory) {
+        final var names = directory.list();
+        return names == null ? List.of() : List.of(names);
+    }
+
+    @Test
+    public void testBundledGrammarsRoundTrip() throws Exception {
+        final var directory = folder.newFolder();
+        final var grammars = bundledGrammars();
+        assertFalse(grammars.isEmpty());
+        for (final var file : grammars) {
+            final var source = IGrammarSource.fromFile(file);
+            final var parsed = parse(source);
+            final var key = keyOf(source);
+            RawGrammarCache.write(directory, key, parsed);
+            assertEquals(file.getName(), parsed, RawGrammarCache.read(directory, key));
+
+            // Read through the grammar reader, from the cache filled above
+            RawGrammarCache.setDirectory(directory);
+            assertEquals(file.getName(), parsed, GrammarReader.readGrammar(source));
+        }
+        assertEquals(grammars.size(), listCacheFiles(directory).size());
+    }
+
+    @Test
+    public void testPListValuesRoundTrip() throws Exception {
+        final var directory = folder.newFolder();
+        final var source = IGrammarSource.fromString(IGrammarSource.ContentType.XML, PLIST_GRAMMAR);
+        final var parsed = parse(source);
+        assertEquals(42, parsed.get("version"));
+        assertEquals(0.75f, parsed.get("weight"));
+        assertEquals(ZonedDateTime.parse("2007-10-25T12:36:35Z"), parsed.get("created"));
+        assertEquals(Boolean.TRUE, parsed.get("experimental"));
+        assertEquals(Boolean.FALSE, parsed.get("deprecated"));
+
+        final var key = keyOf(source);
+        RawGrammarCache.write(directory, key, parsed);
+        final var cached = RawGrammarCache.read(directory, key);
+        assertEquals(parsed, cached);
+        assertTrue(cached.get("version") instanceof Integer);
+        assertTrue(cached.get("weight") instanceof Float);
+        assertTrue(cached.get("created") instanceof ZonedDateTime);
+        assertTrue(cached.get("repository") instanceof RawRepository);
+        assertTrue(((List<?>) cached.get("patterns")).get(0) instanceof RawRule);
+    }
+
+    @Test
+    public void testBrokenEntriesAreDeletedAndParsedAgain() throws Exception {
+        final var directory = folder.newFolder();
+        final var source = IGrammarSource.fromString(IGrammarSource.ContentType.XML, PLIST_GRAMMAR);
+        final var parsed = parse(source);
+        final var key = keyOf(source);
+        final var file = new File(directory, key + ".tmgc");
+        RawGrammarCache.setDirectory(directory);
+        GrammarReader.readGrammar(source);
+        assertTrue(file.isFile());
+        final byte[] valid = Files.readAllBytes(file.toPath());
+
+        final var broken = new ArrayList<byte[]>();
+        // Empty and truncated entries
+        broken.add(new byte[0]);
+        for (final int length : new int[]{7, 12, valid.length / 2, valid.length - 1}) {
+            final var bytes = new byte[length];
+            System.arraycopy(valid, 0, bytes, 0, length);
+            broken.add(bytes);
+        }
+        // Flipped bits in the header, the string table, the values and the checksum
+        for (final int index : new int[]{0, 5, 20, valid.length / 2, valid.length - 10, valid.length - 1}) {
+            final var bytes = valid.clone();
+            bytes[index] ^= 0x10;
+            broken.add(bytes);
+        }
+        // Trailing garbage
+        final var longer = new byte[valid.length + 3];
+        System.arraycopy(valid, 0, longer, 0, valid.length);
+        broken.add(longer);
+
+        for (int i = 0; i < broken.size(); i++) {
+            Files.write(file.toPath(), broken.get(i));
+            assertNull("entry " + i, RawGrammarCache.read(directory, key));
+            assertFalse("entry " + i, file.exists());
+
+            Files.write(file.toPath(), broken.get(i));
+            assertEquals("entry " + i, parsed, GrammarReader.readGrammar(source));
+            // A valid entry is written again
+            assertTrue("entry " + i, file.isFile());
+            assertEquals("entry " + i, parsed, RawGrammarCache.read(directory, key));
+        }
+    }
+
+    @Test
+    public void testUnsupportedValuesAreSkipped() throws Exception {
+        final var directory = folder.newFolder();
+        final var grammar = parse(IGrammarSource.fromString(IGrammarSource.ContentType.XML, PLIST_GRAMMAR));
+        // Maps of other classes are rejected by the writer
+        final Map<String, Object> unknown = new HashMap<>();
+        unknown.put("name", "unknown");
+        grammar.put("unknown", unknown);
+        RawGrammarCache.write(directory, "unknown", grammar);
+        assertEquals(List.of(), listCacheFiles(directory));
+        assertNull(RawGrammarCache.read(directory, "unknown"));
+
+        // Later entries are written as usual
+        final var json = "{\"scopeName\": \"source.test\", \"patterns\": [{\"match\": \"a\", \"name\": \"a\"}]}";
+        RawGrammarCache.write(directory, "valid", parse(IGrammarSource.fromString(IGrammarSource.ContentType.JSON, json)));
+        assertEquals(List.of("valid.tmgc"), listCacheFiles(directory));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tm4e.core.grammar.IStateStack;
+import org.eclipse.tm4e.core.grammar.IToken;
+import org.eclipse.tm4e.core.registry.IGrammarSource;
+import org.eclipse.tm4e.core.registry.Registry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that equal line states are shared across documents, and that interning does not change tokens.
+ */
+public class StackInternerTest {
+
+    /**
+     * Heredoc strings end with a back-reference, so their end rules differ by the captured text
+     */
+    private static final String HEREDOC_GRAMMAR = "{"
+            + "\"scopeName\": \"source.heredoc\","
+            + "\"patterns\": ["
+            + "  {\"begin\": \"<<(\\\\w+)$\", \"end\": \"^\\\\1$\", \"name\": \"string.heredoc\", \"contentName\": \"meta.content\"},"
+            + "  {\"begin\": \"\\\\(\", \"end\": \"\\\\)\", \"name\": \"meta.paren\", \"patterns\": [{\"include\": \"$self\"}]},"
+            + "  {\"begin\": \"#\", \"end\": \"$\", \"name\": \"comment.line\"},"
+            + "  {\"match\": \"\\\\d+\", \"name\": \"constant.numeric\"}"
+            + "]}";
+
+    private static final List<String> HEREDOC_LINES = List.of(
+            "x = <<EOF",
+            "(1 2",
+            "EOF",
+            "f(1, (2 # (",
+            "  <<END",
+            "EOF",
+            "END",
+            "  3), <<EOF",
+            "EOF",
+            ")",
+            "<<END",
+            "EOF",
+            "END");
+
+    @Before
+    public void setUp() {
+        TokenizeLineCache.setMemoryLimit(0);
+        TokenizeLineCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        TokenizeLineCache.setMemoryLimit(0);
+        TokenizeLineCache.clear();
+    }
+
+    private static Grammar loadJavaGrammar() throws Exception {
+        final var url = StackInternerTest.class.getClassLoader().getResource("textmate/java/syntaxes/java.tmLanguage.json");
+        return (Grammar) new Registry().addGrammar(IGrammarSource.fromFile(new File(url.toURI())));
+    }
+
+    private static Grammar loadHeredocGrammar() {
+        return (Grammar) new Registry().addGrammar(IGrammarSource.fromString(IGrammarSource.ContentType.JSON, HEREDOC_GRAMMAR));
+    }
+
+    private static List<String> readSample() throws Exception {
+        final var url = StackInternerTest.class.getClassLoader().getResource("samples/sample.txt");
+        return Files.readAllLines(new File(url.toURI()).toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tokenize lines one by one, and get end states of the lines
+     */
+    private static List<IStateStack> endStates(final Grammar grammar, final List<String> lines) {
+        final var states = new ArrayList<IStateStack>();
+        @Nullable IStateStack state = null;
+        for (final String line : lines) {
+            state = grammar.tokenizeLine2(line, state, null).getRuleStack();
+            states.add(state);
+        }
+        return states;
+    }
+
+    private static void assertSameStates(final Grammar grammar, final List<String> lines) {
+        final var first = endStates(grammar, lines);
+        final var second = endStates(grammar, lines);
+        for (int i = 0; i < lines.size(); i++) {
+            assertSame("line " + i, first.get(i), second.get(i));
+        }
+    }
+
+    @Test
+    public void testSameLinesShareStates() throws Exception {
+        assertSameStates(loadJavaGrammar(), readSample());
+        assertSameStates(loadHeredocGrammar(), HEREDOC_LINES);
+    }
+
+    @Test
+    public void testEqualStatesShareReference() throws Exception {
+        final var grammar = loadJavaGrammar();
+        // Different text, but both lines end in a block comment of a class body
+        final var first = endStates(grammar, List.of("class A {", "  /* first"));
+        final var second = endStates(grammar, List.of("final class B {", "  int x = 1; /* second"));
+        assertSame(first.get(0), second.get(0));
+        assertSame(first.get(1), second.get(1));
+        assertNotSame(first.get(0), first.get(1));
+
+        // Heredocs with different delimiters are different states
+        final var heredoc = loadHeredocGrammar();
+        final var eof = endStates(heredoc, List.of("<<EOF")).get(0);
+        assertSame(eof, endStates(heredoc, List.of("a <<EOF")).get(0));
+        assertNotSame(eof, endStates(heredoc, List.of("<<END")).get(0));
+        assertEquals(eof, endStates(heredoc, List.of("<<EOF")).get(0));
+    }
+
+    private static void assertSameTokens(final List<String> lines, final Grammar interned, final Grammar plain) {
+        plain.setInternStates(false);
+        @Nullable IStateStack internedState = null;
+        @Nullable IStateStack plainState = null;
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i);
+            final var internedResult = interned.tokenizeLine2(line, internedState, null);
+            final var plainResult = plain.tokenizeLine2(line, plainState, null);
+            assertArrayEquals("line " + i, plainResult.getTokens(), internedResult.getTokens());
+            final IToken[] internedTokens = interned.tokenizeLine(line, internedState, null).getTokens();
+            final IToken[] plainTokens = plain.tokenizeLine(line, plainState, null).getTokens();
+            assertEquals("line " + i, plainTokens.length, internedTokens.length);
+            for (int j = 0; j < plainTokens.length; j++) {
+                assertEquals("line " + i, plainTokens[j].getStartIndex(), internedTokens[j].getStartIndex());
+                assertEquals("line " + i, plainTokens[j].getScopes(), internedTokens[j].getScopes());
+            }
+            internedState = internedResult.getRuleStack();
+            plainState = plainResult.getRuleStack();
+            assertEquals("line " + i, plainState, internedState);
+        }
+    }
+
+    @Test
+    public void testTokensUnchanged() throws Exception {
+        final var sample = readSample();
+        assertSameTokens(sample, loadJavaGrammar(), loadJavaGrammar());
+        assertSameTokens(HEREDOC_LINES, loadHeredocGrammar(), loadHeredocGrammar());
+        // Lines tokenized after another document has been tokenized with the same grammar
+        final var grammar = loadJavaGrammar();
+        endStates(grammar, sample.subList(sample.size() / 2, sample.size()));
+        assertSameTokens(sample, grammar, loadJavaGrammar());
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.tm4e.core.grammar.IGrammar;
+import org.eclipse.tm4e.core.internal.theme.IRawTheme;
+import org.eclipse.tm4e.core.internal.theme.Theme;
+import org.eclipse.tm4e.core.internal.theme.ThemeReader;
+import org.eclipse.tm4e.core.registry.IGrammarSource;
+import org.eclipse.tm4e.core.registry.IThemeSource;
+import org.eclipse.tm4e.core.registry.Registry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check hits, exclusions and trimming of the shared line tokenization cache
+ */
+public class TokenizeLineCacheTest {
+
+    private static final String GRAMMAR = "{"
+            + "\"scopeName\": \"source.test\","
+            + "\"patterns\": ["
+            + "  {\"match\": \"\\\\d+\", \"name\": \"constant.numeric\"},"
+            + "  {\"match\": \"[a-z]+\", \"name\": \"keyword\"}"
+            + "]}";
+
+    private static final String THEME_RED = "{\"name\": \"red\", \"settings\": ["
+            + "{\"settings\": {\"foreground\": \"#000000\", \"background\": \"#ffffff\"}},"
+            + "{\"scope\": \"keyword\", \"settings\": {\"foreground\": \"#ff0000\"}}]}";
+
+    private static final String THEME_BLUE = "{\"name\": \"blue\", \"settings\": ["
+            + "{\"settings\": {\"foreground\": \"#000000\", \"background\": \"#ffffff\"}},"
+            + "{\"scope\": \"keyword\", \"settings\": {\"foreground\": \"#0000ff\", \"fontStyle\": \"bold\"}}]}";
+
+    private static final long LIMIT = 1024 * 1024;
+
+    @Before
+    public void setUp() {
+        TokenizeLineCache.clear();
+        TokenizeLineCache.setMemoryLimit(LIMIT);
+    }
+
+    @After
+    public void tearDown() {
+        TokenizeLineCache.setMemoryLimit(0);
+        TokenizeLineCache.clear();
+    }
+
+    private static Registry createRegistry() {
+        final var registry = new Registry();
+        registry.setTheme(IThemeSource.fromString(IThemeSource.ContentType.JSON, THEME_RED));
+        return registry;
+    }
+
+    private static IGrammar addGrammar(final Registry registry) {
+        return registry.addGrammar(IGrammarSource.fromString(IGrammarSource.ContentType.JSON, GRAMMAR));
+    }
+
+    private static IRawTheme readTheme(final String json) {
+        try {
+            return ThemeReader.readTheme(
+                    IThemeSource.fromString(IThemeSource.ContentType.JSON, json));
+        } catch (final Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void testHitsAcrossGrammarsAndThemes() {
+        final var registry1 = createRegistry();
+        final var grammar1 = addGrammar(registry1);
+        final var grammar2 = addGrammar(createRegistry());
+        final String line = "abc 123 def";
+
+        final var result1 = grammar1.tokenizeLine2(line);
+        assertSame(result1, grammar1.tokenizeLine2(line));
+        // Start states are interned, so following lines hit as well
+        final var next1 = grammar1.tokenizeLine2(line, result1.getRuleStack(), null);
+        assertSame(next1, grammar1.tokenizeLine2(line, grammar1.tokenizeLine2(line).getRuleStack(), null));
+
+        // Grammars never share entries, even if they are loaded from the same source
+        final var result2 = grammar2.tokenizeLine2(line);
+        assertNotSame(result1, result2);
+        assertArrayEquals(result1.getTokens(), result2.getTokens());
+        assertSame(result2, grammar2.tokenizeLine2(line));
+        assertSame(result1, grammar1.tokenizeLine2(line));
+
+        // Themes never share entries
+        final Theme red = Theme.createFromRawTheme(readTheme(THEME_RED), null);
+        final Theme blue = Theme.createFromRawTheme(readTheme(THEME_BLUE), null);
+        registry1.setTheme(red);
+        final var redResult = grammar1.tokenizeLine2(line);
+        registry1.setTheme(blue);
+        final var blueResult = grammar1.tokenizeLine2(line);
+        assertNotSame(redResult, blueResult);
+        assertFalse(Arrays.equals(redResult.getTokens(), blueResult.getTokens()));
+        assertSame(blueResult, grammar1.tokenizeLine2(line));
+        registry1.setTheme(red);
+        assertSame(redResult, grammar1.tokenizeLine2(line));
+        // The other grammar is not affected by the theme of this registry
+        assertSame(result2, grammar2.tokenizeLine2(line));
+    }
+
+    @Test
+    public void testStoppedEarlyResultsAreNotCached() {
+        // Large enough for the long line
+        TokenizeLineCache.setMemoryLimit(64 * LIMIT);
+        final var grammar = addGrammar(createRegistry());
+        final String line = "abc 123 ".repeat(100000);
+        final var stopped = grammar.tokenizeLine2(line, null, Duration.ofMillis(1));
+        assertTrue(stopped.isStoppedEarly());
+        assertEquals(0, TokenizeLineCache.getMemoryUsage());
+
+        final var complete = grammar.tokenizeLine2(line, null, null);
+        assertFalse(complete.isStoppedEarly());
+        assertNotSame(stopped, complete);
+        assertTrue(TokenizeLineCache.getMemoryUsage() > 0);
+        assertSame(complete, grammar.tokenizeLine2(line, null, Duration.ofMillis(1)));
+
+        final String shortLine = "abc 123";
+        final var shortStopped = grammar.tokenizeLine2(shortLine, null, Duration.ofMillis(1));
+        assertFalse(shortStopped.isStoppedEarly());
+        assertSame(shortStopped, grammar.tokenizeLine2(shortLine, null, null));
+    }
+
+    @Test
+    public void testTrimmingOnMemoryLimit() {
+        final var grammar = addGrammar(createRegistry());
+        final int lines = 1000;
+        final List<Object> results = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            results.add(grammar.tokenizeLine2("line " + i));
+        }
+        final long usage = TokenizeLineCache.getMemoryUsage();
+        assertTrue(usage > 0 && usage <= LIMIT);
+        assertSame(results.get(0), grammar.tokenizeLine2("line 0"));
+
+        // Least recently used entries are removed first
+        TokenizeLineCache.setMemoryLimit(usage / 2);
+        assertTrue(TokenizeLineCache.getMemoryUsage() <= usage / 2);
+        assertSame(results.get(0), grammar.tokenizeLine2("line 0"));
+        assertSame(results.get(lines - 1), grammar.tokenizeLine2("line " + (lines - 1)));
+        assertNotSame(results.get(1), grammar.tokenizeLine2("line 1"));
+
+        // New entries are still bounded
+        for (int i = lines; i < lines * 2; i++) {
+            grammar.tokenizeLine2("line " + i);
+            assertTrue(TokenizeLineCache.getMemoryUsage() <= usage / 2);
+        }
+
+        TokenizeLineCache.setMemoryLimit(0);
+        assertEquals(0, TokenizeLineCache.getMemoryUsage());
+        assertFalse(TokenizeLineCache.isEnabled());
+        assertNotSame(results.get(0), grammar.tokenizeLine2("line 0"));
+    }
+
+    @Test
+    public void testEntriesOfCollectedGrammarsAreRemoved() throws Exception {
+        var registry = createRegistry();
+        var grammar = addGrammar(registry);
+        for (int i = 0; i < 100; i++) {
+            grammar.tokenizeLine2("line " + i);
+        }
+        assertTrue(TokenizeLineCache.getMemoryUsage() > 0);
+        final var grammarRef = new WeakReference<>(grammar);
+        registry = null;
+        grammar = null;
+        for (int i = 0; i < 100 && grammarRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("grammar is still reachable", grammarRef.get());
+        for (int i = 0; i < 100 && TokenizeLineCache.getMemoryUsage() != 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, TokenizeLineCache.getMemoryUsage());
+    }
+}
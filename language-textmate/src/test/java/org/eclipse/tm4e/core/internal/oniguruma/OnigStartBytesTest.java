@@ -0,0 +1,143 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Check that the start-byte prefilter never skips a match that plain joni finds
+ */
+public class OnigStartBytesTest {
+
+	private static final List<String> PATTERNS = List.of(
+		// Negated classes
+		"[^\\S\\n]+", "[^\\W\\d]\\w*", "[^\\p{L}]", "[^\\P{L}x]", "[^\\D]", "[^\\H]", "[^\\s]+",
+		"[^\\d]", "[^\\w]", "[^a-z]+", "[^\\x00-\\x7f]", "[^é]", "[^\\]]",
+		// Other classes
+		"[\\S]", "[\\p{Lu}_]", "[\\w-]+", "[\\x41-\\x5a]", "[à-ü]", "[\\b]", "[\\t ]", "[.\\-]",
+		// Character types and escapes
+		"\\S+", "\\W", "\\h+", "\\H", "\\p{N}", "\\u00e9t", "é", "👍", "\\t\\n", "\\.", "\\{", "{",
+		// Anchors and zero-width groups
+		"\\bfoo", "\\Gabc", "^\\s*#", "$", "\\Bo", "(?<=a)b", "(?<!a)b", "(?=x)xy", "(?!a)\\w",
+		// Quantifiers, groups and alternations
+		"a*b", "a?b|c", "x{0,2}y", "x{2}y", "a{,3}b", "a{1,}b", "(?:ab)+c", "(?<name>q)r", "(?>a|b)c",
+		"(?#comment)z", "a|", "(a|)b", "(?i)abc", "(a)\\1", "\\Kx");
+
+	private static final List<String> SUBJECTS = List.of(
+		"",
+		"foo bar_1 \t baz\n",
+		"\tα β γ 123 ABC",
+		"x xy yy ab abc ABC aab xxy",
+		"é étoile ü café",
+		"👍 emoji 😀x",
+		"  # define\tMAX 10",
+		"a{b}c ]] [x] \\b\b",
+		"ÀÉÎ Ⅻ ٣ foo_bar",
+		"qr q r (a)a ba cb");
+
+	/**
+	 * First match location of the pattern at or after the byte offset, by plain joni
+	 */
+	private static int search(final OnigRegExp regExp, final OnigString str, final int byteOffset) {
+		final OnigResult result = regExp.search(str, byteOffset);
+		return result == null ? Integer.MAX_VALUE : result.locationAt(0);
+	}
+
+	@Test
+	public void testNoMatchIsSkipped() {
+		for (final String pattern : PATTERNS) {
+			final OnigStartBytes startBytes = OnigStartBytes.of(pattern);
+			if (startBytes == null) {
+				continue;
+			}
+			final var regExp = new OnigRegExp(pattern);
+			for (final String subject : SUBJECTS) {
+				final OnigString str = OnigString.of(subject);
+				// Searches start at char boundaries
+				for (int charOffset = 0; charOffset <= subject.length(); charOffset++) {
+					final int offset = str.getByteIndexOfChar(charOffset);
+					final int location = search(regExp, str, offset);
+					final int possible = startBytes.getFirstPossibleIndex(str.getFirstByteIndexes(offset));
+					assertTrue("pattern " + pattern + " matches \"" + subject + "\" at " + location
+							+ " from " + offset + ", but the prefilter skips to " + possible,
+						possible <= location);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNegativeTypesInNegatedClasses() {
+		for (final String pattern : List.of("[^\\S\\n]", "[^\\W\\d]", "[^\\p{L}]", "[^\\P{L}]", "[^\\D]", "[^\\H]")) {
+			assertNull(pattern, OnigStartBytes.of(pattern));
+		}
+	}
+
+	@Test
+	public void testScannerResults() {
+		final var scanner = new OnigScanner(PATTERNS);
+		try {
+			for (final String subject : SUBJECTS) {
+				final OnigString str = OnigString.of(subject);
+				for (int offset = 0; offset <= subject.length(); offset++) {
+					OnigScanner.setPrefilterEnabled(false);
+					final OnigNextMatchResult expected = scanner.findNextMatchSync(str, offset);
+					OnigScanner.setPrefilterEnabled(true);
+					final OnigNextMatchResult actual = scanner.findNextMatchSync(str, offset);
+					assertEquals(String.valueOf(expected), String.valueOf(actual));
+				}
+			}
+		} finally {
+			OnigScanner.setPrefilterEnabled(true);
+		}
+	}
+
+	@Test
+	public void testFirstByteIndexes() {
+		final var random = new Random(0);
+		for (final String subject : SUBJECTS) {
+			final OnigString str = OnigString.of(subject);
+			// Forward, backward and repeated offsets
+			for (int round = 0; round < 200; round++) {
+				final int offset = random.nextInt(str.bytesCount + 1);
+				final int[] expected = new int[OnigStartBytes.NON_ASCII + 1];
+				Arrays.fill(expected, Integer.MAX_VALUE);
+				for (int i = str.bytesCount - 1; i >= offset; i--) {
+					final int b = str.bytesUTF8[i];
+					expected[b >= 0 ? b : OnigStartBytes.NON_ASCII] = i;
+				}
+				assertArrayEquals(subject + " from " + offset, expected, str.getFirstByteIndexes(offset));
+			}
+		}
+	}
+}
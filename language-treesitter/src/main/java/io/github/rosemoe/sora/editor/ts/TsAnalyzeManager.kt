@@ -34,6 +34,7 @@ import com.itsaky.androidide.treesitter.TSTree
 import com.itsaky.androidide.treesitter.string.UTF16String
 import com.itsaky.androidide.treesitter.string.UTF16StringFactory
 import io.github.rosemoe.sora.data.ObjectAllocator
+import io.github.rosemoe.sora.lang.analysis.AnalysisScheduler
 import io.github.rosemoe.sora.lang.analysis.AnalyzeManager
 import io.github.rosemoe.sora.lang.analysis.StyleReceiver
 import io.github.rosemoe.sora.lang.styling.CodeBlock
@@ -41,7 +42,6 @@ import io.github.rosemoe.sora.lang.styling.Styles
 import io.github.rosemoe.sora.text.CharPosition
 import io.github.rosemoe.sora.text.ContentReference
 import java.util.Collections
-import java.util.concurrent.LinkedBlockingQueue
 
 open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme) :
     AnalyzeManager {
@@ -49,9 +49,17 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
     var currentReceiver: StyleReceiver? = null
     var reference: ContentReference? = null
     var extraArguments: Bundle? = null
-    var thread: TsLooperThread? = null
+    var task: TsLooperTask? = null
     var styles = Styles()
 
+    /**
+     * Whether the analysis is stopped when the editor is invisible. If enabled, the copy of text and
+     * the syntax tree are released, and the text is parsed again when the editor becomes visible.
+     */
+    var releaseWhenInvisible = false
+    private var visible = true
+    private var released = false
+
     fun updateTheme(theme: TsTheme) {
         this.theme = theme
         (styles.spans as LineSpansGenerator?)?.let {
@@ -70,7 +78,7 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
     }
 
     override fun insert(start: CharPosition, end: CharPosition, insertedContent: CharSequence) {
-        thread?.offerMessage(
+        task?.offerMessage(
             MSG_MOD,
             TextModification(
                 start.index,
@@ -102,7 +110,7 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
     }
 
     override fun delete(start: CharPosition, end: CharPosition, deletedContent: CharSequence) {
-        thread?.offerMessage(
+        task?.offerMessage(
             MSG_MOD,
             TextModification(
                 start.index,
@@ -134,30 +142,48 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
     }
 
     override fun rerun() {
-        thread?.let {
-            if (it.isAlive) {
-                it.interrupt()
-                it.abort = true
-            }
-        }
+        task?.abort()
+        task = null
         (styles.spans as LineSpansGenerator?)?.tree?.close()
         styles.spans = null
+        if (!visible && releaseWhenInvisible) {
+            // Parse when the editor becomes visible
+            released = true
+            return
+        }
+        released = false
         val initText = reference?.reference?.toString() ?: ""
-        thread = TsLooperThread().also {
+        task = TsLooperTask().also {
             it.name = "TsDaemon-${nextThreadId()}"
+            it.isForeground = visible
             styles = Styles()
             it.offerMessage(MSG_INIT, initText)
-            it.start()
         }
     }
 
-    override fun destroy() {
-        thread?.let {
-            if (it.isAlive) {
-                it.interrupt()
-                it.abort = true
+    override fun onEditorVisibilityChanged(visible: Boolean) {
+        this.visible = visible
+        if (visible) {
+            if (released && reference != null) {
+                rerun()
+            } else {
+                task?.isForeground = true
+            }
+        } else if (task != null) {
+            if (releaseWhenInvisible) {
+                task?.abort()
+                task = null
+                released = true
+            } else {
+                task?.isForeground = false
             }
         }
+    }
+
+    override fun destroy() {
+        task?.abort()
+        task = null
+        released = false
         (styles.spans as LineSpansGenerator?)?.tree?.close()
     }
 
@@ -173,33 +199,17 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
         fun nextThreadId() = ++threadId
     }
 
-    inner class TsLooperThread : Thread() {
+    inner class TsLooperTask : AnalysisScheduler.Task(AnalysisScheduler.getDefault()) {
 
-        private val messageQueue = LinkedBlockingQueue<Message>()
-
-        @Volatile
-        var abort: Boolean = false
         val localText: UTF16String = UTF16StringFactory.newString()
         private val parser = TSParser().also {
             it.language = languageSpec.language
         }
         var tree: TSTree? = null
 
-        fun offerMessage(what: Int, obj: Any?) {
-            val msg = Message.obtain()
-            msg.what = what
-            msg.obj = obj
-            offerMessage(msg)
-        }
-
-        fun offerMessage(msg: Message) {
-            // Result ignored: capacity is enough as it is INT_MAX
-            messageQueue.offer(msg)
-        }
-
         fun updateStyles() {
             val scopedVariables = TsScopedVariables(tree!!, localText, languageSpec)
-            if (thread == this && messageQueue.isEmpty()) {
+            if (task == this && peekMessage() == null) {
                 val oldTree = (styles.spans as LineSpansGenerator?)?.tree
                 val copied = tree!!.copy()
                 styles.spans = LineSpansGenerator(
@@ -273,34 +283,19 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
             styles.blocks = distinct
         }
 
-        override fun run() {
-            try {
-                while (!abort && !isInterrupted) {
-                    val msg = messageQueue.take()
-                    if (!handleMessage(msg)) {
-                        break
-                    }
-                    msg.recycle()
-                }
-            } catch (e: InterruptedException) {
-                // ignored
-            }
-            releaseThreadResources()
-        }
-
-        fun handleMessage(msg: Message): Boolean {
+        override fun handleMessage(msg: Message): Boolean {
             try {
                 when (msg.what) {
                     MSG_INIT -> {
                         localText.append(msg.obj!! as String)
-                        if (!abort && !isInterrupted) {
+                        if (!isAborted) {
                             tree = parser.parseString(localText)
                             updateStyles()
                         }
                     }
 
                     MSG_MOD -> {
-                        if (!abort && !isInterrupted) {
+                        if (!isAborted) {
                             val modification = msg.obj!! as TextModification
                             val newText = modification.changedText
                             val t = tree!!
@@ -324,14 +319,14 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
             } catch (e: Exception) {
                 Log.w(
                     "TsAnalyzeManager",
-                    "Thread $name exited with an error",
+                    "Task $name exited with an error",
                     e
                 )
             }
             return false
         }
 
-        fun releaseThreadResources() {
+        override fun releaseResources() {
             parser.close()
             tree?.close()
             localText.close()